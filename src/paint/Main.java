@@ -54,8 +54,10 @@ public class Main extends Application {
         Scene scene = new Scene(root, WIDTH, HEIGHT);
         scene.addEventHandler(KeyEvent.KEY_PRESSED, event -> {
             // Check to see if ctrl-c is pressed
-            if(event.isControlDown() && event.getCode() == KeyCode.C)
+            if(event.isControlDown() && event.getCode() == KeyCode.C) {
                 mainController.getCanvasManager().setCtrl_c_pressed(true);
+                mainController.getCanvasManager().copy();
+            }
         });
         stage.setTitle("Paint - CS250");
         stage.setScene(scene);
@@ -64,9 +66,23 @@ public class Main extends Application {
         // Note: This is NOT triggered by stage.close().
         // To trigger this event manually, use Stage#fireEvent()
         stage.setOnCloseRequest((event) -> {
+            SaveChoice choice = null;
             if(mainController.getCanvasManager().isChangeMadeNotSaved()) {
-                if(mainController.getCanvasManager().showSavePopup() == SaveChoice.CANCEL)
+                choice = mainController.getCanvasManager().showSavePopup();
+                if(choice == SaveChoice.CANCEL) {
                     event.consume();
+                    return;
+                }
+            }
+            // Saving happens in the background, so let it finish before closing
+            boolean saved = mainController.getCanvasManager().waitForSaves();
+            // The journal is only thrown away if the image is safely saved, or the user chose not to save it
+            if(saved || choice == SaveChoice.NO) {
+                mainController.getCanvasManager().discardAutoSave();
+            }
+            else {
+                System.out.println("The image wasn't saved, keeping the auto-save to recover next time");
+                mainController.getCanvasManager().keepAutoSave();
             }
         });
         mainStage = stage;
@@ -0,0 +1,345 @@
+package paint.batch;
+
+import paint.raster.Raster;
+import paint.util.ImageFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs operations over many image files without opening a window, for scripts like
+ * {@code java paint.batch.BatchRunner --op invert --op resize=1920x1080:lanczos in/ out/}.
+ * This class is its own entry point, separate from {@link paint.Main}: a class extending the JavaFX Application
+ * starts the JavaFX toolkit before its main method runs, which fails on a machine with no display.
+ * Each file goes through three stages: it's decoded, the operations are run on it and it's encoded again. Every stage
+ * has its own pool of threads, so while one image is being encoded the next ones are already being decoded and
+ * transformed, and all cores stay busy even though decoding and encoding a single file mostly run on one thread.
+ * Only a limited number of images are between stages at once, which bounds the memory used.
+ * @author Colin Braun
+ */
+public class BatchRunner {
+    /**
+     * Printed when the arguments aren't understood
+     */
+    private static final String USAGE = "Usage: java paint.batch.BatchRunner [--op OPERATION]... [--format EXTENSION] [--threads COUNT] INPUT... OUTPUT_DIRECTORY\n"
+            + "Operations: invert, resize=WIDTHxHEIGHT[:nearest|bilinear|bicubic|lanczos], blur=RADIUS, sharpen=RADIUS, edges, emboss\n"
+            + "Inputs can be image files or directories, which are searched for images along with their subdirectories.";
+    /**
+     * The operations run on each image, in order
+     */
+    private final List<Operation> operations;
+    /**
+     * The format images are written in, like "png", or null to keep each file's format
+     */
+    private final String format;
+    /**
+     * The number of threads in each stage
+     */
+    private final int threads;
+
+    /**
+     * A file to process and where to write the result
+     */
+    private static class Job {
+        /**
+         * The file to read
+         */
+        private final File input;
+        /**
+         * The file to write
+         */
+        private final File output;
+
+        /**
+         * Default Constructor
+         * @param input the file to read
+         * @param output the file to write
+         */
+        private Job(File input, File output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Construct a runner
+     * @param operations the operations run on each image, in order
+     * @param format the format images are written in, like "png", or null to keep each file's format
+     * @param threads the number of threads in each stage
+     */
+    public BatchRunner(List<Operation> operations, String format, int threads) {
+        this.operations = operations;
+        this.format = format;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Run a batch job from the command line and exit with its exit code
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args));
+    }
+
+    /**
+     * Run a batch job from command line arguments, printing what happens
+     * @param args the command line arguments
+     * @return the exit code: 0 if every image was processed, 1 if some failed, 2 if the arguments are wrong
+     */
+    public static int run(String[] args) {
+        List<Operation> operations = new ArrayList<>();
+        List<File> paths = new ArrayList<>();
+        String format = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for(int i = 0; i < args.length; i++) {
+                switch(args[i]) {
+                    case "--op":
+                        operations.add(Operation.parse(getValue(args, ++i)));
+                        break;
+                    case "--format":
+                        format = getValue(args, ++i).toLowerCase();
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(getValue(args, ++i));
+                        break;
+                    default:
+                        if(args[i].startsWith("--"))
+                            throw new IllegalArgumentException("Unknown option: " + args[i]);
+                        paths.add(new File(args[i]));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            return 2;
+        }
+        if(paths.size() < 2) {
+            System.out.println(USAGE);
+            return 2;
+        }
+        File output = paths.remove(paths.size() - 1);
+        BatchRunner runner = new BatchRunner(operations, format, threads);
+        List<Job> jobs;
+        try {
+            jobs = runner.findJobs(paths, output);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 2;
+        }
+        if(jobs.isEmpty()) {
+            System.out.println("No images found");
+            return 0;
+        }
+        return runner.process(jobs) == 0 ? 0 : 1;
+    }
+
+    /**
+     * Get the value following an option
+     * @param args the arguments
+     * @param index the index of the value
+     * @return the value
+     * @throws IllegalArgumentException if there's no value
+     */
+    private static String getValue(String[] args, int index) {
+        if(index >= args.length)
+            throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        return args[index];
+    }
+
+    /**
+     * Work out which files to process and where each one is written. Files in a directory keep their path
+     * relative to it inside the output directory.
+     * @param inputs the image files and directories to process
+     * @param output the output directory
+     * @return the jobs, in order
+     * @throws IOException if a directory can't be searched
+     */
+    private List<Job> findJobs(List<File> inputs, File output) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        for(File input : inputs) {
+            if(input.isDirectory()) {
+                Path root = input.toPath();
+                List<Path> files;
+                try(Stream<Path> walk = Files.walk(root)) {
+                    files = walk.filter(Files::isRegularFile).filter(path -> ImageFiles.canRead(path.toFile())).sorted().collect(Collectors.toList());
+                }
+                for(Path path : files)
+                    jobs.add(new Job(path.toFile(), getOutputFile(new File(output, root.relativize(path).toString()))));
+            }
+            else if(input.isFile()) {
+                jobs.add(new Job(input, getOutputFile(new File(output, input.getName()))));
+            }
+            else {
+                System.out.println("Skipping " + input + ", it doesn't exist");
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Get the file to write, changing the extension if a format was chosen
+     * @param file the output file with the input's name
+     * @return the file to write
+     */
+    private File getOutputFile(File file) {
+        if(format == null)
+            return file;
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(file.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + "." + format);
+    }
+
+    /**
+     * Process every job, printing any that fail and how fast it went
+     * @param jobs the jobs to process
+     * @return the number of jobs that failed
+     */
+    private int process(List<Job> jobs) {
+        ExecutorService decoders = makePool("Batch decoder");
+        ExecutorService transformers = makePool("Batch transformer");
+        ExecutorService encoders = makePool("Batch encoder");
+        // Enough images in flight to keep every stage busy, but no more, so memory stays bounded
+        int maxInFlight = 2 * threads;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong decodeTime = new AtomicLong(), transformTime = new AtomicLong(), encodeTime = new AtomicLong();
+        long start = System.nanoTime();
+        try {
+            for(Job job : jobs) {
+                inFlight.acquireUninterruptibly();
+                CompletableFuture.supplyAsync(() -> timed(decodeTime, () -> decode(job)), decoders)
+                        .thenApplyAsync(raster -> timed(transformTime, () -> transform(raster)), transformers)
+                        .thenAcceptAsync(raster -> timed(encodeTime, () -> encode(raster, job)), encoders)
+                        .whenComplete((result, e) -> {
+                            if(e != null) {
+                                failed.incrementAndGet();
+                                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                                System.out.println("Failed " + job.input + ": " + cause);
+                            }
+                            inFlight.release();
+                        });
+            }
+            inFlight.acquireUninterruptibly(maxInFlight);
+        } finally {
+            decoders.shutdown();
+            transformers.shutdown();
+            encoders.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int count = jobs.size();
+        System.out.printf("Processed %d images in %.2f s (%.2f images/s), %d failed%n", count - failed.get(), seconds,
+                (count - failed.get()) / seconds, failed.get());
+        System.out.printf("Average per image: decode %.1f ms, transform %.1f ms, encode %.1f ms%n", decodeTime.get() / 1e6 / count,
+                transformTime.get() / 1e6 / count, encodeTime.get() / 1e6 / count);
+        return failed.get();
+    }
+
+    /**
+     * Read an image file. Runs in the decode stage.
+     * @param job the job
+     * @return the image
+     */
+    private Raster decode(Job job) {
+        try {
+            return ImageFiles.read(job.input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Run the operations on an image. Runs in the transform stage.
+     * @param raster the image
+     * @return the result
+     */
+    private Raster transform(Raster raster) {
+        Raster result = raster;
+        try {
+            for(Operation operation : operations)
+                result = operation.apply(result);
+            return result;
+        } catch (RuntimeException e) {
+            result.dispose();
+            throw e;
+        }
+    }
+
+    /**
+     * Write an image file and dispose of the image. Runs in the encode stage.
+     * @param raster the image
+     * @param job the job
+     * @return null
+     */
+    private Void encode(Raster raster, Job job) {
+        try {
+            File parent = job.output.getAbsoluteFile().getParentFile();
+            if(!parent.isDirectory() && !parent.mkdirs())
+                throw new IOException("Could not make " + parent);
+            String extension = format != null ? format : getExtension(job.output);
+            if(!ImageFiles.write(raster, extension, job.output))
+                throw new IOException("No writer for format " + extension);
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            raster.dispose();
+        }
+    }
+
+    /**
+     * Run a task and add the time it took to a total
+     * @param total the total time in nanoseconds
+     * @param task the task
+     * @param <T> the type of the task's result
+     * @return the task's result
+     */
+    private static <T> T timed(AtomicLong total, Supplier<T> task) {
+        long start = System.nanoTime();
+        try {
+            return task.get();
+        } finally {
+            total.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Make the thread pool of one stage
+     * @param name the name of its threads
+     * @return the pool
+     */
+    private ExecutorService makePool(String name) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get a file's extension
+     * @param file the file
+     * @return the extension in lower case, or an empty string if it has none
+     */
+    private static String getExtension(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(dot + 1).toLowerCase() : "";
+    }
+}
@@ -0,0 +1,127 @@
+package paint.batch;
+
+import paint.constant.ResampleMode;
+import paint.filter.Convolution;
+import paint.filter.Filter;
+import paint.filter.GaussianBlur;
+import paint.filter.PixelOperation;
+import paint.filter.Resampler;
+import paint.filter.SobelEdgeDetect;
+import paint.filter.UnsharpMask;
+import paint.raster.Raster;
+
+/**
+ * One step of a batch job, run on a whole image. These are the same operations the Image menu and the resize window
+ * run on the canvas, working on a {@link Raster} so no window is needed.
+ * @author Colin Braun
+ */
+@FunctionalInterface
+public interface Operation {
+    /**
+     * The largest number of pixels a filter is run on, since filters work on one array holding the whole image
+     */
+    long MAX_FILTER_PIXELS = 1L << 26;
+
+    /**
+     * Run the operation on an image
+     * @param raster the image, which may be changed or disposed
+     * @return the result, which is either the same raster or a new one
+     */
+    Raster apply(Raster raster);
+
+    /**
+     * Parse an operation given on the command line. The operations are:
+     * invert, resize=WIDTHxHEIGHT[:nearest|bilinear|bicubic|lanczos], blur=RADIUS, sharpen=RADIUS, edges and emboss.
+     * @param text the operation, like "resize=1920x1080:lanczos"
+     * @return the operation
+     * @throws IllegalArgumentException if the operation isn't understood
+     */
+    static Operation parse(String text) {
+        int equals = text.indexOf('=');
+        String name = equals < 0 ? text : text.substring(0, equals);
+        String value = equals < 0 ? "" : text.substring(equals + 1);
+        try {
+            switch(name.toLowerCase()) {
+                case "invert":
+                    return raster -> {
+                        raster.map(0, 0, raster.getWidth(), raster.getHeight(), PixelOperation.INVERT::apply);
+                        return raster;
+                    };
+                case "resize":
+                    return parseResize(value);
+                case "blur":
+                    return filter(new GaussianBlur(Double.parseDouble(value)));
+                case "sharpen":
+                    return filter(new UnsharpMask(Double.parseDouble(value), 1.0));
+                case "edges":
+                    return filter(new SobelEdgeDetect());
+                case "emboss":
+                    return filter(Convolution.emboss());
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + name);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad value for " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Parse a resize, like "1920x1080:lanczos". The resample mode defaults to bicubic.
+     * @param value the part after "resize="
+     * @return the operation
+     * @throws IllegalArgumentException if the size or mode isn't understood
+     */
+    static Operation parseResize(String value) {
+        String[] parts = value.split(":");
+        String[] size = parts[0].toLowerCase().split("x");
+        if(size.length != 2)
+            throw new IllegalArgumentException("Resize needs a size like 1920x1080: " + value);
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        if(width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Resize needs a positive size: " + value);
+        ResampleMode mode = ResampleMode.BICUBIC;
+        if(parts.length > 1) {
+            switch(parts[1].toLowerCase()) {
+                case "nearest":
+                    mode = ResampleMode.NEAREST;
+                    break;
+                case "bilinear":
+                    mode = ResampleMode.BILINEAR;
+                    break;
+                case "bicubic":
+                    mode = ResampleMode.BICUBIC;
+                    break;
+                case "lanczos":
+                case "lanczos3":
+                    mode = ResampleMode.LANCZOS3;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown resample mode: " + parts[1]);
+            }
+        }
+        ResampleMode resampleMode = mode;
+        return raster -> {
+            Raster resized = Raster.create(width, height);
+            Resampler.resample(raster, resized, resampleMode);
+            raster.dispose();
+            return resized;
+        };
+    }
+
+    /**
+     * Make an operation that runs a filter over the whole image
+     * @param filter the filter
+     * @return the operation
+     */
+    static Operation filter(Filter filter) {
+        return raster -> {
+            if((long)raster.getWidth() * raster.getHeight() > MAX_FILTER_PIXELS)
+                throw new IllegalArgumentException("Image is too large to filter: " + raster.getWidth() + "x" + raster.getHeight());
+            int[] pixels = raster.readAll();
+            filter.apply(pixels, raster.getWidth(), raster.getHeight());
+            raster.writeAll(pixels);
+            return raster;
+        };
+    }
+}
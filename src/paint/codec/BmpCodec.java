@@ -0,0 +1,237 @@
+package paint.codec;
+
+import paint.raster.PixelSource;
+import paint.raster.Raster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Reads and writes uncompressed BMP files by mapping them into memory, so rows are copied straight between the file
+ * and the raster without going through a BufferedImage, and large files save and open about as fast as the disk allows.
+ * The file is mapped in windows of whole rows, since a single mapping is limited to 2 GB. Rows in a BMP file are
+ * usually stored from the bottom up and padded to a multiple of 4 bytes.
+ * Only 24 bit and 32 bit files without a palette or compression are handled here; other BMP files are left to ImageIO.
+ * Files are written as 24 bit, so alpha is left out like with ImageIO.
+ * @author Colin Braun
+ */
+public class BmpCodec {
+    /**
+     * The extension of BMP files
+     */
+    public static final String EXTENSION = "bmp";
+    /**
+     * The size of the file header, which comes before the info header
+     */
+    private static final int FILE_HEADER_SIZE = 14;
+    /**
+     * The size of the BITMAPINFOHEADER written to files, the smallest info header that is read
+     */
+    private static final int INFO_HEADER_SIZE = 40;
+    /**
+     * The number of header bytes read, enough for the bit masks of the largest info header
+     */
+    private static final int HEADER_READ_SIZE = FILE_HEADER_SIZE + 124;
+    /**
+     * The compression value of files without compression
+     */
+    private static final int BI_RGB = 0;
+    /**
+     * The compression value of files whose pixels are described by bit masks
+     */
+    private static final int BI_BITFIELDS = 3;
+    /**
+     * The compression value of files whose pixels are described by bit masks, including one for alpha
+     */
+    private static final int BI_ALPHABITFIELDS = 6;
+    /**
+     * The largest number of bytes mapped at once
+     */
+    private static final long WINDOW_BYTES = 1L << 26;
+    /**
+     * The largest file size a BMP header can hold
+     */
+    private static final long MAX_FILE_SIZE = 0xFFFFFFFFL;
+    /**
+     * The number of rows between progress reports
+     */
+    private static final int PROGRESS_ROWS = 256;
+
+    /**
+     * Check if a file is a BMP file, going by its extension
+     * @param file the file
+     * @return true if the file ends in ".bmp"
+     */
+    public static boolean isBmp(File file) {
+        return file.getName().toLowerCase().endsWith("." + EXTENSION);
+    }
+
+    /**
+     * Read a BMP file into a new raster
+     * @param file the file to read
+     * @return the raster holding the image, or null if the file uses a palette, compression or bit masks this
+     * doesn't handle, so it should be read some other way
+     * @throws IOException if the file can't be read or isn't a BMP file
+     */
+    public static Raster read(File file) throws IOException {
+        try(RandomAccessFile access = new RandomAccessFile(file, "r"); FileChannel channel = access.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_READ_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while(header.hasRemaining() && channel.read(header) >= 0);
+            if(header.position() < FILE_HEADER_SIZE + INFO_HEADER_SIZE || header.get(0) != 'B' || header.get(1) != 'M')
+                throw new IOException("Not a BMP file: " + file);
+            long dataOffset = header.getInt(10) & 0xFFFFFFFFL;
+            int infoSize = header.getInt(14);
+            int width = header.getInt(18);
+            int storedHeight = header.getInt(22);
+            int bitCount = header.getShort(28);
+            int compression = header.getInt(30);
+            if(infoSize < INFO_HEADER_SIZE || width <= 0 || storedHeight == 0 || storedHeight == Integer.MIN_VALUE)
+                throw new IOException("Bad BMP header in " + file);
+            boolean alpha = false;
+            if(bitCount == 32 && (compression == BI_BITFIELDS || compression == BI_ALPHABITFIELDS)) {
+                // Only the usual layout, where each pixel is a little-endian ARGB int, is handled here
+                boolean alphaMask = infoSize >= 56 || compression == BI_ALPHABITFIELDS;
+                if(header.getInt(54) != 0x00FF0000 || header.getInt(58) != 0x0000FF00 || header.getInt(62) != 0x000000FF)
+                    return null;
+                int mask = alphaMask ? header.getInt(66) : 0;
+                if(mask != 0 && mask != 0xFF000000)
+                    return null;
+                alpha = mask != 0;
+            }
+            else if(compression != BI_RGB || (bitCount != 24 && bitCount != 32)) {
+                return null;
+            }
+            // A negative height means the rows are stored from the top down
+            boolean topDown = storedHeight < 0;
+            int height = Math.abs(storedHeight);
+            long stride = getStride(width, bitCount);
+            if(stride > WINDOW_BYTES)
+                return null;
+            if(dataOffset + stride * height > channel.size())
+                throw new IOException("BMP file is cut short: " + file);
+            Raster raster = Raster.create(width, height);
+            try {
+                decode(channel, raster, dataOffset, stride, bitCount, alpha, topDown);
+            } catch (IOException | RuntimeException e) {
+                raster.dispose();
+                throw e;
+            }
+            return raster;
+        }
+    }
+
+    /**
+     * Write a raster to a 24 bit BMP file, replacing anything already in it. Rows are stored from the bottom up,
+     * which is what every reader understands.
+     * @param raster the raster to write
+     * @param file the file to write to
+     * @param progress given the fraction of the image written so far, from 0 to 1. May be null.
+     * @throws IOException if the file can't be written, or the image is too large for a BMP file
+     */
+    public static void write(PixelSource raster, File file, DoubleConsumer progress) throws IOException {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        long stride = getStride(width, 24);
+        long dataOffset = FILE_HEADER_SIZE + INFO_HEADER_SIZE;
+        long fileSize = dataOffset + stride * height;
+        if(fileSize > MAX_FILE_SIZE || stride > WINDOW_BYTES)
+            throw new IOException("Image is too large for a BMP file: " + width + "x" + height);
+        try(RandomAccessFile access = new RandomAccessFile(file, "rw"); FileChannel channel = access.getChannel()) {
+            access.setLength(fileSize);
+            ByteBuffer header = ByteBuffer.allocate((int)dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+            header.put((byte)'B').put((byte)'M').putInt((int)fileSize).putInt(0).putInt((int)dataOffset);
+            header.putInt(INFO_HEADER_SIZE).putInt(width).putInt(height).putShort((short)1).putShort((short)24)
+                    .putInt(BI_RGB).putInt((int)(stride * height))
+                    // 72 DPI, no palette
+                    .putInt(2835).putInt(2835).putInt(0).putInt(0);
+            header.flip();
+            while(header.hasRemaining())
+                channel.write(header, header.position());
+            int windowRows = (int)Math.max(1, Math.min(height, WINDOW_BYTES / stride));
+            int[] row = new int[width];
+            byte[] bytes = new byte[(int)stride];
+            for(int y = 0; y < height; y += windowRows) {
+                int rows = Math.min(windowRows, height - y);
+                // Image rows y to y + rows - 1 are file rows height - y - rows to height - y - 1, in reverse
+                long start = dataOffset + stride * (height - y - rows);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, start, stride * rows);
+                for(int i = 0; i < rows; i++) {
+                    raster.getPixels(0, y + i, width, 1, row, 0, width);
+                    int b = 0;
+                    for(int x = 0; x < width; x++) {
+                        int pixel = row[x];
+                        bytes[b++] = (byte)pixel;
+                        bytes[b++] = (byte)(pixel >> 8);
+                        bytes[b++] = (byte)(pixel >> 16);
+                    }
+                    window.position((int)(stride * (rows - 1 - i)));
+                    window.put(bytes);
+                    if(progress != null && (y + i + 1) % PROGRESS_ROWS == 0)
+                        progress.accept((double)(y + i + 1) / height);
+                }
+            }
+        }
+        if(progress != null)
+            progress.accept(1);
+    }
+
+    /**
+     * Copy the rows of a BMP file into a raster, a mapped window of rows at a time
+     * @param channel the file
+     * @param raster the raster, the same size as the image
+     * @param dataOffset where the rows start in the file
+     * @param stride the number of bytes in each row, including padding
+     * @param bitCount the number of bits per pixel, 24 or 32
+     * @param alpha whether or not 32 bit pixels have alpha. If not, the fourth byte is ignored.
+     * @param topDown whether the first row in the file is the top of the image, instead of the bottom
+     * @throws IOException if the file can't be mapped
+     */
+    private static void decode(FileChannel channel, Raster raster, long dataOffset, long stride, int bitCount,
+                               boolean alpha, boolean topDown) throws IOException {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int windowRows = (int)Math.max(1, Math.min(height, WINDOW_BYTES / stride));
+        int[] row = new int[width];
+        byte[] bytes = new byte[width * 3];
+        int opaque = alpha ? 0 : 0xFF000000;
+        for(int fileRow = 0; fileRow < height; fileRow += windowRows) {
+            int rows = Math.min(windowRows, height - fileRow);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + stride * fileRow, stride * rows);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            for(int i = 0; i < rows; i++) {
+                window.position((int)(stride * i));
+                if(bitCount == 32) {
+                    // Each pixel is already a little-endian ARGB int
+                    window.asIntBuffer().get(row);
+                    if(opaque != 0) {
+                        for(int x = 0; x < width; x++)
+                            row[x] |= opaque;
+                    }
+                }
+                else {
+                    window.get(bytes);
+                    for(int x = 0, b = 0; x < width; x++, b += 3)
+                        row[x] = 0xFF000000 | (bytes[b + 2] & 0xFF) << 16 | (bytes[b + 1] & 0xFF) << 8 | (bytes[b] & 0xFF);
+                }
+                int y = topDown ? fileRow + i : height - 1 - fileRow - i;
+                raster.setPixels(0, y, width, 1, row, 0, width);
+            }
+        }
+    }
+
+    /**
+     * Get the number of bytes in each row of a BMP file, which is padded to a multiple of 4
+     * @param width the width of the image
+     * @param bitCount the number of bits per pixel
+     * @return the number of bytes in each row
+     */
+    private static long getStride(int width, int bitCount) {
+        return ((long)width * bitCount + 31) / 32 * 4;
+    }
+}
@@ -0,0 +1,99 @@
+package paint.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a stream through a buffer, a byte at a time or in runs, for decoders that parse files byte by byte.
+ * Unlike BufferedInputStream nothing is synchronized, so reading single bytes costs about as much as an array access.
+ * @author Colin Braun
+ */
+class ByteInput implements AutoCloseable {
+    /**
+     * The size of the buffer
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * The stream being read
+     */
+    private final InputStream input;
+    /**
+     * Bytes read from the stream that haven't been used yet
+     */
+    private final byte[] buffer;
+    /**
+     * The index of the next byte to use in the buffer
+     */
+    private int position;
+    /**
+     * The number of bytes in the buffer
+     */
+    private int limit;
+
+    /**
+     * Construct a reader
+     * @param input the stream to read
+     */
+    ByteInput(InputStream input) {
+        this.input = input;
+        buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Read a byte
+     * @return the byte, from 0 to 255
+     * @throws IOException if the stream can't be read or has ended
+     */
+    int read() throws IOException {
+        if(position == limit)
+            fill();
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Read an int stored as 4 big-endian bytes
+     * @return the int
+     * @throws IOException if the stream can't be read or has ended
+     */
+    int readInt() throws IOException {
+        return read() << 24 | read() << 16 | read() << 8 | read();
+    }
+
+    /**
+     * Read bytes into an array, failing if the stream ends first
+     * @param bytes where to put the bytes
+     * @param offset the index in the array of the first byte
+     * @param length the number of bytes to read
+     * @throws IOException if the stream can't be read or has ended
+     */
+    void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while(length > 0) {
+            if(position == limit)
+                fill();
+            int count = Math.min(length, limit - position);
+            System.arraycopy(buffer, position, bytes, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Refill the buffer from the stream
+     * @throws IOException if the stream can't be read or has ended
+     */
+    private void fill() throws IOException {
+        limit = input.read(buffer);
+        position = 0;
+        if(limit <= 0) {
+            limit = 0;
+            throw new EOFException("File is cut short");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,265 @@
+package paint.codec;
+
+import paint.raster.PixelSource;
+import paint.raster.Raster;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Reads and writes the uncompressed Netpbm formats: PAM, which keeps alpha, and PPM, which doesn't. Both are a short
+ * text header followed by the raw samples, so saving and opening them is about as fast as the disk allows.
+ * Rows are converted straight between the raster and the file. Grayscale (PGM) files and samples of more than
+ * 8 bits can be read too, but files are always written with 8 bit color samples.
+ * See http://netpbm.sourceforge.net/doc/pam.html and http://netpbm.sourceforge.net/doc/ppm.html for the formats.
+ * @author Colin Braun
+ */
+public class NetpbmCodec {
+    /**
+     * The extension of PAM files, which hold color and alpha
+     */
+    public static final String PAM_EXTENSION = "pam";
+    /**
+     * The extension of PPM files, which hold color only
+     */
+    public static final String PPM_EXTENSION = "ppm";
+    /**
+     * The extensions of the other files that can be read
+     */
+    private static final String[] READ_EXTENSIONS = {"pgm", "pnm"};
+    /**
+     * The number of rows between progress reports
+     */
+    private static final int PROGRESS_ROWS = 256;
+
+    /**
+     * Check if a file is a Netpbm file, going by its extension
+     * @param file the file
+     * @return true if the file can be read by this codec
+     */
+    public static boolean isNetpbm(File file) {
+        String name = file.getName().toLowerCase();
+        if(name.endsWith("." + PAM_EXTENSION) || name.endsWith("." + PPM_EXTENSION))
+            return true;
+        for(String extension : READ_EXTENSIONS) {
+            if(name.endsWith("." + extension))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check if a format can be written by this codec
+     * @param format the name of the format, like "pam"
+     * @return true if it's PAM or PPM
+     */
+    public static boolean canWrite(String format) {
+        return format.equalsIgnoreCase(PAM_EXTENSION) || format.equalsIgnoreCase(PPM_EXTENSION);
+    }
+
+    /**
+     * Read a PAM, PPM or PGM file into a new raster. Only the binary (P5, P6 and P7) forms are supported.
+     * @param file the file to read
+     * @return the raster holding the image
+     * @throws IOException if the file can't be read or isn't a supported Netpbm file
+     */
+    public static Raster read(File file) throws IOException {
+        try(ByteInput input = new ByteInput(new FileInputStream(file))) {
+            if(input.read() != 'P')
+                throw new IOException("Not a Netpbm file: " + file);
+            int type = input.read();
+            int width, height, depth, maxValue;
+            if(type == '7') {
+                int[] header = readPamHeader(input, file);
+                width = header[0];
+                height = header[1];
+                depth = header[2];
+                maxValue = header[3];
+            }
+            else if(type == '5' || type == '6') {
+                width = readNumber(input);
+                height = readNumber(input);
+                maxValue = readNumber(input);
+                depth = type == '5' ? 1 : 3;
+            }
+            else {
+                throw new IOException("Unsupported Netpbm type P" + (char)type + " in " + file);
+            }
+            if(width <= 0 || height <= 0 || depth < 1 || depth > 4 || maxValue < 1 || maxValue > 65535)
+                throw new IOException("Bad Netpbm header in " + file);
+            Raster raster = Raster.create(width, height);
+            try {
+                decode(input, raster, depth, maxValue);
+            } catch (IOException | RuntimeException e) {
+                raster.dispose();
+                throw e;
+            }
+            return raster;
+        }
+    }
+
+    /**
+     * Write a raster to a PAM or PPM file, replacing anything already in it. PPM files leave out alpha.
+     * @param raster the raster to write
+     * @param format "pam" or "ppm"
+     * @param file the file to write to
+     * @param progress given the fraction of the image written so far, from 0 to 1. May be null.
+     * @throws IOException if the file can't be written
+     */
+    public static void write(PixelSource raster, String format, File file, DoubleConsumer progress) throws IOException {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        boolean alpha = format.equalsIgnoreCase(PAM_EXTENSION);
+        String header = alpha
+                ? "P7\nWIDTH " + width + "\nHEIGHT " + height + "\nDEPTH 4\nMAXVAL 255\nTUPLTYPE RGB_ALPHA\nENDHDR\n"
+                : "P6\n" + width + " " + height + "\n255\n";
+        int depth = alpha ? 4 : 3;
+        try(OutputStream output = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            output.write(header.getBytes(StandardCharsets.US_ASCII));
+            int[] row = new int[width];
+            byte[] bytes = new byte[width * depth];
+            for(int y = 0; y < height; y++) {
+                raster.getPixels(0, y, width, 1, row, 0, width);
+                int i = 0;
+                for(int x = 0; x < width; x++) {
+                    int pixel = row[x];
+                    bytes[i++] = (byte)(pixel >> 16);
+                    bytes[i++] = (byte)(pixel >> 8);
+                    bytes[i++] = (byte)pixel;
+                    if(alpha)
+                        bytes[i++] = (byte)(pixel >>> 24);
+                }
+                output.write(bytes);
+                if(progress != null && (y + 1) % PROGRESS_ROWS == 0)
+                    progress.accept((double)(y + 1) / height);
+            }
+        }
+        if(progress != null)
+            progress.accept(1);
+    }
+
+    /**
+     * Read the rest of a PAM header, the lines after "P7" up to and including "ENDHDR"
+     * @param input the file, just after "P7"
+     * @param file the file, for error messages
+     * @return the width, height, depth and maximum sample value
+     * @throws IOException if the file can't be read or the header is missing a value
+     */
+    private static int[] readPamHeader(ByteInput input, File file) throws IOException {
+        int[] header = {-1, -1, -1, -1};
+        StringBuilder line = new StringBuilder();
+        while(true) {
+            line.setLength(0);
+            for(int b = input.read(); b != '\n'; b = input.read())
+                line.append((char)b);
+            String text = line.toString().trim();
+            if(text.equals("ENDHDR"))
+                break;
+            if(text.isEmpty() || text.startsWith("#"))
+                continue;
+            String[] parts = text.split("\\s+", 2);
+            try {
+                switch(parts[0]) {
+                    case "WIDTH":
+                        header[0] = Integer.parseInt(parts[1]);
+                        break;
+                    case "HEIGHT":
+                        header[1] = Integer.parseInt(parts[1]);
+                        break;
+                    case "DEPTH":
+                        header[2] = Integer.parseInt(parts[1]);
+                        break;
+                    case "MAXVAL":
+                        header[3] = Integer.parseInt(parts[1]);
+                        break;
+                    default:
+                        // TUPLTYPE only names what DEPTH already says
+                        break;
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Bad PAM header line \"" + text + "\" in " + file);
+            }
+        }
+        return header;
+    }
+
+    /**
+     * Read a number from a PPM or PGM header, skipping whitespace and comments before it.
+     * The single whitespace character after it is used up too, so after the last number the samples come next.
+     * @param input the file
+     * @return the number
+     * @throws IOException if the file can't be read or there's no number
+     */
+    private static int readNumber(ByteInput input) throws IOException {
+        int b = input.read();
+        while(b == '#' || Character.isWhitespace(b)) {
+            if(b == '#') {
+                while(b != '\n' && b != '\r')
+                    b = input.read();
+            }
+            b = input.read();
+        }
+        if(b < '0' || b > '9')
+            throw new IOException("Expected a number in the Netpbm header");
+        long number = 0;
+        while(b >= '0' && b <= '9') {
+            number = number * 10 + (b - '0');
+            if(number > Integer.MAX_VALUE)
+                throw new IOException("Number too large in the Netpbm header");
+            b = input.read();
+        }
+        return (int)number;
+    }
+
+    /**
+     * Decode the samples of a Netpbm file into a raster, a row at a time
+     * @param input the file, just after the header
+     * @param raster the raster, the same size as the image
+     * @param depth the number of samples per pixel: 1 for gray, 2 for gray and alpha, 3 for color, 4 for color and alpha
+     * @param maxValue the largest sample value. Samples take two bytes if it's over 255.
+     * @throws IOException if the file can't be read or is cut short
+     */
+    private static void decode(ByteInput input, Raster raster, int depth, int maxValue) throws IOException {
+        int width = raster.getWidth();
+        int sampleBytes = maxValue > 255 ? 2 : 1;
+        int[] scale = new int[maxValue + 1];
+        for(int i = 0; i <= maxValue; i++)
+            scale[i] = (i * 255 + maxValue / 2) / maxValue;
+        int[] row = new int[width];
+        int[] samples = new int[4];
+        byte[] bytes = new byte[width * depth * sampleBytes];
+        for(int y = 0; y < raster.getHeight(); y++) {
+            input.readFully(bytes, 0, bytes.length);
+            int i = 0;
+            for(int x = 0; x < width; x++) {
+                for(int s = 0; s < depth; s++) {
+                    int value = bytes[i++] & 0xFF;
+                    if(sampleBytes == 2)
+                        value = value << 8 | (bytes[i++] & 0xFF);
+                    samples[s] = value > maxValue ? 255 : scale[value];
+                }
+                switch(depth) {
+                    case 1:
+                        row[x] = 0xFF000000 | samples[0] * 0x010101;
+                        break;
+                    case 2:
+                        row[x] = samples[1] << 24 | samples[0] * 0x010101;
+                        break;
+                    case 3:
+                        row[x] = 0xFF000000 | samples[0] << 16 | samples[1] << 8 | samples[2];
+                        break;
+                    default:
+                        row[x] = samples[3] << 24 | samples[0] << 16 | samples[1] << 8 | samples[2];
+                        break;
+                }
+            }
+            raster.setPixels(0, y, width, 1, row, 0, width);
+        }
+    }
+}
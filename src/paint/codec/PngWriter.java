@@ -0,0 +1,420 @@
+package paint.codec;
+
+import paint.raster.PixelSource;
+import paint.raster.Raster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.function.DoubleConsumer;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a {@link Raster} to a PNG file, streaming rows straight from the raster. The image is split into chunks of
+ * rows that are filtered and compressed in parallel, the same way pigz does for gzip: every chunk is compressed on its
+ * own, using the 32 KB of filtered data before it as a preset dictionary so little compression is lost at the
+ * boundaries, and the compressed chunks are joined into one zlib stream. Only a few chunks are in memory at once and
+ * the file is written through a buffered FileChannel as chunks finish, in order.
+ * Alpha is left out, so the file is always opaque.
+ * @author Colin Braun
+ */
+public class PngWriter {
+    /**
+     * The bytes every PNG file starts with
+     */
+    private static final byte[] SIGNATURE = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    /**
+     * About how many bytes of filtered rows are compressed together as one chunk
+     */
+    private static final int CHUNK_BYTES = 1 << 20;
+    /**
+     * The largest preset dictionary deflate can use
+     */
+    private static final int DICTIONARY_BYTES = 32 * 1024;
+    /**
+     * The size of the buffer the file is written through
+     */
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    /**
+     * The modulus of the Adler-32 checksum that ends a zlib stream
+     */
+    private static final int ADLER_BASE = 65521;
+    /**
+     * The compression level, from 0 (none, fastest) to 9 (smallest, slowest)
+     */
+    private final int level;
+
+    /**
+     * Construct a writer
+     * @param level the compression level, from 0 (none, fastest) to 9 (smallest, slowest)
+     */
+    public PngWriter(int level) {
+        this.level = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, level));
+    }
+
+    /**
+     * Write a raster to a file, replacing anything already in it
+     * @param raster the raster to write
+     * @param file the file to write to
+     * @throws IOException if the file can't be written
+     */
+    public void write(PixelSource raster, File file) throws IOException {
+        write(raster, file, null);
+    }
+
+    /**
+     * Write a raster to a file, replacing anything already in it, and report how far along it is
+     * @param raster the raster to write
+     * @param file the file to write to
+     * @param progress given the fraction of the image written so far after each chunk, from 0 to 1. May be null.
+     * @throws IOException if the file can't be written
+     */
+    public void write(PixelSource raster, File file, DoubleConsumer progress) throws IOException {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        if(width <= 0 || height <= 0)
+            throw new IOException("Can't write an empty image as PNG");
+        long rowBytes = 1 + 3L * width;
+        int chunkRows = (int)Math.max(1, CHUNK_BYTES / rowBytes);
+        int chunks = (height + chunkRows - 1) / chunkRows;
+        // Enough chunks in flight to keep every core busy, but not so many that they fill the heap
+        int inFlight = 2 * ForkJoinPool.getCommonPoolParallelism() + 1;
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+            buffer.put(SIGNATURE);
+            ByteBuffer header = ByteBuffer.allocate(13);
+            header.putInt(width).putInt(height);
+            // 8 bits per channel, RGB, deflate, adaptive filtering, not interlaced
+            header.put((byte)8).put((byte)2).put((byte)0).put((byte)0).put((byte)0);
+            writeChunk(channel, buffer, "IHDR", header.array(), 0, 13);
+
+            ArrayDeque<CompletableFuture<Chunk>> pending = new ArrayDeque<>();
+            int next = 0;
+            long adler = 1;
+            for(int written = 0; written < chunks; written++) {
+                while(next < chunks && pending.size() < inFlight) {
+                    int top = next * chunkRows;
+                    int rows = Math.min(chunkRows, height - top);
+                    boolean last = next == chunks - 1;
+                    pending.add(CompletableFuture.supplyAsync(() -> compress(raster, top, rows, last)));
+                    next++;
+                }
+                Chunk chunk = pending.remove().join();
+                adler = combineAdler(adler, chunk.adler, chunk.length);
+                byte[] data = chunk.data;
+                int size = data.length;
+                if(written == 0) {
+                    // The zlib header goes in front of the first chunk: deflate with a 32 KB window
+                    byte[] withHeader = new byte[size + 2];
+                    withHeader[0] = 0x78;
+                    withHeader[1] = (byte)0xDA;
+                    System.arraycopy(data, 0, withHeader, 2, size);
+                    data = withHeader;
+                    size += 2;
+                }
+                if(written == chunks - 1) {
+                    // The checksum of all the filtered rows ends the zlib stream
+                    byte[] withChecksum = new byte[size + 4];
+                    System.arraycopy(data, 0, withChecksum, 0, size);
+                    ByteBuffer.wrap(withChecksum, size, 4).putInt((int)adler);
+                    data = withChecksum;
+                    size += 4;
+                }
+                writeChunk(channel, buffer, "IDAT", data, 0, size);
+                if(progress != null)
+                    progress.accept((written + 1) / (double)chunks);
+            }
+            writeChunk(channel, buffer, "IEND", new byte[0], 0, 0);
+            flush(channel, buffer);
+        } catch (CompletionException e) {
+            throw new IOException("Could not compress image", e.getCause());
+        }
+    }
+
+    /**
+     * The compressed rows of one chunk, along with what is needed to join it to the others
+     */
+    private static class Chunk {
+        /**
+         * The compressed data
+         */
+        private final byte[] data;
+        /**
+         * The Adler-32 checksum of the filtered rows before they were compressed
+         */
+        private final long adler;
+        /**
+         * The number of bytes of filtered rows
+         */
+        private final long length;
+
+        /**
+         * Default Constructor
+         * @param data the compressed data
+         * @param adler the Adler-32 checksum of the filtered rows
+         * @param length the number of bytes of filtered rows
+         */
+        private Chunk(byte[] data, long adler, long length) {
+            this.data = data;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Filter and compress one chunk of rows. Runs on a worker thread. Internal use only
+     * @param raster the raster being written
+     * @param top the first row of the chunk
+     * @param rows the number of rows in the chunk
+     * @param last whether or not this is the last chunk, which ends the deflate stream
+     * @return the compressed chunk
+     */
+    private Chunk compress(PixelSource raster, int top, int rows, boolean last) {
+        int width = raster.getWidth();
+        int rowBytes = 1 + 3 * width;
+        int[] pixels = new int[width];
+        byte[] previous = new byte[3 * width];
+        byte[] current = new byte[3 * width];
+        Deflater deflater = new Deflater(level, true);
+        try {
+            // The rows just before the chunk are filtered again to get the dictionary. Rows only depend on the row above.
+            int dictionaryRows = Math.min(top, (DICTIONARY_BYTES + rowBytes - 1) / rowBytes);
+            if(dictionaryRows > 0) {
+                byte[] dictionary = new byte[dictionaryRows * rowBytes];
+                readRow(raster, top - dictionaryRows - 1, pixels, previous);
+                for(int i = 0; i < dictionaryRows; i++) {
+                    readRow(raster, top - dictionaryRows + i, pixels, current);
+                    filterRow(current, previous, dictionary, i * rowBytes);
+                    byte[] swap = previous;
+                    previous = current;
+                    current = swap;
+                }
+                int start = Math.max(0, dictionary.length - DICTIONARY_BYTES);
+                deflater.setDictionary(dictionary, start, dictionary.length - start);
+            }
+            else {
+                readRow(raster, top - 1, pixels, previous);
+            }
+            byte[] filtered = new byte[rows * rowBytes];
+            for(int i = 0; i < rows; i++) {
+                readRow(raster, top + i, pixels, current);
+                filterRow(current, previous, filtered, i * rowBytes);
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            long adler = adler32(filtered);
+            deflater.setInput(filtered);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(filtered.length / 2 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if(last) {
+                deflater.finish();
+                while(!deflater.finished())
+                    out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            else {
+                // A sync flush ends the chunk on a byte boundary so the next one can be appended to it
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, count);
+                } while(count == buffer.length);
+            }
+            return new Chunk(out.toByteArray(), adler, filtered.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Read a row of the raster as RGB bytes. Rows above the image read as zeros, like PNG expects.
+     * @param raster the raster to read from
+     * @param y the row
+     * @param pixels space for one row of pixels
+     * @param bytes where to put the RGB bytes
+     */
+    private static void readRow(PixelSource raster, int y, int[] pixels, byte[] bytes) {
+        if(y < 0) {
+            Arrays.fill(bytes, (byte)0);
+            return;
+        }
+        raster.getPixels(0, y, pixels.length, 1, pixels, 0, pixels.length);
+        for(int x = 0, i = 0; x < pixels.length; x++) {
+            int pixel = pixels[x];
+            bytes[i++] = (byte)(pixel >> 16);
+            bytes[i++] = (byte)(pixel >> 8);
+            bytes[i++] = (byte)pixel;
+        }
+    }
+
+    /**
+     * Filter a row, using whichever of the five PNG filters gives the smallest sum of absolute differences.
+     * This is the same guess libpng makes at which filter will compress best. At level 0 nothing would be compressed,
+     * so no filter is used.
+     * @param current the RGB bytes of the row
+     * @param previous the RGB bytes of the row above
+     * @param out where to put the filter type followed by the filtered row
+     * @param offset where in out to put the row
+     */
+    private void filterRow(byte[] current, byte[] previous, byte[] out, int offset) {
+        int best = 0;
+        if(level != Deflater.NO_COMPRESSION) {
+            // Every filter is tried in one pass over the row
+            long none = 0, sub = 0, up = 0, average = 0, paeth = 0;
+            for(int i = 0; i < current.length; i++) {
+                int value = current[i] & 0xFF;
+                int left = i >= 3 ? current[i - 3] & 0xFF : 0;
+                int above = previous[i] & 0xFF;
+                int upLeft = i >= 3 ? previous[i - 3] & 0xFF : 0;
+                none += Math.abs((byte)value);
+                sub += Math.abs((byte)(value - left));
+                up += Math.abs((byte)(value - above));
+                average += Math.abs((byte)(value - ((left + above) >> 1)));
+                paeth += Math.abs((byte)(value - paethPredictor(left, above, upLeft)));
+            }
+            long[] sums = {none, sub, up, average, paeth};
+            for(int type = 1; type < 5; type++) {
+                if(sums[type] < sums[best])
+                    best = type;
+            }
+        }
+        out[offset] = (byte)best;
+        for(int i = 0; i < current.length; i++) {
+            int value = current[i] & 0xFF;
+            int left = i >= 3 ? current[i - 3] & 0xFF : 0;
+            int above = previous[i] & 0xFF;
+            switch(best) {
+                case 1:
+                    value -= left;
+                    break;
+                case 2:
+                    value -= above;
+                    break;
+                case 3:
+                    value -= (left + above) >> 1;
+                    break;
+                case 4:
+                    value -= paethPredictor(left, above, i >= 3 ? previous[i - 3] & 0xFF : 0);
+                    break;
+            }
+            out[offset + 1 + i] = (byte)value;
+        }
+    }
+
+    /**
+     * Guess a byte from its neighbors the way the Paeth filter does
+     * @param left the byte to the left
+     * @param above the byte above
+     * @param upLeft the byte above and to the left
+     * @return whichever neighbor is closest to left + above - upLeft
+     */
+    private static int paethPredictor(int left, int above, int upLeft) {
+        int estimate = left + above - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceAbove = Math.abs(estimate - above);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if(distanceLeft <= distanceAbove && distanceLeft <= distanceUpLeft)
+            return left;
+        return distanceAbove <= distanceUpLeft ? above : upLeft;
+    }
+
+    /**
+     * Work out the Adler-32 checksum of some bytes
+     * @param bytes the bytes
+     * @return the checksum
+     */
+    private static long adler32(byte[] bytes) {
+        long a = 1, b = 0;
+        // 5552 bytes is the most that can be summed before the sums need reducing to fit in an int
+        for(int start = 0; start < bytes.length; start += 5552) {
+            int end = Math.min(bytes.length, start + 5552);
+            for(int i = start; i < end; i++) {
+                a += bytes[i] & 0xFF;
+                b += a;
+            }
+            a %= ADLER_BASE;
+            b %= ADLER_BASE;
+        }
+        return b << 16 | a;
+    }
+
+    /**
+     * Work out the Adler-32 checksum of two runs of bytes joined together from the checksums of each.
+     * This is adler32_combine from zlib.
+     * @param first the checksum of the first run
+     * @param second the checksum of the second run
+     * @param length the length of the second run
+     * @return the checksum of both runs
+     */
+    private static long combineAdler(long first, long second, long length) {
+        long remainder = length % ADLER_BASE;
+        long sum1 = first & 0xFFFF;
+        long sum2 = (remainder * sum1) % ADLER_BASE;
+        sum1 += (second & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((first >> 16) & 0xFFFF) + ((second >> 16) & 0xFFFF) + ADLER_BASE - remainder;
+        if(sum1 >= ADLER_BASE)
+            sum1 -= ADLER_BASE;
+        if(sum1 >= ADLER_BASE)
+            sum1 -= ADLER_BASE;
+        if(sum2 >= 2 * ADLER_BASE)
+            sum2 -= 2 * ADLER_BASE;
+        if(sum2 >= ADLER_BASE)
+            sum2 -= ADLER_BASE;
+        return sum2 << 16 | sum1;
+    }
+
+    /**
+     * Write a PNG chunk: its length, type, data and CRC
+     * @param channel the file being written
+     * @param buffer the buffer the file is written through
+     * @param type the four letter type of the chunk
+     * @param data the data of the chunk
+     * @param offset where the data starts
+     * @param length the number of bytes of data
+     * @throws IOException if the file can't be written
+     */
+    private static void writeChunk(FileChannel channel, ByteBuffer buffer, String type, byte[] data, int offset, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        if(buffer.remaining() < 8)
+            flush(channel, buffer);
+        buffer.putInt(length).put(typeBytes);
+        while(length > 0) {
+            if(!buffer.hasRemaining())
+                flush(channel, buffer);
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(data, offset, count);
+            offset += count;
+            length -= count;
+        }
+        if(buffer.remaining() < 4)
+            flush(channel, buffer);
+        buffer.putInt((int)crc.getValue());
+    }
+
+    /**
+     * Write everything in the buffer to the file and empty it
+     * @param channel the file being written
+     * @param buffer the buffer the file is written through
+     * @throws IOException if the file can't be written
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
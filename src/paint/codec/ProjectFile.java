@@ -0,0 +1,507 @@
+package paint.codec;
+
+import paint.raster.PixelSource;
+import paint.raster.TiledRaster;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes .paintproj files, the program's own format for keeping work between sessions.
+ * A project file holds a header, an index with one entry per tile of the image, and the compressed pixels of each tile
+ * after that. Tiles where every pixel is the same color only store the color in their index entry.
+ * <p>
+ * Because every tile is compressed on its own, opening a project only maps the index into memory and tiles are
+ * decompressed the first time they are used, see {@link ProjectRaster}. Saving over the project the image came from
+ * only appends the tiles that changed and a new index after them, then points the header at the new index. Nothing
+ * that's already in the file is changed until then, so an open {@link ProjectRaster} can keep reading from it, and a
+ * crash at any point leaves the file as it was before or after the save. The old copies are left behind as garbage
+ * until there is more garbage than live data, at which point the file is compacted by copying the live tiles to a new
+ * file, without decompressing them. Files that are still open are never compacted, since that replaces the file.
+ * <p>
+ * All numbers are big-endian. The header is {@link #HEADER_SIZE} bytes: the magic number, the version, the width,
+ * height and tile size of the image, the offset and length of an undo log, which are 0 since no undo log is
+ * stored yet, then the offset of the index. Each index entry is {@link #ENTRY_SIZE} bytes: the offset and length of
+ * the tile's compressed pixels, or an offset and length of 0 followed by the tile's color. Compressed pixels are
+ * deflated ARGB ints, row by row.
+ * @author Colin Braun
+ */
+public class ProjectFile {
+    /**
+     * The file extension of project files
+     */
+    public static final String EXTENSION = "paintproj";
+    /**
+     * The first int of every project file, "PNTP"
+     */
+    private static final int MAGIC = 0x504E5450;
+    /**
+     * The version of the format
+     */
+    private static final int VERSION = 1;
+    /**
+     * The size of the header in bytes. A newly written file's index starts right after it.
+     */
+    static final int HEADER_SIZE = 64;
+    /**
+     * Where in the header the offset of the index is
+     */
+    private static final int INDEX_OFFSET_POSITION = 40;
+    /**
+     * The size of each index entry in bytes
+     */
+    static final int ENTRY_SIZE = 16;
+    /**
+     * The width and height of the tiles, the same as the tiles of a {@link TiledRaster} so opened projects can
+     * decompress straight into one
+     */
+    public static final int TILE_SIZE = TiledRaster.TILE_SIZE;
+    /**
+     * The number of tiles compressed in parallel before they're written
+     */
+    private static final int BATCH_TILES = 64;
+    /**
+     * How much garbage the file can hold, as a multiple of its live data, before it's compacted
+     */
+    private static final int COMPACT_RATIO = 1;
+    /**
+     * The amount of garbage below which the file is never compacted
+     */
+    private static final long MIN_GARBAGE_BYTES = 16L << 20;
+    /**
+     * The files opened by {@link #open(File)} that haven't been closed yet, with the number of times each is open
+     */
+    private static final Map<Path, Integer> openFiles = new HashMap<>();
+
+    /**
+     * The compressed pixels of a tile, or its color if every pixel is the same
+     */
+    private static class EncodedTile {
+        /**
+         * The compressed pixels, or null if the tile is a single color
+         */
+        private final byte[] data;
+        /**
+         * The number of bytes of data used
+         */
+        private final int length;
+        /**
+         * The color of the tile if it's a single color
+         */
+        private final int color;
+
+        /**
+         * Default Constructor
+         * @param data the compressed pixels, or null if the tile is a single color
+         * @param length the number of bytes of data used
+         * @param color the color of the tile if it's a single color
+         */
+        private EncodedTile(byte[] data, int length, int color) {
+            this.data = data;
+            this.length = length;
+            this.color = color;
+        }
+    }
+
+    /**
+     * Check if a file is a project file, going by its name
+     * @param file the file
+     * @return true if it has the project file extension
+     */
+    public static boolean isProject(File file) {
+        return file.getName().toLowerCase().endsWith("." + EXTENSION);
+    }
+
+    /**
+     * Open a project file. Only the header is read and the index mapped into memory; tiles are decompressed as they're
+     * used. The file is kept open until the raster is disposed.
+     * @param file the file to open
+     * @return a raster reading its pixels from the file
+     * @throws IOException if the file can't be read or isn't a project file
+     */
+    public static ProjectRaster open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readHeader(channel);
+            int width = header.getInt(8);
+            int height = header.getInt(12);
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, header.getLong(INDEX_OFFSET_POSITION),
+                    (long)getTileCount(width, height) * ENTRY_SIZE);
+            ProjectRaster raster = new ProjectRaster(channel, index, width, height, file);
+            opened(file);
+            return raster;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check if a project file is open in a {@link ProjectRaster}. Such a file must not be replaced or cut short,
+     * only added to with {@link #update(PixelSource, File, BitSet, DoubleConsumer)}.
+     * @param file the file
+     * @return true if the file was opened and hasn't been closed yet
+     */
+    public static synchronized boolean isOpen(File file) {
+        return openFiles.containsKey(getKey(file));
+    }
+
+    /**
+     * Remember that a project file was opened. Internal use only
+     * @param file the file
+     */
+    private static synchronized void opened(File file) {
+        openFiles.merge(getKey(file), 1, Integer::sum);
+    }
+
+    /**
+     * Forget that a project file was opened, once the raster reading it is disposed. Internal use only
+     * @param file the file
+     */
+    static synchronized void closed(File file) {
+        openFiles.computeIfPresent(getKey(file), (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Get the path a file is remembered by when it's open, the same however the file was named
+     * @param file the file
+     * @return the absolute, normalized path of the file
+     */
+    private static Path getKey(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * Write a whole raster to a new project file, replacing anything already in it
+     * @param raster the raster to write
+     * @param file the file to write to
+     * @param progress given the fraction of the image written so far, from 0 to 1. May be null.
+     * @throws IOException if the file can't be written
+     */
+    public static void write(PixelSource raster, File file, DoubleConsumer progress) throws IOException {
+        int count = getTileCount(raster.getWidth(), raster.getHeight());
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer index = ByteBuffer.allocate(count * ENTRY_SIZE);
+            long position = HEADER_SIZE + (long)count * ENTRY_SIZE;
+            for(int start = 0; start < count; start += BATCH_TILES) {
+                EncodedTile[] batch = encode(raster, IntStream.range(start, Math.min(count, start + BATCH_TILES)).toArray());
+                for(EncodedTile tile : batch)
+                    position = writeTile(channel, tile, position, index);
+                if(progress != null)
+                    progress.accept((double)Math.min(count, start + BATCH_TILES) / count);
+            }
+            index.flip();
+            writeFully(channel, index, HEADER_SIZE);
+            writeFully(channel, makeHeader(raster.getWidth(), raster.getHeight(), HEADER_SIZE), 0);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Write only some tiles of a raster over an existing project file. The tiles are appended to the file with a new
+     * index after them, and made sure to be on disk before the header is pointed at the new index with a single write,
+     * so a crash part way leaves the file either as it was or as it is now. Nothing already in the file is changed,
+     * so a {@link ProjectRaster} reading it carries on seeing the image it opened. If the file holds an image of
+     * a different size, every tile is written. Afterwards the file is compacted if it holds too much garbage and isn't
+     * open; a compaction that fails is reported but leaves the saved file as it is.
+     * @param raster the raster to write
+     * @param file the project file to update
+     * @param changed the tiles to write, numbered row by row, or null to write every tile
+     * @param progress given the fraction of the tiles written so far, from 0 to 1. May be null.
+     * @return false if the file isn't a project file, in which case nothing was written
+     * @throws IOException if the file can't be written
+     */
+    public static boolean update(PixelSource raster, File file, BitSet changed, DoubleConsumer progress) throws IOException {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int count = getTileCount(width, height);
+        boolean compact;
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header;
+            try {
+                header = readHeader(channel);
+            } catch (IOException e) {
+                return false;
+            }
+            ByteBuffer index = ByteBuffer.allocate(count * ENTRY_SIZE);
+            int[] tiles;
+            if(changed == null || header.getInt(8) != width || header.getInt(12) != height) {
+                tiles = IntStream.range(0, count).toArray();
+            }
+            else {
+                readFully(channel, index, header.getLong(INDEX_OFFSET_POSITION));
+                tiles = changed.stream().filter(tile -> tile < count).toArray();
+            }
+            long position = channel.size();
+            for(int start = 0; start < tiles.length; start += BATCH_TILES) {
+                int end = Math.min(tiles.length, start + BATCH_TILES);
+                EncodedTile[] batch = encode(raster, Arrays.copyOfRange(tiles, start, end));
+                for(int i = start; i < end; i++) {
+                    index.position(tiles[i] * ENTRY_SIZE);
+                    position = writeTile(channel, batch[i - start], position, index);
+                }
+                if(progress != null)
+                    progress.accept((double)end / tiles.length);
+            }
+            long indexOffset = position;
+            index.clear();
+            writeFully(channel, index, indexOffset);
+            // The new tiles and index must reach the disk before anything points at them
+            channel.force(false);
+            writeFully(channel, makeHeader(width, height, indexOffset), 0);
+            channel.force(false);
+            long garbage = indexOffset - HEADER_SIZE - getLiveBytes(index, count);
+            compact = garbage > MIN_GARBAGE_BYTES && garbage > COMPACT_RATIO * (channel.size() - HEADER_SIZE - garbage);
+        }
+        // Compacting replaces the file, which can't be done while it's being read from
+        if(compact && !isOpen(file)) {
+            try {
+                compact(file);
+            } catch (IOException e) {
+                // The file was saved, it just takes up more space than it needs to until the next try
+                e.printStackTrace();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rewrite a project file without its garbage. The compressed tiles are copied as they are, so nothing is
+     * decompressed. The new file is written next to the old one and renamed over it once complete, so the file must
+     * not be open, see {@link #isOpen(File)}.
+     * @param file the project file
+     * @throws IOException if the file can't be read or written
+     */
+    public static void compact(File file) throws IOException {
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".compacting");
+        try(FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            FileChannel target = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+            ByteBuffer header = readHeader(source);
+            int count = getTileCount(header.getInt(8), header.getInt(12));
+            ByteBuffer index = ByteBuffer.allocate(count * ENTRY_SIZE);
+            readFully(source, index, header.getLong(INDEX_OFFSET_POSITION));
+            index.flip();
+            long position = HEADER_SIZE + (long)count * ENTRY_SIZE;
+            for(int i = 0; i < count; i++) {
+                long offset = index.getLong(i * ENTRY_SIZE);
+                int length = index.getInt(i * ENTRY_SIZE + 8);
+                if(length == 0)
+                    continue;
+                for(long copied = 0; copied < length; )
+                    copied += source.transferTo(offset + copied, length - copied, target.position(position + copied));
+                index.putLong(i * ENTRY_SIZE, position);
+                position += length;
+            }
+            writeFully(target, index, HEADER_SIZE);
+            header.putLong(INDEX_OFFSET_POSITION, HEADER_SIZE);
+            header.rewind();
+            writeFully(target, header, 0);
+            target.force(false);
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if(temp.exists() && !temp.delete())
+                System.out.println("Could not delete " + temp);
+        }
+    }
+
+    /**
+     * Decompress a tile's pixels
+     * @param inflater the inflater to use
+     * @param compressed the compressed pixels
+     * @param pixels where to put the pixels, row by row, which must hold exactly the tile's pixels
+     * @throws DataFormatException if the compressed pixels are damaged
+     */
+    static void decode(Inflater inflater, byte[] compressed, int[] pixels) throws DataFormatException {
+        byte[] bytes = new byte[4 * pixels.length];
+        inflater.reset();
+        inflater.setInput(compressed);
+        int length = 0;
+        while(length < bytes.length && !inflater.finished()) {
+            int count = inflater.inflate(bytes, length, bytes.length - length);
+            if(count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                throw new DataFormatException("Tile is cut short");
+            length += count;
+        }
+        ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+    }
+
+    /**
+     * Get the number of tiles an image is split into
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the number of tiles
+     */
+    static int getTileCount(int width, int height) {
+        return ((width + TILE_SIZE - 1) / TILE_SIZE) * ((height + TILE_SIZE - 1) / TILE_SIZE);
+    }
+
+    /**
+     * Read some bytes from a channel, failing if the channel ends first
+     * @param channel the channel
+     * @param buffer where to put the bytes, filled up to its limit
+     * @param position where in the channel to start reading
+     * @throws IOException if the channel can't be read or ends first
+     */
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if(count < 0)
+                throw new EOFException("Project file is cut short");
+            position += count;
+        }
+    }
+
+    /**
+     * Compress tiles of a raster in parallel
+     * @param raster the raster
+     * @param tiles the tiles to compress, numbered row by row
+     * @return the compressed tiles, in the same order
+     */
+    private static EncodedTile[] encode(PixelSource raster, int[] tiles) {
+        int across = (raster.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        return Arrays.stream(tiles).parallel().mapToObj(index -> {
+            int x = (index % across) * TILE_SIZE;
+            int y = (index / across) * TILE_SIZE;
+            int w = Math.min(TILE_SIZE, raster.getWidth() - x);
+            int h = Math.min(TILE_SIZE, raster.getHeight() - y);
+            int[] pixels = new int[w * h];
+            raster.getPixels(x, y, w, h, pixels, 0, w);
+            boolean single = true;
+            for(int pixel : pixels) {
+                if(pixel != pixels[0]) {
+                    single = false;
+                    break;
+                }
+            }
+            if(single)
+                return new EncodedTile(null, 0, pixels[0]);
+            byte[] bytes = new byte[4 * pixels.length];
+            ByteBuffer.wrap(bytes).asIntBuffer().put(pixels);
+            byte[] compressed = new byte[bytes.length / 2 + 64];
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(bytes);
+                deflater.finish();
+                int length = 0;
+                while(!deflater.finished()) {
+                    if(length == compressed.length)
+                        compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                return new EncodedTile(compressed, length, 0);
+            } finally {
+                deflater.end();
+            }
+        }).toArray(EncodedTile[]::new);
+    }
+
+    /**
+     * Write a compressed tile to the end of a file and add its entry to the index
+     * @param channel the file
+     * @param tile the compressed tile
+     * @param position where in the file to write it
+     * @param index the index being built, which the entry is put into
+     * @return the position after the tile
+     * @throws IOException if the file can't be written
+     */
+    private static long writeTile(FileChannel channel, EncodedTile tile, long position, ByteBuffer index) throws IOException {
+        if(tile.data == null) {
+            index.putLong(0).putInt(0).putInt(tile.color);
+            return position;
+        }
+        writeFully(channel, ByteBuffer.wrap(tile.data, 0, tile.length), position);
+        index.putLong(position).putInt(tile.length).putInt(0);
+        return position + tile.length;
+    }
+
+    /**
+     * Read and check the header of a project file
+     * @param channel the file
+     * @return the header, with absolute positions matching the layout of the file
+     * @throws IOException if the file can't be read or isn't a project file this version understands
+     */
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        if(header.getInt(0) != MAGIC)
+            throw new IOException("Not a project file");
+        if(header.getInt(4) != VERSION)
+            throw new IOException("Unsupported project file version " + header.getInt(4));
+        if(header.getInt(8) <= 0 || header.getInt(12) <= 0 || header.getInt(16) != TILE_SIZE)
+            throw new IOException("Project file has a bad size or tile size");
+        // Files written before the index could move keep it right after the header, with 0 as its offset
+        if(header.getLong(INDEX_OFFSET_POSITION) == 0)
+            header.putLong(INDEX_OFFSET_POSITION, HEADER_SIZE);
+        long indexOffset = header.getLong(INDEX_OFFSET_POSITION);
+        long indexLength = (long)getTileCount(header.getInt(8), header.getInt(12)) * ENTRY_SIZE;
+        if(indexOffset < HEADER_SIZE || indexOffset + indexLength > channel.size())
+            throw new IOException("Project file has a bad index offset");
+        return header;
+    }
+
+    /**
+     * Make the header of a project file
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param indexOffset where in the file the index is
+     * @return the header, ready to be written
+     */
+    private static ByteBuffer makeHeader(int width, int height, long indexOffset) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(TILE_SIZE);
+        // Where an undo log would go, which isn't stored yet
+        header.putLong(24, 0).putLong(32, 0);
+        header.putLong(INDEX_OFFSET_POSITION, indexOffset);
+        header.rewind();
+        return header;
+    }
+
+    /**
+     * Add up the compressed sizes of the tiles an index points at
+     * @param index the index
+     * @param count the number of tiles in the index
+     * @return the number of bytes of live tiles
+     */
+    private static long getLiveBytes(ByteBuffer index, int count) {
+        long live = 0;
+        for(int i = 0; i < count; i++)
+            live += index.getInt(i * ENTRY_SIZE + 8);
+        return live;
+    }
+
+    /**
+     * Write all of a buffer to a channel
+     * @param channel the channel
+     * @param buffer the bytes to write, up to its limit
+     * @param position where in the channel to start writing
+     * @throws IOException if the channel can't be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining())
+            position += channel.write(buffer, position);
+    }
+}
@@ -0,0 +1,216 @@
+package paint.codec;
+
+import paint.raster.Raster;
+import paint.raster.TiledRaster;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntUnaryOperator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link Raster} opened from a project file, which only decompresses each tile the first time it is used.
+ * Opening even a very large project is then instant, and only the parts of the image that are looked at or
+ * changed ever take up memory. Decompressed tiles are kept in a {@link TiledRaster} with the same tiles as the file,
+ * so single color tiles stay free. The file is kept open, and its index mapped, until the raster is disposed.
+ * @author Colin Braun
+ */
+public class ProjectRaster extends Raster {
+    /**
+     * The width and height of the tiles
+     */
+    private static final int TILE_SIZE = ProjectFile.TILE_SIZE;
+    /**
+     * The project file
+     */
+    private final File file;
+    /**
+     * The open project file
+     */
+    private final FileChannel channel;
+    /**
+     * The index of the project file, mapped into memory
+     */
+    private final MappedByteBuffer index;
+    /**
+     * The number of tiles across the raster
+     */
+    private final int tilesAcross;
+    /**
+     * The tiles decompressed so far
+     */
+    private final TiledRaster pixels;
+    /**
+     * Whether or not each tile has been decompressed, 1 if it has. Atomic, so a thread that sees a tile is loaded
+     * without taking the lock also sees the pixels that were written into it before.
+     */
+    private final AtomicIntegerArray loaded;
+    /**
+     * Decompresses tiles. Only used while holding the raster's lock.
+     */
+    private final Inflater inflater;
+
+    /**
+     * Construct a raster reading from an open project file. Use {@link ProjectFile#open(java.io.File)} to open one.
+     * @param channel the project file
+     * @param index the index of the project file, mapped into memory
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param file the project file, which is remembered as open until the raster is disposed
+     */
+    ProjectRaster(FileChannel channel, MappedByteBuffer index, int width, int height, File file) {
+        super(width, height);
+        this.file = file;
+        this.channel = channel;
+        this.index = index;
+        tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        pixels = new TiledRaster(width, height);
+        loaded = new AtomicIntegerArray(ProjectFile.getTileCount(width, height));
+        inflater = new Inflater();
+    }
+
+    @Override
+    public int getArgb(int x, int y) {
+        load((y / TILE_SIZE) * tilesAcross + x / TILE_SIZE);
+        return pixels.getArgb(x, y);
+    }
+
+    @Override
+    public void setArgb(int x, int y, int argb) {
+        load((y / TILE_SIZE) * tilesAcross + x / TILE_SIZE);
+        pixels.setArgb(x, y, argb);
+    }
+
+    @Override
+    public void getPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan) {
+        load(x, y, w, h);
+        pixels.getPixels(x, y, w, h, buffer, offset, scan);
+    }
+
+    @Override
+    public void setPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan) {
+        load(x, y, w, h);
+        pixels.setPixels(x, y, w, h, buffer, offset, scan);
+    }
+
+    /**
+     * Set every pixel in a rectangle to the same color. Tiles the rectangle covers completely are never decompressed.
+     */
+    @Override
+    public void fill(int x, int y, int w, int h, int argb) {
+        for(int tileY = y / TILE_SIZE; tileY * TILE_SIZE < y + h; tileY++) {
+            for(int tileX = x / TILE_SIZE; tileX * TILE_SIZE < x + w; tileX++) {
+                boolean whole = x <= tileX * TILE_SIZE && y <= tileY * TILE_SIZE
+                        && x + w >= Math.min(width, (tileX + 1) * TILE_SIZE) && y + h >= Math.min(height, (tileY + 1) * TILE_SIZE);
+                if(whole)
+                    skip(tileY * tilesAcross + tileX);
+                else
+                    load(tileY * tilesAcross + tileX);
+            }
+        }
+        pixels.fill(x, y, w, h, argb);
+    }
+
+    @Override
+    public void map(int x, int y, int w, int h, IntUnaryOperator operation) {
+        load(x, y, w, h);
+        pixels.map(x, y, w, h, operation);
+    }
+
+    /**
+     * Close the project file and free the decompressed tiles
+     */
+    @Override
+    public void dispose() {
+        pixels.dispose();
+        synchronized(this) {
+            inflater.end();
+        }
+        if(channel.isOpen())
+            ProjectFile.closed(file);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Get the number of tiles that have been decompressed
+     * @return the number of tiles read from the file so far
+     */
+    public int getLoadedTileCount() {
+        int count = 0;
+        for(int i = 0; i < loaded.length(); i++)
+            count += loaded.get(i);
+        return count;
+    }
+
+    /**
+     * Decompress every tile a rectangle overlaps that hasn't been decompressed yet
+     * @param x the left-most x value of the rectangle
+     * @param y the top-most y value of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     */
+    private void load(int x, int y, int w, int h) {
+        for(int tileY = y / TILE_SIZE; tileY * TILE_SIZE < y + h; tileY++) {
+            for(int tileX = x / TILE_SIZE; tileX * TILE_SIZE < x + w; tileX++)
+                load(tileY * tilesAcross + tileX);
+        }
+    }
+
+    /**
+     * Decompress a tile if it hasn't been decompressed yet
+     * @param tile the index of the tile
+     */
+    private void load(int tile) {
+        if(loaded.get(tile) == 0)
+            read(tile);
+    }
+
+    /**
+     * Decompress a tile into the tiled raster. Synchronized so the tile is only read once, even if two threads
+     * use it at the same time. A tile that can't be read is left transparent.
+     * @param tile the index of the tile
+     */
+    private synchronized void read(int tile) {
+        if(loaded.get(tile) != 0)
+            return;
+        int x = (tile % tilesAcross) * TILE_SIZE;
+        int y = (tile / tilesAcross) * TILE_SIZE;
+        int w = Math.min(TILE_SIZE, width - x);
+        int h = Math.min(TILE_SIZE, height - y);
+        long offset = index.getLong(tile * ProjectFile.ENTRY_SIZE);
+        int length = index.getInt(tile * ProjectFile.ENTRY_SIZE + 8);
+        try {
+            if(length == 0) {
+                pixels.fill(x, y, w, h, index.getInt(tile * ProjectFile.ENTRY_SIZE + 12));
+            }
+            else {
+                ByteBuffer compressed = ByteBuffer.allocate(length);
+                ProjectFile.readFully(channel, compressed, offset);
+                int[] tilePixels = new int[w * h];
+                ProjectFile.decode(inflater, compressed.array(), tilePixels);
+                pixels.setPixels(x, y, w, h, tilePixels, 0, w);
+            }
+        } catch (IOException | DataFormatException e) {
+            e.printStackTrace();
+        }
+        // Set only once the pixels are in place, so they're visible to any thread that sees it
+        loaded.set(tile, 1);
+    }
+
+    /**
+     * Mark a tile as decompressed without reading it, because it's about to be covered completely
+     * @param tile the index of the tile
+     */
+    private synchronized void skip(int tile) {
+        loaded.set(tile, 1);
+    }
+}
@@ -0,0 +1,282 @@
+package paint.codec;
+
+import paint.raster.PixelSource;
+import paint.raster.Raster;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Reads and writes QOI ("Quite OK Image") files, a simple lossless format that compresses about as well as a fast PNG
+ * while being many times quicker to write and read. Each pixel is stored as a run of the previous pixel, a reference
+ * to a recently seen color, a small difference from the previous pixel or the full color, so there's no deflate step.
+ * Pixels are encoded straight from rows of the raster and decoded straight into them. Alpha is kept.
+ * See https://qoiformat.org/qoi-specification.pdf for the format.
+ * @author Colin Braun
+ */
+public class QoiCodec {
+    /**
+     * The extension of QOI files
+     */
+    public static final String EXTENSION = "qoi";
+    /**
+     * The first four bytes of every QOI file, "qoif"
+     */
+    private static final int MAGIC = 0x716F6966;
+    /**
+     * A pixel that's one of the 64 recently seen colors: 2 bit tag, 6 bit index
+     */
+    private static final int OP_INDEX = 0x00;
+    /**
+     * A pixel with red, green and blue each -2 to 1 away from the previous pixel: 2 bit tag, three 2 bit differences
+     */
+    private static final int OP_DIFF = 0x40;
+    /**
+     * A pixel with green -32 to 31 away from the previous pixel and red and blue -8 to 7 away from that difference
+     */
+    private static final int OP_LUMA = 0x80;
+    /**
+     * A run of 1 to 62 pixels the same as the previous pixel: 2 bit tag, 6 bit length - 1
+     */
+    private static final int OP_RUN = 0xC0;
+    /**
+     * A full red, green and blue value, with alpha the same as the previous pixel
+     */
+    private static final int OP_RGB = 0xFE;
+    /**
+     * A full red, green, blue and alpha value
+     */
+    private static final int OP_RGBA = 0xFF;
+    /**
+     * The longest run one byte can hold. 63 and 64 would clash with OP_RGB and OP_RGBA.
+     */
+    private static final int MAX_RUN = 62;
+    /**
+     * The bytes every QOI file ends with
+     */
+    private static final byte[] END = {0, 0, 0, 0, 0, 0, 0, 1};
+    /**
+     * The number of rows between progress reports
+     */
+    private static final int PROGRESS_ROWS = 256;
+
+    /**
+     * Check if a file is a QOI file, going by its extension
+     * @param file the file
+     * @return true if the file ends in ".qoi"
+     */
+    public static boolean isQoi(File file) {
+        return file.getName().toLowerCase().endsWith("." + EXTENSION);
+    }
+
+    /**
+     * Read a QOI file into a new raster
+     * @param file the file to read
+     * @return the raster holding the image
+     * @throws IOException if the file can't be read or isn't a QOI file
+     */
+    public static Raster read(File file) throws IOException {
+        try(ByteInput input = new ByteInput(new FileInputStream(file))) {
+            if(input.readInt() != MAGIC)
+                throw new IOException("Not a QOI file: " + file);
+            long width = input.readInt() & 0xFFFFFFFFL;
+            long height = input.readInt() & 0xFFFFFFFFL;
+            int channels = input.read();
+            input.read();
+            if(width == 0 || height == 0 || width > Integer.MAX_VALUE || height > Integer.MAX_VALUE || (channels != 3 && channels != 4))
+                throw new IOException("Bad QOI header in " + file);
+            Raster raster = Raster.create((int)width, (int)height);
+            try {
+                decode(input, raster);
+            } catch (IOException | RuntimeException e) {
+                raster.dispose();
+                throw e;
+            }
+            return raster;
+        }
+    }
+
+    /**
+     * Write a raster to a QOI file, replacing anything already in it
+     * @param raster the raster to write
+     * @param file the file to write to
+     * @param progress given the fraction of the image written so far, from 0 to 1. May be null.
+     * @throws IOException if the file can't be written
+     */
+    public static void write(PixelSource raster, File file, DoubleConsumer progress) throws IOException {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        try(OutputStream output = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            byte[] header = new byte[14];
+            putInt(header, 0, MAGIC);
+            putInt(header, 4, width);
+            putInt(header, 8, height);
+            header[12] = 4;
+            header[13] = 0;
+            output.write(header);
+            int[] row = new int[width];
+            // At most 5 bytes are written per pixel
+            byte[] bytes = new byte[5 * width + 1];
+            int[] index = new int[64];
+            int previous = 0xFF000000;
+            int run = 0;
+            for(int y = 0; y < height; y++) {
+                raster.getPixels(0, y, width, 1, row, 0, width);
+                int length = 0;
+                for(int x = 0; x < width; x++) {
+                    int pixel = row[x];
+                    if(pixel == previous) {
+                        run++;
+                        if(run == MAX_RUN) {
+                            bytes[length++] = (byte)(OP_RUN | (run - 1));
+                            run = 0;
+                        }
+                        continue;
+                    }
+                    if(run > 0) {
+                        bytes[length++] = (byte)(OP_RUN | (run - 1));
+                        run = 0;
+                    }
+                    int hash = hash(pixel);
+                    if(index[hash] == pixel) {
+                        bytes[length++] = (byte)(OP_INDEX | hash);
+                    }
+                    else {
+                        index[hash] = pixel;
+                        if((pixel >>> 24) == (previous >>> 24)) {
+                            int dr = (byte)((pixel >> 16) - (previous >> 16));
+                            int dg = (byte)((pixel >> 8) - (previous >> 8));
+                            int db = (byte)(pixel - previous);
+                            int drg = (byte)(dr - dg);
+                            int dbg = (byte)(db - dg);
+                            if(dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1) {
+                                bytes[length++] = (byte)(OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                            }
+                            else if(dg >= -32 && dg <= 31 && drg >= -8 && drg <= 7 && dbg >= -8 && dbg <= 7) {
+                                bytes[length++] = (byte)(OP_LUMA | (dg + 32));
+                                bytes[length++] = (byte)((drg + 8) << 4 | (dbg + 8));
+                            }
+                            else {
+                                bytes[length++] = (byte)OP_RGB;
+                                bytes[length++] = (byte)(pixel >> 16);
+                                bytes[length++] = (byte)(pixel >> 8);
+                                bytes[length++] = (byte)pixel;
+                            }
+                        }
+                        else {
+                            bytes[length++] = (byte)OP_RGBA;
+                            bytes[length++] = (byte)(pixel >> 16);
+                            bytes[length++] = (byte)(pixel >> 8);
+                            bytes[length++] = (byte)pixel;
+                            bytes[length++] = (byte)(pixel >>> 24);
+                        }
+                    }
+                    previous = pixel;
+                }
+                // Runs carry on across rows, so only the last row ends the one in progress
+                if(y == height - 1 && run > 0)
+                    bytes[length++] = (byte)(OP_RUN | (run - 1));
+                output.write(bytes, 0, length);
+                if(progress != null && (y + 1) % PROGRESS_ROWS == 0)
+                    progress.accept((double)(y + 1) / height);
+            }
+            output.write(END);
+        }
+        if(progress != null)
+            progress.accept(1);
+    }
+
+    /**
+     * Decode the pixels of a QOI file into a raster, a row at a time
+     * @param input the file, just after the header
+     * @param raster the raster, the same size as the image
+     * @throws IOException if the file can't be read or is cut short
+     */
+    private static void decode(ByteInput input, Raster raster) throws IOException {
+        int width = raster.getWidth();
+        int[] row = new int[width];
+        int[] index = new int[64];
+        int pixel = 0xFF000000;
+        int run = 0;
+        for(int y = 0; y < raster.getHeight(); y++) {
+            for(int x = 0; x < width; x++) {
+                if(run > 0) {
+                    run--;
+                    row[x] = pixel;
+                    continue;
+                }
+                int b1 = input.read();
+                if(b1 == OP_RGB) {
+                    pixel = pixel & 0xFF000000 | input.read() << 16 | input.read() << 8 | input.read();
+                }
+                else if(b1 == OP_RGBA) {
+                    int rgb = input.read() << 16 | input.read() << 8 | input.read();
+                    pixel = input.read() << 24 | rgb;
+                }
+                else {
+                    switch(b1 & 0xC0) {
+                        case OP_INDEX:
+                            pixel = index[b1];
+                            break;
+                        case OP_DIFF:
+                            pixel = withChannels(pixel, ((b1 >> 4) & 3) - 2, ((b1 >> 2) & 3) - 2, (b1 & 3) - 2);
+                            break;
+                        case OP_LUMA:
+                            int b2 = input.read();
+                            int dg = (b1 & 0x3F) - 32;
+                            pixel = withChannels(pixel, dg - 8 + ((b2 >> 4) & 0xF), dg, dg - 8 + (b2 & 0xF));
+                            break;
+                        default:
+                            run = b1 & 0x3F;
+                            break;
+                    }
+                }
+                index[hash(pixel)] = pixel;
+                row[x] = pixel;
+            }
+            raster.setPixels(0, y, width, 1, row, 0, width);
+        }
+    }
+
+    /**
+     * Add differences to the red, green and blue parts of a pixel, wrapping around
+     * @param pixel the pixel, in ARGB format
+     * @param dr the difference in red
+     * @param dg the difference in green
+     * @param db the difference in blue
+     * @return the changed pixel
+     */
+    private static int withChannels(int pixel, int dr, int dg, int db) {
+        int r = ((pixel >> 16) + dr) & 0xFF;
+        int g = ((pixel >> 8) + dg) & 0xFF;
+        int b = (pixel + db) & 0xFF;
+        return pixel & 0xFF000000 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Get where a color goes in the table of recently seen colors
+     * @param pixel the color, in ARGB format
+     * @return the index in the table, from 0 to 63
+     */
+    private static int hash(int pixel) {
+        return (((pixel >> 16) & 0xFF) * 3 + ((pixel >> 8) & 0xFF) * 5 + (pixel & 0xFF) * 7 + (pixel >>> 24) * 11) & 63;
+    }
+
+    /**
+     * Put an int into an array as 4 big-endian bytes
+     * @param bytes the array
+     * @param offset the index of the first byte
+     * @param value the int
+     */
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte)(value >>> 24);
+        bytes[offset + 1] = (byte)(value >>> 16);
+        bytes[offset + 2] = (byte)(value >>> 8);
+        bytes[offset + 3] = (byte)value;
+    }
+}
@@ -0,0 +1,43 @@
+package paint.constant;
+
+/**
+ * Enum to hold the ways an image can be resampled when it is resized
+ */
+public enum ResampleMode {
+    NEAREST("Nearest Neighbour", 0),
+    BILINEAR("Bilinear", 1),
+    BICUBIC("Bicubic", 2),
+    LANCZOS3("Lanczos-3", 3);
+
+    /**
+     * The name shown to the user
+     */
+    private final String name;
+    /**
+     * How far in source pixels the mode's kernel reaches from its center
+     */
+    private final double support;
+
+    /**
+     * Construct a resample mode
+     * @param name the name shown to the user
+     * @param support how far in source pixels the mode's kernel reaches from its center
+     */
+    ResampleMode(String name, double support) {
+        this.name = name;
+        this.support = support;
+    }
+
+    /**
+     * Get how far in source pixels the mode's kernel reaches from its center
+     * @return the support of the kernel
+     */
+    public double getSupport() {
+        return support;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
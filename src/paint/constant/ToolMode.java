@@ -15,5 +15,7 @@ public enum ToolMode {
     POLYGON(),
     ERASER(),
     SELECT(),
-    COLOR_PICKER()
+    COLOR_PICKER(),
+    FILL(),
+    MAGIC_WAND()
 }
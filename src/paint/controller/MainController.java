@@ -17,8 +17,13 @@ import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
 import paint.Main;
 import paint.constant.ToolMode;
+import paint.filter.Convolution;
+import paint.filter.GaussianBlur;
+import paint.filter.SobelEdgeDetect;
+import paint.filter.UnsharpMask;
 import paint.popup.FieldPopup;
 import paint.util.CanvasManager;
+import paint.util.ImageFiles;
 import paint.util.ToggleGroup;
 
 import java.io.File;
@@ -52,9 +57,13 @@ public class MainController extends BaseController {
      */
     private CanvasManager canvasManager;
     /**
-     * The fileChooser used to open and save files
+     * The fileChooser used to open files
      */
     private FileChooser fileChooser;
+    /**
+     * The fileChooser used to save files, which only offers the formats that can be written
+     */
+    private FileChooser saveFileChooser;
 
     public ColorPicker getColorPicker() {
         return colorPicker;
@@ -83,6 +92,8 @@ public class MainController extends BaseController {
     @FXML private ToggleButton togglePolygon;
     @FXML private ToggleButton toggleSelect;
     @FXML private ToggleButton toggleDrawTriangle;
+    @FXML private ToggleButton toggleFill;
+    @FXML private ToggleButton toggleMagicWand;
     /**
      * The {@link ToggleGroup} to manage the tools
      */
@@ -102,6 +113,18 @@ public class MainController extends BaseController {
     @FXML private Slider lineWidthSlider;
     @FXML private Label lineWidthLabel;
     @FXML private Label autoSaveTimer;
+    /**
+     * Shows how far along a save is. Hidden when nothing is being saved.
+     */
+    @FXML private ProgressBar saveProgress;
+    /**
+     * Shows how far along loading an image file is. Hidden when nothing is being loaded.
+     */
+    @FXML private ProgressBar loadProgress;
+    /**
+     * Cancels loading an image file. Only shown while a file is being loaded.
+     */
+    @FXML private Button cancelLoad;
     @FXML private CheckMenuItem autoSaverMenuOption;
 
     private ScheduledExecutorService autoSaver;
@@ -150,7 +173,7 @@ public class MainController extends BaseController {
      */
     @FXML
     public void handleSaveAs() {
-        File file = fileChooser.showSaveDialog(null);
+        File file = saveFileChooser.showSaveDialog(null);
         if(file == null)
             return;
         canvasManager.saveCanvasToFile(file);
@@ -372,6 +395,55 @@ public class MainController extends BaseController {
             canvasManager.setToolMode(null);
     }
 
+    /**
+     * Runs when the fill button is clicked
+     */
+    @FXML
+    public void handleToggleFill() {
+        tools.unToggleAllBut(toggleFill);
+        if(toggleFill.isSelected()) {
+            FieldPopup popup = new FieldPopup("Fill");
+            TextField field = popup.addField("Tolerance (0-255): ", "0");
+            popup.addSubmitButton("Submit");
+            popup.showAndWait();
+            try {
+                canvasManager.setFillTolerance(Integer.parseInt(field.getText()));
+            } catch(NumberFormatException e) {
+                canvasManager.setFillTolerance(0);
+            }
+            canvasManager.setToolMode(ToolMode.FILL);
+        }
+        else
+            canvasManager.setToolMode(null);
+    }
+
+    /**
+     * Runs when the magic wand button is clicked
+     */
+    @FXML
+    public void handleToggleMagicWand() {
+        tools.unToggleAllBut(toggleMagicWand);
+        if(toggleMagicWand.isSelected()) {
+            FieldPopup popup = new FieldPopup("Magic Wand");
+            TextField field = popup.addField("Tolerance (0-255): ", "0");
+            CheckBox contiguous = (CheckBox)popup.addComponent(new CheckBox("Only connected pixels"));
+            contiguous.setSelected(true);
+            popup.addSubmitButton("Submit");
+            popup.showAndWait();
+            int tolerance;
+            try {
+                tolerance = Integer.parseInt(field.getText());
+            } catch(NumberFormatException e) {
+                tolerance = 0;
+            }
+            canvasManager.setWandOptions(tolerance, contiguous.isSelected());
+            canvasManager.setToolMode(ToolMode.MAGIC_WAND);
+            canvasManager.setSelectionMade(false);
+        }
+        else
+            canvasManager.setToolMode(null);
+    }
+
     /**
      * Runs when Edit ... Resize is clicked
      * Note that all the button handling in the resize window happens in {@link ResizeController}
@@ -393,6 +465,49 @@ public class MainController extends BaseController {
         stage.showAndWait();
     }
 
+    /**
+     * Show how far along saving is
+     * @param progress the fraction of the image written so far, from 0 to 1, or a negative number to hide it
+     */
+    public void setSaveProgress(double progress) {
+        saveProgress.setVisible(progress >= 0);
+        saveProgress.setProgress(progress);
+    }
+
+    /**
+     * Show how far along loading an image file is
+     * @param progress the fraction of the image read so far, from 0 to 1, or a negative number to hide it
+     */
+    public void setLoadProgress(double progress) {
+        loadProgress.setVisible(progress >= 0);
+        loadProgress.setProgress(progress);
+        cancelLoad.setVisible(progress >= 0);
+    }
+
+    /**
+     * Runs when the Cancel button next to the loading progress is clicked
+     */
+    @FXML
+    public void handleCancelLoad() {
+        canvasManager.cancelLoad();
+    }
+
+    /**
+     * Runs when File ... PNG Compression is clicked
+     */
+    @FXML
+    public void handlePngCompression() {
+        FieldPopup popup = new FieldPopup("PNG Compression");
+        TextField field = popup.addField("Level (0-9): ", Integer.toString(ImageFiles.getPngLevel()));
+        popup.addSubmitButton("Submit");
+        popup.showAndWait();
+        try {
+            ImageFiles.setPngLevel(Integer.parseInt(field.getText()));
+        } catch(NumberFormatException e) {
+            canvasManager.showMessage("PNG Compression", "Invalid compression level: " + field.getText());
+        }
+    }
+
     /**
      * Runs when Edit ... Undo is clicked
      */
@@ -409,6 +524,19 @@ public class MainController extends BaseController {
         canvasManager.redo();
     }
 
+    /**
+     * Runs when Edit ... Paste is clicked. Pasted pixels are moved with the Select tool, so it is chosen if it isn't already.
+     */
+    @FXML
+    public void handlePaste() {
+        ToolMode mode = canvasManager.getToolMode();
+        if(mode != ToolMode.SELECT && mode != ToolMode.MAGIC_WAND) {
+            toggleSelect.setSelected(true);
+            handleToggleSelect();
+        }
+        canvasManager.paste();
+    }
+
     /**
      * Runs when enter is hit while the zoom field is selected
      */
@@ -437,6 +565,61 @@ public class MainController extends BaseController {
         canvasManager.invert();
     }
 
+    /**
+     * Runs when Edit ... Filters ... Gaussian Blur is clicked
+     */
+    @FXML
+    public void handleGaussianBlur() {
+        double radius = askForValue("Gaussian Blur", "Radius: ", "5");
+        if(radius > 0)
+            canvasManager.applyFilter(new GaussianBlur(radius));
+    }
+
+    /**
+     * Runs when Edit ... Filters ... Unsharp Mask is clicked
+     */
+    @FXML
+    public void handleUnsharpMask() {
+        double radius = askForValue("Unsharp Mask", "Radius: ", "2");
+        if(radius > 0)
+            canvasManager.applyFilter(new UnsharpMask(radius, 1.0));
+    }
+
+    /**
+     * Runs when Edit ... Filters ... Edge Detect is clicked
+     */
+    @FXML
+    public void handleEdgeDetect() {
+        canvasManager.applyFilter(new SobelEdgeDetect());
+    }
+
+    /**
+     * Runs when Edit ... Filters ... Emboss is clicked
+     */
+    @FXML
+    public void handleEmboss() {
+        canvasManager.applyFilter(Convolution.emboss());
+    }
+
+    /**
+     * Show a popup asking for a single number
+     * @param title the title of the popup
+     * @param label the text next to the field
+     * @param defaultValue the value the field starts with
+     * @return the entered number, or -1 if it isn't a valid number
+     */
+    private double askForValue(String title, String label, String defaultValue) {
+        FieldPopup popup = new FieldPopup(title);
+        TextField field = popup.addField(label, defaultValue);
+        popup.addSubmitButton("Submit");
+        popup.showAndWait();
+        try {
+            return Double.parseDouble(field.getText());
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * Initialize/setup this controller. This is called by the fxml that is using this controller.
      * It should not be called explicitly
@@ -452,6 +635,19 @@ public class MainController extends BaseController {
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PNG Files (*.png)", "*.png"));
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("BMP Files (*.bmp", "*.bmp"));
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JPEG Files (*.jpg)", "*.jpg"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Paint Projects (*.paintproj)", "*.paintproj"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("QOI Files (*.qoi)", "*.qoi"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PAM Files (*.pam)", "*.pam"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PPM Files (*.ppm, *.pgm, *.pnm)", "*.ppm", "*.pgm", "*.pnm"));
+        // PGM and PNM files can be opened but not written
+        saveFileChooser = new FileChooser();
+        saveFileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PNG Files (*.png)", "*.png"));
+        saveFileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("BMP Files (*.bmp)", "*.bmp"));
+        saveFileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JPEG Files (*.jpg)", "*.jpg"));
+        saveFileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Paint Projects (*.paintproj)", "*.paintproj"));
+        saveFileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("QOI Files (*.qoi)", "*.qoi"));
+        saveFileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PAM Files (*.pam)", "*.pam"));
+        saveFileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("PPM Files (*.ppm)", "*.ppm"));
         // Get all the toolbar toggleables
         for(Node node : findRootChildrenInPane(toolBarRow1)) {
             if(node instanceof ToggleButton)
@@ -484,7 +680,7 @@ public class MainController extends BaseController {
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
-                Platform.runLater(() -> canvasManager.sendSnapShotToNewFile(canvas.snapshot(null, null)));
+                Platform.runLater(() -> canvasManager.autoSave());
             }
         });
         autoSaveThread.setDaemon(true);
@@ -2,13 +2,14 @@ package paint.controller;
 
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.TextField;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.PixelWriter;
-import javafx.scene.image.WritableImage;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
 import paint.Main;
+import paint.constant.ResampleMode;
+import paint.filter.Resampler;
+import paint.raster.Raster;
 import paint.util.CanvasManager;
 
 import java.net.URL;
@@ -28,36 +29,24 @@ public class ResizeController extends BaseController {
      * Field that holds the user's chosen vertical resizing
      */
     @FXML TextField verticalField;
+    /**
+     * Control for how the image is resampled
+     */
+    @FXML ComboBox<ResampleMode> modeChooser;
 
     /**
      * Runs when the resize button is clicked
      */
     @FXML
     public void handleResizeButton() {
-        WritableImage image = canvasManager.getCanvas().snapshot(null, null);
-        PixelReader pixelReader = image.getPixelReader();
-        if(pixelReader == null)
-            return;
-
-        int oldWidth = (int)image.getWidth();
-        int oldHeight = (int)image.getHeight();
         int newWidth = getTextFieldValue(horizontalField);
         int newHeight = getTextFieldValue(verticalField);
+        if(newWidth <= 0 || newHeight <= 0 || canvasManager.isLoading())
+            return;
 
-        WritableImage newImage = new WritableImage(newWidth, newHeight);
-        PixelWriter pixelWriter = newImage.getPixelWriter();
-        for(int newY = 0; newY < newHeight; newY++) {
-            int oldY = (int)Math.round((double)newY / newHeight * oldHeight);
-            for(int newX = 0; newX < newWidth; newX++) {
-                int oldX = (int)Math.round((double)newX / newWidth * oldWidth);
-                if(oldX >= oldWidth)
-                    oldX--;
-                if(oldY >= oldHeight)
-                    oldY--;
-                pixelWriter.setArgb(newX, newY, pixelReader.getArgb(oldX, oldY));
-            }
-        }
-        canvasManager.loadImage(newImage);
+        Raster resized = Raster.create(newWidth, newHeight);
+        Resampler.resample(canvasManager.getRaster(), resized, modeChooser.getValue());
+        canvasManager.resize(resized);
         ((Stage)horizontalField.getScene().getWindow()).close();
     }
 
@@ -77,8 +66,10 @@ public class ResizeController extends BaseController {
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         super.initialize(location, resources);
-        horizontalField.textProperty().setValue("" + (int)canvasManager.getCanvas().getWidth());
-        verticalField.textProperty().setValue("" + (int)canvasManager.getCanvas().getHeight());
+        horizontalField.textProperty().setValue("" + canvasManager.getRaster().getWidth());
+        verticalField.textProperty().setValue("" + canvasManager.getRaster().getHeight());
+        modeChooser.getItems().setAll(ResampleMode.values());
+        modeChooser.setValue(ResampleMode.LANCZOS3);
 
         // Init TextField listeners
         horizontalField.textProperty().addListener((observable, oldValue, newValue) -> {
@@ -1,6 +1,8 @@
 package paint.draw;
 
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.shape.StrokeLineJoin;
 
 /**
  * A generic Drawable, intended to be extended by anything else that is desired to be drawn on a {@link javafx.scene.canvas.Canvas}
@@ -71,6 +73,32 @@ public abstract class Drawable {
         return Math.min(y0, y1);
     }
 
+    /**
+     * Get the area this drawable covers when drawn, including the width of its lines.
+     * Used to only clear or repaint the part of the canvas that this drawable touched.
+     * @param context the context the drawable is drawn with
+     * @return the area covered by the drawable
+     */
+    public Rectangle2D getBounds(GraphicsContext context) {
+        return padBounds(getXTopLeft(), getYTopLeft(), getWidth(), getHeight(), context);
+    }
+
+    /**
+     * Grow an area by the line width of the context (plus a pixel for anti-aliasing) on every side.
+     * Mitered corners can stick out further than half the line width, up to the context's miter limit.
+     * @param x the left-most x value of the area
+     * @param y the top-most y value of the area
+     * @param width the width of the area
+     * @param height the height of the area
+     * @param context the context whose line width is used
+     * @return the grown area
+     */
+    protected static Rectangle2D padBounds(double x, double y, double width, double height, GraphicsContext context) {
+        double reach = context.getLineJoin() == StrokeLineJoin.MITER ? Math.max(1, context.getMiterLimit()) : 1;
+        double pad = reach * context.getLineWidth() / 2 + 1;
+        return new Rectangle2D(x - pad, y - pad, width + 2 * pad, height + 2 * pad);
+    }
+
     /**
      * Get the width of the drawable
      * @return the width of the drawable
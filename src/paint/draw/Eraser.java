@@ -22,12 +22,15 @@ public class Eraser extends FreeDraw {
     /**
      * Draw (erase) given the {@link GraphicsContext}
      * @param context the context to draw with
+     * @param xPoints the x values of the points
+     * @param yPoints the y values of the points
+     * @param count the number of points to use
      */
     @Override
-    public void drawFinal(GraphicsContext context) {
+    protected void strokePath(GraphicsContext context, double[] xPoints, double[] yPoints, int count) {
         Paint original = context.getStroke();
         context.setStroke(Color.WHITE);
-        super.drawFinal(context);
+        super.strokePath(context, xPoints, yPoints, count);
         context.setStroke(original);
     }
 }
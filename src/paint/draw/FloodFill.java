@@ -0,0 +1,282 @@
+package paint.draw;
+
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+import paint.raster.SelectionMask;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A paint bucket fill. Unlike other drawings it works on the pixels of a {@link Raster} directly, since which pixels
+ * it covers depends on what the image looks like. Filling is done in two steps: {@link #find(int, int)} works out the
+ * region to fill without changing anything, so the area can be recorded for undoing, then {@link #paint(int)} fills it.
+ * The region is found with a scanline fill: each step fills a whole run of a row and looks for new runs in the rows
+ * above and below it. Runs still to look at are kept on a stack of ints and filled pixels in one bit set per row,
+ * so no objects are made per pixel and only the rows the region reaches take up memory.
+ * @author Colin Braun
+ */
+public class FloodFill {
+    /**
+     * About how many pixels of rows are kept in memory while finding the region
+     */
+    private static final int ROW_CACHE_PIXELS = 1 << 21;
+    /**
+     * The raster being filled
+     */
+    private final Raster raster;
+    /**
+     * How far each channel of a pixel may be from the clicked color and still be filled, from 0 to 255
+     */
+    private final int tolerance;
+    /**
+     * The pixels in the region, one bit per pixel. Rows the region doesn't reach are null.
+     */
+    private long[][] filled;
+    /**
+     * The area covered by the region
+     */
+    private DirtyRect bounds;
+    /**
+     * Recently read rows of the raster, most recently used last
+     */
+    private LinkedHashMap<Integer, int[]> rows;
+    /**
+     * A row that was dropped from the cache, reused for the next row read so rows aren't made over and over
+     */
+    private int[] spareRow;
+    /**
+     * Seeds still to fill from, stored as x, y pairs
+     */
+    private int[] stack;
+    /**
+     * The number of ints used in the stack
+     */
+    private int top;
+    /**
+     * The clicked color, in ARGB format
+     */
+    private int target;
+
+    /**
+     * Construct a fill
+     * @param raster the raster to fill on
+     * @param tolerance how far each channel of a pixel may be from the clicked color and still be filled, from 0 to 255
+     */
+    public FloodFill(Raster raster, int tolerance) {
+        this.raster = raster;
+        this.tolerance = Math.max(0, Math.min(255, tolerance));
+    }
+
+    /**
+     * Find the region to fill, starting from a pixel. Nothing is changed yet.
+     * @param x the x value of the pixel clicked on
+     * @param y the y value of the pixel clicked on
+     * @return the area covered by the region, which is empty if the pixel is outside of the raster
+     */
+    public DirtyRect find(int x, int y) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        filled = new long[height][];
+        if(x < 0 || y < 0 || x >= width || y >= height) {
+            bounds = new DirtyRect(0, 0, 0, 0);
+            return bounds;
+        }
+        int maxRows = Math.max(3, ROW_CACHE_PIXELS / width);
+        rows = new LinkedHashMap<Integer, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+                if(size() <= maxRows)
+                    return false;
+                spareRow = eldest.getValue();
+                return true;
+            }
+        };
+        target = raster.getArgb(x, y);
+        int minX = x, minY = y, maxX = x, maxY = y;
+        stack = new int[64];
+        top = 0;
+        push(x, y);
+        while(top > 0) {
+            int seedY = stack[--top];
+            int seedX = stack[--top];
+            int[] row = getRow(seedY);
+            long[] rowFilled = getFilledRow(seedY);
+            if(isSet(rowFilled, seedX) || !matches(row[seedX], target, tolerance))
+                continue;
+            // Grow the run as far as it goes to the left and right
+            int left = seedX;
+            while(left > 0 && !isSet(rowFilled, left - 1) && matches(row[left - 1], target, tolerance))
+                left--;
+            int right = seedX;
+            while(right < width - 1 && !isSet(rowFilled, right + 1) && matches(row[right + 1], target, tolerance))
+                right++;
+            setRange(rowFilled, left, right);
+            minX = Math.min(minX, left);
+            maxX = Math.max(maxX, right);
+            minY = Math.min(minY, seedY);
+            maxY = Math.max(maxY, seedY);
+            if(seedY > 0)
+                pushRuns(left, right, seedY - 1);
+            if(seedY < height - 1)
+                pushRuns(left, right, seedY + 1);
+        }
+        stack = null;
+        rows = null;
+        spareRow = null;
+        bounds = new DirtyRect(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        return bounds;
+    }
+
+    /**
+     * Get the region found by {@link #find(int, int)} as a selection
+     * @return the mask of the region
+     */
+    public SelectionMask getMask() {
+        SelectionMask mask = new SelectionMask(bounds);
+        for(int y = bounds.getY(); y < bounds.getMaxY(); y++) {
+            if(filled[y] != null)
+                mask.addRow(y, filled[y]);
+        }
+        return mask;
+    }
+
+    /**
+     * Push one seed for each run of fillable pixels in a row that lies between two x values.
+     * Used on the rows above and below each run that is filled.
+     * @param left the left-most x value to look at
+     * @param right the right-most x value to look at
+     * @param y the row
+     */
+    private void pushRuns(int left, int right, int y) {
+        int[] row = getRow(y);
+        long[] rowFilled = filled[y];
+        boolean inRun = false;
+        for(int i = left; i <= right; i++) {
+            // Skip over 64 pixels at a time where the row is already filled
+            if(rowFilled != null && (i & 63) == 0 && i + 63 <= right && rowFilled[i >>> 6] == -1L) {
+                i += 63;
+                inRun = false;
+                continue;
+            }
+            boolean fillable = (rowFilled == null || !isSet(rowFilled, i)) && matches(row[i], target, tolerance);
+            if(fillable && !inRun)
+                push(i, y);
+            inRun = fillable;
+        }
+    }
+
+    /**
+     * Push a seed onto the stack, growing it if needed
+     * @param x the x value of the seed
+     * @param y the y value of the seed
+     */
+    private void push(int x, int y) {
+        if(top + 2 > stack.length)
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+        stack[top++] = x;
+        stack[top++] = y;
+    }
+
+    /**
+     * Fill the region found by {@link #find(int, int)} with a color
+     * @param argb the color to fill with, in ARGB format
+     */
+    public void paint(int argb) {
+        if(bounds == null || bounds.isEmpty())
+            return;
+        int[] color = new int[bounds.getWidth()];
+        Arrays.fill(color, argb);
+        for(int y = bounds.getY(); y < bounds.getMaxY(); y++) {
+            long[] row = filled[y];
+            if(row == null)
+                continue;
+            // Fill each run of the row at once
+            int x = bounds.getX();
+            while(x < bounds.getMaxX()) {
+                if(!isSet(row, x)) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while(x < bounds.getMaxX() && isSet(row, x))
+                    x++;
+                raster.setPixels(start, y, x - start, 1, color, 0, x - start);
+            }
+        }
+    }
+
+    /**
+     * Get a row of the raster, reading it if it isn't in the cache
+     * @param y the row
+     * @return the pixels of the row
+     */
+    private int[] getRow(int y) {
+        int[] row = rows.get(y);
+        if(row == null) {
+            row = spareRow != null ? spareRow : new int[raster.getWidth()];
+            spareRow = null;
+            raster.getPixels(0, y, row.length, 1, row, 0, row.length);
+            rows.put(y, row);
+        }
+        return row;
+    }
+
+    /**
+     * Whether or not a pixel is close enough to the clicked color to be filled
+     * @param pixel the pixel, in ARGB format
+     * @param target the clicked color, in ARGB format
+     * @param tolerance how far each channel may be from the clicked color, from 0 to 255
+     * @return true if every channel is within the tolerance
+     */
+    static boolean matches(int pixel, int target, int tolerance) {
+        if(pixel == target)
+            return true;
+        for(int shift = 0; shift < 32; shift += 8) {
+            if(Math.abs(((pixel >>> shift) & 0xFF) - ((target >>> shift) & 0xFF)) > tolerance)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the filled bits of a row, making them if the region hasn't reached the row before
+     * @param y the row
+     * @return one bit per pixel of the row
+     */
+    private long[] getFilledRow(int y) {
+        if(filled[y] == null)
+            filled[y] = new long[(raster.getWidth() + 63) / 64];
+        return filled[y];
+    }
+
+    /**
+     * Set the bits of a run of pixels in a row of bits, a word at a time
+     * @param row the bits of the row
+     * @param from the first pixel of the run
+     * @param to the last pixel of the run
+     */
+    private static void setRange(long[] row, int from, int to) {
+        int first = from >>> 6;
+        int last = to >>> 6;
+        if(first == last) {
+            row[first] |= (-1L << from) & (-1L >>> (63 - (to & 63)));
+            return;
+        }
+        row[first] |= -1L << from;
+        for(int i = first + 1; i < last; i++)
+            row[i] = -1L;
+        row[last] |= -1L >>> (63 - (to & 63));
+    }
+
+    /**
+     * Whether or not a pixel's bit is set in a row of bits
+     * @param row the bits of the row
+     * @param x the pixel
+     * @return true if it is set
+     */
+    private static boolean isSet(long[] row, int x) {
+        return (row[x >>> 6] & 1L << x) != 0;
+    }
+}
@@ -1,21 +1,44 @@
 package paint.draw;
 
-import javafx.geometry.Point2D;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * A drawable that allows for free drawing (pencil).
+ * While the mouse is dragged, only the newest segments need to be drawn, see {@link #drawIncrement(GraphicsContext)}.
+ * The path is kept in plain arrays that grow as needed, so adding a point does not create any objects.
  * @author Colin Braun
  */
 public class FreeDraw extends Drawable {
 
     /**
-     * A list of all the points along the path to be drawn
+     * The number of points the path has room for before its arrays need to grow
      */
-    private List<Point2D> path;
+    private static final int INITIAL_CAPACITY = 64;
+    /**
+     * The x and y values of the points along the path to be drawn. Only the first pathSize values are used.
+     */
+    private double[] pathX, pathY;
+    /**
+     * The number of points along the path
+     */
+    private int pathSize;
+    /**
+     * The smallest and largest x and y values along the path
+     */
+    private double minX, minY, maxX, maxY;
+    /**
+     * The number of points along the path that have already been drawn by {@link #drawIncrement(GraphicsContext)}
+     */
+    private int drawnPoints;
+    /**
+     * Reused arrays holding the part of the path that {@link #drawIncrement(GraphicsContext)} draws
+     */
+    private double[] incrementX, incrementY;
 
     /**
      * Construct a FreeDraw starting at x, y
@@ -24,8 +47,16 @@ public class FreeDraw extends Drawable {
      */
     public FreeDraw(double x, double y) {
         super(x, y, x, y);
-        path = new ArrayList<>();
-        path.add(new Point2D(x, y));
+        pathX = new double[INITIAL_CAPACITY];
+        pathY = new double[INITIAL_CAPACITY];
+        incrementX = new double[INITIAL_CAPACITY];
+        incrementY = new double[INITIAL_CAPACITY];
+        pathX[0] = x;
+        pathY[0] = y;
+        pathSize = 1;
+        minX = maxX = x;
+        minY = maxY = y;
+        drawnPoints = 1;
     }
 
     /**
@@ -37,7 +68,17 @@ public class FreeDraw extends Drawable {
     @Override
     public void setEnd(double x1, double y1) {
         super.setEnd(x1, y1);
-        path.add(new Point2D(x1, y1));
+        if(pathSize == pathX.length) {
+            pathX = Arrays.copyOf(pathX, pathSize * 2);
+            pathY = Arrays.copyOf(pathY, pathSize * 2);
+        }
+        pathX[pathSize] = x1;
+        pathY[pathSize] = y1;
+        pathSize++;
+        minX = Math.min(minX, x1);
+        maxX = Math.max(maxX, x1);
+        minY = Math.min(minY, y1);
+        maxY = Math.max(maxY, y1);
     }
 
     /**
@@ -46,10 +87,132 @@ public class FreeDraw extends Drawable {
      */
     @Override
     public void drawFinal(GraphicsContext context) {
-        for(int i = 1; i < path.size(); i++) {
-            Point2D from = path.get(i-1);
-            Point2D to = path.get(i);
-            context.strokeLine(from.getX(), from.getY(), to.getX(), to.getY());
+        strokePath(context, pathX, pathY, pathSize);
+    }
+
+    /**
+     * Draw only the segments added since the last time this was called.
+     * Calling this after every {@link #setEnd(double, double)} covers the same pixels as calling drawFinal() once.
+     * @param context the context used to draw
+     */
+    public void drawIncrement(GraphicsContext context) {
+        // Start from the last point already drawn so the new segments connect to it
+        int count = pathSize - drawnPoints + 1;
+        if(count < 2)
+            return;
+        if(incrementX.length < count) {
+            incrementX = new double[pathX.length];
+            incrementY = new double[pathY.length];
+        }
+        System.arraycopy(pathX, drawnPoints - 1, incrementX, 0, count);
+        System.arraycopy(pathY, drawnPoints - 1, incrementY, 0, count);
+        strokePath(context, incrementX, incrementY, count);
+        drawnPoints = pathSize;
+    }
+
+    /**
+     * Stroke a path as a single polyline.
+     * Round caps and joins are used so paths drawn in separate pieces join up smoothly.
+     * @param context the context used to draw
+     * @param xPoints the x values of the points
+     * @param yPoints the y values of the points
+     * @param count the number of points to use
+     */
+    protected void strokePath(GraphicsContext context, double[] xPoints, double[] yPoints, int count) {
+        StrokeLineCap originalCap = context.getLineCap();
+        StrokeLineJoin originalJoin = context.getLineJoin();
+        context.setLineCap(StrokeLineCap.ROUND);
+        context.setLineJoin(StrokeLineJoin.ROUND);
+        context.strokePolyline(xPoints, yPoints, count);
+        context.setLineCap(originalCap);
+        context.setLineJoin(originalJoin);
+    }
+
+    /**
+     * Remove points along the path that barely change its shape, using the Ramer-Douglas-Peucker algorithm.
+     * A point is removed if it is closer than the tolerance to the line between the points kept around it.
+     * @param tolerance the largest distance in pixels the simplified path may be from the original
+     */
+    public void simplify(double tolerance) {
+        if(pathSize < 3)
+            return;
+        boolean[] keep = new boolean[pathSize];
+        keep[0] = true;
+        keep[pathSize - 1] = true;
+        // Ranges of the path still to check, stored as pairs of start and end indexes
+        int[] ranges = new int[2 * pathSize];
+        int top = 0;
+        ranges[top++] = 0;
+        ranges[top++] = pathSize - 1;
+        double toleranceSquared = tolerance * tolerance;
+        while(top > 0) {
+            int end = ranges[--top];
+            int start = ranges[--top];
+            double farthest = 0;
+            int farthestIndex = -1;
+            for(int i = start + 1; i < end; i++) {
+                double distance = distanceToSegmentSquared(i, start, end);
+                if(distance > farthest) {
+                    farthest = distance;
+                    farthestIndex = i;
+                }
+            }
+            if(farthest > toleranceSquared) {
+                keep[farthestIndex] = true;
+                ranges[top++] = start;
+                ranges[top++] = farthestIndex;
+                ranges[top++] = farthestIndex;
+                ranges[top++] = end;
+            }
+        }
+        int kept = 0;
+        for(int i = 0; i < pathSize; i++) {
+            if(keep[i]) {
+                pathX[kept] = pathX[i];
+                pathY[kept] = pathY[i];
+                kept++;
+            }
         }
+        pathSize = kept;
+        drawnPoints = kept;
+    }
+
+    /**
+     * Find the squared distance from a point on the path to the segment between two other points on the path
+     * @param point the index of the point
+     * @param start the index of the start of the segment
+     * @param end the index of the end of the segment
+     * @return the squared distance
+     */
+    private double distanceToSegmentSquared(int point, int start, int end) {
+        double dx = pathX[end] - pathX[start];
+        double dy = pathY[end] - pathY[start];
+        double px = pathX[point] - pathX[start];
+        double py = pathY[point] - pathY[start];
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+        double ex = px - t * dx;
+        double ey = py - t * dy;
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * Get the number of points along the path
+     * @return the number of points
+     */
+    public int getPointCount() {
+        return pathSize;
+    }
+
+    /**
+     * Get the area covered by every point along the path.
+     * The path is always drawn with round joins, so it never reaches further than half the line width.
+     * @param context the context the path is drawn with
+     * @return the area covered by the path
+     */
+    @Override
+    public Rectangle2D getBounds(GraphicsContext context) {
+        double pad = context.getLineWidth() / 2 + 1;
+        return new Rectangle2D(minX - pad, minY - pad, maxX - minX + 2 * pad, maxY - minY + 2 * pad);
     }
 }
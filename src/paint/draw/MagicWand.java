@@ -0,0 +1,61 @@
+package paint.draw;
+
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+import paint.raster.SelectionMask;
+
+/**
+ * Selects pixels of a similar color to the one clicked on, either only those connected to it or all of them in the image
+ * @author Colin Braun
+ */
+public class MagicWand {
+    /**
+     * The number of rows read at a time when selecting by color across the whole image
+     */
+    private static final int BAND_ROWS = 64;
+
+    /**
+     * Select the pixels similar in color to a pixel
+     * @param raster the image to select in
+     * @param x the x value of the pixel clicked on
+     * @param y the y value of the pixel clicked on
+     * @param tolerance how far each channel of a pixel may be from the clicked color and still be selected, from 0 to 255
+     * @param contiguous true to only select pixels connected to the clicked one, false to select them anywhere in the image
+     * @return the selected pixels, which is empty if the pixel is outside of the image
+     */
+    public static SelectionMask select(Raster raster, int x, int y, int tolerance, boolean contiguous) {
+        if(contiguous) {
+            FloodFill fill = new FloodFill(raster, tolerance);
+            fill.find(x, y);
+            return fill.getMask();
+        }
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        if(x < 0 || y < 0 || x >= width || y >= height)
+            return new SelectionMask(new DirtyRect(0, 0, 0, 0));
+        int target = raster.getArgb(x, y);
+        int clamped = Math.max(0, Math.min(255, tolerance));
+        SelectionMask mask = new SelectionMask(DirtyRect.of(raster));
+        int[] band = new int[width * Math.min(height, BAND_ROWS)];
+        for(int top = 0; top < height; top += BAND_ROWS) {
+            int rows = Math.min(BAND_ROWS, height - top);
+            raster.getPixels(0, top, width, rows, band, 0, width);
+            for(int row = 0; row < rows; row++) {
+                int offset = row * width;
+                int i = 0;
+                while(i < width) {
+                    if(!FloodFill.matches(band[offset + i], target, clamped)) {
+                        i++;
+                        continue;
+                    }
+                    int start = i;
+                    while(i < width && FloodFill.matches(band[offset + i], target, clamped))
+                        i++;
+                    mask.add(top + row, start, i);
+                }
+            }
+        }
+        // Only keep the area the selected pixels cover
+        return mask.trim();
+    }
+}
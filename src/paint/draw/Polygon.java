@@ -1,5 +1,6 @@
 package paint.draw;
 
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.GraphicsContext;
 
 /**
@@ -44,4 +45,15 @@ public class Polygon extends Drawable {
         }
         context.fillPolygon(xPoints, yPoints, n);
     }
+
+    /**
+     * Get the area the polygon covers, which is the circle its corners lie on
+     * @param context the context the polygon is drawn with
+     * @return the area covered by the polygon
+     */
+    @Override
+    public Rectangle2D getBounds(GraphicsContext context) {
+        double distance = Math.sqrt((y1-y0)*(y1-y0) + (x1-x0)*(x1-x0));
+        return padBounds(x0 - distance, y0 - distance, 2 * distance, 2 * distance, context);
+    }
 }
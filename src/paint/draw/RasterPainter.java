@@ -0,0 +1,98 @@
+package paint.draw;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+import paint.util.RasterConverter;
+
+import java.util.function.Consumer;
+
+/**
+ * Draws onto a {@link Raster} using a {@link GraphicsContext}, by way of a canvas that is never shown.
+ * Only the area being drawn in is copied onto the canvas and read back, and large areas are done in pieces,
+ * so drawing on a very large image costs about as much as the area drawn on.
+ * @author Colin Braun
+ */
+public class RasterPainter {
+    /**
+     * The largest width and height of a piece of an area that is drawn at once
+     */
+    public static final int MAX_PIECE_SIZE = 2048;
+    /**
+     * The sizes of the image the canvas is rendered into are rounded up to a multiple of this,
+     * so it can be reused for areas of similar sizes
+     */
+    private static final int RENDER_ROUNDING = 64;
+    /**
+     * The canvas drawing is done on. Created the first time it is needed.
+     */
+    private Canvas canvas;
+    /**
+     * Reused image the canvas is rendered into
+     */
+    private WritableImage renderImage;
+    /**
+     * The settings the canvas is rendered with. A transparent fill keeps transparent pixels transparent.
+     */
+    private final SnapshotParameters renderParameters;
+
+    /**
+     * Default Constructor
+     */
+    public RasterPainter() {
+        renderParameters = new SnapshotParameters();
+        renderParameters.setFill(Color.TRANSPARENT);
+    }
+
+    /**
+     * Draw on part of a raster. The drawing is given a context that takes image coordinates and is clipped to the
+     * area, so pixels outside of it never change. It may be called more than once for large areas, so it must
+     * draw the same way each time. Must be called on the JavaFX Application Thread.
+     * @param raster the raster to draw on
+     * @param area the area to draw in, inside the raster
+     * @param drawing what to draw
+     */
+    public void paint(Raster raster, DirtyRect area, Consumer<GraphicsContext> drawing) {
+        if(canvas == null)
+            canvas = new Canvas(MAX_PIECE_SIZE, MAX_PIECE_SIZE);
+        GraphicsContext context = canvas.getGraphicsContext2D();
+        for(int y = area.getY(); y < area.getMaxY(); y += MAX_PIECE_SIZE) {
+            for(int x = area.getX(); x < area.getMaxX(); x += MAX_PIECE_SIZE) {
+                int w = Math.min(MAX_PIECE_SIZE, area.getMaxX() - x);
+                int h = Math.min(MAX_PIECE_SIZE, area.getMaxY() - y);
+                RasterConverter.write(raster, context.getPixelWriter(), x, y, w, h, 0, 0);
+                context.save();
+                context.translate(-x, -y);
+                context.beginPath();
+                context.rect(x, y, w, h);
+                context.clip();
+                drawing.accept(context);
+                context.restore();
+                RasterConverter.read(render(w, h), 0, 0, raster, x, y, w, h);
+            }
+        }
+    }
+
+    /**
+     * Render the top-left corner of the canvas into the reused image
+     * @param w the width of the corner
+     * @param h the height of the corner
+     * @return the reader of the rendered image
+     */
+    private PixelReader render(int w, int h) {
+        int width = (w + RENDER_ROUNDING - 1) / RENDER_ROUNDING * RENDER_ROUNDING;
+        int height = (h + RENDER_ROUNDING - 1) / RENDER_ROUNDING * RENDER_ROUNDING;
+        if(renderImage == null || renderImage.getWidth() != width || renderImage.getHeight() != height)
+            renderImage = new WritableImage(width, height);
+        // The snapshot covers the whole image starting at the viewport's top-left corner
+        renderParameters.setViewport(new Rectangle2D(0, 0, width, height));
+        canvas.snapshot(renderParameters, renderImage);
+        return renderImage.getPixelReader();
+    }
+}
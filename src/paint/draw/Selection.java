@@ -1,12 +1,21 @@
 package paint.draw;
 
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
+import paint.raster.DirtyRect;
+import paint.raster.SelectionMask;
+
+import java.util.Arrays;
 
 /**
- * A drawable selection
+ * A drawable selection. A selection is a rectangle dragged out with the mouse, or any shape of pixels given by a
+ * {@link SelectionMask}, like the ones picked by the {@link MagicWand}.
  * @author Colin Braun
  */
 public class Selection extends Drawable {
@@ -23,6 +32,22 @@ public class Selection extends Drawable {
      * Info used to determine where to place the image on the canvas while it's dragged
      */
     private double grabbedDeltaX, grabbedDeltaY, mouseX, mouseY;
+    /**
+     * The selected pixels, or null if the rectangle hasn't been finished yet
+     */
+    private SelectionMask mask;
+    /**
+     * A tint over the selected pixels, drawn so shapes other than rectangles can be seen. Made the first time it is needed.
+     */
+    private WritableImage maskPreview;
+    /**
+     * The color of the tint over the selected pixels
+     */
+    private static final int MASK_TINT = 0x403399FF;
+    /**
+     * The largest width or height of a mask that is tinted. Larger masks only show their border.
+     */
+    private static final int MAX_TINT_SIZE = 4096;
 
     /**
      * Set a selection at x0, y0
@@ -34,6 +59,36 @@ public class Selection extends Drawable {
         isGrabbed = false;
     }
 
+    /**
+     * Make a selection from a mask of selected pixels
+     * @param mask the selected pixels, which must not be empty
+     * @return the selection, covering the area of the mask
+     */
+    public static Selection fromMask(SelectionMask mask) {
+        DirtyRect bounds = mask.getBounds();
+        Selection selection = new Selection(bounds.getX(), bounds.getY());
+        selection.setEnd(bounds.getMaxX(), bounds.getMaxY());
+        selection.mask = mask;
+        return selection;
+    }
+
+    /**
+     * Set the pixels that are selected
+     * @param mask the selected pixels
+     */
+    public void setMask(SelectionMask mask) {
+        this.mask = mask;
+        maskPreview = null;
+    }
+
+    /**
+     * Get the pixels that are selected
+     * @return the selected pixels, or null if the rectangle hasn't been finished yet
+     */
+    public SelectionMask getMask() {
+        return mask;
+    }
+
     /**
      * Set the image that is selected.
      * @param image the selected image
@@ -48,7 +103,7 @@ public class Selection extends Drawable {
      */
     @Override
     public void drawFinal(GraphicsContext context) {
-        if(isGrabbed) {
+        if(isGrabbed && selection != null) {
             context.drawImage(selection, mouseX + grabbedDeltaX, mouseY + grabbedDeltaY);
         }
     }
@@ -66,15 +121,65 @@ public class Selection extends Drawable {
         context.setStroke(Color.BLACK);
         boolean xPositive = x1 - x0 >= 0;
         boolean yPositive = y1 - y0 >= 0;
-        if(isGrabbed) {
+        if(isGrabbed && selection != null) {
             context.drawImage(selection, mouseX + grabbedDeltaX, mouseY + grabbedDeltaY);
         }
+        // Selections too large to have an image are dragged around as just a border
+        else if(isGrabbed) {
+            context.strokeRect(mouseX + grabbedDeltaX, mouseY + grabbedDeltaY, getWidth(), getHeight());
+        }
+        else if(getMaskPreview() != null) {
+            DirtyRect bounds = mask.getBounds();
+            context.drawImage(maskPreview, bounds.getX(), bounds.getY());
+        }
         context.strokeRect(xPositive ? x0 : x1, yPositive ? y0 : y1, xPositive ? x1-x0 : x0-x1, yPositive ? y1-y0 : y0-y1);
 
         context.setLineWidth(originalWidth);
         context.setStroke(originalColor);
     }
 
+    /**
+     * Get the tint drawn over the selected pixels, making it if needed
+     * @return the tint, or null if there is no mask or it is too large to tint
+     */
+    private Image getMaskPreview() {
+        if(mask == null || mask.isEmpty())
+            return null;
+        DirtyRect bounds = mask.getBounds();
+        if(bounds.getWidth() > MAX_TINT_SIZE || bounds.getHeight() > MAX_TINT_SIZE)
+            return null;
+        if(maskPreview == null) {
+            maskPreview = new WritableImage(bounds.getWidth(), bounds.getHeight());
+            PixelWriter writer = maskPreview.getPixelWriter();
+            int[] tint = new int[bounds.getWidth()];
+            Arrays.fill(tint, MASK_TINT);
+            mask.forEachRun((y, startX, endX) -> writer.setPixels(startX - bounds.getX(), y - bounds.getY(), endX - startX, 1,
+                    PixelFormat.getIntArgbInstance(), tint, 0, tint.length));
+        }
+        return maskPreview;
+    }
+
+    /**
+     * Get the area covered by the border of the selection and, if it's grabbed, the image being dragged
+     * @param context the context the selection is drawn with
+     * @return the area covered by the selection
+     */
+    @Override
+    public Rectangle2D getBounds(GraphicsContext context) {
+        double minX = getXTopLeft();
+        double minY = getYTopLeft();
+        double maxX = minX + getWidth();
+        double maxY = minY + getHeight();
+        if(isGrabbed) {
+            minX = Math.min(minX, mouseX + grabbedDeltaX);
+            minY = Math.min(minY, mouseY + grabbedDeltaY);
+            maxX = Math.max(maxX, mouseX + grabbedDeltaX + (selection != null ? selection.getWidth() : getWidth()));
+            maxY = Math.max(maxY, mouseY + grabbedDeltaY + (selection != null ? selection.getHeight() : getHeight()));
+        }
+        // The border is always drawn 1 pixel wide
+        return new Rectangle2D(minX - 2, minY - 2, maxX - minX + 4, maxY - minY + 4);
+    }
+
     /**
      * Check if the point x, y is within the made selection
      * @param x the x-coordinate
@@ -82,6 +187,8 @@ public class Selection extends Drawable {
      * @return whether or not (x,y) is in the selection
      */
     public boolean isInSelection(double x, double y) {
+        if(mask != null)
+            return mask.contains((int)Math.floor(x), (int)Math.floor(y));
         boolean xPositive = x1 - x0 >= 0;
         boolean yPositive = y1 - y0 >= 0;
         double x0Temp = xPositive ? x0 : x1;
@@ -124,6 +231,22 @@ public class Selection extends Drawable {
         this.grabbedDeltaY = getYTopLeft() - grabbedY;
     }
 
+    /**
+     * Get the x value the top-left corner of the grabbed image is dragged to
+     * @return the x value
+     */
+    public double getDropX() {
+        return mouseX + grabbedDeltaX;
+    }
+
+    /**
+     * Get the y value the top-left corner of the grabbed image is dragged to
+     * @return the y value
+     */
+    public double getDropY() {
+        return mouseY + grabbedDeltaY;
+    }
+
     /**
      * Set the x value of where the mouse currently is
      * @param mouseX the x value of the mouse's position
@@ -1,7 +1,8 @@
 package paint.draw;
 
+import javafx.geometry.Bounds;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.text.Font;
 
 /**
  * A drawable Text object
@@ -33,4 +34,17 @@ public class Text extends Drawable {
     public void drawFinal(GraphicsContext context) {
         context.fillText(text, x1, y1);
     }
+
+    /**
+     * Get the area the text covers, measured with the context's font
+     * @param context the context the text is drawn with
+     * @return the area covered by the text
+     */
+    @Override
+    public Rectangle2D getBounds(GraphicsContext context) {
+        javafx.scene.text.Text measure = new javafx.scene.text.Text(text);
+        measure.setFont(context.getFont());
+        Bounds bounds = measure.getLayoutBounds();
+        return padBounds(x1 + bounds.getMinX(), y1 + bounds.getMinY(), bounds.getWidth(), bounds.getHeight(), context);
+    }
 }
@@ -0,0 +1,73 @@
+package paint.filter;
+
+/**
+ * A filter that replaces each pixel with a weighted sum of the 3x3 pixels around it
+ * @author Colin Braun
+ */
+public class Convolution extends Filter {
+    /**
+     * The weights of the 3x3 pixels around each pixel, row by row
+     */
+    private final double[] kernel;
+    /**
+     * A value added to every channel after the weighted sum
+     */
+    private final int bias;
+
+    /**
+     * Construct a convolution
+     * @param kernel the weights of the 3x3 pixels around each pixel, row by row
+     * @param bias a value added to every channel after the weighted sum
+     */
+    public Convolution(double[] kernel, int bias) {
+        if(kernel.length != 9)
+            throw new IllegalArgumentException("Kernel must be 3x3");
+        this.kernel = kernel.clone();
+        this.bias = bias;
+    }
+
+    /**
+     * Create an emboss filter, which makes the image look raised with light coming from the top-left
+     * @return the emboss filter
+     */
+    public static Convolution emboss() {
+        return new Convolution(new double[] {
+                -2, -1, 0,
+                -1, 1, 1,
+                0, 1, 2}, 0);
+    }
+
+    @Override
+    public void apply(int[] pixels, int width, int height) {
+        if(width == 0 || height == 0)
+            return;
+        int[] source = pixels.clone();
+        // Weights in 8-bit fixed point, so the inner loop only needs integer math
+        int[] weights = new int[9];
+        for(int i = 0; i < 9; i++)
+            weights[i] = (int)Math.round(kernel[i] * 256);
+        PixelEngine.forEachBand(height, (startRow, endRow) -> {
+            for(int y = startRow; y < endRow; y++) {
+                int above = clampPosition(y - 1, height) * width;
+                int row = y * width;
+                int below = clampPosition(y + 1, height) * width;
+                for(int x = 0; x < width; x++) {
+                    int left = clampPosition(x - 1, width);
+                    int right = clampPosition(x + 1, width);
+                    int r = 0, g = 0, b = 0;
+                    for(int k = 0; k < 9; k++) {
+                        int rowStart = k < 3 ? above : (k < 6 ? row : below);
+                        int column = k % 3 == 0 ? left : (k % 3 == 1 ? x : right);
+                        int pixel = source[rowStart + column];
+                        int weight = weights[k];
+                        r += weight * ((pixel >> 16) & 0xFF);
+                        g += weight * ((pixel >> 8) & 0xFF);
+                        b += weight * (pixel & 0xFF);
+                    }
+                    pixels[row + x] = (source[row + x] & 0xFF000000) | clampChannel((r >> 8) + bias) << 16
+                            | clampChannel((g >> 8) + bias) << 8 | clampChannel((b >> 8) + bias);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,36 @@
+package paint.filter;
+
+/**
+ * An image filter that works on the pixels of a whole image at once, like a blur.
+ * Filters split their work into bands with {@link PixelEngine#forEachBand(int, PixelEngine.BandTask)} to use every core.
+ * @author Colin Braun
+ */
+public abstract class Filter {
+
+    /**
+     * Run the filter on an image
+     * @param pixels the ARGB pixels of the image, row by row, which are changed in place
+     * @param width the width of the image
+     * @param height the height of the image
+     */
+    public abstract void apply(int[] pixels, int width, int height);
+
+    /**
+     * Keep a color channel value between 0 and 255
+     * @param value the value of the channel
+     * @return the value, clamped to a valid channel value
+     */
+    protected static int clampChannel(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    /**
+     * Keep a position inside the image, used to repeat the edge pixels past the edge of the image
+     * @param value the position
+     * @param size the width or height of the image
+     * @return the position, clamped to the image
+     */
+    protected static int clampPosition(int value, int size) {
+        return value < 0 ? 0 : (value >= size ? size - 1 : value);
+    }
+}
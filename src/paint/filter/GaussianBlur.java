@@ -0,0 +1,154 @@
+package paint.filter;
+
+/**
+ * A Gaussian blur, approximated by running a box blur three times.
+ * Each box blur runs as a horizontal pass and a vertical pass that keep a running sum, so the time taken
+ * does not depend on the radius.
+ * @author Colin Braun
+ */
+public class GaussianBlur extends Filter {
+    /**
+     * The number of box blurs used to approximate the Gaussian
+     */
+    private static final int PASSES = 3;
+    /**
+     * The standard deviation of the Gaussian in pixels
+     */
+    private final double radius;
+
+    /**
+     * Construct a Gaussian blur
+     * @param radius the standard deviation of the Gaussian in pixels
+     */
+    public GaussianBlur(double radius) {
+        this.radius = radius;
+    }
+
+    @Override
+    public void apply(int[] pixels, int width, int height) {
+        if(radius <= 0 || width == 0 || height == 0)
+            return;
+        int[] temp = new int[pixels.length];
+        for(int boxRadius : boxRadii(radius, PASSES)) {
+            if(boxRadius == 0)
+                continue;
+            PixelEngine.forEachBand(height, (startRow, endRow) -> blurRows(pixels, temp, width, startRow, endRow, boxRadius));
+            PixelEngine.forEachBand(width, (startColumn, endColumn) -> blurColumns(temp, pixels, width, height, startColumn, endColumn, boxRadius));
+        }
+    }
+
+    /**
+     * Find the sizes of box blurs that, run one after another, come closest to a Gaussian
+     * @param sigma the standard deviation of the Gaussian
+     * @param passes the number of box blurs
+     * @return the radius of each box blur
+     */
+    private static int[] boxRadii(double sigma, int passes) {
+        double idealWidth = Math.sqrt(12 * sigma * sigma / passes + 1);
+        int lowerWidth = (int)Math.floor(idealWidth);
+        if(lowerWidth % 2 == 0)
+            lowerWidth--;
+        int upperWidth = lowerWidth + 2;
+        double idealLowerCount = (12 * sigma * sigma - passes * lowerWidth * lowerWidth - 4 * passes * lowerWidth - 3 * passes) / (-4.0 * lowerWidth - 4);
+        long lowerCount = Math.round(idealLowerCount);
+        int[] radii = new int[passes];
+        for(int i = 0; i < passes; i++)
+            radii[i] = ((i < lowerCount ? lowerWidth : upperWidth) - 1) / 2;
+        return radii;
+    }
+
+    /**
+     * Find the number to multiply a sum of a box's pixels by to get their average, in 16-bit fixed point.
+     * Multiplying is much faster than dividing every channel of every pixel.
+     * @param boxRadius the radius of the box
+     * @return 65536 divided by the number of pixels in the box
+     */
+    private static int reciprocal(int boxRadius) {
+        int size = 2 * boxRadius + 1;
+        return (65536 + size / 2) / size;
+    }
+
+    /**
+     * Find the average of a channel from its sum over a box
+     * @param sum the sum of the channel over the box
+     * @param scale the reciprocal of the box's size, see {@link #reciprocal(int)}
+     * @return the average, rounded
+     */
+    private static int average(int sum, int scale) {
+        return Math.min(255, (sum * scale + 32768) >>> 16);
+    }
+
+    /**
+     * Box blur a band of rows horizontally
+     * @param source the pixels to read
+     * @param target the pixels to write
+     * @param width the width of the image
+     * @param startRow the first row of the band
+     * @param endRow the row after the last row of the band
+     * @param boxRadius the radius of the box
+     */
+    static void blurRows(int[] source, int[] target, int width, int startRow, int endRow, int boxRadius) {
+        int scale = reciprocal(boxRadius);
+        for(int y = startRow; y < endRow; y++) {
+            int row = y * width;
+            int a = 0, r = 0, g = 0, b = 0;
+            for(int i = -boxRadius; i <= boxRadius; i++) {
+                int pixel = source[row + clampPosition(i, width)];
+                a += pixel >>> 24;
+                r += (pixel >> 16) & 0xFF;
+                g += (pixel >> 8) & 0xFF;
+                b += pixel & 0xFF;
+            }
+            for(int x = 0; x < width; x++) {
+                target[row + x] = average(a, scale) << 24 | average(r, scale) << 16 | average(g, scale) << 8 | average(b, scale);
+                int leaving = source[row + clampPosition(x - boxRadius, width)];
+                int entering = source[row + clampPosition(x + boxRadius + 1, width)];
+                a += (entering >>> 24) - (leaving >>> 24);
+                r += ((entering >> 16) & 0xFF) - ((leaving >> 16) & 0xFF);
+                g += ((entering >> 8) & 0xFF) - ((leaving >> 8) & 0xFF);
+                b += (entering & 0xFF) - (leaving & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Box blur a band of columns vertically. The band is walked row by row, keeping a running sum for every column,
+     * so memory is still read in order.
+     * @param source the pixels to read
+     * @param target the pixels to write
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param startColumn the first column of the band
+     * @param endColumn the column after the last column of the band
+     * @param boxRadius the radius of the box
+     */
+    static void blurColumns(int[] source, int[] target, int width, int height, int startColumn, int endColumn, int boxRadius) {
+        int scale = reciprocal(boxRadius);
+        int columns = endColumn - startColumn;
+        int[] a = new int[columns], r = new int[columns], g = new int[columns], b = new int[columns];
+        for(int i = -boxRadius; i <= boxRadius; i++) {
+            int row = clampPosition(i, height) * width;
+            for(int c = 0; c < columns; c++) {
+                int pixel = source[row + startColumn + c];
+                a[c] += pixel >>> 24;
+                r[c] += (pixel >> 16) & 0xFF;
+                g[c] += (pixel >> 8) & 0xFF;
+                b[c] += pixel & 0xFF;
+            }
+        }
+        for(int y = 0; y < height; y++) {
+            int row = y * width + startColumn;
+            int leavingRow = clampPosition(y - boxRadius, height) * width + startColumn;
+            int enteringRow = clampPosition(y + boxRadius + 1, height) * width + startColumn;
+            for(int c = 0; c < columns; c++) {
+                target[row + c] = average(a[c], scale) << 24 | average(r[c], scale) << 16 | average(g[c], scale) << 8 | average(b[c], scale);
+                int leaving = source[leavingRow + c];
+                int entering = source[enteringRow + c];
+                a[c] += (entering >>> 24) - (leaving >>> 24);
+                r[c] += ((entering >> 16) & 0xFF) - ((leaving >> 16) & 0xFF);
+                g[c] += ((entering >> 8) & 0xFF) - ((leaving >> 8) & 0xFF);
+                b[c] += (entering & 0xFF) - (leaving & 0xFF);
+            }
+        }
+    }
+}
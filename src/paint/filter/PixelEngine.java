@@ -0,0 +1,102 @@
+package paint.filter;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs work over the pixels of an image in bulk, split into bands of rows that run in parallel on a
+ * {@link ForkJoinPool}. Filters and the {@link Resampler} use it on arrays of pixels, and
+ * {@link paint.raster.Raster#map(int, int, int, int, java.util.function.IntUnaryOperator)} uses it to run a
+ * {@link PixelOperation} over a raster a band at a time, so the whole image is never copied into one array.
+ * @author Colin Braun
+ */
+public class PixelEngine {
+    /**
+     * The fewest rows a band is split into, so small images aren't split into more tasks than they're worth
+     */
+    public static final int MIN_BAND_ROWS = 32;
+
+    /**
+     * Work done on a band of rows of an image
+     */
+    @FunctionalInterface
+    public interface BandTask {
+        /**
+         * Do the work on a band of rows
+         * @param startRow the first row of the band
+         * @param endRow the row after the last row of the band
+         */
+        void run(int startRow, int endRow);
+    }
+
+    /**
+     * Split the rows of an image into bands and run a task on each band in parallel.
+     * Returns once every band is done.
+     * @param height the number of rows in the image
+     * @param task the task to run on each band
+     */
+    public static void forEachBand(int height, BandTask task) {
+        forEachBand(height, MIN_BAND_ROWS, task);
+    }
+
+    /**
+     * Split a number of rows into bands of at least a number of rows and run a task on each band in parallel.
+     * Used when each row is a lot of work on its own, like a row of tiles. Returns once every band is done.
+     * @param height the number of rows
+     * @param minBandRows the fewest rows in a band
+     * @param task the task to run on each band
+     */
+    public static void forEachBand(int height, int minBandRows, BandTask task) {
+        if(height <= 0)
+            return;
+        int bands = Math.max(1, Math.min(height / Math.max(1, minBandRows), 4 * ForkJoinPool.getCommonPoolParallelism()));
+        int bandRows = (height + bands - 1) / bands;
+        ForkJoinPool.commonPool().invoke(new BandAction(0, height, bandRows, task));
+    }
+
+    /**
+     * Splits a range of rows in half until it is no bigger than a band, then runs the task on it
+     */
+    private static class BandAction extends RecursiveAction {
+        /**
+         * Version of the serialized form, which is never used but RecursiveAction is Serializable
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The range of rows this action covers
+         */
+        private final int startRow, endRow;
+        /**
+         * The most rows to run the task on at once
+         */
+        private final int bandRows;
+        /**
+         * The task to run
+         */
+        private final BandTask task;
+
+        /**
+         * Construct the action
+         * @param startRow the first row to cover
+         * @param endRow the row after the last row to cover
+         * @param bandRows the most rows to run the task on at once
+         * @param task the task to run
+         */
+        BandAction(int startRow, int endRow, int bandRows, BandTask task) {
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.bandRows = bandRows;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if(endRow - startRow <= bandRows) {
+                task.run(startRow, endRow);
+                return;
+            }
+            int middle = startRow + (endRow - startRow) / 2;
+            invokeAll(new BandAction(startRow, middle, bandRows, task), new BandAction(middle, endRow, bandRows, task));
+        }
+    }
+}
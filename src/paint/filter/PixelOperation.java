@@ -0,0 +1,22 @@
+package paint.filter;
+
+/**
+ * An adjustment that changes each pixel of an image on its own, without looking at the pixels around it.
+ * Run one over a raster with {@link paint.raster.Raster#map(int, int, int, int, java.util.function.IntUnaryOperator)},
+ * which works on bands of rows in parallel with the {@link PixelEngine}.
+ * @author Colin Braun
+ */
+@FunctionalInterface
+public interface PixelOperation {
+    /**
+     * Invert the red, green and blue parts of a pixel, keeping its alpha
+     */
+    PixelOperation INVERT = argb -> argb ^ 0x00FFFFFF;
+
+    /**
+     * Change a single pixel
+     * @param argb the pixel, in ARGB format
+     * @return the changed pixel, in ARGB format
+     */
+    int apply(int argb);
+}
@@ -0,0 +1,277 @@
+package paint.filter;
+
+import paint.constant.ResampleMode;
+import paint.raster.Raster;
+
+import java.util.Arrays;
+
+/**
+ * Resizes images using a {@link ResampleMode}. Resizing is done in two passes, first horizontally and then vertically,
+ * using tables of weights worked out once per output column and row. Each pass is split into bands of rows that run
+ * in parallel with {@link PixelEngine}. When shrinking, the kernel is widened so every source pixel is taken into account.
+ * Rasters are resized a band of output rows at a time, so images too large to fit in one array can be resized too.
+ * @author Colin Braun
+ */
+public class Resampler {
+    /**
+     * The number of bits of precision used for weights
+     */
+    private static final int WEIGHT_BITS = 14;
+    /**
+     * A weight of 1 in fixed point
+     */
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    /**
+     * About how many source pixels are read into memory at once when resizing a raster
+     */
+    private static final int BAND_PIXELS = 1 << 22;
+
+    /**
+     * Which source pixels each output pixel along one direction is made from, and how much each counts
+     */
+    static class WeightTable {
+        /**
+         * The number of source pixels each output pixel is made from
+         */
+        final int window;
+        /**
+         * The source pixel indexes for each output pixel, window entries per output pixel
+         */
+        final int[] indexes;
+        /**
+         * The fixed point weights matching each index, adding up to {@link #WEIGHT_ONE} for each output pixel
+         */
+        final int[] weights;
+
+        /**
+         * Construct an empty table
+         * @param outputSize the number of output pixels
+         * @param window the number of source pixels each output pixel is made from
+         */
+        WeightTable(int outputSize, int window) {
+            this.window = window;
+            indexes = new int[outputSize * window];
+            weights = new int[outputSize * window];
+        }
+    }
+
+    /**
+     * Resize an image
+     * @param source the ARGB pixels of the image, row by row
+     * @param sourceWidth the width of the image
+     * @param sourceHeight the height of the image
+     * @param width the width to resize to
+     * @param height the height to resize to
+     * @param mode how to resample the image
+     * @return the ARGB pixels of the resized image, row by row
+     */
+    public static int[] resample(int[] source, int sourceWidth, int sourceHeight, int width, int height, ResampleMode mode) {
+        WeightTable columns = weights(sourceWidth, width, mode);
+        WeightTable rows = weights(sourceHeight, height, mode);
+        int[] horizontal = new int[width * sourceHeight];
+        PixelEngine.forEachBand(sourceHeight, (startRow, endRow) -> {
+            for(int y = startRow; y < endRow; y++)
+                resampleRow(source, y * sourceWidth, horizontal, y * width, width, columns);
+        });
+        int[] result = new int[width * height];
+        PixelEngine.forEachBand(height, (startRow, endRow) -> {
+            int[] sums = new int[4 * width];
+            for(int y = startRow; y < endRow; y++)
+                resampleColumns(horizontal, 0, width, y, result, y * width, rows, sums);
+        });
+        return result;
+    }
+
+    /**
+     * Resize a raster into another raster. The output is made a band of rows at a time, reading only the source rows
+     * that band is made from, so the whole image is never held in memory at once.
+     * @param source the raster to resize
+     * @param target the raster to write the resized image to, which sets the size to resize to
+     * @param mode how to resample the image
+     */
+    public static void resample(Raster source, Raster target, ResampleMode mode) {
+        int sourceWidth = source.getWidth();
+        int width = target.getWidth();
+        int height = target.getHeight();
+        WeightTable columns = weights(sourceWidth, width, mode);
+        WeightTable rows = weights(source.getHeight(), height, mode);
+        int window = rows.window;
+        int rowPixels = Math.max(sourceWidth, width);
+        int maxSourceRows = Math.max(window, BAND_PIXELS / rowPixels);
+        int startRow = 0;
+        while(startRow < height) {
+            // The indexes for each output row never go down, so a band of output rows reads one run of source rows
+            int firstRow = rows.indexes[startRow * window];
+            int endRow = startRow + 1;
+            while(endRow < height && rows.indexes[endRow * window + window - 1] - firstRow < maxSourceRows)
+                endRow++;
+            int lastRow = rows.indexes[(endRow - 1) * window + window - 1];
+            int sourceRows = lastRow - firstRow + 1;
+            int[] band = new int[sourceWidth * sourceRows];
+            source.getPixels(0, firstRow, sourceWidth, sourceRows, band, 0, sourceWidth);
+            int[] horizontal = new int[width * sourceRows];
+            PixelEngine.forEachBand(sourceRows, (start, end) -> {
+                for(int y = start; y < end; y++)
+                    resampleRow(band, y * sourceWidth, horizontal, y * width, width, columns);
+            });
+            int bandStart = startRow;
+            int[] result = new int[width * (endRow - startRow)];
+            PixelEngine.forEachBand(endRow - startRow, (start, end) -> {
+                int[] sums = new int[4 * width];
+                for(int y = start; y < end; y++)
+                    resampleColumns(horizontal, firstRow, width, bandStart + y, result, y * width, rows, sums);
+            });
+            target.setPixels(0, startRow, width, endRow - startRow, result, 0, width);
+            startRow = endRow;
+        }
+    }
+
+    /**
+     * Resample one row horizontally
+     * @param source the pixels to read
+     * @param sourceOffset the index of the start of the row in the source
+     * @param target the pixels to write
+     * @param targetOffset the index of the start of the row in the target
+     * @param width the width of the output row
+     * @param table the weights for each output column
+     */
+    private static void resampleRow(int[] source, int sourceOffset, int[] target, int targetOffset, int width, WeightTable table) {
+        int window = table.window;
+        for(int x = 0; x < width; x++) {
+            int a = 0, r = 0, g = 0, b = 0;
+            for(int k = x * window; k < (x + 1) * window; k++) {
+                int pixel = source[sourceOffset + table.indexes[k]];
+                int weight = table.weights[k];
+                a += weight * (pixel >>> 24);
+                r += weight * ((pixel >> 16) & 0xFF);
+                g += weight * ((pixel >> 8) & 0xFF);
+                b += weight * (pixel & 0xFF);
+            }
+            target[targetOffset + x] = toPixel(a, r, g, b);
+        }
+    }
+
+    /**
+     * Resample one output row vertically. Source rows are added in one at a time so memory is read in order.
+     * @param source the horizontally resampled pixels, which have the output width
+     * @param firstRow the source row held at the start of source
+     * @param width the width of the output
+     * @param y the output row
+     * @param target the pixels to write
+     * @param targetOffset the index of the start of the row in the target
+     * @param table the weights for each output row
+     * @param sums scratch space holding 4 sums for every column
+     */
+    private static void resampleColumns(int[] source, int firstRow, int width, int y, int[] target, int targetOffset, WeightTable table, int[] sums) {
+        Arrays.fill(sums, 0);
+        int window = table.window;
+        for(int k = y * window; k < (y + 1) * window; k++) {
+            int row = (table.indexes[k] - firstRow) * width;
+            int weight = table.weights[k];
+            if(weight == 0)
+                continue;
+            for(int x = 0; x < width; x++) {
+                int pixel = source[row + x];
+                sums[4 * x] += weight * (pixel >>> 24);
+                sums[4 * x + 1] += weight * ((pixel >> 16) & 0xFF);
+                sums[4 * x + 2] += weight * ((pixel >> 8) & 0xFF);
+                sums[4 * x + 3] += weight * (pixel & 0xFF);
+            }
+        }
+        for(int x = 0; x < width; x++)
+            target[targetOffset + x] = toPixel(sums[4 * x], sums[4 * x + 1], sums[4 * x + 2], sums[4 * x + 3]);
+    }
+
+    /**
+     * Turn weighted channel sums back into a pixel, rounding and clamping each channel
+     * @param a the weighted sum of the alpha channel
+     * @param r the weighted sum of the red channel
+     * @param g the weighted sum of the green channel
+     * @param b the weighted sum of the blue channel
+     * @return the ARGB pixel
+     */
+    private static int toPixel(int a, int r, int g, int b) {
+        int half = WEIGHT_ONE / 2;
+        return Filter.clampChannel((a + half) >> WEIGHT_BITS) << 24
+                | Filter.clampChannel((r + half) >> WEIGHT_BITS) << 16
+                | Filter.clampChannel((g + half) >> WEIGHT_BITS) << 8
+                | Filter.clampChannel((b + half) >> WEIGHT_BITS);
+    }
+
+    /**
+     * Work out which source pixels each output pixel is made from along one direction
+     * @param sourceSize the number of source pixels
+     * @param outputSize the number of output pixels
+     * @param mode how to resample
+     * @return the table of indexes and weights
+     */
+    static WeightTable weights(int sourceSize, int outputSize, ResampleMode mode) {
+        double scale = (double)outputSize / sourceSize;
+        if(mode == ResampleMode.NEAREST) {
+            WeightTable table = new WeightTable(outputSize, 1);
+            for(int i = 0; i < outputSize; i++) {
+                table.indexes[i] = Math.min(sourceSize - 1, (int)((i + 0.5) / scale));
+                table.weights[i] = WEIGHT_ONE;
+            }
+            return table;
+        }
+        // Widen the kernel when shrinking, so it averages over all the pixels being merged
+        double filterScale = Math.max(1.0, 1.0 / scale);
+        double support = mode.getSupport() * filterScale;
+        int window = (int)Math.ceil(2 * support) + 1;
+        WeightTable table = new WeightTable(outputSize, window);
+        double[] raw = new double[window];
+        for(int i = 0; i < outputSize; i++) {
+            double center = (i + 0.5) / scale - 0.5;
+            int start = (int)Math.floor(center - support) + 1;
+            double total = 0;
+            for(int k = 0; k < window; k++) {
+                raw[k] = kernel(mode, (start + k - center) / filterScale);
+                total += raw[k];
+            }
+            int fixedTotal = 0;
+            int largest = 0;
+            for(int k = 0; k < window; k++) {
+                int index = i * window + k;
+                table.indexes[index] = Filter.clampPosition(start + k, sourceSize);
+                table.weights[index] = (int)Math.round(raw[k] / total * WEIGHT_ONE);
+                fixedTotal += table.weights[index];
+                if(raw[k] > raw[largest])
+                    largest = k;
+            }
+            // Make sure the weights add up to exactly 1 so flat areas stay the same color
+            table.weights[i * window + largest] += WEIGHT_ONE - fixedTotal;
+        }
+        return table;
+    }
+
+    /**
+     * Evaluate a mode's kernel
+     * @param mode the resample mode
+     * @param x the distance from the kernel's center in source pixels
+     * @return the kernel's weight at that distance
+     */
+    private static double kernel(ResampleMode mode, double x) {
+        x = Math.abs(x);
+        switch(mode) {
+            case BILINEAR:
+                return x < 1 ? 1 - x : 0;
+            case BICUBIC:
+                // Keys' cubic convolution with a = -0.5
+                if(x < 1)
+                    return (1.5 * x - 2.5) * x * x + 1;
+                if(x < 2)
+                    return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+                return 0;
+            case LANCZOS3:
+                if(x == 0)
+                    return 1;
+                if(x >= 3)
+                    return 0;
+                double px = Math.PI * x;
+                return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+            default:
+                return x < 0.5 ? 1 : 0;
+        }
+    }
+}
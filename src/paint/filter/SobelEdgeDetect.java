@@ -0,0 +1,49 @@
+package paint.filter;
+
+/**
+ * Finds edges in an image using the Sobel operator on the brightness of each pixel.
+ * Edges come out white on a black background. The 3x3 Sobel kernels are separable, so each is run as
+ * a 1-D smoothing pass and a 1-D difference pass.
+ * @author Colin Braun
+ */
+public class SobelEdgeDetect extends Filter {
+
+    @Override
+    public void apply(int[] pixels, int width, int height) {
+        if(width == 0 || height == 0)
+            return;
+        int[] luma = new int[pixels.length];
+        // Horizontal passes: [1 2 1] smoothing and [-1 0 1] difference of each row
+        int[] smoothed = new int[pixels.length];
+        int[] difference = new int[pixels.length];
+        PixelEngine.forEachBand(height, (startRow, endRow) -> {
+            for(int i = startRow * width; i < endRow * width; i++) {
+                int pixel = pixels[i];
+                luma[i] = (77 * ((pixel >> 16) & 0xFF) + 150 * ((pixel >> 8) & 0xFF) + 29 * (pixel & 0xFF)) >> 8;
+            }
+            for(int y = startRow; y < endRow; y++) {
+                int row = y * width;
+                for(int x = 0; x < width; x++) {
+                    int left = luma[row + clampPosition(x - 1, width)];
+                    int right = luma[row + clampPosition(x + 1, width)];
+                    smoothed[row + x] = left + 2 * luma[row + x] + right;
+                    difference[row + x] = right - left;
+                }
+            }
+        });
+        // Vertical passes: the other half of each kernel, combined into the gradient's magnitude
+        PixelEngine.forEachBand(height, (startRow, endRow) -> {
+            for(int y = startRow; y < endRow; y++) {
+                int row = y * width;
+                int above = clampPosition(y - 1, height) * width;
+                int below = clampPosition(y + 1, height) * width;
+                for(int x = 0; x < width; x++) {
+                    int gx = difference[above + x] + 2 * difference[row + x] + difference[below + x];
+                    int gy = smoothed[below + x] - smoothed[above + x];
+                    int magnitude = clampChannel((int)Math.sqrt(gx * gx + gy * gy));
+                    pixels[row + x] = (pixels[row + x] & 0xFF000000) | magnitude << 16 | magnitude << 8 | magnitude;
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,52 @@
+package paint.filter;
+
+/**
+ * Sharpens an image by adding back the difference between the image and a blurred copy of it
+ * @author Colin Braun
+ */
+public class UnsharpMask extends Filter {
+    /**
+     * The blur used to find the details to sharpen
+     */
+    private final GaussianBlur blur;
+    /**
+     * How strongly to sharpen, where 1 adds the full difference back once
+     */
+    private final double amount;
+
+    /**
+     * Construct an unsharp mask
+     * @param radius the radius of the blur, which sets how large the sharpened details are
+     * @param amount how strongly to sharpen, where 1 adds the full difference back once
+     */
+    public UnsharpMask(double radius, double amount) {
+        blur = new GaussianBlur(radius);
+        this.amount = amount;
+    }
+
+    @Override
+    public void apply(int[] pixels, int width, int height) {
+        int[] blurred = pixels.clone();
+        blur.apply(blurred, width, height);
+        PixelEngine.forEachBand(height, (startRow, endRow) -> {
+            for(int i = startRow * width; i < endRow * width; i++) {
+                int pixel = pixels[i];
+                int soft = blurred[i];
+                int r = sharpen((pixel >> 16) & 0xFF, (soft >> 16) & 0xFF);
+                int g = sharpen((pixel >> 8) & 0xFF, (soft >> 8) & 0xFF);
+                int b = sharpen(pixel & 0xFF, soft & 0xFF);
+                pixels[i] = (pixel & 0xFF000000) | r << 16 | g << 8 | b;
+            }
+        });
+    }
+
+    /**
+     * Sharpen one channel of a pixel
+     * @param original the value of the channel in the image
+     * @param blurred the value of the channel in the blurred copy
+     * @return the sharpened value
+     */
+    private int sharpen(int original, int blurred) {
+        return clampChannel((int)Math.round(original + amount * (original - blurred)));
+    }
+}
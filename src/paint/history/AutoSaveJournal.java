@@ -0,0 +1,553 @@
+package paint.history;
+
+import paint.raster.DirtyRect;
+import paint.raster.DirtyTiles;
+import paint.raster.PixelSource;
+import paint.raster.Raster;
+import paint.raster.RasterSnapshot;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps an up to date copy of the image on disk so work can be recovered after a crash.
+ * The copy is an append-only journal: it starts with the whole image, and each checkpoint after that only adds the
+ * tiles changed since the last one, followed by a commit marker. Appending is done on a background thread from a
+ * {@link RasterSnapshot}, so a checkpoint costs the UI almost nothing and the work done is proportional to what changed.
+ * When the journal has grown to several times the size of the image it is compacted by writing the whole image to a
+ * new file and renaming it over the old one. Replaying the journal up to its last commit marker gives back the image
+ * exactly as it was at that checkpoint; anything written after it, like a record cut off by a crash, is ignored.
+ * @author Colin Braun
+ */
+public class AutoSaveJournal {
+    /**
+     * The first int of every journal file
+     */
+    private static final int MAGIC = 0x504A4E4C;
+    /**
+     * The version of the journal format
+     */
+    private static final int VERSION = 1;
+    /**
+     * The record starting the journal: the size of the image and the file it was opened from
+     */
+    private static final byte IMAGE = 1;
+    /**
+     * A record holding the compressed pixels of one tile
+     */
+    private static final byte TILE = 2;
+    /**
+     * A record marking everything before it as a complete checkpoint
+     */
+    private static final byte COMMIT = 3;
+    /**
+     * A record changing the file the image was opened from or saved to
+     */
+    private static final byte PATH = 4;
+    /**
+     * The width and height of the tiles changes are tracked and written in
+     */
+    private static final int TILE_SIZE = 256;
+    /**
+     * How many times larger than its last compacted size the journal can grow before it is compacted again
+     */
+    private static final int COMPACT_RATIO = 4;
+    /**
+     * The size below which the journal is never compacted, since small files are cheap to replay anyway
+     */
+    private static final long MIN_COMPACT_BYTES = 4L << 20;
+    /**
+     * The journal file
+     */
+    private final File file;
+    /**
+     * Writes to the journal in the background, one checkpoint at a time
+     */
+    private final ExecutorService writer;
+    /**
+     * The last checkpoint handed to the writer, or null if there hasn't been one
+     */
+    private Future<?> lastCheckpoint;
+    /**
+     * The tiles changed since the last checkpoint
+     */
+    private final DirtyTiles dirty;
+    /**
+     * Whether or not the next checkpoint has to write a new journal, because the image was replaced
+     */
+    private boolean fresh;
+    /**
+     * Whether or not the last checkpoint couldn't be written, so the tiles it took are missing from the journal and
+     * the next checkpoint has to write the whole image again. Set by the writer thread.
+     */
+    private volatile boolean failed;
+    /**
+     * The file the image was opened from or saved to when the last checkpoint was taken
+     */
+    private String journaledPath;
+    /**
+     * The size of the journal right after it was last written from scratch. Only used by the writer thread.
+     */
+    private long compactedLength;
+
+    /**
+     * Construct a journal. Nothing is written until the first checkpoint.
+     * @param file the file to keep the journal in
+     */
+    public AutoSaveJournal(File file) {
+        this.file = file;
+        dirty = new DirtyTiles(TILE_SIZE);
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Auto-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * What was recovered from a journal
+     */
+    public static class Recovered {
+        /**
+         * The image as of the last checkpoint
+         */
+        private final Raster raster;
+        /**
+         * The file the image was opened from or saved to, or null if it had none
+         */
+        private final File openedFile;
+        /**
+         * Whether or not part of the journal after the recovered checkpoint couldn't be read
+         */
+        private final boolean damaged;
+
+        /**
+         * Default Constructor
+         * @param raster the image as of the last checkpoint
+         * @param openedFile the file the image was opened from or saved to, or null
+         * @param damaged whether or not part of the journal after the checkpoint couldn't be read
+         */
+        private Recovered(Raster raster, File openedFile, boolean damaged) {
+            this.raster = raster;
+            this.openedFile = openedFile;
+            this.damaged = damaged;
+        }
+
+        /**
+         * Get the image as of the last checkpoint
+         * @return the image
+         */
+        public Raster getRaster() {
+            return raster;
+        }
+
+        /**
+         * Get the file the image was opened from or saved to
+         * @return the file, or null if it had none
+         */
+        public File getOpenedFile() {
+            return openedFile;
+        }
+
+        /**
+         * Whether or not the journal was damaged, so changes after the recovered checkpoint may be missing.
+         * A record cut off at the end of the file, as left by a crash while writing it, doesn't count.
+         * @return true if part of the journal couldn't be read
+         */
+        public boolean isDamaged() {
+            return damaged;
+        }
+    }
+
+    /**
+     * Replay a journal left behind by a program that didn't close normally.
+     * The tiles of the first checkpoint are read straight into the image, since without its commit marker there is
+     * nothing to recover anyway. Tiles of later checkpoints are only remembered by where they are in the file until
+     * their commit marker is found, so recovering never holds more than a tile of pixels on the heap.
+     * @param file the journal file
+     * @return the image as of the last complete checkpoint, or null if there is no journal or nothing in it was committed
+     */
+    public static Recovered recover(File file) {
+        if(!file.isFile())
+            return null;
+        Raster raster = null;
+        String path = null;
+        String committedPath = null;
+        boolean committed = false;
+        boolean damaged = false;
+        // Where the compressed pixels of each tile of the checkpoint being read are in the file, and their area
+        List<long[]> pending = new ArrayList<>();
+        List<DirtyRect> pendingAreas = new ArrayList<>();
+        Inflater inflater = new Inflater();
+        try(CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            RandomAccessFile staged = new RandomAccessFile(file, "r")) {
+            DataInputStream input = new DataInputStream(counter);
+            if(input.readInt() != MAGIC || input.readInt() != VERSION)
+                return null;
+            while(true) {
+                byte type = input.readByte();
+                if(type == IMAGE && raster == null) {
+                    raster = Raster.create(input.readInt(), input.readInt());
+                    path = input.readUTF();
+                }
+                else if(type == PATH && raster != null) {
+                    path = input.readUTF();
+                }
+                else if(type == TILE && raster != null) {
+                    DirtyRect area = new DirtyRect(input.readInt(), input.readInt(), input.readInt(), input.readInt());
+                    int length = input.readInt();
+                    if(length < 0 || area.isEmpty() || !DirtyRect.of(raster).contains(area))
+                        throw new IOException("Bad tile record at " + counter.getPosition());
+                    if(committed) {
+                        pending.add(new long[] {counter.getPosition(), length});
+                        pendingAreas.add(area);
+                        skipFully(input, length);
+                    }
+                    else {
+                        byte[] compressed = new byte[length];
+                        input.readFully(compressed);
+                        writeTile(raster, area, decompress(inflater, compressed, area.getWidth() * area.getHeight()));
+                    }
+                }
+                else if(type == COMMIT && raster != null) {
+                    for(int i = 0; i < pending.size(); i++) {
+                        DirtyRect area = pendingAreas.get(i);
+                        byte[] compressed = new byte[(int)pending.get(i)[1]];
+                        staged.seek(pending.get(i)[0]);
+                        staged.readFully(compressed);
+                        writeTile(raster, area, decompress(inflater, compressed, area.getWidth() * area.getHeight()));
+                    }
+                    pending.clear();
+                    pendingAreas.clear();
+                    committedPath = path;
+                    committed = true;
+                }
+                else {
+                    damaged = true;
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // The end of the journal, possibly in the middle of a record that was being written
+        } catch (IOException | DataFormatException | RuntimeException e) {
+            e.printStackTrace();
+            damaged = true;
+        } finally {
+            inflater.end();
+        }
+        if(!committed) {
+            if(raster != null)
+                raster.dispose();
+            return null;
+        }
+        return new Recovered(raster, committedPath == null || committedPath.isEmpty() ? null : new File(committedPath), damaged);
+    }
+
+    /**
+     * Write the pixels of a tile record into the image
+     * @param raster the image
+     * @param area the area of the tile
+     * @param pixels the pixels of the tile, row by row
+     */
+    private static void writeTile(Raster raster, DirtyRect area, int[] pixels) {
+        raster.setPixels(area.getX(), area.getY(), area.getWidth(), area.getHeight(), pixels, 0, area.getWidth());
+    }
+
+    /**
+     * Skip over bytes of the journal
+     * @param input the journal
+     * @param count the number of bytes to skip
+     * @throws IOException if the journal can't be read
+     * @throws EOFException if the journal ends first
+     */
+    private static void skipFully(DataInputStream input, int count) throws IOException {
+        while(count > 0) {
+            int skipped = input.skipBytes(count);
+            if(skipped <= 0) {
+                // skipBytes doesn't say why it stopped, so a read tells the end of the file apart from a slow stream
+                if(input.read() < 0)
+                    throw new EOFException();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * An input stream that keeps track of how far into the file it has read, so records can be found again later
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        /**
+         * The number of bytes read or skipped so far
+         */
+        private long position;
+
+        /**
+         * Default Constructor
+         * @param in the stream to count
+         */
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b >= 0)
+                position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if(count > 0)
+                position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = super.skip(n);
+            position += count;
+            return count;
+        }
+
+        /**
+         * Get how far into the stream has been read
+         * @return the number of bytes read or skipped
+         */
+        private long getPosition() {
+            return position;
+        }
+    }
+
+    /**
+     * Start tracking a new image. The next checkpoint writes the whole image to a new journal.
+     * @param raster the new image
+     */
+    public void reset(Raster raster) {
+        dirty.reset(raster.getWidth(), raster.getHeight());
+        fresh = true;
+    }
+
+    /**
+     * Remember that part of the image changed, so it's written at the next checkpoint
+     * @param area the area that changed, inside the image
+     */
+    public void markChanged(DirtyRect area) {
+        dirty.mark(area);
+    }
+
+    /**
+     * Whether or not anything needs writing at the next checkpoint
+     * @param openedFile the file the image is opened from or saved to now, or null
+     * @return true if the image or its file changed since the last checkpoint
+     */
+    public boolean hasChanges(File openedFile) {
+        return fresh || failed || !dirty.isEmpty() || !pathOf(openedFile).equals(journaledPath);
+    }
+
+    /**
+     * Write the changes since the last checkpoint in the background. The snapshot must be of the image as it is now,
+     * and is released once it has been read, before done is run.
+     * @param snapshot a snapshot of the image
+     * @param openedFile the file the image is opened from or saved to, or null
+     * @param done run on the writer thread once the snapshot isn't needed anymore
+     */
+    public void checkpoint(RasterSnapshot snapshot, File openedFile, Runnable done) {
+        BitSet tiles = dirty.take();
+        boolean rewrite = fresh;
+        String path = pathOf(openedFile);
+        boolean pathChanged = !path.equals(journaledPath);
+        fresh = false;
+        journaledPath = path;
+        lastCheckpoint = writer.submit(() -> {
+            try {
+                // The tiles a failed checkpoint took were never written, and anything after what it wrote is unusable
+                if(rewrite || failed)
+                    compact(snapshot, path);
+                else if(append(snapshot, tiles, pathChanged ? path : null) > COMPACT_RATIO * Math.max(compactedLength, MIN_COMPACT_BYTES))
+                    compact(snapshot, path);
+                failed = false;
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            } finally {
+                snapshot.release();
+                done.run();
+            }
+        });
+    }
+
+    /**
+     * Wait for the last checkpoint to finish writing
+     */
+    public void flush() {
+        if(lastCheckpoint == null)
+            return;
+        try {
+            lastCheckpoint.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wait for the last checkpoint to finish, then delete the journal. Used when the program closes normally,
+     * since there is then nothing to recover.
+     */
+    public void delete() {
+        flush();
+        if(file.exists() && !file.delete())
+            System.out.println("Could not delete " + file);
+    }
+
+    /**
+     * Append the changed tiles and a commit marker to the journal. Runs on the writer thread.
+     * @param snapshot a snapshot of the image
+     * @param tiles the tiles to write
+     * @param path the new path of the image, or null if it didn't change
+     * @return the length of the journal afterwards
+     * @throws IOException if the journal can't be written
+     */
+    private long append(PixelSource snapshot, BitSet tiles, String path) throws IOException {
+        try(FileOutputStream stream = new FileOutputStream(file, true)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            if(path != null) {
+                output.writeByte(PATH);
+                output.writeUTF(path);
+            }
+            writeTiles(output, snapshot, tiles);
+            output.writeByte(COMMIT);
+            output.flush();
+            // The checkpoint only counts once it has really reached the disk
+            stream.getChannel().force(false);
+            return stream.getChannel().size();
+        }
+    }
+
+    /**
+     * Write the whole image to a new journal and rename it over the old one. Runs on the writer thread.
+     * @param snapshot a snapshot of the image
+     * @param path the file the image is opened from or saved to, or an empty string
+     * @throws IOException if the journal can't be written
+     */
+    private void compact(PixelSource snapshot, String path) throws IOException {
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        BitSet all = new BitSet();
+        all.set(0, ((snapshot.getWidth() + TILE_SIZE - 1) / TILE_SIZE) * ((snapshot.getHeight() + TILE_SIZE - 1) / TILE_SIZE));
+        try(FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeByte(IMAGE);
+            output.writeInt(snapshot.getWidth());
+            output.writeInt(snapshot.getHeight());
+            output.writeUTF(path);
+            writeTiles(output, snapshot, all);
+            output.writeByte(COMMIT);
+            output.flush();
+            stream.getChannel().force(false);
+            compactedLength = stream.getChannel().size();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Write tile records for some tiles of the image
+     * @param output where to write the records
+     * @param snapshot a snapshot of the image
+     * @param tiles the tiles to write, row by row
+     * @throws IOException if the records can't be written
+     */
+    private static void writeTiles(DataOutputStream output, PixelSource snapshot, BitSet tiles) throws IOException {
+        int across = (snapshot.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+        byte[] bytes = new byte[4 * TILE_SIZE * TILE_SIZE];
+        byte[] compressed = new byte[bytes.length + 1024];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            for(int index = tiles.nextSetBit(0); index >= 0; index = tiles.nextSetBit(index + 1)) {
+                int x = (index % across) * TILE_SIZE;
+                int y = (index / across) * TILE_SIZE;
+                // Tiles are tracked on the size of image they were marked on, which may have changed since
+                if(y >= snapshot.getHeight())
+                    break;
+                int w = Math.min(TILE_SIZE, snapshot.getWidth() - x);
+                int h = Math.min(TILE_SIZE, snapshot.getHeight() - y);
+                snapshot.getPixels(x, y, w, h, pixels, 0, w);
+                ByteBuffer.wrap(bytes).asIntBuffer().put(pixels, 0, w * h);
+                deflater.reset();
+                deflater.setInput(bytes, 0, 4 * w * h);
+                deflater.finish();
+                int length = 0;
+                while(!deflater.finished()) {
+                    if(length == compressed.length)
+                        compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                output.writeByte(TILE);
+                output.writeInt(x);
+                output.writeInt(y);
+                output.writeInt(w);
+                output.writeInt(h);
+                output.writeInt(length);
+                output.write(compressed, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompress the pixels of a tile record
+     * @param inflater the inflater to use
+     * @param compressed the compressed pixels
+     * @param pixels the number of pixels in the tile
+     * @return the pixels, row by row
+     * @throws DataFormatException if the compressed pixels are damaged
+     */
+    private static int[] decompress(Inflater inflater, byte[] compressed, int pixels) throws DataFormatException {
+        byte[] bytes = new byte[4 * pixels];
+        inflater.reset();
+        inflater.setInput(compressed);
+        int length = 0;
+        while(length < bytes.length && !inflater.finished()) {
+            int count = inflater.inflate(bytes, length, bytes.length - length);
+            if(count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                throw new DataFormatException("Tile is cut short");
+            length += count;
+        }
+        int[] tile = new int[pixels];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(tile);
+        return tile;
+    }
+
+    /**
+     * Get the path of a file as it's stored in the journal
+     * @param file the file, or null
+     * @return the absolute path, or an empty string if there is no file
+     */
+    private static String pathOf(File file) {
+        return file == null ? "" : file.getAbsolutePath();
+    }
+}
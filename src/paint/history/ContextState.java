@@ -0,0 +1,50 @@
+package paint.history;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Paint;
+import javafx.scene.text.Font;
+
+/**
+ * The settings of a {@link GraphicsContext} that a drawing was made with, so it can be drawn the same way again
+ * @author Colin Braun
+ */
+public class ContextState {
+    /**
+     * The color lines were drawn with
+     */
+    private final Paint stroke;
+    /**
+     * The color shapes were filled with
+     */
+    private final Paint fill;
+    /**
+     * The width lines were drawn with
+     */
+    private final double lineWidth;
+    /**
+     * The font text was drawn with
+     */
+    private final Font font;
+
+    /**
+     * Record the current settings of a context
+     * @param context the context to record
+     */
+    public ContextState(GraphicsContext context) {
+        stroke = context.getStroke();
+        fill = context.getFill();
+        lineWidth = context.getLineWidth();
+        font = context.getFont();
+    }
+
+    /**
+     * Set a context back to the recorded settings
+     * @param context the context to change
+     */
+    public void apply(GraphicsContext context) {
+        context.setStroke(stroke);
+        context.setFill(fill);
+        context.setLineWidth(lineWidth);
+        context.setFont(font);
+    }
+}
@@ -0,0 +1,69 @@
+package paint.history;
+
+import paint.draw.Drawable;
+import paint.draw.RasterPainter;
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+
+/**
+ * An edit stored as the {@link Drawable} that made it and the settings it was drawn with, instead of pixels.
+ * Undoing one of these requires going back to a checkpoint and drawing everything after it again.
+ * @author Colin Braun
+ */
+public class DrawOperation extends HistoryEntry {
+    /**
+     * What was drawn
+     */
+    private final Drawable drawable;
+    /**
+     * The settings it was drawn with
+     */
+    private final ContextState state;
+    /**
+     * The area the drawable was drawn inside of
+     */
+    private final DirtyRect bounds;
+
+    /**
+     * Construct the operation
+     * @param drawable what was drawn
+     * @param state the settings it was drawn with
+     * @param bounds the area the drawable was drawn inside of
+     */
+    public DrawOperation(Drawable drawable, ContextState state, DirtyRect bounds) {
+        this.drawable = drawable;
+        this.state = state;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Draw the drawable again with the settings it was drawn with, inside the part of the area it covers
+     * @param raster the image to draw on
+     * @param store not used, nothing is spilled
+     * @param area the area of the image being brought up to date
+     * @param painter the painter used to draw on the image
+     */
+    @Override
+    public void apply(Raster raster, SpillStore store, DirtyRect area, RasterPainter painter) {
+        DirtyRect overlap = bounds.intersect(area);
+        if(overlap.isEmpty())
+            return;
+        painter.paint(raster, overlap, context -> {
+            state.apply(context);
+            drawable.drawFinal(context);
+        });
+    }
+
+    @Override
+    public DirtyRect getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Get what was drawn
+     * @return the drawable
+     */
+    public Drawable getDrawable() {
+        return drawable;
+    }
+}
@@ -0,0 +1,40 @@
+package paint.history;
+
+import paint.draw.RasterPainter;
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single edit stored in the {@link UndoHistory}. Edits that can be undone on their own are {@link RevertibleEntry}s,
+ * the rest are undone by replaying from a checkpoint.
+ * @author Colin Braun
+ */
+public abstract class HistoryEntry {
+
+    /**
+     * Apply this edit again on top of the state it was originally made on.
+     * Only the pixels inside an area need to be correct afterwards, and nothing outside of it may be changed.
+     * @param raster the image to apply the edit to
+     * @param store the store to load spilled pixels from
+     * @param area the area of the image being brought up to date
+     * @param painter the painter used to draw on the image
+     */
+    public abstract void apply(Raster raster, SpillStore store, DirtyRect area, RasterPainter painter);
+
+    /**
+     * Get the area of the image this edit changed
+     * @return the changed area
+     */
+    public abstract DirtyRect getBounds();
+
+    /**
+     * Get the stored pixels of this edit that may be moved to disk when memory is needed
+     * @return the tile sets of this edit, empty if it doesn't store any pixels
+     */
+    public List<TileSet> getTileSets() {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,67 @@
+package paint.history;
+
+import paint.draw.RasterPainter;
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * An edit that changed every pixel in an area on its own (like inverting), stored as the operation and the operation
+ * that undoes it instead of pixels. Undoing it takes no memory no matter how large the image is.
+ * @author Colin Braun
+ */
+public class MapOperation extends RevertibleEntry {
+    /**
+     * The operation that was run on each pixel
+     */
+    private final IntUnaryOperator operation;
+    /**
+     * The operation that undoes it
+     */
+    private final IntUnaryOperator inverse;
+    /**
+     * The area the operation was run on
+     */
+    private final DirtyRect bounds;
+
+    /**
+     * Construct the operation
+     * @param operation the operation that was run on each pixel
+     * @param inverse the operation that undoes it, which must give back exactly the original pixel
+     * @param bounds the area the operation was run on
+     */
+    public MapOperation(IntUnaryOperator operation, IntUnaryOperator inverse, DirtyRect bounds) {
+        this.operation = operation;
+        this.inverse = inverse;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Run the operation again on the part of the area it covers
+     * @param raster the image to apply the edit to
+     * @param store not used, nothing is spilled
+     * @param area the area of the image being brought up to date
+     * @param painter not used, nothing is drawn
+     */
+    @Override
+    public void apply(Raster raster, SpillStore store, DirtyRect area, RasterPainter painter) {
+        DirtyRect overlap = bounds.intersect(area);
+        raster.map(overlap.getX(), overlap.getY(), overlap.getWidth(), overlap.getHeight(), operation);
+    }
+
+    /**
+     * Run the inverse operation, undoing the edit
+     * @param raster the image to undo the edit on
+     * @param store not used, nothing is spilled
+     */
+    @Override
+    public void revert(Raster raster, SpillStore store) {
+        raster.map(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), inverse);
+    }
+
+    @Override
+    public DirtyRect getBounds() {
+        return bounds;
+    }
+}
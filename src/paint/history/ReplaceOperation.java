@@ -0,0 +1,74 @@
+package paint.history;
+
+import paint.draw.RasterPainter;
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+
+/**
+ * An edit that swapped the image for another one, possibly of a different size (like resizing).
+ * Both images are kept, so undoing and redoing only swap them back, and the edits before it still undo on the old image.
+ * The pixels aren't changed by {@link #apply} or {@link #revert}: the {@link UndoHistory} swaps the images itself and
+ * tells its replace listeners which one to show.
+ * @author Colin Braun
+ */
+public class ReplaceOperation extends RevertibleEntry {
+    /**
+     * The image before the edit
+     */
+    private final Raster before;
+    /**
+     * The image after the edit
+     */
+    private final Raster after;
+
+    /**
+     * Construct the operation
+     * @param before the image before the edit
+     * @param after the image that replaced it
+     */
+    public ReplaceOperation(Raster before, Raster after) {
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Nothing is drawn, the history swaps in {@link #getAfter()} instead
+     * @param raster not used
+     * @param store not used, nothing is spilled
+     * @param area not used
+     * @param painter not used, nothing is drawn
+     */
+    @Override
+    public void apply(Raster raster, SpillStore store, DirtyRect area, RasterPainter painter) {
+    }
+
+    /**
+     * Nothing is drawn, the history swaps in {@link #getBefore()} instead
+     * @param raster not used
+     * @param store not used, nothing is spilled
+     */
+    @Override
+    public void revert(Raster raster, SpillStore store) {
+    }
+
+    /**
+     * Get the image before the edit
+     * @return the image to show once the edit is undone
+     */
+    public Raster getBefore() {
+        return before;
+    }
+
+    /**
+     * Get the image after the edit
+     * @return the image to show once the edit is made or redone
+     */
+    public Raster getAfter() {
+        return after;
+    }
+
+    @Override
+    public DirtyRect getBounds() {
+        return new DirtyRect(0, 0, after.getWidth(), after.getHeight());
+    }
+}
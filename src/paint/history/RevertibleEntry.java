@@ -0,0 +1,17 @@
+package paint.history;
+
+import paint.raster.Raster;
+
+/**
+ * An edit in the {@link UndoHistory} that can be undone on its own, without going back to a checkpoint
+ * @author Colin Braun
+ */
+public abstract class RevertibleEntry extends HistoryEntry {
+
+    /**
+     * Undo this edit on its own
+     * @param raster the image to undo the edit on
+     * @param store the store to load spilled pixels from
+     */
+    public abstract void revert(Raster raster, SpillStore store);
+}
@@ -0,0 +1,136 @@
+package paint.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A temporary file that old history data is written to so that it does not have to be kept in memory.
+ * Data is read back using the offset it was written at. Space is given back with {@link #free(long, int)} once the
+ * data is no longer needed, and reused by later writes, so the file only grows as large as the data still in use.
+ * @author Colin Braun
+ */
+public class SpillStore {
+    /**
+     * The temporary file holding the spilled data
+     */
+    private File file;
+    /**
+     * The open handle to the temporary file
+     */
+    private RandomAccessFile access;
+    /**
+     * The unused parts of the file, by offset, with the number of bytes in each. Neighboring parts are always merged.
+     */
+    private TreeMap<Long, Long> unused;
+    /**
+     * The length of the file
+     */
+    private long length;
+
+    /**
+     * Create a new, empty store in the temp directory. The file is deleted when the program exits.
+     * @throws IOException if the temp file could not be created
+     */
+    public SpillStore() throws IOException {
+        file = File.createTempFile("paint-history", ".bin");
+        file.deleteOnExit();
+        access = new RandomAccessFile(file, "rw");
+        unused = new TreeMap<>();
+    }
+
+    /**
+     * Write data into the first unused part of the file it fits in, or to the end of the file
+     * @param data the bytes to write
+     * @return the offset the data was written at, needed to read it back
+     * @throws IOException if the data could not be written
+     */
+    public synchronized long write(byte[] data) throws IOException {
+        long offset = length;
+        for(Map.Entry<Long, Long> space : unused.entrySet()) {
+            if(space.getValue() >= data.length) {
+                offset = space.getKey();
+                break;
+            }
+        }
+        access.seek(offset);
+        access.write(data);
+        if(offset == length) {
+            length += data.length;
+        }
+        else {
+            long space = unused.remove(offset);
+            if(space > data.length)
+                unused.put(offset + data.length, space - data.length);
+        }
+        return offset;
+    }
+
+    /**
+     * Read data that was previously written to the store
+     * @param offset the offset returned by {@link #write(byte[])}
+     * @param length the number of bytes that were written
+     * @return the data that was written
+     * @throws IOException if the data could not be read
+     */
+    public synchronized byte[] read(long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        access.seek(offset);
+        access.readFully(data);
+        return data;
+    }
+
+    /**
+     * Give back the space used by data that is no longer needed, so it can be reused.
+     * Space at the end of the file is cut off the file.
+     * @param offset the offset returned by {@link #write(byte[])}
+     * @param length the number of bytes that were written
+     */
+    public synchronized void free(long offset, int length) {
+        if(length <= 0)
+            return;
+        long start = offset;
+        long end = offset + length;
+        Map.Entry<Long, Long> before = unused.floorEntry(start);
+        if(before != null && before.getKey() + before.getValue() == start) {
+            start = before.getKey();
+            unused.remove(start);
+        }
+        Long after = unused.remove(end);
+        if(after != null)
+            end += after;
+        if(end == this.length) {
+            this.length = start;
+            try {
+                access.setLength(start);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        unused.put(start, end - start);
+    }
+
+    /**
+     * Get the length of the file, which only includes unused space that has data after it
+     * @return the length in bytes
+     */
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Throw away everything in the store. Offsets returned before this was called are no longer valid.
+     */
+    public synchronized void clear() {
+        unused.clear();
+        length = 0;
+        try {
+            access.setLength(0);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package paint.history;
+
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A rectangular block of pixels taken from an image, used to store only the parts of an image that were changed.
+ * A block where every pixel is the same color is stored as just that color.
+ * The pixels can be compressed and moved into a {@link SpillStore} when memory is needed, and are loaded back when used.
+ * Pixels that can't be loaded back aren't made up: an {@link UncheckedIOException} is thrown instead.
+ * @author Colin Braun
+ */
+public class Tile {
+    /**
+     * The position of this tile in the image it was taken from
+     */
+    private final int x, y;
+    /**
+     * The size of this tile (tiles on the right and bottom edges of an image may be smaller than the rest)
+     */
+    private final int width, height;
+    /**
+     * The ARGB pixels of this tile, stored row by row. Null while the tile is spilled, or if it is a single color.
+     */
+    private int[] pixels;
+    /**
+     * Whether or not every pixel of this tile is the same color
+     */
+    private final boolean uniform;
+    /**
+     * The color of every pixel, if the tile is a single color
+     */
+    private final int color;
+    /**
+     * Where the compressed pixels are in the {@link SpillStore}, if the tile is spilled
+     */
+    private long spillOffset;
+    /**
+     * The number of compressed bytes in the {@link SpillStore}, if the tile is spilled
+     */
+    private int spillLength;
+    /**
+     * Whether or not the tile has been released, after which its pixels are gone and it's never spilled
+     */
+    private boolean released;
+
+    /**
+     * Construct a tile from pixels that have already been read
+     * @param x the left-most x value of the tile in the image
+     * @param y the top-most y value of the tile in the image
+     * @param width the width of the tile
+     * @param height the height of the tile
+     * @param pixels the ARGB pixels of the tile, row by row
+     */
+    public Tile(int x, int y, int width, int height, int[] pixels) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        uniform = false;
+        color = 0;
+    }
+
+    /**
+     * Construct a tile where every pixel is the same color
+     * @param x the left-most x value of the tile in the image
+     * @param y the top-most y value of the tile in the image
+     * @param width the width of the tile
+     * @param height the height of the tile
+     * @param color the ARGB color of every pixel
+     */
+    public Tile(int x, int y, int width, int height, int color) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        uniform = true;
+        this.color = color;
+    }
+
+    /**
+     * Copy a tile out of an image. If every pixel is the same color, only the color is kept.
+     * @param raster the image to copy from
+     * @param x the left-most x value of the tile
+     * @param y the top-most y value of the tile
+     * @param width the width of the tile
+     * @param height the height of the tile
+     * @return the tile
+     */
+    public static Tile read(Raster raster, int x, int y, int width, int height) {
+        int[] pixels = new int[width * height];
+        raster.getPixels(x, y, width, height, pixels, 0, width);
+        for(int i = 1; i < pixels.length; i++) {
+            if(pixels[i] != pixels[0])
+                return new Tile(x, y, width, height, pixels);
+        }
+        return new Tile(x, y, width, height, pixels[0]);
+    }
+
+    /**
+     * Write the pixels of this tile back to where they were taken from
+     * @param raster the image to write the pixels to
+     * @param store the store to load the pixels from if they were spilled
+     * @throws UncheckedIOException if the pixels were spilled and can't be read back
+     */
+    public void write(Raster raster, SpillStore store) {
+        if(uniform)
+            raster.fill(x, y, width, height, color);
+        else
+            raster.setPixels(x, y, width, height, getPixels(store), 0, width);
+    }
+
+    /**
+     * Write the part of this tile that is inside an area back to where it was taken from
+     * @param raster the image to write the pixels to
+     * @param store the store to load the pixels from if they were spilled
+     * @param area the area to write, pixels of the image outside it are left alone
+     * @throws UncheckedIOException if the pixels were spilled and can't be read back
+     */
+    public void write(Raster raster, SpillStore store, DirtyRect area) {
+        DirtyRect overlap = getBounds().intersect(area);
+        if(overlap.isEmpty())
+            return;
+        if(uniform) {
+            raster.fill(overlap.getX(), overlap.getY(), overlap.getWidth(), overlap.getHeight(), color);
+            return;
+        }
+        int offset = (overlap.getY() - y) * width + overlap.getX() - x;
+        raster.setPixels(overlap.getX(), overlap.getY(), overlap.getWidth(), overlap.getHeight(), getPixels(store), offset, width);
+    }
+
+    /**
+     * Check if the image still holds the same pixels as this tile
+     * @param raster the image to check
+     * @param store the store to load the pixels from if they were spilled
+     * @param scratch an array with room for the tile's pixels, used to read the image
+     * @return true if every pixel of the tile matches the image
+     * @throws UncheckedIOException if the pixels were spilled and can't be read back
+     */
+    public boolean matches(Raster raster, SpillStore store, int[] scratch) {
+        int size = width * height;
+        raster.getPixels(x, y, width, height, scratch, 0, width);
+        if(uniform) {
+            for(int i = 0; i < size; i++) {
+                if(scratch[i] != color)
+                    return false;
+            }
+            return true;
+        }
+        int[] own = getPixels(store);
+        for(int i = 0; i < size; i++) {
+            if(scratch[i] != own[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the area of the image this tile covers
+     * @return the area of the tile
+     */
+    public DirtyRect getBounds() {
+        return new DirtyRect(x, y, width, height);
+    }
+
+    /**
+     * Check that the pixels of this tile can be loaded back from the store, without keeping them.
+     * Used to make sure a group of tiles can all be written before writing any of them.
+     * @param store the store the pixels were spilled to
+     * @throws UncheckedIOException if the pixels were spilled and can't be read back
+     */
+    public synchronized void check(SpillStore store) {
+        if(!uniform && pixels == null)
+            getPixels(store);
+    }
+
+    /**
+     * Get the pixels of this tile, loading them back from the store if they were spilled.
+     * Loaded pixels are not kept, so a spilled tile stays spilled.
+     * @param store the store the pixels were spilled to
+     * @return the ARGB pixels of this tile
+     * @throws UncheckedIOException if the pixels were spilled and can't be read back
+     */
+    private synchronized int[] getPixels(SpillStore store) {
+        if(pixels != null)
+            return pixels;
+        int[] loaded = new int[width * height];
+        if(uniform) {
+            Arrays.fill(loaded, color);
+            return loaded;
+        }
+        if(released)
+            throw new IllegalStateException("Tile was released");
+        Inflater inflater = new Inflater();
+        try {
+            byte[] bytes = new byte[4 * loaded.length];
+            inflater.setInput(store.read(spillOffset, spillLength));
+            if(inflater.inflate(bytes) != bytes.length || !inflater.finished())
+                throw new IOException("Spilled tile at " + x + ", " + y + " is the wrong size");
+            ByteBuffer.wrap(bytes).asIntBuffer().get(loaded);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Spilled tile at " + x + ", " + y + " is corrupt", e));
+        } finally {
+            inflater.end();
+        }
+        return loaded;
+    }
+
+    /**
+     * Compress the pixels of this tile and move them into the store, freeing the memory they used
+     * @param store the store to write to
+     */
+    public synchronized void spill(SpillStore store) {
+        if(pixels == null || released)
+            return;
+        ByteBuffer bytes = ByteBuffer.allocate(4 * pixels.length);
+        bytes.asIntBuffer().put(pixels);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(bytes.array());
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while(!deflater.finished())
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        deflater.end();
+        try {
+            spillOffset = store.write(compressed.toByteArray());
+            spillLength = compressed.size();
+            pixels = null;
+        } catch (IOException e) {
+            // Keep the pixels in memory if they can't be written
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Throw away the pixels of this tile, giving back the space they used in the store if they were spilled.
+     * The tile can't be used afterwards.
+     * @param store the store the pixels may have been spilled to
+     */
+    public synchronized void release(SpillStore store) {
+        if(released)
+            return;
+        released = true;
+        if(pixels == null && !uniform && store != null)
+            store.free(spillOffset, spillLength);
+        pixels = null;
+    }
+
+    /**
+     * Get the amount of memory the pixels of this tile take up
+     * @return the size of the pixels in bytes, or 0 if they are spilled or the tile is a single color
+     */
+    public synchronized long getByteSize() {
+        return pixels == null ? 0 : 4L * pixels.length;
+    }
+}
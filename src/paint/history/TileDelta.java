@@ -0,0 +1,90 @@
+package paint.history;
+
+import paint.draw.RasterPainter;
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An edit stored as only the tiles of the image that it changed, used for edits that work on pixels directly
+ * (like filters or moving a selection). This allows the memory used by an undo step to depend on how much
+ * was edited instead of the size of the image.
+ * @author Colin Braun
+ */
+public class TileDelta extends RevertibleEntry {
+    /**
+     * The changed tiles as they were before the edit
+     */
+    private TileSet before;
+    /**
+     * The changed tiles as they are after the edit
+     */
+    private TileSet after;
+
+    /**
+     * Construct a delta by finding which of the tiles copied before an edit have changed
+     * @param before the tiles copied before the edit, covering everything it could have changed
+     * @param after the image after the edit
+     * @param store the store to load spilled tiles from
+     */
+    public TileDelta(TileSet before, Raster after, SpillStore store) {
+        TileSet[] changed = TileSet.changed(before, after, store);
+        this.before = changed[0];
+        this.after = changed[1];
+    }
+
+    /**
+     * Construct a delta by finding which tiles differ between two copies of an image's pixels
+     * @param before the ARGB pixels of the image before the edit, row by row
+     * @param after the ARGB pixels of the image after the edit, row by row
+     * @param width the width of the image
+     * @param height the height of the image
+     */
+    public TileDelta(int[] before, int[] after, int width, int height) {
+        TileSet[] changed = TileSet.changed(before, after, width, height);
+        this.before = changed[0];
+        this.after = changed[1];
+    }
+
+    /**
+     * Write the parts of the tiles from after the edit that are inside the area
+     * @param raster the image to apply the edit to
+     * @param store the store to load spilled pixels from
+     * @param area the area of the image being brought up to date
+     * @param painter not used, nothing is drawn
+     */
+    @Override
+    public void apply(Raster raster, SpillStore store, DirtyRect area, RasterPainter painter) {
+        after.write(raster, store, area);
+    }
+
+    /**
+     * Write the tiles from before the edit, undoing it
+     * @param raster the image to undo the edit on
+     * @param store the store to load spilled pixels from
+     */
+    @Override
+    public void revert(Raster raster, SpillStore store) {
+        before.write(raster, store);
+    }
+
+    /**
+     * Whether or not the edit changed anything
+     * @return true if no tiles were changed
+     */
+    public boolean isEmpty() {
+        return before.isEmpty();
+    }
+
+    @Override
+    public DirtyRect getBounds() {
+        return before.getBounds();
+    }
+
+    @Override
+    public List<TileSet> getTileSets() {
+        return Arrays.asList(before, after);
+    }
+}
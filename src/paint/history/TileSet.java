@@ -0,0 +1,283 @@
+package paint.history;
+
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A group of {@link Tile}s taken from the same image, such as the tiles an edit changed or the tiles
+ * a checkpoint has saved so far. Tiles always line up with a grid of {@link #TILE_SIZE} pixels.
+ * @author Colin Braun
+ */
+public class TileSet {
+    /**
+     * The width and height of the tiles an image is split into
+     */
+    public static final int TILE_SIZE = 128;
+    /**
+     * The tiles in this set. Tiles may be added while a background thread is spilling the set, so it's only used
+     * while holding the set's lock.
+     */
+    private final List<Tile> tiles;
+    /**
+     * Which tiles of the grid have been captured, for sets used as checkpoints. Null until the first capture.
+     */
+    private BitSet captured;
+    /**
+     * Whether or not this set is waiting to be spilled by a background thread
+     */
+    private volatile boolean spillPending;
+
+    /**
+     * Construct an empty set. Use {@link #copy(Raster, DirtyRect)} or one of the changed() methods to fill one
+     * from an image, or {@link #capture(Raster, DirtyRect)} to fill one bit by bit.
+     */
+    public TileSet() {
+        tiles = new ArrayList<>();
+    }
+
+    /**
+     * Copy every tile that overlaps an area of an image
+     * @param raster the image to copy from
+     * @param area the area to copy, inside the image
+     * @return the set containing the tiles
+     */
+    public static TileSet copy(Raster raster, DirtyRect area) {
+        TileSet set = new TileSet();
+        forEachTile(raster, area, (x, y, width, height) -> set.tiles.add(Tile.read(raster, x, y, width, height)));
+        return set;
+    }
+
+    /**
+     * Save every tile overlapping an area that hasn't been saved yet. A set used this way is a lazy checkpoint:
+     * as long as each tile is captured before it is first changed, the set always holds what the image looked
+     * like when the checkpoint was taken, wherever it has been changed since.
+     * @param raster the image, before the area is changed
+     * @param area the area about to be changed, inside the image
+     */
+    public synchronized void capture(Raster raster, DirtyRect area) {
+        if(captured == null)
+            captured = new BitSet();
+        int across = (raster.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        forEachTile(raster, area, (x, y, width, height) -> {
+            int index = (y / TILE_SIZE) * across + x / TILE_SIZE;
+            if(!captured.get(index)) {
+                captured.set(index);
+                tiles.add(Tile.read(raster, x, y, width, height));
+            }
+        });
+    }
+
+    /**
+     * Find which tiles of a set no longer match an image
+     * @param before the tiles as they were before an edit
+     * @param after the image after the edit
+     * @param store the store to load spilled tiles from
+     * @return two sets holding the changed tiles, the first from before the edit and the second from after it
+     */
+    public static TileSet[] changed(TileSet before, Raster after, SpillStore store) {
+        TileSet beforeSet = new TileSet();
+        TileSet afterSet = new TileSet();
+        int[] scratch = new int[TILE_SIZE * TILE_SIZE];
+        for(Tile tile : before.getTiles()) {
+            if(!tile.matches(after, store, scratch)) {
+                DirtyRect bounds = tile.getBounds();
+                beforeSet.tiles.add(tile);
+                afterSet.tiles.add(Tile.read(after, bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight()));
+            }
+        }
+        return new TileSet[] {beforeSet, afterSet};
+    }
+
+    /**
+     * Find which tiles differ between two copies of an image's pixels
+     * @param before the ARGB pixels of the image before an edit, row by row
+     * @param after the ARGB pixels of the image after the edit, row by row
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return two sets holding the changed tiles, the first from before the edit and the second from after it
+     */
+    public static TileSet[] changed(int[] before, int[] after, int width, int height) {
+        TileSet beforeSet = new TileSet();
+        TileSet afterSet = new TileSet();
+        for(int y = 0; y < height; y += TILE_SIZE) {
+            int tileHeight = Math.min(TILE_SIZE, height - y);
+            for(int x = 0; x < width; x += TILE_SIZE) {
+                int tileWidth = Math.min(TILE_SIZE, width - x);
+                boolean same = true;
+                for(int row = y; row < y + tileHeight && same; row++) {
+                    int start = row * width + x;
+                    for(int i = start; i < start + tileWidth; i++) {
+                        if(before[i] != after[i]) {
+                            same = false;
+                            break;
+                        }
+                    }
+                }
+                if(!same) {
+                    beforeSet.tiles.add(new Tile(x, y, tileWidth, tileHeight, copyTile(before, width, x, y, tileWidth, tileHeight)));
+                    afterSet.tiles.add(new Tile(x, y, tileWidth, tileHeight, copyTile(after, width, x, y, tileWidth, tileHeight)));
+                }
+            }
+        }
+        return new TileSet[] {beforeSet, afterSet};
+    }
+
+    /**
+     * Work on a tile of the grid
+     */
+    @FunctionalInterface
+    private interface TileTask {
+        /**
+         * Do the work on a tile
+         * @param x the left-most x value of the tile
+         * @param y the top-most y value of the tile
+         * @param width the width of the tile
+         * @param height the height of the tile
+         */
+        void run(int x, int y, int width, int height);
+    }
+
+    /**
+     * Run a task on every tile of the grid that overlaps an area of an image
+     * @param raster the image
+     * @param area the area, inside the image
+     * @param task the task to run
+     */
+    private static void forEachTile(Raster raster, DirtyRect area, TileTask task) {
+        for(int y = area.getY() / TILE_SIZE * TILE_SIZE; y < area.getMaxY(); y += TILE_SIZE) {
+            int tileHeight = Math.min(TILE_SIZE, raster.getHeight() - y);
+            for(int x = area.getX() / TILE_SIZE * TILE_SIZE; x < area.getMaxX(); x += TILE_SIZE)
+                task.run(x, y, Math.min(TILE_SIZE, raster.getWidth() - x), tileHeight);
+        }
+    }
+
+    /**
+     * Copy the pixels of one tile out of an image's pixels
+     * @param pixels the ARGB pixels of the image, row by row
+     * @param width the width of the image
+     * @param x the left-most x value of the tile
+     * @param y the top-most y value of the tile
+     * @param tileWidth the width of the tile
+     * @param tileHeight the height of the tile
+     * @return the pixels of the tile, row by row
+     */
+    private static int[] copyTile(int[] pixels, int width, int x, int y, int tileWidth, int tileHeight) {
+        int[] tile = new int[tileWidth * tileHeight];
+        for(int row = 0; row < tileHeight; row++)
+            System.arraycopy(pixels, (y + row) * width + x, tile, row * tileWidth, tileWidth);
+        return tile;
+    }
+
+    /**
+     * Get a copy of the list of tiles, which can be used without holding the lock
+     * @return the tiles
+     */
+    private synchronized List<Tile> getTiles() {
+        return new ArrayList<>(tiles);
+    }
+
+    /**
+     * Write every tile in this set back to where it was taken from. Spilled tiles are all checked before anything
+     * is written, so if one can't be read back the image is left as it was.
+     * @param raster the image to write the pixels to
+     * @param store the store to load spilled tiles from
+     * @throws java.io.UncheckedIOException if a spilled tile can't be read back
+     */
+    public void write(Raster raster, SpillStore store) {
+        List<Tile> tiles = getTiles();
+        for(Tile tile : tiles)
+            tile.check(store);
+        for(Tile tile : tiles)
+            tile.write(raster, store);
+    }
+
+    /**
+     * Write the parts of the tiles in this set that are inside an area back to where they were taken from.
+     * Spilled tiles are all checked before anything is written, so if one can't be read back the image is left as it was.
+     * @param raster the image to write the pixels to
+     * @param store the store to load spilled tiles from
+     * @param area the area to write, pixels outside it are left alone
+     * @throws java.io.UncheckedIOException if a spilled tile can't be read back
+     */
+    public void write(Raster raster, SpillStore store, DirtyRect area) {
+        List<Tile> tiles = new ArrayList<>();
+        for(Tile tile : getTiles()) {
+            if(!tile.getBounds().intersect(area).isEmpty()) {
+                tile.check(store);
+                tiles.add(tile);
+            }
+        }
+        for(Tile tile : tiles)
+            tile.write(raster, store, area);
+    }
+
+    /**
+     * Get the smallest area covering every tile in this set
+     * @return the area, which is empty if there are no tiles
+     */
+    public DirtyRect getBounds() {
+        DirtyRect bounds = new DirtyRect(0, 0, 0, 0);
+        for(Tile tile : getTiles())
+            bounds = bounds.union(tile.getBounds());
+        return bounds;
+    }
+
+    /**
+     * Compress the tiles and move them into the store, freeing the memory they used.
+     * They are loaded back automatically when written. Tiles captured while this runs stay in memory.
+     * @param store the store to write to
+     */
+    public void spill(SpillStore store) {
+        for(Tile tile : getTiles())
+            tile.spill(store);
+        spillPending = false;
+    }
+
+    /**
+     * Throw away every tile in this set, giving back the space spilled tiles used in the store.
+     * Called when the edit or checkpoint holding the set is removed from the history. The set can't be used afterwards.
+     * @param store the store tiles may have been spilled to, or null if nothing was ever spilled
+     */
+    public void release(SpillStore store) {
+        for(Tile tile : getTiles())
+            tile.release(store);
+    }
+
+    /**
+     * Mark this set as handed to a background thread to be spilled, so it isn't handed over twice
+     */
+    public void setSpillPending() {
+        spillPending = true;
+    }
+
+    /**
+     * Whether or not this set is waiting to be spilled
+     * @return true if {@link #spill(SpillStore)} has been requested but hasn't finished
+     */
+    public boolean isSpillPending() {
+        return spillPending;
+    }
+
+    /**
+     * Whether or not there are any tiles in this set
+     * @return true if there are no tiles
+     */
+    public synchronized boolean isEmpty() {
+        return tiles.isEmpty();
+    }
+
+    /**
+     * Get the amount of memory the tiles take up
+     * @return the size of the pixels in bytes, not counting spilled tiles
+     */
+    public long getByteSize() {
+        long size = 0;
+        for(Tile tile : getTiles())
+            size += tile.getByteSize();
+        return size;
+    }
+}
@@ -0,0 +1,586 @@
+package paint.history;
+
+import javafx.scene.canvas.GraphicsContext;
+import paint.draw.Drawable;
+import paint.draw.RasterPainter;
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+import paint.raster.RasterSnapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Keeps track of the edits made to an image so that they can be undone and redone.
+ * Drawings are stored as {@link DrawOperation}s, with a checkpoint taken every few of them.
+ * Checkpoints are lazy: they start out empty and save each tile of the image just before it is first changed,
+ * so they only ever hold the parts of the image that were drawn on. Undoing a drawing restores the nearest
+ * checkpoint before it and draws everything after it again, but only inside the area the drawing covered.
+ * Edits that can be undone on their own, like {@link TileDelta}s and {@link MapOperation}s, are undone directly,
+ * and a new checkpoint is started after each of them. A {@link ReplaceOperation} keeps the image it replaced whole,
+ * so undoing it swaps the images back and tells the replace listeners which one to show.
+ * When the history takes up more memory than its budget, the oldest pixels are compressed and moved to a
+ * {@link SpillStore} on a background thread. The most recent edits always stay in memory so they undo quickly.
+ * If spilled pixels can't be read back, the edit that needed them can't be undone, so it and the edits before it
+ * are dropped from the history instead of painting made up pixels.
+ * Every change to the image goes through the history, so it also keeps {@link RasterSnapshot}s up to date.
+ * @author Colin Braun
+ */
+public class UndoHistory {
+    /**
+     * The default amount of memory the history may use before old edits are moved to disk (256 MB)
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+    /**
+     * The default number of recent edits that are never moved to disk
+     */
+    public static final int DEFAULT_KEPT_IN_MEMORY = 10;
+    /**
+     * The default number of drawings between checkpoints
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 20;
+    /**
+     * Every edit made, oldest first. Entries at or after the cursor have been undone.
+     */
+    private List<HistoryEntry> entries;
+    /**
+     * The number of entries that are currently applied to the image
+     */
+    private int cursor;
+    /**
+     * Lazy checkpoints of the image, keyed by the number of entries that were applied when they were taken
+     */
+    private TreeMap<Integer, TileSet> checkpoints;
+    /**
+     * The number of drawings recorded since the last checkpoint
+     */
+    private int drawingsSinceCheckpoint;
+    /**
+     * The number of drawings between checkpoints
+     */
+    private int checkpointInterval;
+    /**
+     * The amount of memory in bytes the history may use before old edits are moved to disk
+     */
+    private long memoryBudget;
+    /**
+     * The number of most recent edits that are never moved to disk
+     */
+    private int keptInMemory;
+    /**
+     * The store old edits are moved to. Created the first time it is needed.
+     */
+    private SpillStore store;
+    /**
+     * The background thread that compresses old edits and writes them to disk
+     */
+    private ExecutorService spiller;
+    /**
+     * The tiles copied by {@link #beginEdit(Raster, DirtyRect)}, waiting for {@link #endEdit(Raster)}
+     */
+    private TileSet pendingEdit;
+    /**
+     * Snapshots of the image that are still in use, which copy each tile before it is changed
+     */
+    private List<RasterSnapshot> snapshots;
+    /**
+     * Told about every area of the image before it changes, for as long as the history exists
+     */
+    private List<Consumer<DirtyRect>> changeListeners;
+    /**
+     * Told when undoing or redoing swaps the image for another one, for as long as the history exists
+     */
+    private List<Consumer<Raster>> replaceListeners;
+    /**
+     * Given the images kept by {@link ReplaceOperation}s once they can't be shown again
+     */
+    private Consumer<Raster> disposer;
+    /**
+     * The image the edits are being made on now
+     */
+    private Raster current;
+
+    /**
+     * Construct a history with the default memory budget
+     */
+    public UndoHistory() {
+        this(DEFAULT_MEMORY_BUDGET, DEFAULT_KEPT_IN_MEMORY);
+    }
+
+    /**
+     * Construct a history with a specific memory budget
+     * @param memoryBudget the amount of memory in bytes the history may use before old edits are moved to disk
+     * @param keptInMemory the number of most recent edits that are never moved to disk
+     */
+    public UndoHistory(long memoryBudget, int keptInMemory) {
+        entries = new ArrayList<>();
+        checkpoints = new TreeMap<>();
+        snapshots = new CopyOnWriteArrayList<>();
+        changeListeners = new ArrayList<>();
+        replaceListeners = new ArrayList<>();
+        disposer = Raster::dispose;
+        this.memoryBudget = memoryBudget;
+        this.keptInMemory = keptInMemory;
+        checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        spiller = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "History spiller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Forget all edits and start over from an image. Used when the image is replaced by one that may be a different size.
+     * Nothing is copied until the image is changed, so this is instant even for very large images.
+     * @param raster what the image looks like now, which undoing can go back to
+     */
+    public void reset(Raster raster) {
+        for(int i = 0; i < entries.size(); i++)
+            release(entries.get(i), i < cursor);
+        for(TileSet checkpoint : checkpoints.values())
+            checkpoint.release(store);
+        entries.clear();
+        checkpoints.clear();
+        cursor = 0;
+        drawingsSinceCheckpoint = 0;
+        pendingEdit = null;
+        // The old image isn't changed anymore, so its snapshots stay as they are without help
+        snapshots.clear();
+        if(store != null)
+            store.clear();
+        checkpoints.put(0, new TileSet());
+        current = raster;
+        enforceBudget();
+    }
+
+    /**
+     * Draw a drawing onto the image and record it. Only the drawing and the settings of the context are kept,
+     * along with the tiles it covered if the current checkpoint hasn't saved them yet.
+     * @param raster the image to draw on
+     * @param drawable what to draw
+     * @param context the context holding the settings to draw with
+     * @param bounds the area to draw inside of, inside the image
+     * @param painter the painter used to draw on the image
+     */
+    public void draw(Raster raster, Drawable drawable, GraphicsContext context, DirtyRect bounds, RasterPainter painter) {
+        checkpoints.floorEntry(cursor).getValue().capture(raster, bounds);
+        willChange(bounds);
+        DrawOperation operation = new DrawOperation(drawable, new ContextState(context), bounds);
+        operation.apply(raster, store, bounds, painter);
+        add(operation);
+        drawingsSinceCheckpoint++;
+        if(drawingsSinceCheckpoint >= checkpointInterval) {
+            checkpoints.put(cursor, new TileSet());
+            drawingsSinceCheckpoint = 0;
+        }
+        enforceBudget();
+    }
+
+    /**
+     * Run an operation on every pixel in an area of the image and record it.
+     * Only the operation is kept, so this takes no memory no matter how large the area is.
+     * @param raster the image to change
+     * @param area the area to change, inside the image
+     * @param operation the operation to run on each pixel
+     * @param inverse the operation that undoes it, which must give back exactly the original pixel
+     */
+    public void map(Raster raster, DirtyRect area, IntUnaryOperator operation, IntUnaryOperator inverse) {
+        MapOperation entry = new MapOperation(operation, inverse, area);
+        willChange(area);
+        entry.apply(raster, store, area, null);
+        addRevertible(entry);
+    }
+
+    /**
+     * Swap the image for another one and record it, like when it's resized. The old image is kept whole, so it must not
+     * be changed or disposed afterwards: the history disposes of it once it can't be undone back to.
+     * The replace listeners are told to show the new image.
+     * @param before the image now
+     * @param after the image that replaces it
+     */
+    public void replace(Raster before, Raster after) {
+        addRevertible(new ReplaceOperation(before, after));
+        replaceWith(after);
+    }
+
+    /**
+     * Start recording an edit that works on pixels directly, by copying the tiles it may change.
+     * Finish it with {@link #endEdit(Raster)} once the edit is made.
+     * @param raster the image, before the edit
+     * @param area the area the edit may change, inside the image
+     */
+    public void beginEdit(Raster raster, DirtyRect area) {
+        willChange(area);
+        pendingEdit = TileSet.copy(raster, area);
+    }
+
+    /**
+     * Finish recording an edit started with {@link #beginEdit(Raster, DirtyRect)}. Only the tiles that changed are kept.
+     * @param raster the image, after the edit
+     */
+    public void endEdit(Raster raster) {
+        if(pendingEdit == null)
+            return;
+        TileDelta delta = new TileDelta(pendingEdit, raster, store);
+        pendingEdit = null;
+        if(!delta.isEmpty())
+            addRevertible(delta);
+    }
+
+    /**
+     * Record an edit that worked on pixels directly, given the pixels of the image before and after it.
+     * Only the tiles that changed are kept.
+     * @param before the ARGB pixels of the image before the edit, row by row
+     * @param after the ARGB pixels of the image after the edit, row by row
+     * @param width the width of the image
+     * @param height the height of the image
+     */
+    public void record(int[] before, int[] after, int width, int height) {
+        TileDelta delta = new TileDelta(before, after, width, height);
+        if(!delta.isEmpty())
+            addRevertible(delta);
+    }
+
+    /**
+     * Take a snapshot of the image that stays the same while the image is edited, until it is released with
+     * {@link #releaseSnapshot(RasterSnapshot)}. Nothing is copied until the image is changed.
+     * @param raster the image
+     * @return the snapshot
+     */
+    public RasterSnapshot takeSnapshot(Raster raster) {
+        RasterSnapshot snapshot = new RasterSnapshot(raster);
+        snapshots.add(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Stop keeping a snapshot up to date and free what it copied
+     * @param snapshot the snapshot, which must not be used anymore
+     */
+    public void releaseSnapshot(RasterSnapshot snapshot) {
+        snapshots.remove(snapshot);
+        snapshot.release();
+    }
+
+    /**
+     * Add a listener told about every area of the image before it is changed, including by undoing and redoing.
+     * Listeners stay through {@link #reset(Raster)}.
+     * @param listener the listener, called on the thread making the change
+     */
+    public void addChangeListener(Consumer<DirtyRect> listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Add a listener told when recording, undoing or redoing a {@link ReplaceOperation} swaps the image for another one.
+     * Edits after that have to be made on the new image. Listeners stay through {@link #reset(Raster)}.
+     * @param listener the listener, given the image to show
+     */
+    public void addReplaceListener(Consumer<Raster> listener) {
+        replaceListeners.add(listener);
+    }
+
+    /**
+     * Set what is done with the images kept for undoing and redoing {@link ReplaceOperation}s once they're dropped
+     * from the history. They're disposed of by default.
+     * @param disposer given each image that isn't needed anymore
+     */
+    public void setDisposer(Consumer<Raster> disposer) {
+        this.disposer = disposer;
+    }
+
+    /**
+     * Tell the history part of the image is about to be changed by something other than the history itself,
+     * so snapshots can copy it first
+     * @param area the area about to be changed, inside the image
+     */
+    public void willChange(DirtyRect area) {
+        // Snapshots of an image that was swapped out don't change until it's swapped back in
+        for(RasterSnapshot snapshot : snapshots) {
+            if(snapshot.getSource() == current)
+                snapshot.capture(area);
+        }
+        for(Consumer<DirtyRect> listener : changeListeners)
+            listener.accept(area);
+    }
+
+    /**
+     * Add an entry that can be undone on its own, and start a new checkpoint after it.
+     * Drawings after it are then never replayed from a checkpoint before it, so it never has to be saved in one.
+     * @param entry the entry to add
+     */
+    private void addRevertible(RevertibleEntry entry) {
+        add(entry);
+        checkpoints.put(cursor, new TileSet());
+        drawingsSinceCheckpoint = 0;
+        enforceBudget();
+    }
+
+    /**
+     * Add an entry after the cursor. Making a new edit clears anything that could have been redone.
+     * @param entry the entry to add
+     */
+    private void add(HistoryEntry entry) {
+        dropRedo();
+        entries.add(entry);
+        cursor++;
+    }
+
+    /**
+     * Remove the entries that could be redone, and the checkpoints after the cursor, giving back the space they used
+     */
+    private void dropRedo() {
+        List<HistoryEntry> undone = entries.subList(cursor, entries.size());
+        for(HistoryEntry entry : undone)
+            release(entry, false);
+        undone.clear();
+        SortedMap<Integer, TileSet> later = checkpoints.tailMap(cursor, false);
+        for(TileSet checkpoint : later.values())
+            checkpoint.release(store);
+        later.clear();
+    }
+
+    /**
+     * Remove the oldest entries, which can't be undone anymore because pixels they need can't be read back.
+     * The image must be in the state after them, so the cursor must be at least the number of entries removed.
+     * @param count the number of entries to remove
+     */
+    private void forget(int count) {
+        for(HistoryEntry entry : entries.subList(0, count))
+            release(entry, true);
+        entries.subList(0, count).clear();
+        SortedMap<Integer, TileSet> older = checkpoints.headMap(count, false);
+        for(TileSet checkpoint : older.values())
+            checkpoint.release(store);
+        older.clear();
+        TreeMap<Integer, TileSet> kept = new TreeMap<>();
+        for(Map.Entry<Integer, TileSet> checkpoint : checkpoints.entrySet())
+            kept.put(checkpoint.getKey() - count, checkpoint.getValue());
+        // A new checkpoint is valid from now on, since redoing saves tiles into it before drawing over them
+        kept.putIfAbsent(0, new TileSet());
+        checkpoints = kept;
+        cursor -= count;
+        drawingsSinceCheckpoint = countDrawingsSinceCheckpoint();
+    }
+
+    /**
+     * Give back the space the stored pixels of an entry used. A {@link ReplaceOperation} gives up the image that
+     * isn't shown: the one before it if it's applied, or the one after it if it was undone.
+     * @param entry the entry, which is being removed from the history
+     * @param applied whether or not the entry is applied to the image
+     */
+    private void release(HistoryEntry entry, boolean applied) {
+        for(TileSet set : entry.getTileSets())
+            set.release(store);
+        if(entry instanceof ReplaceOperation) {
+            ReplaceOperation replace = (ReplaceOperation)entry;
+            disposer.accept(applied ? replace.getBefore() : replace.getAfter());
+        }
+    }
+
+    /**
+     * Make another image the one edits are made on, and tell the replace listeners to show it
+     * @param raster the image
+     * @return the whole area of the image
+     */
+    private DirtyRect replaceWith(Raster raster) {
+        current = raster;
+        for(Consumer<Raster> listener : replaceListeners)
+            listener.accept(raster);
+        return new DirtyRect(0, 0, raster.getWidth(), raster.getHeight());
+    }
+
+    /**
+     * Undo the last edit made to the image
+     * @param raster the image to undo the edit on
+     * @param painter the painter used to draw on the image
+     * @return the area of the image that changed, or null if there was nothing to undo or it couldn't be undone
+     */
+    public DirtyRect undo(Raster raster, RasterPainter painter) {
+        if(cursor == 0)
+            return null;
+        HistoryEntry entry = entries.get(cursor - 1);
+        if(entry instanceof ReplaceOperation) {
+            cursor--;
+            drawingsSinceCheckpoint = countDrawingsSinceCheckpoint();
+            return replaceWith(((ReplaceOperation)entry).getBefore());
+        }
+        DirtyRect area = entry.getBounds().clip(raster.getWidth(), raster.getHeight());
+        willChange(area);
+        try {
+            if(entry instanceof RevertibleEntry)
+                ((RevertibleEntry)entry).revert(raster, store);
+            else
+                restore(raster, painter, cursor - 1, area);
+        } catch (UncheckedIOException e) {
+            // Nothing was written, but this edit and everything before it can't be undone anymore
+            e.printStackTrace();
+            System.out.println("Could not undo, the " + cursor + " oldest edits were removed from the history");
+            forget(cursor);
+            enforceBudget();
+            return null;
+        }
+        cursor--;
+        drawingsSinceCheckpoint = countDrawingsSinceCheckpoint();
+        enforceBudget();
+        return area;
+    }
+
+    /**
+     * Redo the last undo
+     * @param raster the image to redo the edit on
+     * @param painter the painter used to draw on the image
+     * @return the area of the image that changed, or null if there was nothing to redo or it couldn't be redone
+     */
+    public DirtyRect redo(Raster raster, RasterPainter painter) {
+        if(cursor == entries.size())
+            return null;
+        HistoryEntry entry = entries.get(cursor);
+        if(entry instanceof ReplaceOperation) {
+            cursor++;
+            drawingsSinceCheckpoint = countDrawingsSinceCheckpoint();
+            return replaceWith(((ReplaceOperation)entry).getAfter());
+        }
+        DirtyRect area = entry.getBounds().clip(raster.getWidth(), raster.getHeight());
+        // Drawings are undone from the checkpoint before them, which may not have saved these tiles yet
+        if(!(entry instanceof RevertibleEntry))
+            checkpoints.floorEntry(cursor).getValue().capture(raster, area);
+        willChange(area);
+        try {
+            entry.apply(raster, store, area, painter);
+        } catch (UncheckedIOException e) {
+            // Nothing was written, but this edit and the ones after it can't be redone anymore
+            e.printStackTrace();
+            System.out.println("Could not redo, the edits that could be redone were removed from the history");
+            dropRedo();
+            enforceBudget();
+            return null;
+        }
+        cursor++;
+        drawingsSinceCheckpoint = countDrawingsSinceCheckpoint();
+        enforceBudget();
+        return area;
+    }
+
+    /**
+     * Bring part of the image to the state after a number of entries by restoring the nearest checkpoint
+     * before it and applying the entries after the checkpoint again
+     * @param raster the image
+     * @param painter the painter used to draw on the image
+     * @param target the number of entries that should be applied
+     * @param area the area of the image to bring back, the rest is left alone
+     */
+    private void restore(Raster raster, RasterPainter painter, int target, DirtyRect area) {
+        if(area.isEmpty())
+            return;
+        Map.Entry<Integer, TileSet> checkpoint = checkpoints.floorEntry(target);
+        checkpoint.getValue().write(raster, store, area);
+        for(int i = checkpoint.getKey(); i < target; i++)
+            entries.get(i).apply(raster, store, area, painter);
+    }
+
+    /**
+     * Count the drawings between the nearest checkpoint and the cursor
+     * @return the number of drawings
+     */
+    private int countDrawingsSinceCheckpoint() {
+        int count = 0;
+        for(int i = checkpoints.floorKey(cursor); i < cursor; i++)
+            if(entries.get(i) instanceof DrawOperation)
+                count++;
+        return count;
+    }
+
+    /**
+     * Get the drawings and edits that are currently applied, oldest first.
+     * Applying them in order on top of the first checkpoint reproduces the image.
+     * @return the applied entries
+     */
+    public List<HistoryEntry> getAppliedEntries() {
+        return Collections.unmodifiableList(entries.subList(0, cursor));
+    }
+
+    /**
+     * Set how much memory the history may use before old edits are moved to disk
+     * @param memoryBudget the budget in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        enforceBudget();
+    }
+
+    /**
+     * Set how many of the most recent edits are never moved to disk
+     * @param keptInMemory the number of edits
+     */
+    public void setKeptInMemory(int keptInMemory) {
+        this.keptInMemory = keptInMemory;
+        enforceBudget();
+    }
+
+    /**
+     * Set how many drawings are recorded between checkpoints.
+     * Fewer means faster undos of drawings, but more memory used by checkpoints.
+     * @param checkpointInterval the number of drawings
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+    }
+
+    /**
+     * If the pixels in memory go over the budget, hand the oldest ones to the background thread to be moved to disk.
+     * The checkpoint used to undo the most recent drawings and the most recent edits are never moved.
+     */
+    private void enforceBudget() {
+        List<TileSet> spillable = new ArrayList<>();
+        long used = 0;
+        int latestCheckpoint = checkpoints.floorKey(cursor);
+        // Oldest first, so older pixels are moved to disk before newer ones
+        for(int i = 0; i <= entries.size(); i++) {
+            TileSet checkpoint = checkpoints.get(i);
+            if(checkpoint != null) {
+                used += checkpoint.isSpillPending() ? 0 : checkpoint.getByteSize();
+                if(i != latestCheckpoint)
+                    spillable.add(checkpoint);
+            }
+            if(i == entries.size())
+                break;
+            for(TileSet set : entries.get(i).getTileSets()) {
+                used += set.isSpillPending() ? 0 : set.getByteSize();
+                if(i < cursor - keptInMemory)
+                    spillable.add(set);
+            }
+        }
+        if(used <= memoryBudget)
+            return;
+        if(store == null) {
+            try {
+                store = new SpillStore();
+            } catch (IOException e) {
+                // Without a store, everything has to stay in memory
+                e.printStackTrace();
+                return;
+            }
+        }
+        for(int i = 0; i < spillable.size() && used > memoryBudget; i++) {
+            TileSet set = spillable.get(i);
+            if(set.isSpillPending() || set.getByteSize() == 0)
+                continue;
+            used -= set.getByteSize();
+            set.setSpillPending();
+            SpillStore target = store;
+            spiller.submit(() -> set.spill(target));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package paint.raster;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A {@link Raster} stored in a direct buffer outside of the Java heap.
+ * The buffer can be handed straight to a JavaFX PixelWriter without copying it first.
+ * @author Colin Braun
+ */
+public class BufferRaster extends Raster {
+    /**
+     * The pixels, row by row
+     */
+    private final IntBuffer pixels;
+
+    /**
+     * Construct a raster where every pixel is transparent black
+     * @param width the width of the raster
+     * @param height the height of the raster
+     */
+    public BufferRaster(int width, int height) {
+        super(width, height);
+        if((long)width * height > Integer.MAX_VALUE / 4)
+            throw new IllegalArgumentException("Raster too large for a single buffer: " + width + "x" + height);
+        pixels = ByteBuffer.allocateDirect(4 * width * height).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Construct a raster holding a copy of some pixels
+     * @param width the width of the raster
+     * @param height the height of the raster
+     * @param argb the pixels, row by row
+     */
+    public BufferRaster(int width, int height, int[] argb) {
+        this(width, height);
+        writeAll(argb);
+    }
+
+    @Override
+    public int getArgb(int x, int y) {
+        return pixels.get(y * width + x);
+    }
+
+    @Override
+    public void setArgb(int x, int y, int argb) {
+        pixels.put(y * width + x, argb);
+    }
+
+    @Override
+    public void getPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan) {
+        // Each call gets its own view of the buffer, so bands can be read from different threads
+        IntBuffer view = pixels.duplicate();
+        for(int row = 0; row < h; row++) {
+            view.position((y + row) * width + x);
+            view.get(buffer, offset + row * scan, w);
+        }
+    }
+
+    @Override
+    public void setPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan) {
+        IntBuffer view = pixels.duplicate();
+        for(int row = 0; row < h; row++) {
+            view.position((y + row) * width + x);
+            view.put(buffer, offset + row * scan, w);
+        }
+    }
+
+    /**
+     * Get a view of the pixels starting at a position, which can be passed straight to a PixelWriter.
+     * The view has its own position, so changing it does not affect the raster.
+     * @param x the x value of the first pixel
+     * @param y the y value of the first pixel
+     * @return a view of the buffer positioned at the pixel, with a scanline stride of the raster's width
+     */
+    public IntBuffer getBuffer(int x, int y) {
+        IntBuffer view = pixels.duplicate();
+        view.position(y * width + x);
+        return view;
+    }
+}
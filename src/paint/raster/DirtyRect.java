@@ -0,0 +1,169 @@
+package paint.raster;
+
+/**
+ * A rectangle of whole pixels, used to describe the part of an image an edit changed so that only that part
+ * needs to be repainted, read back or stored for undoing. A rectangle with no width or height is empty.
+ * @author Colin Braun
+ */
+public class DirtyRect {
+    /**
+     * The top-left pixel of the rectangle
+     */
+    private final int x, y;
+    /**
+     * The size of the rectangle in pixels
+     */
+    private final int width, height;
+
+    /**
+     * Construct a rectangle. A negative size is treated as empty.
+     * @param x the left-most x value
+     * @param y the top-most y value
+     * @param width the width
+     * @param height the height
+     */
+    public DirtyRect(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = Math.max(0, width);
+        this.height = Math.max(0, height);
+    }
+
+    /**
+     * Construct the smallest rectangle of whole pixels that covers an area
+     * @param minX the left-most x value of the area
+     * @param minY the top-most y value of the area
+     * @param maxX the right-most x value of the area
+     * @param maxY the bottom-most y value of the area
+     * @return the rectangle covering the area
+     */
+    public static DirtyRect around(double minX, double minY, double maxX, double maxY) {
+        int x = (int)Math.floor(minX);
+        int y = (int)Math.floor(minY);
+        return new DirtyRect(x, y, (int)Math.ceil(maxX) - x, (int)Math.ceil(maxY) - y);
+    }
+
+    /**
+     * Construct a rectangle covering a whole raster
+     * @param raster the raster
+     * @return the rectangle covering every pixel of the raster
+     */
+    public static DirtyRect of(Raster raster) {
+        return new DirtyRect(0, 0, raster.getWidth(), raster.getHeight());
+    }
+
+    /**
+     * Get the smallest rectangle covering both this and another rectangle. Empty rectangles are ignored.
+     * @param other the other rectangle, which may be null
+     * @return the rectangle covering both
+     */
+    public DirtyRect union(DirtyRect other) {
+        if(other == null || other.isEmpty())
+            return this;
+        if(isEmpty())
+            return other;
+        int minX = Math.min(x, other.x);
+        int minY = Math.min(y, other.y);
+        return new DirtyRect(minX, minY, Math.max(getMaxX(), other.getMaxX()) - minX, Math.max(getMaxY(), other.getMaxY()) - minY);
+    }
+
+    /**
+     * Get the part of this rectangle that is also in another rectangle
+     * @param other the other rectangle
+     * @return the overlap, which is empty if they don't overlap
+     */
+    public DirtyRect intersect(DirtyRect other) {
+        int minX = Math.max(x, other.x);
+        int minY = Math.max(y, other.y);
+        return new DirtyRect(minX, minY, Math.min(getMaxX(), other.getMaxX()) - minX, Math.min(getMaxY(), other.getMaxY()) - minY);
+    }
+
+    /**
+     * Get the part of this rectangle that is inside an image
+     * @param imageWidth the width of the image
+     * @param imageHeight the height of the image
+     * @return the part inside the image, which is empty if it is entirely outside
+     */
+    public DirtyRect clip(int imageWidth, int imageHeight) {
+        return intersect(new DirtyRect(0, 0, imageWidth, imageHeight));
+    }
+
+    /**
+     * Whether or not this rectangle overlaps another
+     * @param other the other rectangle
+     * @return true if they share at least one pixel
+     */
+    public boolean intersects(DirtyRect other) {
+        return !isEmpty() && !other.isEmpty() && x < other.getMaxX() && other.x < getMaxX() && y < other.getMaxY() && other.y < getMaxY();
+    }
+
+    /**
+     * Whether or not this rectangle covers all of another
+     * @param other the other rectangle
+     * @return true if every pixel of the other rectangle is inside this one
+     */
+    public boolean contains(DirtyRect other) {
+        return other.x >= x && other.y >= y && other.getMaxX() <= getMaxX() && other.getMaxY() <= getMaxY();
+    }
+
+    /**
+     * Whether or not this rectangle covers any pixels
+     * @return true if it has no width or no height
+     */
+    public boolean isEmpty() {
+        return width == 0 || height == 0;
+    }
+
+    /**
+     * Get the left-most x value
+     * @return the x value
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Get the top-most y value
+     * @return the y value
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Get the width
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the x value just past the right edge
+     * @return the x value
+     */
+    public int getMaxX() {
+        return x + width;
+    }
+
+    /**
+     * Get the y value just past the bottom edge
+     * @return the y value
+     */
+    public int getMaxY() {
+        return y + height;
+    }
+
+    @Override
+    public String toString() {
+        return "DirtyRect[" + x + ", " + y + ", " + width + "x" + height + "]";
+    }
+}
@@ -0,0 +1,106 @@
+package paint.raster;
+
+import java.util.BitSet;
+
+/**
+ * Remembers which square tiles of an image have changed since some point, like the last save.
+ * Tiles are numbered row by row from the top-left, so a tile's number is its row times the number of tiles across
+ * plus its column.
+ * @author Colin Braun
+ */
+public class DirtyTiles {
+    /**
+     * The width and height of the tiles
+     */
+    private final int tileSize;
+    /**
+     * The size of the image whose changes are being tracked
+     */
+    private int width, height;
+    /**
+     * The changed tiles
+     */
+    private BitSet tiles;
+
+    /**
+     * Construct a tracker for an empty image. Call {@link #reset(int, int)} before marking changes.
+     * @param tileSize the width and height of the tiles
+     */
+    public DirtyTiles(int tileSize) {
+        this.tileSize = tileSize;
+        tiles = new BitSet();
+    }
+
+    /**
+     * Start tracking an image with no changes
+     * @param width the width of the image
+     * @param height the height of the image
+     */
+    public void reset(int width, int height) {
+        this.width = width;
+        this.height = height;
+        tiles = new BitSet();
+    }
+
+    /**
+     * Mark every tile an area overlaps as changed
+     * @param area the area that changed. The part outside of the image is ignored.
+     */
+    public void mark(DirtyRect area) {
+        area = area.clip(width, height);
+        if(area.isEmpty())
+            return;
+        int across = getTilesAcross();
+        for(int y = area.getY() / tileSize; y * tileSize < area.getMaxY(); y++)
+            tiles.set(y * across + area.getX() / tileSize, y * across + (area.getMaxX() - 1) / tileSize + 1);
+    }
+
+    /**
+     * Mark every tile of the image as changed
+     */
+    public void markAll() {
+        tiles.set(0, getTilesAcross() * ((height + tileSize - 1) / tileSize));
+    }
+
+    /**
+     * Mark tiles as changed again, such as ones whose changes failed to save
+     * @param changed the tiles, as returned by {@link #take()}
+     */
+    public void add(BitSet changed) {
+        tiles.or(changed);
+    }
+
+    /**
+     * Get the changed tiles and start over with none changed
+     * @return the changed tiles
+     */
+    public BitSet take() {
+        BitSet changed = tiles;
+        tiles = new BitSet();
+        return changed;
+    }
+
+    /**
+     * Whether or not no tiles have changed
+     * @return true if nothing changed
+     */
+    public boolean isEmpty() {
+        return tiles.isEmpty();
+    }
+
+    /**
+     * Get the number of tiles across the image
+     * @return the number of tiles in each row
+     */
+    public int getTilesAcross() {
+        return (width + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Get the width and height of the tiles
+     * @return the tile size in pixels
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+}
@@ -0,0 +1,124 @@
+package paint.raster;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link Raster} stored in a temporary file that is mapped into memory. The operating system decides which parts
+ * of the file are kept in memory, so the image can be larger than the Java heap and only the parts being looked at
+ * or edited take up memory. The file is mapped in segments of whole rows, since a single mapping is limited to 2 GB.
+ * @author Colin Braun
+ */
+public class MappedRaster extends Raster {
+    /**
+     * The largest number of bytes in one mapped segment
+     */
+    private static final long SEGMENT_BYTES = 1L << 30;
+    /**
+     * The temporary file holding the pixels
+     */
+    private final File file;
+    /**
+     * The channel of the temporary file
+     */
+    private final FileChannel channel;
+    /**
+     * The mapped segments of the file. Each one holds segmentRows rows, except the last which may hold fewer.
+     */
+    private final IntBuffer[] segments;
+    /**
+     * The number of rows in each segment
+     */
+    private final int segmentRows;
+
+    /**
+     * Construct a raster where every pixel is transparent black
+     * @param width the width of the raster
+     * @param height the height of the raster
+     * @throws UncheckedIOException if the temporary file can't be created or mapped
+     */
+    public MappedRaster(int width, int height) {
+        super(width, height);
+        segmentRows = (int)Math.max(1, Math.min(height, SEGMENT_BYTES / Math.max(1, 4L * width)));
+        segments = new IntBuffer[(height + segmentRows - 1) / segmentRows];
+        try {
+            file = File.createTempFile("paint", ".raster");
+            file.deleteOnExit();
+            RandomAccessFile access = new RandomAccessFile(file, "rw");
+            // A new file of this length reads as zeros without having been written to
+            access.setLength(4L * width * height);
+            channel = access.getChannel();
+            for(int i = 0; i < segments.length; i++) {
+                int rows = Math.min(segmentRows, height - i * segmentRows);
+                long start = 4L * width * i * segmentRows;
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, 4L * width * rows).order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int getArgb(int x, int y) {
+        return segments[y / segmentRows].get((y % segmentRows) * width + x);
+    }
+
+    @Override
+    public void setArgb(int x, int y, int argb) {
+        segments[y / segmentRows].put((y % segmentRows) * width + x, argb);
+    }
+
+    @Override
+    public void getPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan) {
+        for(int row = 0; row < h; row++)
+            getBuffer(x, y + row).get(buffer, offset + row * scan, w);
+    }
+
+    @Override
+    public void setPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan) {
+        for(int row = 0; row < h; row++)
+            getBuffer(x, y + row).put(buffer, offset + row * scan, w);
+    }
+
+    /**
+     * Get a view of the pixels starting at a position, which can be passed straight to a PixelWriter.
+     * The view only reaches to the end of the pixel's segment, see {@link #getSegmentRows()}.
+     * It has its own position, so changing it does not affect the raster and views can be used from different threads.
+     * @param x the x value of the first pixel
+     * @param y the y value of the first pixel
+     * @return a view of the segment positioned at the pixel, with a scanline stride of the raster's width
+     */
+    public IntBuffer getBuffer(int x, int y) {
+        IntBuffer view = segments[y / segmentRows].duplicate();
+        view.position((y % segmentRows) * width + x);
+        return view;
+    }
+
+    /**
+     * Get the number of rows in each mapped segment. Segments start at multiples of this row.
+     * @return the number of rows
+     */
+    public int getSegmentRows() {
+        return segmentRows;
+    }
+
+    /**
+     * Close and delete the temporary file. The mapped segments are only unmapped once they are garbage collected,
+     * which the operating system copes with since the file has no name anymore.
+     */
+    @Override
+    public void dispose() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if(!file.delete())
+            System.out.println("Could not delete " + file);
+    }
+}
@@ -0,0 +1,40 @@
+package paint.raster;
+
+/**
+ * Something ARGB pixels can be read out of, like a {@link Raster} or a {@link RasterSnapshot}.
+ * Writers that only read an image take one of these, so they can be given an image that can't be changed.
+ * @author Colin Braun
+ */
+public interface PixelSource {
+    /**
+     * Get the width of the image
+     * @return the width in pixels
+     */
+    int getWidth();
+
+    /**
+     * Get the height of the image
+     * @return the height in pixels
+     */
+    int getHeight();
+
+    /**
+     * Get a single pixel
+     * @param x the x value of the pixel
+     * @param y the y value of the pixel
+     * @return the pixel, in ARGB format
+     */
+    int getArgb(int x, int y);
+
+    /**
+     * Copy a rectangle of pixels out of the image
+     * @param x the left-most x value of the rectangle
+     * @param y the top-most y value of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @param buffer the array to copy the pixels into
+     * @param offset the index in the array of the rectangle's top-left pixel
+     * @param scan the distance in the array from one row of the rectangle to the next
+     */
+    void getPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan);
+}
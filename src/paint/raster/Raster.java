@@ -0,0 +1,191 @@
+package paint.raster;
+
+import paint.filter.PixelEngine;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The pixels of an image, stored in ARGB format. This is the document that tools, filters, the undo history and
+ * saving all work on; the canvas on screen only shows it. Nothing here depends on JavaFX, so rasters can be used
+ * without a window.
+ * @author Colin Braun
+ */
+public abstract class Raster implements PixelSource {
+    /**
+     * The largest number of pixels {@link #create(int, int)} will keep in a single buffer.
+     * Larger images are split into tiles.
+     */
+    public static final long DENSE_LIMIT = 1L << 24;
+    /**
+     * The most rows {@link #map(int, int, int, int, IntUnaryOperator)} copies out of the raster at a time
+     */
+    private static final int BAND_ROWS = 64;
+    /**
+     * The number of bytes above which {@link #create(int, int)} keeps an image in a {@link MappedRaster}.
+     * By default this is half of the heap, so images that could fill it live outside of it instead.
+     */
+    private static long mappedLimit = Runtime.getRuntime().maxMemory() / 2;
+    /**
+     * The size of the raster in pixels
+     */
+    protected final int width, height;
+
+    /**
+     * Constructor that child classes will have to implement
+     * @param width the width of the raster
+     * @param height the height of the raster
+     */
+    public Raster(int width, int height) {
+        if(width < 0 || height < 0)
+            throw new IllegalArgumentException("Raster size must not be negative: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Create a raster suited to a size of image. Small images are kept in a single {@link BufferRaster},
+     * larger ones in a {@link TiledRaster} so that blank areas don't take up memory. Images too large to fit
+     * in the heap are kept in a {@link MappedRaster}, see {@link #setMappedLimit(long)}.
+     * @param width the width of the raster
+     * @param height the height of the raster
+     * @return the raster, with every pixel transparent black
+     */
+    public static Raster create(int width, int height) {
+        long pixels = (long)width * height;
+        if(4 * pixels > mappedLimit)
+            return new MappedRaster(width, height);
+        if(pixels <= DENSE_LIMIT)
+            return new BufferRaster(width, height);
+        return new TiledRaster(width, height);
+    }
+
+    /**
+     * Set how large an image can be before {@link #create(int, int)} keeps it in a memory-mapped file
+     * @param bytes the size in bytes, 0 to always use a file or Long.MAX_VALUE to never use one
+     */
+    public static void setMappedLimit(long bytes) {
+        mappedLimit = bytes;
+    }
+
+    /**
+     * Get a single pixel
+     * @param x the x value of the pixel
+     * @param y the y value of the pixel
+     * @return the pixel, in ARGB format
+     */
+    public abstract int getArgb(int x, int y);
+
+    /**
+     * Set a single pixel
+     * @param x the x value of the pixel
+     * @param y the y value of the pixel
+     * @param argb the pixel, in ARGB format
+     */
+    public abstract void setArgb(int x, int y, int argb);
+
+    /**
+     * Copy a rectangle of pixels out of the raster
+     * @param x the left-most x value of the rectangle
+     * @param y the top-most y value of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @param buffer the array to copy the pixels into
+     * @param offset the index in the array of the rectangle's top-left pixel
+     * @param scan the distance in the array from one row of the rectangle to the next
+     */
+    public abstract void getPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan);
+
+    /**
+     * Copy a rectangle of pixels into the raster
+     * @param x the left-most x value of the rectangle
+     * @param y the top-most y value of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @param buffer the array to copy the pixels from
+     * @param offset the index in the array of the rectangle's top-left pixel
+     * @param scan the distance in the array from one row of the rectangle to the next
+     */
+    public abstract void setPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan);
+
+    /**
+     * Set every pixel in a rectangle to the same color
+     * @param x the left-most x value of the rectangle
+     * @param y the top-most y value of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @param argb the color, in ARGB format
+     */
+    public void fill(int x, int y, int w, int h, int argb) {
+        int[] row = new int[w];
+        Arrays.fill(row, argb);
+        for(int j = y; j < y + h; j++)
+            setPixels(x, j, w, 1, row, 0, w);
+    }
+
+    /**
+     * Change every pixel in a rectangle with an operation. Bands of rows are worked on in parallel by the
+     * {@link PixelEngine}, each copied out and back a few rows at a time.
+     * @param x the left-most x value of the rectangle
+     * @param y the top-most y value of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @param operation the operation, given each pixel in ARGB format and returning its new value
+     */
+    public void map(int x, int y, int w, int h, IntUnaryOperator operation) {
+        if(w <= 0 || h <= 0)
+            return;
+        PixelEngine.forEachBand(h, (startRow, endRow) -> {
+            int[] pixels = new int[w * Math.min(BAND_ROWS, endRow - startRow)];
+            for(int top = y + startRow; top < y + endRow; top += BAND_ROWS) {
+                int rows = Math.min(BAND_ROWS, y + endRow - top);
+                int size = w * rows;
+                getPixels(x, top, w, rows, pixels, 0, w);
+                for(int i = 0; i < size; i++)
+                    pixels[i] = operation.applyAsInt(pixels[i]);
+                setPixels(x, top, w, rows, pixels, 0, w);
+            }
+        });
+    }
+
+    /**
+     * Free anything the raster holds outside of the heap. The raster must not be used afterwards.
+     * Does nothing by default.
+     */
+    public void dispose() {
+    }
+
+    /**
+     * Copy every pixel out of the raster. Only use this for images small enough to fit in a single array.
+     * @return the pixels, row by row
+     */
+    public int[] readAll() {
+        int[] pixels = new int[width * height];
+        getPixels(0, 0, width, height, pixels, 0, width);
+        return pixels;
+    }
+
+    /**
+     * Replace every pixel in the raster
+     * @param pixels the pixels, row by row, the same size as the raster
+     */
+    public void writeAll(int[] pixels) {
+        setPixels(0, 0, width, height, pixels, 0, width);
+    }
+
+    /**
+     * Get the width of the raster
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the raster
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+}
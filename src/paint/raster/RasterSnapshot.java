@@ -0,0 +1,221 @@
+package paint.raster;
+
+import java.util.Arrays;
+
+/**
+ * A read-only copy of a {@link Raster} as it was when the snapshot was taken, made without copying anything up front.
+ * Before the original raster is changed, {@link #capture(DirtyRect)} must be called with the area about to change:
+ * the tiles of that area are copied into the snapshot the first time they are changed, the same way lazy undo
+ * checkpoints work. Reading a tile that was never changed reads the original raster, and a copied tile that is a
+ * single color is kept as just that color, so blank parts of large images cost next to nothing.
+ * Snapshots can be read from another thread while the original is being edited, which is what lets large images be
+ * saved in the background. Capturing and reading a tile hold the snapshot's lock, so a tile is never read half changed.
+ * At most {@link #CAPTURE_BUDGET} bytes are copied: an edit that would copy more waits for the snapshot to be read
+ * and released instead, so a whole-image edit made during a save never makes a second copy of a huge image.
+ * @author Colin Braun
+ */
+public class RasterSnapshot implements PixelSource {
+    /**
+     * The width and height of the tiles that are copied when changed
+     */
+    private static final int TILE_SIZE = 128;
+    /**
+     * The number of bytes a copied tile takes up, unless it is a single color
+     */
+    private static final long TILE_BYTES = 4L * TILE_SIZE * TILE_SIZE;
+    /**
+     * The most bytes of tiles a snapshot copies before edits wait for it to be released
+     */
+    public static final long CAPTURE_BUDGET = 64L << 20;
+    /**
+     * The raster this is a snapshot of
+     */
+    private final Raster source;
+    /**
+     * The size of the snapshot in pixels
+     */
+    private final int width, height;
+    /**
+     * The number of tiles across the raster
+     */
+    private final int tilesAcross;
+    /**
+     * The copied tiles, row by row, each holding TILE_SIZE x TILE_SIZE pixels, or just one if every pixel of the
+     * tile is the same color. Tiles that haven't changed are null.
+     */
+    private final int[][] tiles;
+    /**
+     * Where tiles are read before they are copied, made the first time it's needed
+     */
+    private int[] scratch;
+    /**
+     * The number of bytes the copied tiles take up
+     */
+    private long capturedBytes;
+    /**
+     * Whether or not tiles are still being copied. Once released the snapshot must not be read.
+     */
+    private boolean capturing;
+
+    /**
+     * Take a snapshot of a raster
+     * @param source the raster to take a snapshot of
+     */
+    public RasterSnapshot(Raster source) {
+        this.source = source;
+        width = source.getWidth();
+        height = source.getHeight();
+        tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tiles = new int[tilesAcross * ((height + TILE_SIZE - 1) / TILE_SIZE)][];
+        capturing = true;
+    }
+
+    /**
+     * Get the raster this is a snapshot of
+     * @return the original raster
+     */
+    public Raster getSource() {
+        return source;
+    }
+
+    /**
+     * Copy every tile overlapping an area that hasn't been copied yet. Call this before changing that area
+     * of the original raster. If the copies would go over {@link #CAPTURE_BUDGET}, this waits until the snapshot
+     * has been released by the thread reading it, so it must never be called on that thread.
+     * @param area the area about to be changed, inside the raster
+     */
+    public synchronized void capture(DirtyRect area) {
+        if(!capturing)
+            return;
+        if(scratch == null)
+            scratch = new int[TILE_SIZE * TILE_SIZE];
+        for(int y = area.getY() / TILE_SIZE * TILE_SIZE; y < area.getMaxY(); y += TILE_SIZE) {
+            for(int x = area.getX() / TILE_SIZE * TILE_SIZE; x < area.getMaxX(); x += TILE_SIZE) {
+                int index = (y / TILE_SIZE) * tilesAcross + x / TILE_SIZE;
+                if(tiles[index] != null)
+                    continue;
+                int w = Math.min(TILE_SIZE, width - x);
+                int h = Math.min(TILE_SIZE, height - y);
+                source.getPixels(x, y, w, h, scratch, 0, TILE_SIZE);
+                if(isUniform(scratch, w, h)) {
+                    tiles[index] = new int[] {scratch[0]};
+                    continue;
+                }
+                // Nothing is read from the source while waiting, since it is only changed on this thread
+                if(capturedBytes + TILE_BYTES > CAPTURE_BUDGET && waitUntilReleased())
+                    return;
+                tiles[index] = scratch.clone();
+                capturedBytes += TILE_BYTES;
+            }
+        }
+    }
+
+    /**
+     * Stop copying tiles and free the ones copied. Call this once the snapshot is no longer needed. It can be called
+     * from the thread reading the snapshot as soon as it's done, which lets edits waiting on it carry on.
+     */
+    public synchronized void release() {
+        capturing = false;
+        Arrays.fill(tiles, null);
+        capturedBytes = 0;
+        scratch = null;
+        notifyAll();
+    }
+
+    /**
+     * Wait for the snapshot to be released, for when copying any more of it would use too much memory
+     * @return true once it's released, or false if the thread was interrupted first, in which case tiles are copied
+     * anyway
+     */
+    private boolean waitUntilReleased() {
+        while(capturing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return !capturing;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if every pixel of a tile read into an array is the same color
+     * @param pixels the tile, with rows TILE_SIZE apart
+     * @param w the width of the tile
+     * @param h the height of the tile
+     * @return true if the tile is a single color
+     */
+    private static boolean isUniform(int[] pixels, int w, int h) {
+        int color = pixels[0];
+        for(int row = 0; row < h; row++) {
+            for(int i = row * TILE_SIZE; i < row * TILE_SIZE + w; i++) {
+                if(pixels[i] != color)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public synchronized int getArgb(int x, int y) {
+        int[] tile = tiles[(y / TILE_SIZE) * tilesAcross + x / TILE_SIZE];
+        if(tile == null)
+            return source.getArgb(x, y);
+        if(tile.length == 1)
+            return tile[0];
+        return tile[(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE];
+    }
+
+    @Override
+    public void getPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan) {
+        // One band of tile rows at a time, so the lock is never held for long
+        for(int top = y; top < y + h; ) {
+            int rows = Math.min(TILE_SIZE - top % TILE_SIZE, y + h - top);
+            getBand(x, top, w, rows, buffer, offset + (top - y) * scan, scan);
+            top += rows;
+        }
+    }
+
+    /**
+     * Read part of a single row of tiles
+     * @param x the left-most x value to read
+     * @param y the top-most y value to read
+     * @param w the width to read
+     * @param h the number of rows to read, which all lie in the same row of tiles
+     * @param buffer where to put the pixels
+     * @param offset where in the buffer the first pixel goes
+     * @param scan the distance in the buffer from one row to the next
+     */
+    private synchronized void getBand(int x, int y, int w, int h, int[] buffer, int offset, int scan) {
+        int tileRow = y / TILE_SIZE;
+        for(int column = x; column < x + w; ) {
+            int start = column % TILE_SIZE;
+            int count = Math.min(TILE_SIZE - start, x + w - column);
+            int[] tile = tiles[tileRow * tilesAcross + column / TILE_SIZE];
+            int out = offset + column - x;
+            if(tile == null) {
+                source.getPixels(column, y, count, h, buffer, out, scan);
+            }
+            else if(tile.length == 1) {
+                for(int row = 0; row < h; row++)
+                    Arrays.fill(buffer, out + row * scan, out + row * scan + count, tile[0]);
+            }
+            else {
+                for(int row = 0; row < h; row++)
+                    System.arraycopy(tile, (y % TILE_SIZE + row) * TILE_SIZE + start, buffer, out + row * scan, count);
+            }
+            column += count;
+        }
+    }
+}
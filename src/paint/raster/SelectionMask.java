@@ -0,0 +1,335 @@
+package paint.raster;
+
+/**
+ * Which pixels of an image are selected, stored as one bit per pixel. Only the rows and columns between the selected
+ * pixels furthest apart are stored. Bits are grouped into 64-pixel words that start at multiples of 64 in image
+ * coordinates, so combining two masks works a word at a time no matter where each one starts.
+ * Masks are never changed once they are made; combining or moving one makes a new mask.
+ * @author Colin Braun
+ */
+public class SelectionMask {
+    /**
+     * A run of selected pixels in one row
+     */
+    @FunctionalInterface
+    public interface RunTask {
+        /**
+         * Do the work on a run of selected pixels
+         * @param y the row of the run
+         * @param startX the first pixel of the run
+         * @param endX the pixel after the last pixel of the run
+         */
+        void run(int y, int startX, int endX);
+    }
+
+    /**
+     * The index of the first word of each row, counting words of 64 pixels from x = 0
+     */
+    private final int firstWord;
+    /**
+     * The number of words stored for each row
+     */
+    private final int words;
+    /**
+     * The first row stored
+     */
+    private final int top;
+    /**
+     * The number of rows stored
+     */
+    private final int rows;
+    /**
+     * The bits, words per row, row by row. Bit i of a word is the pixel i places from the start of the word.
+     */
+    private final long[] bits;
+    /**
+     * The area covered by the selected pixels, worked out the first time it is needed
+     */
+    private DirtyRect bounds;
+
+    /**
+     * Construct a mask with no pixels selected, with room for an area
+     * @param area the area that pixels can be selected in
+     */
+    public SelectionMask(DirtyRect area) {
+        if(area.isEmpty()) {
+            firstWord = 0;
+            words = 0;
+            top = 0;
+            rows = 0;
+        }
+        else {
+            firstWord = Math.floorDiv(area.getX(), 64);
+            words = Math.floorDiv(area.getMaxX() - 1, 64) - firstWord + 1;
+            top = area.getY();
+            rows = area.getHeight();
+        }
+        bits = new long[words * rows];
+    }
+
+    /**
+     * Make a mask with every pixel in a rectangle selected
+     * @param area the rectangle
+     * @return the mask
+     */
+    public static SelectionMask rectangle(DirtyRect area) {
+        SelectionMask mask = new SelectionMask(area);
+        for(int y = area.getY(); y < area.getMaxY(); y++)
+            mask.add(y, area.getX(), area.getMaxX());
+        return mask;
+    }
+
+    /**
+     * Select a run of pixels in a row. Only used while making a mask, since masks are not changed once shared.
+     * @param y the row, inside the area the mask was made with
+     * @param startX the first pixel of the run, inside the area the mask was made with
+     * @param endX the pixel after the last pixel of the run
+     */
+    public void add(int y, int startX, int endX) {
+        if(startX >= endX)
+            return;
+        int row = (y - top) * words - firstWord;
+        int first = startX >> 6;
+        int last = (endX - 1) >> 6;
+        long firstBits = -1L << startX;
+        long lastBits = -1L >>> (63 - ((endX - 1) & 63));
+        if(first == last) {
+            bits[row + first] |= firstBits & lastBits;
+        }
+        else {
+            bits[row + first] |= firstBits;
+            for(int i = first + 1; i < last; i++)
+                bits[row + i] = -1L;
+            bits[row + last] |= lastBits;
+        }
+        bounds = null;
+    }
+
+    /**
+     * Select whole words of 64 pixels in a row, copied from an array of bits that starts at x = 0.
+     * Only used while making a mask.
+     * @param y the row, inside the area the mask was made with
+     * @param rowBits the bits of the row, starting at x = 0
+     */
+    public void addRow(int y, long[] rowBits) {
+        int row = (y - top) * words;
+        int count = Math.min(words, rowBits.length - firstWord);
+        for(int i = 0; i < count; i++)
+            bits[row + i] |= rowBits[firstWord + i];
+        bounds = null;
+    }
+
+    /**
+     * Check if a pixel is selected
+     * @param x the x value of the pixel
+     * @param y the y value of the pixel
+     * @return true if it is selected
+     */
+    public boolean contains(int x, int y) {
+        int word = (x >> 6) - firstWord;
+        if(y < top || y >= top + rows || word < 0 || word >= words)
+            return false;
+        return (bits[(y - top) * words + word] & 1L << x) != 0;
+    }
+
+    /**
+     * Get the area covered by the selected pixels
+     * @return the smallest rectangle holding every selected pixel, which is empty if nothing is selected
+     */
+    public DirtyRect getBounds() {
+        if(bounds == null) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for(int r = 0; r < rows; r++) {
+                for(int i = 0; i < words; i++) {
+                    long word = bits[r * words + i];
+                    if(word == 0)
+                        continue;
+                    int x = (firstWord + i) * 64;
+                    minX = Math.min(minX, x + Long.numberOfTrailingZeros(word));
+                    maxX = Math.max(maxX, x + 64 - Long.numberOfLeadingZeros(word));
+                    minY = Math.min(minY, top + r);
+                    maxY = top + r + 1;
+                }
+            }
+            bounds = minY == Integer.MAX_VALUE ? new DirtyRect(0, 0, 0, 0) : new DirtyRect(minX, minY, maxX - minX, maxY - minY);
+        }
+        return bounds;
+    }
+
+    /**
+     * Whether or not no pixels are selected
+     * @return true if no pixels are selected
+     */
+    public boolean isEmpty() {
+        return getBounds().isEmpty();
+    }
+
+    /**
+     * Run a task on each run of selected pixels, row by row from the top.
+     * Tools use this to work on whole runs with bulk row operations instead of one pixel at a time.
+     * @param task the task to run
+     */
+    public void forEachRun(RunTask task) {
+        for(int r = 0; r < rows; r++)
+            forEachRun(top + r, task);
+    }
+
+    /**
+     * Run a task on each run of selected pixels in one row, from left to right
+     * @param y the row
+     * @param task the task to run
+     */
+    public void forEachRun(int y, RunTask task) {
+        if(y < top || y >= top + rows)
+            return;
+        int row = (y - top) * words;
+        int i = 0;
+        long word = words > 0 ? bits[row] : 0;
+        while(i < words) {
+            if(word == 0) {
+                if(++i < words)
+                    word = bits[row + i];
+                continue;
+            }
+            int start = (firstWord + i) * 64 + Long.numberOfTrailingZeros(word);
+            // Look for the first unselected pixel after the start, which may be in a later word
+            word = ~word & (-1L << Long.numberOfTrailingZeros(word));
+            while(word == 0 && ++i < words)
+                word = ~bits[row + i];
+            int end = i < words ? (firstWord + i) * 64 + Long.numberOfTrailingZeros(word) : (firstWord + words) * 64;
+            task.run(y, start, end);
+            // Carry on from the end of the run
+            if(i < words)
+                word = bits[row + i] & (-1L << Long.numberOfTrailingZeros(word));
+        }
+    }
+
+    /**
+     * Whether or not every pixel in the area covered by the selected pixels is selected
+     * @return true if the selected pixels make up a rectangle, or nothing is selected
+     */
+    public boolean isRectangle() {
+        DirtyRect area = getBounds();
+        if(area.isEmpty())
+            return true;
+        int first = area.getX() >> 6;
+        int last = (area.getMaxX() - 1) >> 6;
+        long firstBits = -1L << area.getX();
+        long lastBits = -1L >>> (63 - ((area.getMaxX() - 1) & 63));
+        for(int y = area.getY(); y < area.getMaxY(); y++) {
+            int row = (y - top) * words - firstWord;
+            if(first == last) {
+                if((bits[row + first] & (firstBits & lastBits)) != (firstBits & lastBits))
+                    return false;
+                continue;
+            }
+            if((bits[row + first] & firstBits) != firstBits || (bits[row + last] & lastBits) != lastBits)
+                return false;
+            for(int i = first + 1; i < last; i++) {
+                if(bits[row + i] != -1L)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make a copy of this mask that only stores the area covered by the selected pixels
+     * @return the trimmed mask, or this mask if it is already as small as it can be
+     */
+    public SelectionMask trim() {
+        DirtyRect area = getBounds();
+        if(area.getY() == top && area.getHeight() == rows && Math.floorDiv(area.getX(), 64) == firstWord
+                && Math.floorDiv(area.getMaxX() - 1, 64) - firstWord + 1 == words)
+            return this;
+        SelectionMask result = new SelectionMask(area);
+        result.or(this);
+        return result;
+    }
+
+    /**
+     * Make a mask with the pixels selected in either this or another mask
+     * @param other the other mask
+     * @return the combined mask
+     */
+    public SelectionMask union(SelectionMask other) {
+        if(other.isEmpty())
+            return this;
+        if(isEmpty())
+            return other;
+        SelectionMask result = new SelectionMask(getBounds().union(other.getBounds()));
+        result.or(this);
+        result.or(other);
+        return result;
+    }
+
+    /**
+     * Make a mask with the pixels selected in both this and another mask
+     * @param other the other mask
+     * @return the combined mask
+     */
+    public SelectionMask intersect(SelectionMask other) {
+        SelectionMask result = new SelectionMask(getBounds().intersect(other.getBounds()));
+        result.or(this);
+        for(int r = 0; r < result.rows; r++) {
+            for(int i = 0; i < result.words; i++)
+                result.bits[r * result.words + i] &= other.getWord(result.top + r, result.firstWord + i);
+        }
+        return result;
+    }
+
+    /**
+     * Make a mask with the pixels selected in this mask but not in another
+     * @param other the other mask
+     * @return the combined mask
+     */
+    public SelectionMask subtract(SelectionMask other) {
+        SelectionMask result = new SelectionMask(getBounds());
+        result.or(this);
+        if(!getBounds().intersects(other.getBounds()))
+            return result;
+        for(int r = 0; r < result.rows; r++) {
+            for(int i = 0; i < result.words; i++)
+                result.bits[r * result.words + i] &= ~other.getWord(result.top + r, result.firstWord + i);
+        }
+        return result;
+    }
+
+    /**
+     * Make a copy of this mask moved by some number of pixels
+     * @param dx how far to move it to the right
+     * @param dy how far to move it down
+     * @return the moved mask
+     */
+    public SelectionMask translate(int dx, int dy) {
+        DirtyRect area = getBounds();
+        SelectionMask result = new SelectionMask(new DirtyRect(area.getX() + dx, area.getY() + dy, area.getWidth(), area.getHeight()));
+        forEachRun((y, startX, endX) -> result.add(y + dy, startX + dx, endX + dx));
+        return result;
+    }
+
+    /**
+     * Select every pixel that is selected in another mask, where it fits inside this mask's area. For internal use.
+     * @param other the other mask
+     */
+    private void or(SelectionMask other) {
+        for(int r = 0; r < rows; r++) {
+            for(int i = 0; i < words; i++)
+                bits[r * words + i] |= other.getWord(top + r, firstWord + i);
+        }
+        bounds = null;
+    }
+
+    /**
+     * Get a word of bits, which is 0 outside of the area stored
+     * @param y the row
+     * @param word the index of the word, counting words of 64 pixels from x = 0
+     * @return the bits of the word
+     */
+    private long getWord(int y, int word) {
+        int i = word - firstWord;
+        if(y < top || y >= top + rows || i < 0 || i >= words)
+            return 0;
+        return bits[(y - top) * words + i];
+    }
+}
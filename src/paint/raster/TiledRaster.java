@@ -0,0 +1,258 @@
+package paint.raster;
+
+import paint.filter.PixelEngine;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A {@link Raster} split into square tiles that are only given memory once they hold more than one color.
+ * A tile where every pixel is the same color (such as a blank area) is stored as just that color, so very large
+ * images only use memory for the parts that have been drawn on.
+ * @author Colin Braun
+ */
+public class TiledRaster extends Raster {
+    /**
+     * The width and height of each tile
+     */
+    public static final int TILE_SIZE = 256;
+    /**
+     * The number of tiles across and down the raster
+     */
+    private final int tilesAcross, tilesDown;
+    /**
+     * The pixels of each tile, row by row with a stride of {@link #TILE_SIZE}. Null for tiles that are a single color.
+     */
+    private final int[][] tiles;
+    /**
+     * The color of each tile that is a single color
+     */
+    private final int[] colors;
+
+    /**
+     * Construct a raster where every pixel is transparent black. No tiles are given memory yet.
+     * @param width the width of the raster
+     * @param height the height of the raster
+     */
+    public TiledRaster(int width, int height) {
+        super(width, height);
+        tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesDown = (height + TILE_SIZE - 1) / TILE_SIZE;
+        tiles = new int[tilesAcross * tilesDown][];
+        colors = new int[tilesAcross * tilesDown];
+    }
+
+    @Override
+    public int getArgb(int x, int y) {
+        int index = (y / TILE_SIZE) * tilesAcross + x / TILE_SIZE;
+        int[] tile = tiles[index];
+        if(tile == null)
+            return colors[index];
+        return tile[(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE];
+    }
+
+    @Override
+    public void setArgb(int x, int y, int argb) {
+        int index = (y / TILE_SIZE) * tilesAcross + x / TILE_SIZE;
+        if(tiles[index] == null && colors[index] == argb)
+            return;
+        allocate(index)[(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE] = argb;
+    }
+
+    @Override
+    public void getPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan) {
+        for(int row = y; row < y + h; row++) {
+            int tileRow = row / TILE_SIZE;
+            int rowInTile = (row % TILE_SIZE) * TILE_SIZE;
+            int out = offset + (row - y) * scan;
+            for(int column = x; column < x + w; ) {
+                int index = tileRow * tilesAcross + column / TILE_SIZE;
+                int start = column % TILE_SIZE;
+                int count = Math.min(TILE_SIZE - start, x + w - column);
+                int[] tile = tiles[index];
+                if(tile == null)
+                    Arrays.fill(buffer, out, out + count, colors[index]);
+                else
+                    System.arraycopy(tile, rowInTile + start, buffer, out, count);
+                out += count;
+                column += count;
+            }
+        }
+    }
+
+    @Override
+    public void setPixels(int x, int y, int w, int h, int[] buffer, int offset, int scan) {
+        for(int row = y; row < y + h; row++) {
+            int tileRow = row / TILE_SIZE;
+            int rowInTile = (row % TILE_SIZE) * TILE_SIZE;
+            int in = offset + (row - y) * scan;
+            for(int column = x; column < x + w; ) {
+                int index = tileRow * tilesAcross + column / TILE_SIZE;
+                int start = column % TILE_SIZE;
+                int count = Math.min(TILE_SIZE - start, x + w - column);
+                int[] tile = tiles[index];
+                // Writing a tile's own color into it changes nothing, so it can stay a single color
+                if(tile == null && !sameColor(buffer, in, count, colors[index]))
+                    tile = allocate(index);
+                if(tile != null)
+                    System.arraycopy(buffer, in, tile, rowInTile + start, count);
+                in += count;
+                column += count;
+            }
+        }
+    }
+
+    /**
+     * Set every pixel in a rectangle to the same color. Tiles the rectangle covers completely are turned into
+     * single color tiles, freeing their memory.
+     */
+    @Override
+    public void fill(int x, int y, int w, int h, int argb) {
+        for(int tileY = y / TILE_SIZE; tileY * TILE_SIZE < y + h; tileY++) {
+            for(int tileX = x / TILE_SIZE; tileX * TILE_SIZE < x + w; tileX++) {
+                int index = tileY * tilesAcross + tileX;
+                int left = Math.max(x, tileX * TILE_SIZE);
+                int top = Math.max(y, tileY * TILE_SIZE);
+                int right = Math.min(x + w, Math.min(width, (tileX + 1) * TILE_SIZE));
+                int bottom = Math.min(y + h, Math.min(height, (tileY + 1) * TILE_SIZE));
+                if(left == tileX * TILE_SIZE && top == tileY * TILE_SIZE
+                        && right == Math.min(width, (tileX + 1) * TILE_SIZE) && bottom == Math.min(height, (tileY + 1) * TILE_SIZE)) {
+                    tiles[index] = null;
+                    colors[index] = argb;
+                    continue;
+                }
+                if(tiles[index] == null && colors[index] == argb)
+                    continue;
+                int[] tile = allocate(index);
+                for(int row = top; row < bottom; row++) {
+                    int start = (row % TILE_SIZE) * TILE_SIZE + left % TILE_SIZE;
+                    Arrays.fill(tile, start, start + right - left, argb);
+                }
+            }
+        }
+    }
+
+    /**
+     * Change pixels with an operation one tile at a time, in parallel.
+     * A single color tile only has its color changed, so it stays free.
+     */
+    @Override
+    public void map(int x, int y, int w, int h, IntUnaryOperator operation) {
+        if(w <= 0 || h <= 0)
+            return;
+        int firstX = x / TILE_SIZE;
+        int firstY = y / TILE_SIZE;
+        int across = (x + w - 1) / TILE_SIZE - firstX + 1;
+        int down = (y + h - 1) / TILE_SIZE - firstY + 1;
+        // Each tile is a band of its own, so small rectangles are still split across cores
+        PixelEngine.forEachBand(across * down, 1, (start, end) -> {
+            for(int i = start; i < end; i++)
+                mapTile(firstX + i % across, firstY + i / across, x, y, w, h, operation);
+        });
+    }
+
+    /**
+     * Change the part of a tile inside a rectangle with an operation. Internal use only
+     * @param tileX the column of the tile
+     * @param tileY the row of the tile
+     * @param x the left-most x value of the rectangle
+     * @param y the top-most y value of the rectangle
+     * @param w the width of the rectangle
+     * @param h the height of the rectangle
+     * @param operation the operation
+     */
+    private void mapTile(int tileX, int tileY, int x, int y, int w, int h, IntUnaryOperator operation) {
+        int index = tileY * tilesAcross + tileX;
+        int left = Math.max(x, tileX * TILE_SIZE);
+        int top = Math.max(y, tileY * TILE_SIZE);
+        int right = Math.min(x + w, (tileX + 1) * TILE_SIZE);
+        int bottom = Math.min(y + h, (tileY + 1) * TILE_SIZE);
+        boolean whole = left == tileX * TILE_SIZE && top == tileY * TILE_SIZE
+                && right == Math.min(width, (tileX + 1) * TILE_SIZE) && bottom == Math.min(height, (tileY + 1) * TILE_SIZE);
+        if(tiles[index] == null && whole) {
+            colors[index] = operation.applyAsInt(colors[index]);
+            return;
+        }
+        int[] tile = allocate(index);
+        for(int row = top; row < bottom; row++) {
+            int start = (row % TILE_SIZE) * TILE_SIZE + left % TILE_SIZE;
+            for(int j = start; j < start + right - left; j++)
+                tile[j] = operation.applyAsInt(tile[j]);
+        }
+    }
+
+    /**
+     * Turn tiles back into single color tiles if every pixel in them has become the same color, freeing their memory.
+     * Worth calling after loading an image or making an edit that may have covered large areas with one color.
+     */
+    public void compact() {
+        PixelEngine.forEachBand(tiles.length, 1, (start, end) -> {
+            for(int index = start; index < end; index++)
+                compactTile(index);
+        });
+    }
+
+    /**
+     * Turn a tile back into a single color tile if every pixel in it is the same color. Internal use only
+     * @param index the index of the tile
+     */
+    private void compactTile(int index) {
+        int[] tile = tiles[index];
+        if(tile == null)
+            return;
+        int tileWidth = Math.min(TILE_SIZE, width - (index % tilesAcross) * TILE_SIZE);
+        int tileHeight = Math.min(TILE_SIZE, height - (index / tilesAcross) * TILE_SIZE);
+        int color = tile[0];
+        for(int row = 0; row < tileHeight; row++) {
+            if(!sameColor(tile, row * TILE_SIZE, tileWidth, color))
+                return;
+        }
+        colors[index] = color;
+        tiles[index] = null;
+    }
+
+    /**
+     * Give a tile memory, filled with its color. Synchronized so two threads writing to the same tile
+     * don't each give it memory.
+     * @param index the index of the tile
+     * @return the pixels of the tile
+     */
+    private synchronized int[] allocate(int index) {
+        int[] tile = tiles[index];
+        if(tile == null) {
+            tile = new int[TILE_SIZE * TILE_SIZE];
+            Arrays.fill(tile, colors[index]);
+            tiles[index] = tile;
+        }
+        return tile;
+    }
+
+    /**
+     * Check if a run of pixels are all one color
+     * @param pixels the pixels
+     * @param offset the index of the first pixel
+     * @param count the number of pixels
+     * @param color the color
+     * @return true if every pixel is the color
+     */
+    private static boolean sameColor(int[] pixels, int offset, int count, int color) {
+        for(int i = offset; i < offset + count; i++) {
+            if(pixels[i] != color)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of tiles that have been given memory
+     * @return the number of tiles holding more than one color
+     */
+    public int getAllocatedTileCount() {
+        int count = 0;
+        for(int[] tile : tiles) {
+            if(tile != null)
+                count++;
+        }
+        return count;
+    }
+}
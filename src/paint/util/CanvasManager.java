@@ -1,16 +1,20 @@
 package paint.util;
 
 import com.sun.istack.internal.NotNull;
-import javafx.embed.swing.SwingFXUtils;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Bounds;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
-import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollPane;
 import javafx.scene.image.*;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
 import javafx.scene.text.Font;
@@ -23,24 +27,95 @@ import paint.controller.LossyFilePopupController;
 import paint.controller.SavePopupController;
 import paint.draw.*;
 import paint.draw.Selection;
+import paint.filter.Filter;
+import paint.filter.PixelOperation;
+import paint.codec.ProjectFile;
+import paint.history.AutoSaveJournal;
+import paint.history.UndoHistory;
+import paint.popup.FieldPopup;
+import paint.raster.DirtyRect;
+import paint.raster.DirtyTiles;
+import paint.raster.Raster;
+import paint.raster.RasterSnapshot;
+import paint.raster.SelectionMask;
+import paint.raster.TiledRaster;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Stack;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.DoubleConsumer;
 
 /**
- * A utility class intended to make working with the canvas easier
+ * A utility class intended to make working with the canvas easier.
+ * The image itself lives in a {@link Raster}. The canvas only shows the part of it around what is visible in the
+ * scroll pane (the view), and is moved and redrawn as the image is scrolled or zoomed, so it stays small no matter
+ * how large the image is. The canvas' parent (the page) is given the size of the whole image so scrolling works.
  * @author Colin Braun
  */
 public class CanvasManager {
+    /**
+     * How far in pixels the view reaches past the visible area on each side, so small scrolls don't need a redraw
+     */
+    private static final int VIEW_MARGIN = 256;
+    /**
+     * The largest width and height of the view. Textures larger than this may not be supported by the graphics card,
+     * so when zoomed far out on a very large image only the top-left part of what is visible is shown.
+     */
+    private static final int MAX_VIEW_SIZE = 8192;
+    /**
+     * The most pixels a filter can be run on. Filters work on a copy of the whole image in one array.
+     */
+    private static final long MAX_FILTER_PIXELS = 1L << 26;
+    /**
+     * The most pixels the image of a selection can have. Larger selections are dragged around as just their border.
+     */
+    private static final long MAX_SELECTION_PIXELS = 1L << 26;
+    /**
+     * The file the auto-save journal is kept in while the program runs
+     */
+    private static final File AUTO_SAVE_FILE = new File("autosave.journal");
     /**
      * The canvas that this will do work on
      */
     private Canvas canvas;
+    /**
+     * The canvas' parent, which has the size of the whole image and takes the mouse events
+     */
+    private Pane page;
+    /**
+     * The scroll pane the page is shown in. Found the first time the view is updated, since it is only
+     * a parent of the page once it has been shown.
+     */
+    private ScrollPane scrollPane;
+    /**
+     * The area of the image the canvas shows
+     */
+    private DirtyRect view;
+    /**
+     * A transparent canvas on top of the canvas that previews are drawn on while dragging, so the image
+     * underneath does not need to be repainted for every mouse movement
+     */
+    private Canvas overlay;
+    /**
+     * The overlay's GraphicsContext
+     */
+    private GraphicsContext overlayContext;
+    /**
+     * The area of the overlay covered by the last preview, which is cleared before the next one is drawn
+     */
+    private Rectangle2D previewBounds;
     /**
      * The draw mode the canvas is in
      */
@@ -62,9 +137,13 @@ public class CanvasManager {
      */
     private Paint secondaryColor;
     /**
-     * Used to facilitate previewing effects before they actually apply to the image.
+     * The pixels of the image being edited. Tools, filters, undoing and saving all work on this, the canvas only shows it.
+     */
+    private Raster raster;
+    /**
+     * Draws finished drawings onto the raster
      */
-    private Image redrawImage;
+    private RasterPainter painter;
     /**
      * The file that is loaded onto the canvas, if any
      */
@@ -74,13 +153,80 @@ public class CanvasManager {
      */
     private boolean changeMadeNotSaved;
     /**
-     * A stack containing images to load when an undo is requested
+     * The number of changes made to the image, so a save can tell whether the image was changed while it was written
+     */
+    private long changeCount;
+    /**
+     * Writes files in the background, one at a time
+     */
+    private ExecutorService saver;
+    /**
+     * The last save handed to the saver, giving whether or not the file was written, or null if nothing has been
+     * saved yet
+     */
+    private Future<Boolean> lastSave;
+    /**
+     * The raster written by the last save
+     */
+    private Raster lastSaveRaster;
+    /**
+     * The number of changes made when the last save started
+     */
+    private long lastSaveChanges;
+    /**
+     * The number of saves that haven't finished yet
+     */
+    private int savesRunning;
+    /**
+     * The number of snapshots being written by a save or auto-save
+     */
+    private int snapshotsInUse;
+    /**
+     * Rasters that were replaced while a save may still have been reading them. They are disposed once no snapshot
+     * is being written.
+     */
+    private List<Raster> retiredRasters;
+    /**
+     * Keeps the changes to the image on disk, to recover them after a crash
+     */
+    private AutoSaveJournal journal;
+    /**
+     * The project file the image was last opened from or saved to, or null if it hasn't been. Saving over it only
+     * writes the tiles that changed.
+     */
+    private File projectFile;
+    /**
+     * The tiles changed since the image was last opened from or saved to the project file
+     */
+    private DirtyTiles projectChanges;
+    /**
+     * Reads image files in the background, one at a time
+     */
+    private ExecutorService loader;
+    /**
+     * The image file being read, or null if no file is being read. The image can't be edited until it's done.
      */
-    private Stack<Image> undoStack;
+    private Future<?> loading;
     /**
-     * A stack containing images to load when a redo is request
+     * Counts the files that have started loading, so a load that was cancelled can tell it's no longer wanted
      */
-    private Stack<Image> redoStack;
+    private long loadNumber;
+    /**
+     * The image shown before the file being read replaced it, put back if loading is cancelled
+     */
+    private Raster replacedByLoad;
+    /**
+     * The file opened before the file being read, put back if loading is cancelled
+     */
+    private File replacedFile;
+    /**
+     * Whether or not the image replaced by the file being read had unsaved changes, put back if loading is cancelled
+     */
+    private boolean replacedChanged;
+    /**
+     * The history of edits made to the canvas, used to undo and redo
+     */
+    private UndoHistory history;
     /**
      * The text that will be drawn
      */
@@ -89,14 +235,39 @@ public class CanvasManager {
      * The number of sides to draw the polygon with when the Polygon tool is selected
      */
     private int polygonSides;
+    /**
+     * How far each channel of a pixel may be from the clicked color and still be filled by the Fill tool, from 0 to 255
+     */
+    private int fillTolerance;
+    /**
+     * How far each channel of a pixel may be from the clicked color and still be selected by the Magic Wand, from 0 to 255
+     */
+    private int wandTolerance;
+    /**
+     * Whether the Magic Wand only selects pixels connected to the clicked one, or similar pixels anywhere in the image
+     */
+    private boolean wandContiguous;
     /**
      * Whether or not a selection has been made yet (is it time to move it?)
      */
     private boolean selectionMade;
     /**
-     * A copy of what the canvas looks like right before a selection is made (for the sake of undoing)
+     * The area a grabbed selection was cut from, or null if it is being copied instead
+     */
+    private DirtyRect selectionCut;
+    /**
+     * The pixels copied with ctrl-c, or null if nothing has been copied
+     */
+    private Raster clipboard;
+    /**
+     * Which pixels of the clipboard were selected when they were copied
      */
-    private Image preSelectImage;
+    private SelectionMask clipboardMask;
+    /**
+     * Where the clipboard was pasted, or null if the current selection was not pasted.
+     * A pasted selection is dropped from the clipboard instead of being moved within the image.
+     */
+    private DirtyRect pastedArea;
     /**
      * Whether or not ctrl-c has been pressed or not
      */
@@ -105,44 +276,126 @@ public class CanvasManager {
      * Whether or not the tool has been changed recently. (should be set to false externally using #setToolChanged)
      */
     private boolean toolChanged;
+    /**
+     * How far in pixels a simplified pencil or eraser stroke may be from the drawn one. 0 turns simplifying off.
+     */
+    private double strokeTolerance;
+    /**
+     * The positions the mouse has been dragged to since the last frame, stored as x, y pairs
+     */
+    private double[] dragSamples;
+    /**
+     * The number of positions stored in dragSamples
+     */
+    private int dragSampleCount;
+    /**
+     * Runs once per frame while the mouse is held down, drawing the positions the mouse was dragged to.
+     * This way a mouse that sends many more events than can be shown only causes one redraw per frame.
+     */
+    private AnimationTimer dragTimer;
 
     /**
      * Default Constructor
      * @param canvas the {@link Canvas} that this class will manage
      */
     public CanvasManager(@NotNull Canvas canvas) {
-        undoStack = new Stack<>();
-        redoStack = new Stack<>();
+        history = new UndoHistory();
+        painter = new RasterPainter();
         this.canvas = canvas;
+        page = (Pane)canvas.getParent();
         primaryColor = Color.BLACK;
         secondaryColor = Color.WHITE;
         context = canvas.getGraphicsContext2D();
+        dragSamples = new double[64];
+        retiredRasters = new ArrayList<>();
+        saver = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dragTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                flushDrag();
+            }
+        };
+        // A journal left behind means the program didn't close normally last time
+        AutoSaveJournal.Recovered recovered = AutoSaveJournal.recover(AUTO_SAVE_FILE);
+        journal = new AutoSaveJournal(AUTO_SAVE_FILE);
+        history.addChangeListener(journal::markChanged);
+        projectChanges = new DirtyTiles(ProjectFile.TILE_SIZE);
+        history.addChangeListener(projectChanges::mark);
+        // Every change goes through the history, including undo, redo and inverting, so every one of them counts
+        history.addChangeListener(area -> markChanged());
+        // Resizing keeps the old image in the history, so undoing and redoing can swap it back in
+        history.addReplaceListener(this::showReplacement);
+        history.setDisposer(this::retire);
+        initOverlay();
         initEvents();
-        redrawImage = canvas.snapshot(null, null);
-        redraw();
+        // Scrolling and zooming both move the page on screen
+        page.localToSceneTransformProperty().addListener((observable, oldValue, newValue) -> updateView());
+        if(recovered != null) {
+            System.out.println("Recovered unsaved changes from " + AUTO_SAVE_FILE);
+            // Shown once the main window is up
+            if(recovered.isDamaged())
+                Platform.runLater(() -> showMessage("Recovered", "The auto-save was damaged, so the most recent changes "
+                        + "to the recovered image may be missing."));
+            openedFile = recovered.getOpenedFile();
+            loadRaster(recovered.getRaster());
+            markChanged();
+            return;
+        }
+        // A new image starts out white
+        Raster blank = Raster.create((int)canvas.getWidth(), (int)canvas.getHeight());
+        blank.fill(0, 0, blank.getWidth(), blank.getHeight(), 0xFFFFFFFF);
+        loadRaster(blank);
+    }
+
+    /**
+     * Create the overlay that previews are drawn on and place it on top of the canvas. For internal use.
+     * The canvas' parent is expected to be a {@link Pane}, which places its children where their layout says.
+     */
+    private void initOverlay() {
+        overlay = new Canvas(canvas.getWidth(), canvas.getHeight());
+        overlay.widthProperty().bind(canvas.widthProperty());
+        overlay.heightProperty().bind(canvas.heightProperty());
+        overlay.layoutXProperty().bind(canvas.layoutXProperty());
+        overlay.layoutYProperty().bind(canvas.layoutYProperty());
+        // Let mouse events go through to the canvas underneath
+        overlay.setMouseTransparent(true);
+        overlayContext = overlay.getGraphicsContext2D();
+        page.getChildren().add(overlay);
     }
 
     /**
      * Initialize how all the events for the canvas are handled. For internal use.
+     * The events are handled on the page, so their positions are always in image coordinates.
      */
     private void initEvents() {
         // Handle mouse pressed event
-        canvas.addEventHandler(MouseEvent.MOUSE_PRESSED, (event) -> {
-            if(toolMode == null)
+        page.addEventHandler(MouseEvent.MOUSE_PRESSED, (event) -> {
+            if(toolMode == null || loading != null)
                 return;
+            dragSampleCount = 0;
+            dragTimer.start();
             if(event.isSecondaryButtonDown()) {
                 context.setFill(secondaryColor);
                 context.setStroke(secondaryColor);
+                overlayContext.setFill(secondaryColor);
+                overlayContext.setStroke(secondaryColor);
             }
             else {
                 context.setFill(primaryColor);
                 context.setStroke(primaryColor);
+                overlayContext.setFill(primaryColor);
+                overlayContext.setStroke(primaryColor);
             }
 
-
-            if(!selectionMade)
-                redrawImage = canvas.snapshot(null, null);
-
             switch(toolMode) {
                 case LINE:
                     currentDrawing = new Line(event.getX(), event.getY());
@@ -175,153 +428,451 @@ public class CanvasManager {
                     currentDrawing = new Polygon(event.getX(), event.getY(), polygonSides);
                     break;
                 case SELECT:
-                    if(!selectionMade) {
-                        preSelectImage = canvas.snapshot(null, null);
-                        currentDrawing = new Selection(event.getX(), event.getY());
+                case MAGIC_WAND:
+                    Selection selection = selectionMade ? (Selection)currentDrawing : null;
+                    // A pasted selection stays where it is once the mouse is pressed somewhere else
+                    if(selection != null && pastedArea != null && !selection.isInSelection(event.getX(), event.getY())) {
+                        finishSelection(selection);
+                        selection = null;
+                    }
+                    // Shift and alt combine a new Magic Wand selection with the current one instead of grabbing it
+                    boolean combining = toolMode == ToolMode.MAGIC_WAND && (event.isShiftDown() || event.isAltDown());
+                    if(selection != null && !combining && selection.isInSelection(event.getX(), event.getY())) {
+                        grabSelection(selection, event.getX(), event.getY());
+                    }
+                    else if(toolMode == ToolMode.MAGIC_WAND) {
+                        selectSimilar((int)Math.floor(event.getX()), (int)Math.floor(event.getY()), event.isShiftDown(), event.isAltDown());
                     }
                     else {
-                        Selection selection = (Selection)currentDrawing;
-                        if(selection.isInSelection(event.getX(), event.getY())) {
-                            selection.setGrabbed(true);
-                            selection.setMouseX(event.getX());
-                            selection.setMouseY(event.getY());
-                            selection.setGrabbedX(event.getX());
-                            selection.setGrabbedY(event.getY());
-                            // If ctrl-c is not pressed, we are cutting (setting background of selected area to white).
-                            if(!ctrl_c_pressed) {
-                                PixelWriter pixelWriter = ((WritableImage) redrawImage).getPixelWriter();
-                                for (int i = (int) selection.getXTopLeft(); i < (int) (selection.getXTopLeft() + selection.getWidth()); i++) {
-                                    for (int j = (int) selection.getYTopLeft(); j < (int) (selection.getYTopLeft() + selection.getHeight()); j++) {
-                                        pixelWriter.setArgb(i, j, 0xFFFFFFFF);
-                                    }
-                                }
-                            }
-                            // Whether ctrl-c was pressed or not, redraw.
-                            redraw();
-                            selection.drawPreview(context);
-                        }
-                        else {
-                            selectionMade = false;
-                            currentDrawing = new Selection(event.getX(), event.getY());
-                        }
+                        clearPreview();
+                        selectionMade = false;
+                        currentDrawing = new Selection(event.getX(), event.getY());
                     }
                     break;
                 case COLOR_PICKER:
-                    Color color = redrawImage.getPixelReader().getColor((int)event.getX(), (int)event.getY());
+                    if(event.getX() < 0 || event.getY() < 0 || event.getX() >= raster.getWidth() || event.getY() >= raster.getHeight())
+                        break;
+                    int argb = raster.getArgb((int)event.getX(), (int)event.getY());
+                    Color color = Color.rgb((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, (argb >>> 24) / 255.0);
                     Main.mainController.getColorPicker().setValue(color);
                     setPrimaryColor(color);
                     break;
+                case FILL:
+                    fill((int)event.getX(), (int)event.getY(), event.isSecondaryButtonDown() ? secondaryColor : primaryColor);
+                    break;
                 }
-            changeMadeNotSaved = true;
+            markChanged();
         });
 
         //Handle mouse dragged event (button held down and moved)
-        canvas.addEventHandler(MouseEvent.MOUSE_DRAGGED, event -> {
-            if(toolMode == null)
+        page.addEventHandler(MouseEvent.MOUSE_DRAGGED, event -> {
+            if(loading != null)
                 return;
-            // For special cases
-            switch(toolMode) {
-                case COLOR_PICKER:
-                    return;
-                case SELECT:
-                    Selection selection = (Selection)currentDrawing;
-                    if(!selectionMade) {
-                        selection.setEnd(event.getX(), event.getY());
-                        redraw();
-                        selection.drawPreview(context);
-                        return;
-                    }
-                    else if(selection.isGrabbed()) {
-                        selection.setMouseX(event.getX());
-                        selection.setMouseY(event.getY());
-                        redraw();
-                        selection.drawPreview(context);
-                    }
-                    return;
-            }
-
-            // This will work for your TYPICAL Drawables. It may happen that something special need be done.
-            redraw();
-            currentDrawing.setEnd(event.getX(), event.getY());
-            currentDrawing.drawPreview(context);
-            //changeMadeNotSaved = true;
-    });
+            if(toolMode == null || toolMode == ToolMode.COLOR_PICKER || toolMode == ToolMode.FILL)
+                return;
+            // Only remember where the mouse went. The drag is drawn at most once per frame by dragTimer
+            addDragSample(event.getX(), event.getY());
+        });
 
         //Handle mouse released event
-        canvas.addEventHandler(MouseEvent.MOUSE_RELEASED, event -> {
+        page.addEventHandler(MouseEvent.MOUSE_RELEASED, event -> {
+            if(loading != null) {
+                dragTimer.stop();
+                return;
+            }
+            // Draw whatever was dragged since the last frame before finishing
+            flushDrag();
+            dragTimer.stop();
             if(toolMode == null)
                 return;
             // For special cases
             switch(toolMode) {
                 case COLOR_PICKER:
+                case FILL:
                     return;
                 case SELECT:
+                case MAGIC_WAND:
                     Selection selection = (Selection)currentDrawing;
-                    if(!selectionMade) {
-                        redraw();
+                    if(toolMode == ToolMode.SELECT && !selectionMade) {
                         selectionMade = true;
                         selection.setEnd(event.getX(), event.getY());
-                        SnapshotParameters params = new SnapshotParameters();
-                        params.setViewport(new Rectangle2D(selection.getXTopLeft(), selection.getYTopLeft(), selection.getWidth(), selection.getHeight()));
-                        selection.setSelection(canvas.snapshot(params, null));
-                        selection.drawPreview(context);
+                        int left = (int)selection.getXTopLeft();
+                        int top = (int)selection.getYTopLeft();
+                        int right = (int)(selection.getXTopLeft() + selection.getWidth());
+                        int bottom = (int)(selection.getYTopLeft() + selection.getHeight());
+                        selection.setMask(SelectionMask.rectangle(new DirtyRect(left, top, right - left, bottom - top).clip(raster.getWidth(), raster.getHeight())));
+                        selection.setSelection(makeSprite(selection.getMask(), raster, 0, 0, left, top, right - left, bottom - top));
+                        drawPreview(selection);
                         // In case it was not reset somewhere else.
                         ctrl_c_pressed = false;
-                        return;
                     }
-                    else if(selection.isGrabbed()) {
-                        // This is not working properly
-                        undoStack.add(preSelectImage);
-                        redraw();
-                        selection.drawFinal(context);
-                        selection.setGrabbed(false);
-                        redrawImage = canvas.snapshot(null, null);
-                        selectionMade = false;
-                        return;
+                    else if(selection != null && selection.isGrabbed()) {
+                        finishSelection(selection);
                     }
-                    break;
+                    return;
             }
 
             // This will work for your TYPICAL Drawables. It may happen that something special need be done.
-            undoStack.add(redrawImage);
-            redraw();
+            // The canvas underneath was not touched while dragging, so only the preview needs to be removed.
+            clearPreview();
             currentDrawing.setEnd(event.getX(), event.getY());
-            currentDrawing.drawFinal(context);
-            redrawImage = canvas.snapshot(null, null);
-            changeMadeNotSaved = true;
+            // Simplified strokes take less space in the history
+            if(currentDrawing instanceof FreeDraw && strokeTolerance > 0)
+                ((FreeDraw)currentDrawing).simplify(strokeTolerance);
+            DirtyRect area = toDirtyRect(currentDrawing.getBounds(context));
+            if(!area.isEmpty()) {
+                // Drawn onto the raster clipped to the same area the history will draw it in when undoing,
+                // so the two always match. Only that area is drawn, so small drawings stay cheap on large images.
+                history.draw(raster, currentDrawing, context, area, painter);
+                // Free drawing was drawn straight onto the canvas while dragging, which this replaces
+                redraw(area);
+            }
+            markChanged();
         });
     }
 
     /**
-     * Invert the image on the canvas
+     * Remember a position the mouse was dragged to, to be drawn on the next frame. Internal use only
+     * @param x the x value of the mouse
+     * @param y the y value of the mouse
      */
-    public void invert() {
-        PixelWriter writer = ((WritableImage)redrawImage).getPixelWriter();
-        PixelReader reader = redrawImage.getPixelReader();
-
-        undoStack.add(canvas.snapshot(null, null));
-        for(int i = 0; i < redrawImage.getWidth(); i++) {
-            for(int j = 0; j < redrawImage.getHeight(); j++) {
-                int value = reader.getArgb(i, j);
-                int a = (value >> 24) & 0xFF;
-                int r = (value >> 16) & 0xFF;
-                int g = (value >> 8) & 0xFF;
-                int b = value & 0xFF;
-                int newA = a;
-                int newR = 255 - r;
-                int newG = 255 - g;
-                int newB = 255 - b;
-                newA = newA << 24;
-                newR = newR << 16;
-                newG = newG << 8;
-                int result = newA + newR + newG + newB;
-
-                writer.setArgb(i, j, result);
+    private void addDragSample(double x, double y) {
+        if(2 * dragSampleCount == dragSamples.length)
+            dragSamples = Arrays.copyOf(dragSamples, 2 * dragSamples.length);
+        dragSamples[2 * dragSampleCount] = x;
+        dragSamples[2 * dragSampleCount + 1] = y;
+        dragSampleCount++;
+    }
+
+    /**
+     * Draw the positions the mouse was dragged to since the last frame. Internal use only.
+     * Shapes and selections only need the latest position. Free drawing uses every position so no detail is lost,
+     * but still draws them all at once.
+     */
+    private void flushDrag() {
+        if(dragSampleCount == 0 || toolMode == null || currentDrawing == null)
+            return;
+        double x = dragSamples[2 * dragSampleCount - 2];
+        double y = dragSamples[2 * dragSampleCount - 1];
+        // For special cases
+        switch(toolMode) {
+            case COLOR_PICKER:
+                break;
+            case SELECT:
+            case MAGIC_WAND:
+                Selection selection = (Selection)currentDrawing;
+                if(toolMode == ToolMode.SELECT && !selectionMade) {
+                    selection.setEnd(x, y);
+                    drawPreview(selection);
+                }
+                else if(selection.isGrabbed()) {
+                    selection.setMouseX(x);
+                    selection.setMouseY(y);
+                    drawPreview(selection);
+                }
+                break;
+            default:
+                // Free drawing is committed straight onto the canvas, only the new segments are drawn
+                if(currentDrawing instanceof FreeDraw) {
+                    for(int i = 0; i < dragSampleCount; i++)
+                        currentDrawing.setEnd(dragSamples[2 * i], dragSamples[2 * i + 1]);
+                    ((FreeDraw)currentDrawing).drawIncrement(context);
+                }
+                // This will work for your TYPICAL Drawables. It may happen that something special need be done.
+                else {
+                    currentDrawing.setEnd(x, y);
+                    drawPreview(currentDrawing);
+                }
+        }
+        dragSampleCount = 0;
+    }
+
+    /**
+     * Fill the region of similar colors around a pixel, as one undo step. Internal use only
+     * @param x the x value of the pixel
+     * @param y the y value of the pixel
+     * @param paint the color to fill with. Only plain colors can be filled with, anything else fills with black.
+     */
+    private void fill(int x, int y, Paint paint) {
+        Color color = paint instanceof Color ? (Color)paint : Color.BLACK;
+        int argb = (int)Math.round(color.getOpacity() * 255) << 24 | (int)Math.round(color.getRed() * 255) << 16
+                | (int)Math.round(color.getGreen() * 255) << 8 | (int)Math.round(color.getBlue() * 255);
+        FloodFill fill = new FloodFill(raster, fillTolerance);
+        DirtyRect area = fill.find(x, y);
+        if(area.isEmpty())
+            return;
+        history.beginEdit(raster, area);
+        fill.paint(argb);
+        history.endEdit(raster);
+        redraw(area);
+    }
+
+    /**
+     * Select the pixels similar in color to a pixel with the Magic Wand. Internal use only
+     * @param x the x value of the pixel
+     * @param y the y value of the pixel
+     * @param add true to add the new pixels to the current selection, or with subtract to keep only the pixels in both
+     * @param subtract true to remove the new pixels from the current selection
+     */
+    private void selectSimilar(int x, int y, boolean add, boolean subtract) {
+        SelectionMask mask = MagicWand.select(raster, x, y, wandTolerance, wandContiguous);
+        if(selectionMade) {
+            SelectionMask current = ((Selection)currentDrawing).getMask();
+            if(add && subtract)
+                mask = current.intersect(mask);
+            else if(add)
+                mask = current.union(mask);
+            else if(subtract)
+                mask = current.subtract(mask);
+        }
+        clearPreview();
+        if(mask.isEmpty()) {
+            selectionMade = false;
+            currentDrawing = null;
+            return;
+        }
+        Selection selection = Selection.fromMask(mask);
+        DirtyRect bounds = mask.getBounds();
+        selection.setSelection(makeSprite(mask, raster, 0, 0, bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight()));
+        currentDrawing = selection;
+        selectionMade = true;
+        drawPreview(selection);
+        // In case it was not reset somewhere else.
+        ctrl_c_pressed = false;
+    }
+
+    /**
+     * Make the image of a selection that is shown while it is dragged. A rectangle is written straight from the raster
+     * to the image, other shapes a row at a time with unselected pixels left transparent. Internal use only
+     * @param mask the selected pixels
+     * @param source the raster holding the pixels
+     * @param sourceX the x value in the image that the left edge of the source raster is at
+     * @param sourceY the y value in the image that the top edge of the source raster is at
+     * @param left the x value in the image of the left edge of the sprite
+     * @param top the y value in the image of the top edge of the sprite
+     * @param width the width of the sprite
+     * @param height the height of the sprite
+     * @return the sprite, or null if it would be too large
+     * @throws IllegalArgumentException if the selected pixels aren't all inside the sprite
+     */
+    private Image makeSprite(SelectionMask mask, Raster source, int sourceX, int sourceY, int left, int top, int width, int height) {
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+        DirtyRect bounds = mask.getBounds();
+        if(!bounds.isEmpty() && !new DirtyRect(left, top, width, height).contains(bounds))
+            throw new IllegalArgumentException("Selection " + bounds + " doesn't fit in its " + width + "x" + height + " sprite at " + left + ", " + top);
+        if((long)width * height > MAX_SELECTION_PIXELS) {
+            showMessage("Selection", "The selection is too large to show while moving it.");
+            return null;
+        }
+        WritableImage image = new WritableImage(width, height);
+        PixelWriter writer = image.getPixelWriter();
+        if(bounds.isEmpty())
+            return image;
+        if(mask.isRectangle()) {
+            RasterConverter.write(source, writer, bounds.getX() - sourceX, bounds.getY() - sourceY, bounds.getWidth(), bounds.getHeight(),
+                    bounds.getX() - left, bounds.getY() - top);
+            return image;
+        }
+        int[] row = new int[bounds.getWidth()];
+        for(int y = bounds.getY(); y < bounds.getMaxY(); y++) {
+            Arrays.fill(row, 0);
+            mask.forEachRun(y, (runY, startX, endX) -> source.getPixels(startX - sourceX, runY - sourceY, endX - startX, 1,
+                    row, startX - bounds.getX(), row.length));
+            writer.setPixels(bounds.getX() - left, y - top, row.length, 1, PixelFormat.getIntArgbInstance(), row, 0, row.length);
+        }
+        return image;
+    }
+
+    /**
+     * Grab a selection so it can be dragged. Internal use only
+     * @param selection the selection to grab
+     * @param x the x value of the mouse
+     * @param y the y value of the mouse
+     */
+    private void grabSelection(Selection selection, double x, double y) {
+        selection.setGrabbed(true);
+        selection.setMouseX(x);
+        selection.setMouseY(y);
+        selection.setGrabbedX(x);
+        selection.setGrabbedY(y);
+        // If ctrl-c is not pressed, we are cutting (setting background of selected area to white).
+        // Only the canvas is cut, the raster keeps the image from before the move until it's dropped.
+        // Pasted selections are not in the image yet, so there is nothing to cut.
+        selectionCut = null;
+        if(!ctrl_c_pressed && pastedArea == null) {
+            SelectionMask mask = selection.getMask();
+            selectionCut = mask.getBounds();
+            if(mask.isRectangle()) {
+                context.save();
+                context.setFill(Color.WHITE);
+                context.fillRect(selectionCut.getX(), selectionCut.getY(), selectionCut.getWidth(), selectionCut.getHeight());
+                context.restore();
             }
+            else {
+                PixelWriter writer = context.getPixelWriter();
+                int[] white = new int[view.getWidth()];
+                Arrays.fill(white, 0xFFFFFFFF);
+                mask.forEachRun((row, startX, endX) -> {
+                    int from = Math.max(startX, view.getX());
+                    int to = Math.min(endX, view.getMaxX());
+                    if(row >= view.getY() && row < view.getMaxY() && from < to)
+                        writer.setPixels(from - view.getX(), row - view.getY(), to - from, 1, PixelFormat.getIntArgbInstance(), white, 0, white.length);
+                });
+            }
+        }
+        drawPreview(selection);
+    }
+
+    /**
+     * Drop a grabbed or pasted selection where it was dragged to and forget about it. Internal use only
+     * @param selection the selection
+     */
+    private void finishSelection(Selection selection) {
+        clearPreview();
+        dropSelection(selection);
+        selection.setGrabbed(false);
+        selectionCut = null;
+        pastedArea = null;
+        selectionMade = false;
+    }
+
+    /**
+     * Drop a grabbed selection where it was dragged to, as one undo step. Pixels are copied within the raster (or from
+     * the clipboard if the selection was pasted) one row at a time, with no copy of the whole selection.
+     * Rows are copied starting from the side the selection moved towards, so every row is read before anything is
+     * dropped on top of it. Internal use only
+     * @param selection the grabbed selection
+     */
+    private void dropSelection(Selection selection) {
+        SelectionMask mask = selection.getMask();
+        int dx = (int)Math.round(selection.getDropX() - selection.getXTopLeft());
+        int dy = (int)Math.round(selection.getDropY() - selection.getYTopLeft());
+        DirtyRect bounds = mask.getBounds();
+        DirtyRect dropped = new DirtyRect(bounds.getX() + dx, bounds.getY() + dy, bounds.getWidth(), bounds.getHeight())
+                .clip(raster.getWidth(), raster.getHeight());
+        // Covers both where the selection was cut from and where it was dropped
+        DirtyRect area = dropped.union(selectionCut);
+        if(area.isEmpty())
+            return;
+        Raster source = pastedArea != null ? clipboard : raster;
+        int sourceX = pastedArea != null ? pastedArea.getX() : 0;
+        int sourceY = pastedArea != null ? pastedArea.getY() : 0;
+        boolean cut = selectionCut != null;
+        int[] row = new int[bounds.getWidth()];
+        history.beginEdit(raster, area);
+        for(int i = 0; i < bounds.getHeight(); i++) {
+            int y = dy > 0 ? bounds.getMaxY() - 1 - i : bounds.getY() + i;
+            int toY = y + dy;
+            mask.forEachRun(y, (runY, startX, endX) -> source.getPixels(startX - sourceX, runY - sourceY, endX - startX, 1,
+                    row, startX - bounds.getX(), row.length));
+            if(cut)
+                mask.forEachRun(y, (runY, startX, endX) -> raster.fill(startX, runY, endX - startX, 1, 0xFFFFFFFF));
+            if(toY < 0 || toY >= raster.getHeight())
+                continue;
+            mask.forEachRun(y, (runY, startX, endX) -> {
+                int from = Math.max(0, startX + dx);
+                int to = Math.min(raster.getWidth(), endX + dx);
+                if(from < to)
+                    raster.setPixels(from, toY, to - from, 1, row, from - dx - bounds.getX(), row.length);
+            });
         }
+        history.endEdit(raster);
+        redraw(area);
+    }
+
+    /**
+     * Copy the selected pixels to the clipboard, so they can be pasted with {@link #paste()}
+     */
+    public void copy() {
+        if(loading != null || !selectionMade || pastedArea != null || !(currentDrawing instanceof Selection))
+            return;
+        SelectionMask mask = ((Selection)currentDrawing).getMask();
+        if(mask == null || mask.isEmpty())
+            return;
+        DirtyRect bounds = mask.getBounds();
+        Raster copy = Raster.create(bounds.getWidth(), bounds.getHeight());
+        int[] row = new int[bounds.getWidth()];
+        for(int y = bounds.getY(); y < bounds.getMaxY(); y++) {
+            mask.forEachRun(y, (runY, startX, endX) -> {
+                raster.getPixels(startX, runY, endX - startX, 1, row, 0, row.length);
+                copy.setPixels(startX - bounds.getX(), runY - bounds.getY(), endX - startX, 1, row, 0, row.length);
+            });
+        }
+        if(clipboard != null)
+            clipboard.dispose();
+        clipboard = copy;
+        clipboardMask = mask.translate(-bounds.getX(), -bounds.getY());
+    }
+
+    /**
+     * Paste the pixels last copied to the clipboard at the top-left of the visible part of the image.
+     * The pasted pixels can be dragged around and are dropped into the image when the mouse is pressed somewhere else.
+     * The Select or Magic Wand tool should be chosen first.
+     */
+    public void paste() {
+        if(loading != null)
+            return;
+        if(clipboard == null) {
+            showMessage("Paste", "Nothing has been copied to paste.");
+            return;
+        }
+        if(selectionMade && pastedArea != null)
+            finishSelection((Selection)currentDrawing);
+        clearPreview();
+        DirtyRect visible = getVisibleArea();
+        pastedArea = new DirtyRect(visible.getX(), visible.getY(), clipboard.getWidth(), clipboard.getHeight());
+        SelectionMask mask = clipboardMask.translate(pastedArea.getX(), pastedArea.getY());
+        Selection selection = Selection.fromMask(mask);
+        DirtyRect bounds = mask.getBounds();
+        selection.setSelection(makeSprite(mask, clipboard, pastedArea.getX(), pastedArea.getY(), bounds.getX(), bounds.getY(),
+                bounds.getWidth(), bounds.getHeight()));
+        // Shown as if it had been grabbed where it is, so it is drawn before it is moved
+        selection.setGrabbed(true);
+        selection.setMouseX(bounds.getX());
+        selection.setMouseY(bounds.getY());
+        selection.setGrabbedX(bounds.getX());
+        selection.setGrabbedY(bounds.getY());
+        currentDrawing = selection;
+        selectionMade = true;
+        selectionCut = null;
+        drawPreview(selection);
+        markChanged();
+    }
+
+    /**
+     * Invert the image on the canvas
+     */
+    public void invert() {
+        if(loading != null)
+            return;
+        // Inverting twice gives back the original image, so the history only needs to remember the operation
+        history.map(raster, DirtyRect.of(raster), PixelOperation.INVERT::apply, PixelOperation.INVERT::apply);
         redraw();
     }
 
+    /**
+     * Run a filter over the whole image on the canvas. This is a single undo step.
+     * @param filter the filter to run
+     */
+    public void applyFilter(Filter filter) {
+        if(loading != null)
+            return;
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        if((long)width * height > MAX_FILTER_PIXELS) {
+            showMessage("Filter", "The image is too large to filter: " + width + "x" + height + ".");
+            return;
+        }
+        int[] before = raster.readAll();
+        int[] after = before.clone();
+        filter.apply(after, width, height);
+        history.willChange(DirtyRect.of(raster));
+        raster.writeAll(after);
+        history.record(before, after, width, height);
+        redraw(DirtyRect.of(raster));
+    }
+
     /**
      * Set the zoom level on the canvas
      * @param zoom the zooming level in percent
@@ -339,6 +890,7 @@ public class CanvasManager {
      * @param mode the draw mode to set the canvas to
      */
     public void setToolMode(ToolMode mode) {
+        clearPreview();
         this.toolMode = mode;
         toolChanged = true;
     }
@@ -357,6 +909,7 @@ public class CanvasManager {
      */
     public void setLineWidth(double width) {
         context.setLineWidth(width);
+        overlayContext.setLineWidth(width);
     }
     /**
      * Set the color to draw with
@@ -382,12 +935,22 @@ public class CanvasManager {
         return primaryColor;
     }
 
+    /**
+     * Set how much pencil and eraser strokes are simplified when they are finished.
+     * Simplified strokes take less space in the history.
+     * @param tolerance the largest distance in pixels a simplified stroke may be from the drawn one, 0 to turn off
+     */
+    public void setStrokeTolerance(double tolerance) {
+        strokeTolerance = tolerance;
+    }
+
     /**
      * Set the font that will be drawn with
      * @param font the font
      */
     public void setTextFont(Font font) {
         context.setFont(font);
+        overlayContext.setFont(font);
     }
 
     /**
@@ -406,12 +969,33 @@ public class CanvasManager {
         polygonSides = sides;
     }
 
+    /**
+     * Set how similar a pixel's color must be to the clicked one to be filled by the Fill tool
+     * @param tolerance how far each channel may be from the clicked color, from 0 to 255
+     */
+    public void setFillTolerance(int tolerance) {
+        fillTolerance = tolerance;
+    }
+
+    /**
+     * Set how the Magic Wand picks pixels
+     * @param tolerance how far each channel may be from the clicked color, from 0 to 255
+     * @param contiguous true to only select pixels connected to the clicked one
+     */
+    public void setWandOptions(int tolerance, boolean contiguous) {
+        wandTolerance = tolerance;
+        wandContiguous = contiguous;
+    }
+
     /**
      * Set whether or not a selection has been made or not (should be internal use only)
      * @param selectionMade whether or not a selection is made
      */
     public void setSelectionMade(boolean selectionMade) {
         this.selectionMade = selectionMade;
+        // A pasted selection that was never dropped is thrown away
+        if(!selectionMade)
+            pastedArea = null;
     }
 
     /**
@@ -439,33 +1023,139 @@ public class CanvasManager {
         this.ctrl_c_pressed = ctrl_c_pressed;
     }
 
+    /**
+     * Set how much memory the undo history may use before older edits are compressed and moved to disk.
+     * The most recent edits are always kept in memory.
+     * @param bytes the memory budget in bytes
+     */
+    public void setHistoryMemoryBudget(long bytes) {
+        history.setMemoryBudget(bytes);
+    }
+
     /**
      * Undo the last change to the canvas
      */
     public void undo() {
-        if(undoStack.isEmpty())
+        if(loading != null)
             return;
-        redoStack.push(redrawImage);
-        redrawImage = undoStack.pop();
-        redraw();
+        DirtyRect area = history.undo(raster, painter);
+        if(area != null)
+            redraw(area);
     }
 
     /**
      * Redo the last undo
      */
     public void redo() {
-        if(redoStack.isEmpty())
+        if(loading != null)
             return;
-        undoStack.push(redrawImage);
-        redrawImage = redoStack.pop();
-        redraw();
+        DirtyRect area = history.redo(raster, painter);
+        if(area != null)
+            redraw(area);
+    }
+
+    /**
+     * Draw the preview of a drawable on the overlay, replacing the last preview. Internal use only
+     * @param drawable the drawable to preview
+     */
+    private void drawPreview(Drawable drawable) {
+        clearPreview();
+        drawable.drawPreview(overlayContext);
+        previewBounds = drawable.getBounds(overlayContext);
+    }
+
+    /**
+     * Clear the last preview from the overlay. Only the area it covered is cleared. Internal use only
+     */
+    private void clearPreview() {
+        if(previewBounds == null)
+            return;
+        overlayContext.clearRect(previewBounds.getMinX(), previewBounds.getMinY(), previewBounds.getWidth(), previewBounds.getHeight());
+        previewBounds = null;
     }
 
     /**
-     * Redraw the canvas based on what's stored in the redrawImage field. Internal use only
+     * Redraw the canvas based on what's stored in the raster. Internal use only
      */
     private void redraw() {
-        context.drawImage(redrawImage, 0, 0, redrawImage.getWidth(), redrawImage.getHeight());
+        redraw(view);
+    }
+
+    /**
+     * Redraw part of the canvas based on what's stored in the raster. Only the part inside the view is drawn.
+     * Internal use only
+     * @param area the area to redraw, inside the image
+     */
+    private void redraw(DirtyRect area) {
+        DirtyRect visible = area.intersect(view);
+        if(visible.isEmpty())
+            return;
+        RasterConverter.write(raster, context.getPixelWriter(), visible.getX(), visible.getY(), visible.getWidth(), visible.getHeight(),
+                visible.getX() - view.getX(), visible.getY() - view.getY());
+    }
+
+    /**
+     * Move the view if the visible part of the image is no longer inside of it. The canvas and overlay are moved and
+     * resized to cover the new view and the canvas is redrawn. Internal use only
+     */
+    private void updateView() {
+        DirtyRect visible = getVisibleArea();
+        if(view != null && view.contains(visible))
+            return;
+        int x = Math.max(0, visible.getX() - VIEW_MARGIN);
+        int y = Math.max(0, visible.getY() - VIEW_MARGIN);
+        int w = Math.min(MAX_VIEW_SIZE, visible.getMaxX() + VIEW_MARGIN - x);
+        int h = Math.min(MAX_VIEW_SIZE, visible.getMaxY() + VIEW_MARGIN - y);
+        view = new DirtyRect(x, y, w, h).clip(raster.getWidth(), raster.getHeight());
+        clearPreview();
+        canvas.setLayoutX(view.getX());
+        canvas.setLayoutY(view.getY());
+        canvas.setWidth(Math.max(1, view.getWidth()));
+        canvas.setHeight(Math.max(1, view.getHeight()));
+        // Both canvases take image coordinates, so drawings don't need to know where the view is
+        context.setTransform(1, 0, 0, 1, -view.getX(), -view.getY());
+        overlayContext.setTransform(1, 0, 0, 1, -view.getX(), -view.getY());
+        overlayContext.clearRect(view.getX(), view.getY(), view.getWidth(), view.getHeight());
+        redraw();
+    }
+
+    /**
+     * Find the part of the image that is visible in the scroll pane. Internal use only
+     * @return the visible area, inside the image
+     */
+    private DirtyRect getVisibleArea() {
+        if(scrollPane == null) {
+            Parent parent = page.getParent();
+            while(parent != null && !(parent instanceof ScrollPane))
+                parent = parent.getParent();
+            if(parent != null) {
+                scrollPane = (ScrollPane)parent;
+                // Resizing the window shows more or less of the image without moving it
+                scrollPane.viewportBoundsProperty().addListener((observable, oldValue, newValue) -> updateView());
+            }
+        }
+        // Until the page is shown there is nothing visible yet, so show the top-left part of the image
+        if(scrollPane == null || page.getScene() == null)
+            return new DirtyRect(0, 0, MAX_VIEW_SIZE, MAX_VIEW_SIZE).clip(raster.getWidth(), raster.getHeight());
+        Bounds visible = page.sceneToLocal(scrollPane.localToScene(scrollPane.getLayoutBounds()));
+        return DirtyRect.around(visible.getMinX(), visible.getMinY(), visible.getMaxX(), visible.getMaxY()).clip(raster.getWidth(), raster.getHeight());
+    }
+
+    /**
+     * Get the pixels of the image that some bounds cover. Internal use only
+     * @param bounds the bounds, as returned by {@link Drawable#getBounds(GraphicsContext)}
+     * @return the whole pixels covered by the bounds, inside the image
+     */
+    private DirtyRect toDirtyRect(Rectangle2D bounds) {
+        return DirtyRect.around(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY()).clip(raster.getWidth(), raster.getHeight());
+    }
+
+    /**
+     * Get the raster holding the pixels of the image being edited
+     * @return the raster
+     */
+    public Raster getRaster() {
+        return raster;
     }
 
     /**
@@ -493,25 +1183,156 @@ public class CanvasManager {
     }
 
     /**
-     * Load an image onto the canvas from a file
+     * Load an image onto the canvas from a file. The file is read in the background: a low resolution preview is
+     * shown first, then the full resolution fills in from the top. The image can't be edited until it's done, and
+     * loading can be cancelled with {@link #cancelLoad()}.
      * @param imageFile The file to be loaded
      */
     public void loadImageFromFile(@NotNull File imageFile) {
         if(changeMadeNotSaved) {
             if(showSavePopup() == SaveChoice.CANCEL)
                 return;
-            changeMadeNotSaved = false;
         }
-        Image image = null;
-        try {
-            // TODO: Do this better. Not great to use the initial window size to determine the image's size. Try to make more dynamic.
-            image = new Image(new FileInputStream(imageFile.getAbsolutePath()));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+        cancelLoad();
+        replacedChanged = changeMadeNotSaved;
+        changeMadeNotSaved = false;
+        long number = ++loadNumber;
+        Main.mainController.setLoadProgress(0);
+        loading = loader.submit(() -> {
+            try {
+                ImageFiles.read(imageFile, new ImageFiles.ProgressiveRead() {
+                    @Override
+                    public void started(Raster raster) throws InterruptedException {
+                        runOnFxThread(() -> startLoad(number, imageFile, raster));
+                    }
+
+                    @Override
+                    public void band(BufferedImage band, int y, double progress) throws InterruptedException {
+                        runOnFxThread(() -> loadBand(number, band, y, progress));
+                    }
+                });
+                runOnFxThread(() -> finishLoad(number));
+            } catch (InterruptedException e) {
+                // Cancelled, and the image it replaced has already been put back
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                Platform.runLater(() -> {
+                    if(number == loadNumber)
+                        cancelLoad();
+                });
+            }
+        });
+    }
+
+    /**
+     * Show the image being loaded in place of the current one. Runs on the FX thread. Internal use only
+     * @param number the number of the load
+     * @param file the file being loaded
+     * @param loaded the full size raster being loaded into, holding the preview
+     */
+    private void startLoad(long number, File file, Raster loaded) {
+        if(number != loadNumber) {
+            loaded.dispose();
             return;
         }
-        openedFile = imageFile;
-        loadImage(image);
+        dropDrawing();
+        replacedByLoad = raster;
+        replacedFile = openedFile;
+        openedFile = file;
+        // Only shown for now: the history, journal and project of the replaced image are kept until loading is done
+        showRaster(loaded);
+    }
+
+    /**
+     * Forget the drawing or selection in progress, which belongs to an image that is being replaced. Internal use only
+     */
+    private void dropDrawing() {
+        dragTimer.stop();
+        dragSampleCount = 0;
+        currentDrawing = null;
+        selectionMade = false;
+        selectionCut = null;
+        pastedArea = null;
+    }
+
+    /**
+     * Copy a band of full resolution rows into the image being loaded. Runs on the FX thread. Internal use only
+     * @param number the number of the load
+     * @param band the rows read
+     * @param y the row the band starts at
+     * @param progress the fraction of the image read so far
+     */
+    private void loadBand(long number, BufferedImage band, int y, double progress) {
+        if(number != loadNumber)
+            return;
+        ImageFiles.copyBand(band, raster, y);
+        redraw(new DirtyRect(0, y, raster.getWidth(), band.getHeight()));
+        Main.mainController.setLoadProgress(progress);
+    }
+
+    /**
+     * Finish loading an image, letting go of the image it replaced. Runs on the FX thread. Internal use only
+     * @param number the number of the load
+     */
+    private void finishLoad(long number) {
+        if(number != loadNumber)
+            return;
+        if(raster instanceof TiledRaster)
+            ((TiledRaster)raster).compact();
+        startOver();
+        if(ProjectFile.isProject(openedFile))
+            projectFile = openedFile;
+        if(replacedByLoad != null)
+            retire(replacedByLoad);
+        replacedByLoad = null;
+        replacedFile = null;
+        loading = null;
+        Main.mainController.setLoadProgress(-1);
+    }
+
+    /**
+     * Stop loading an image file and put back the image it replaced. Nothing happens if no file is being loaded.
+     */
+    public void cancelLoad() {
+        if(loading == null)
+            return;
+        loading.cancel(true);
+        loading = null;
+        loadNumber++;
+        if(replacedByLoad != null) {
+            Raster partial = raster;
+            openedFile = replacedFile;
+            showRaster(replacedByLoad);
+            retire(partial);
+        }
+        // The replaced image was never let go of, so it's as it was, unsaved changes included
+        changeMadeNotSaved = replacedChanged;
+        replacedByLoad = null;
+        replacedFile = null;
+        Main.mainController.setLoadProgress(-1);
+    }
+
+    /**
+     * Whether or not an image file is being loaded
+     * @return true if a file is being loaded, in which case the image can't be edited or saved
+     */
+    public boolean isLoading() {
+        return loading != null;
+    }
+
+    /**
+     * Run a task on the FX thread and wait for it to finish. Used by the loader thread. Internal use only
+     * @param task the task to run
+     * @throws InterruptedException if the waiting thread was interrupted, in which case the task may still run later
+     */
+    private static void runOnFxThread(Runnable task) throws InterruptedException {
+        FutureTask<Void> future = new FutureTask<>(task, null);
+        Platform.runLater(future);
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
     }
 
     /**
@@ -519,48 +1340,250 @@ public class CanvasManager {
      * @param image the image to load onto the canvas
      */
     public void loadImage(Image image) {
-        canvas.setHeight(image.getHeight());
-        canvas.setWidth(image.getWidth());
-        context.drawImage(image, 0, 0, image.getWidth(), image.getHeight());
-        redrawImage = canvas.snapshot(null, null);
+        loadRaster(RasterConverter.fromImage(image));
+    }
+
+    /**
+     * Replace the image being edited with a raster, resizing the page to fit it
+     * @param raster the raster to edit
+     */
+    public void loadRaster(Raster raster) {
+        cancelLoad();
+        // Only the history and the view refer to the old raster, and both start over
+        Raster old = this.raster;
+        showRaster(raster);
+        startOver();
+        if(old != null && old != raster)
+            retire(old);
+    }
+
+    /**
+     * Replace the image being edited with a resized copy of it, as an edit that can be undone.
+     * The old image is kept by the history to undo back to, and the image stays in the same project file.
+     * @param resized the resized image
+     */
+    public void resize(Raster resized) {
+        if(loading != null) {
+            resized.dispose();
+            return;
+        }
+        history.replace(raster, resized);
+    }
+
+    /**
+     * Show the image the history swapped in when a resize was made, undone or redone. The auto-save journal and the
+     * project tracking follow the new image, which may be a different size, and every tile of it counts as changed.
+     * Internal use only
+     * @param replacement the image to edit now
+     */
+    private void showReplacement(Raster replacement) {
+        dropDrawing();
+        showRaster(replacement);
+        journal.reset(replacement);
+        projectChanges.reset(replacement.getWidth(), replacement.getHeight());
+        projectChanges.markAll();
+        markChanged();
+    }
+
+    /**
+     * Dispose of a raster that was replaced. A save may still be reading it though, in which case it's disposed
+     * once the save is done. Internal use only
+     * @param old the raster that was replaced
+     */
+    private void retire(Raster old) {
+        if(snapshotsInUse > 0)
+            retiredRasters.add(old);
+        else
+            old.dispose();
+    }
+
+    /**
+     * Show a raster in place of the image being edited, resizing the page to fit it, without disposing of the old one.
+     * The history still belongs to the old image until {@link #startOver()} is called. Internal use only
+     * @param raster the raster to edit
+     */
+    private void showRaster(Raster raster) {
+        clearPreview();
+        this.raster = raster;
+        page.setMinSize(raster.getWidth(), raster.getHeight());
+        page.setPrefSize(raster.getWidth(), raster.getHeight());
+        page.setMaxSize(raster.getWidth(), raster.getHeight());
+        view = null;
+        updateView();
+    }
+
+    /**
+     * Start the history, auto-save journal and project tracking over for the image being shown, forgetting the image
+     * it replaced. Internal use only
+     */
+    private void startOver() {
+        // Start the history over, since the new image may be a different size
+        history.reset(raster);
+        journal.reset(raster);
+        projectChanges.reset(raster.getWidth(), raster.getHeight());
+        projectFile = null;
     }
 
     /**
-     * Save the contents of the canvas to a file
+     * Save the contents of the canvas to a file. The file is written in the background from a snapshot of the image,
+     * so editing can carry on while it is written.
      * @param file The file to be saved to
      */
     public void saveCanvasToFile(@NotNull File file) {
-        WritableImage image = canvas.snapshot(null, null);
-        // Tried this approach, but this doesn't work. Had to make my own BufferedImage
-        //BufferedImage bufferedImage = SwingFXUtils.fromFXImage(image, null);
-        int w = (int)image.getWidth();
-        int h = (int)image.getHeight();
-        int[] buffer = new int[w*h];
-        BufferedImage newImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-        image.getPixelReader().getPixels(0, 0, w, h, WritablePixelFormat.getIntArgbInstance(), buffer, 0, w);
-        newImage.setRGB(0, 0, w, h, buffer, 0, w);
-        try {
-            System.out.println("Extension: " + getFileExtension(file));
-            // If opened file is same as this one, ignore loss of data problem
-            if(openedFile != null && openedFile == file)
-                System.out.println(ImageIO.write(newImage, getFileExtension(file), file));
-            // Else if it's jpg (can add other types if needed), warn user before saving
-            else if(getFileExtension(file).equals("jpg")) {
-                if(showLossyPopup() == 1)
-                    System.out.println(ImageIO.write(newImage, getFileExtension(file), file));
-                else
-                    return;
-            }
-            // Else it's a new file that isn't of lossy format, save with no prompt
-            else {
-                System.out.println(ImageIO.write(newImage, getFileExtension(file), file));
+        if(loading != null) {
+            showMessage("Save", "The image can't be saved while it is loading.");
+            return;
+        }
+        String format = getFileExtension(file);
+        System.out.println("Extension: " + format);
+        // If opened file is same as this one, ignore loss of data problem.
+        // Else if it's jpg (can add other types if needed), warn user before saving
+        if((openedFile == null || openedFile != file) && format.equals("jpg") && showLossyPopup() != 1)
+            return;
+        saveInBackground(file, format);
+    }
+
+    /**
+     * Write the image to a file on the saver thread. The file is written under a temporary name next to it and renamed
+     * over it once complete, so a failed or interrupted save never leaves a half written file behind.
+     * Saving over the project file the image came from only adds the tiles that changed to it. A project file that is
+     * still open is never replaced, since its raster reads from it, so it's added to the same way. Internal use only
+     * @param file the file to save to
+     * @param format the name of the format to write, like "png"
+     */
+    private void saveInBackground(File file, String format) {
+        Raster saved = raster;
+        RasterSnapshot snapshot = takeSnapshot();
+        long changesAtSave = changeCount;
+        // Once saved to a project, the tiles changed before now are the ones the project file is missing
+        BitSet projectTiles = format.equalsIgnoreCase(ProjectFile.EXTENSION) ? projectChanges.take() : null;
+        // A project still being read from can't be replaced, only added to, so it's updated even if it holds another image
+        boolean incremental = projectTiles != null && (file.equals(projectFile) || ProjectFile.isOpen(file));
+        BitSet changedTiles = file.equals(projectFile) ? projectTiles : null;
+        savesRunning++;
+        Main.mainController.setSaveProgress(0);
+        lastSaveRaster = saved;
+        lastSaveChanges = changesAtSave;
+        lastSave = saver.submit(() -> {
+            File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".saving");
+            DoubleConsumer progress = fraction -> Platform.runLater(() -> Main.mainController.setSaveProgress(fraction));
+            boolean success = false;
+            try {
+                // A project that can't be updated, like one of a different size, is written again from scratch
+                if(incremental && ProjectFile.update(snapshot, file, changedTiles, progress)) {
+                    success = true;
+                }
+                else {
+                    success = ImageFiles.write(snapshot, format, temp, progress);
+                    if(success) {
+                        try {
+                            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        } catch (AtomicMoveNotSupportedException e) {
+                            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        }
+                    }
+                    else {
+                        System.out.println("No writer for format " + format);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                success = false;
+            } finally {
+                // Edits waiting for the snapshot to be written can carry on
+                snapshot.release();
+                if(!success && temp.exists() && !temp.delete())
+                    System.out.println("Could not delete " + temp);
             }
+            boolean written = success;
+            Platform.runLater(() -> finishSave(written, saved, snapshot, changesAtSave, file, projectTiles));
+            return written;
+        });
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Clean up after a save on the FX thread. The image only counts as saved if it wasn't changed while it was written.
+     * Internal use only
+     * @param success whether or not the file was written
+     * @param saved the raster that was saved
+     * @param snapshot the snapshot that was written
+     * @param changesAtSave the number of changes made when the save started
+     * @param file the file that was saved to
+     * @param projectTiles the tiles changed since the last project save, if this was a project save, otherwise null
+     */
+    private void finishSave(boolean success, Raster saved, RasterSnapshot snapshot, long changesAtSave, File file, BitSet projectTiles) {
+        releaseSnapshot(snapshot);
+        savesRunning--;
+        // The image only belongs to the file once it's really in it
+        if(success && saved == raster)
+            openedFile = file;
+        if(success && saved == raster && changesAtSave == changeCount)
+            changeMadeNotSaved = false;
+        if(!success)
+            showMessage("Save Failed", "Could not save " + file.getName() + ". The format may not be supported, "
+                    + "or the file could not be written.");
+        if(projectTiles != null && saved == raster) {
+            if(success)
+                projectFile = file;
+            else
+                projectChanges.add(projectTiles);
+        }
+        if(savesRunning == 0)
+            Main.mainController.setSaveProgress(-1);
+    }
+
+    /**
+     * Take a snapshot of the image to write in the background. Internal use only
+     * @return the snapshot, which must be given to {@link #releaseSnapshot(RasterSnapshot)} once written
+     */
+    private RasterSnapshot takeSnapshot() {
+        snapshotsInUse++;
+        return history.takeSnapshot(raster);
+    }
+
+    /**
+     * Release a snapshot taken by {@link #takeSnapshot()}, disposing of replaced rasters once no snapshot is being
+     * written. Must be called on the FX thread. Internal use only
+     * @param snapshot the snapshot that was written
+     */
+    private void releaseSnapshot(RasterSnapshot snapshot) {
+        history.releaseSnapshot(snapshot);
+        snapshotsInUse--;
+        if(snapshotsInUse == 0) {
+            for(Raster retired : retiredRasters)
+                retired.dispose();
+            retiredRasters.clear();
         }
-        openedFile = file;
-        changeMadeNotSaved = false;
+    }
+
+    /**
+     * Wait for every save that has been started to finish writing. Used before closing, since the saver thread
+     * doesn't keep the program running on its own.
+     * @return true if the image is saved: the last save succeeded and nothing changed after it started, or there
+     * were no changes to save
+     */
+    public boolean waitForSaves() {
+        boolean written = true;
+        if(lastSave != null) {
+            try {
+                written = lastSave.get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+                written = false;
+            }
+        }
+        // finishSave is waiting for this thread, so the last save is checked here instead
+        if(lastSave != null && written && lastSaveRaster == raster && lastSaveChanges == changeCount)
+            return true;
+        return !changeMadeNotSaved;
+    }
+
+    /**
+     * Remember that the image was changed and hasn't been saved since. Internal use only
+     */
+    private void markChanged() {
+        changeMadeNotSaved = true;
+        changeCount++;
     }
 
     /**
@@ -588,6 +1611,18 @@ public class CanvasManager {
         return controller.getChoice();
     }
 
+    /**
+     * Tell the user something in a small window with an OK button. Doesn't wait for it to be closed.
+     * @param title the title of the window
+     * @param message the message to show
+     */
+    public void showMessage(String title, String message) {
+        FieldPopup popup = new FieldPopup(title);
+        popup.addComponent(new Label(message));
+        popup.addSubmitButton("OK");
+        popup.show();
+    }
+
     /**
      * Show the lossy popup and wait for a response
      * @return 1 if Yes was selected, 0 if No was selected
@@ -613,17 +1648,31 @@ public class CanvasManager {
     }
 
     /**
-     * Takes an image (intended to be from a snapshot) and sends it to a file
-     * @param image the image to send to a file
+     * Add the changes made since the last auto-save to the auto-save journal. Nothing is done if nothing changed,
+     * and the changed tiles are written in the background, so this never holds up the UI.
      */
-    public void sendSnapShotToNewFile(Image image) {
-        BufferedImage bufferedImage = SwingFXUtils.fromFXImage(image, null);
-        File file = new File("test.png");
-        try {
-            ImageIO.write(bufferedImage, "png", file);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public void autoSave() {
+        if(loading != null || !journal.hasChanges(openedFile))
+            return;
+        RasterSnapshot snapshot = takeSnapshot();
+        journal.checkpoint(snapshot, openedFile, () -> Platform.runLater(() -> releaseSnapshot(snapshot)));
+    }
+
+    /**
+     * Delete the auto-save journal once it's been written. Used when the program closes normally,
+     * since there is then nothing to recover.
+     */
+    public void discardAutoSave() {
+        journal.delete();
+    }
+
+    /**
+     * Write the changes made since the last auto-save to the journal and wait for it, so they can be recovered the next
+     * time the program starts. Used when the program closes without the image being saved.
+     */
+    public void keepAutoSave() {
+        autoSave();
+        journal.flush();
     }
 
     /**
@@ -0,0 +1,488 @@
+package paint.util;
+
+import paint.codec.BmpCodec;
+import paint.codec.NetpbmCodec;
+import paint.codec.PngWriter;
+import paint.codec.ProjectFile;
+import paint.codec.QoiCodec;
+import paint.raster.PixelSource;
+import paint.raster.Raster;
+import paint.raster.TiledRaster;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Reads and writes image files straight to and from {@link Raster}s using ImageIO.
+ * Images are read a band of rows at a time, or decoded in one go if the format can't jump to a row, and written
+ * through a {@link RasterImage}, so large images never have to fit in one BufferedImage.
+ * PNG files are written with the parallel {@link PngWriter} instead of ImageIO, project files are handled by
+ * {@link ProjectFile}, and QOI, PAM, PPM and uncompressed BMP files by {@link QoiCodec}, {@link NetpbmCodec} and
+ * {@link BmpCodec}, which go straight between the raster's rows and the file without ImageIO.
+ * @author Colin Braun
+ */
+public class ImageFiles {
+    /**
+     * About how many pixels are read from a file at once
+     */
+    private static final int BAND_PIXELS = 1 << 24;
+    /**
+     * About how many pixels the low resolution preview of a progressively read image has
+     */
+    private static final int PREVIEW_PIXELS = 1 << 20;
+    /**
+     * About how many pixels are handed over at once while an image that is decoded in one go is read
+     */
+    private static final int UPDATE_PIXELS = 1 << 20;
+
+    /**
+     * Receives an image while it's read by {@link #read(File, ProgressiveRead)}. Called on the reading thread.
+     */
+    public interface ProgressiveRead {
+        /**
+         * Called once, before any full resolution rows are read
+         * @param raster the raster the image is read into, which is full size and holds a blown up low resolution
+         *               preview if the image is large. It belongs to the receiver from now on, even if reading fails.
+         * @throws InterruptedException if reading was cancelled
+         */
+        void started(Raster raster) throws InterruptedException;
+
+        /**
+         * Called for each band of full resolution rows, from the top. The receiver copies it into the raster,
+         * for example with {@link #copyBand(BufferedImage, Raster, int)}, before returning.
+         * @param band the rows read
+         * @param y the row of the raster the band starts at
+         * @param progress the fraction of the image read so far, from 0 to 1
+         * @throws InterruptedException if reading was cancelled
+         */
+        void band(BufferedImage band, int y, double progress) throws InterruptedException;
+    }
+    /**
+     * The compression level PNG files are written with, from 0 (none, fastest) to 9 (smallest, slowest)
+     */
+    private static int pngLevel = 6;
+
+    /**
+     * Check if a file looks like an image that can be read, going by its extension
+     * @param file the file
+     * @return true if it's a project file, a QOI or Netpbm file, or ImageIO has a reader for its extension
+     */
+    public static boolean canRead(File file) {
+        if(ProjectFile.isProject(file) || QoiCodec.isQoi(file) || NetpbmCodec.isNetpbm(file))
+            return true;
+        String name = file.getName();
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        return name.lastIndexOf('.') > 0 && ImageIO.getImageReadersBySuffix(extension).hasNext();
+    }
+
+    /**
+     * Read an image file into a new raster.
+     * Images are read in bands, see {@link #readBands(ImageReader, int, int, ProgressiveRead)}.
+     * @param file the file to read
+     * @return the raster holding the image
+     * @throws IOException if the file can't be read or isn't an image ImageIO understands, or the thread was interrupted
+     */
+    public static Raster read(File file) throws IOException {
+        if(ProjectFile.isProject(file))
+            return ProjectFile.open(file);
+        Raster direct = readDirect(file);
+        if(direct != null)
+            return direct;
+        try(ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if(input == null)
+                throw new IOException("Could not open " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if(!readers.hasNext())
+                throw new IOException("No reader for " + file);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                Raster raster = Raster.create(width, height);
+                try {
+                    readBands(reader, width, height, new ProgressiveRead() {
+                        @Override
+                        public void started(Raster raster) {
+                        }
+
+                        @Override
+                        public void band(BufferedImage band, int y, double progress) {
+                            // Copied one row at a time, so only the decoded band is held in memory as a whole
+                            copyBand(band, raster, y);
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    raster.dispose();
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Reading " + file + " was interrupted");
+                } catch (IOException | RuntimeException e) {
+                    raster.dispose();
+                    throw e;
+                }
+                if(raster instanceof TiledRaster)
+                    ((TiledRaster)raster).compact();
+                return raster;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Read an image file with one of the codecs that copy rows straight into the raster, if one handles it
+     * @param file the file to read
+     * @return the raster holding the image, or null if the file should be read with ImageIO instead
+     * @throws IOException if the file can't be read
+     */
+    private static Raster readDirect(File file) throws IOException {
+        if(QoiCodec.isQoi(file))
+            return QoiCodec.read(file);
+        if(NetpbmCodec.isNetpbm(file))
+            return NetpbmCodec.read(file);
+        // Returns null for palette and compressed BMP files, which ImageIO reads
+        if(BmpCodec.isBmp(file))
+            return BmpCodec.read(file);
+        return null;
+    }
+
+    /**
+     * Read an image file progressively. A subsampled preview is read first, so something can be shown almost
+     * immediately, then the full resolution rows are read in bands that replace it from the top.
+     * The bands are read as described in {@link #readBands(ImageReader, int, int, ProgressiveRead)}.
+     * Reading stops between bands if the thread is interrupted.
+     * @param file the file to read
+     * @param target what receives the image while it's read
+     * @throws IOException if the file can't be read or isn't an image ImageIO understands
+     * @throws InterruptedException if the reading thread was interrupted
+     */
+    public static void read(File file, ProgressiveRead target) throws IOException, InterruptedException {
+        // Projects only read the tiles that are used, so they open at once with nothing to fill in
+        if(ProjectFile.isProject(file)) {
+            target.started(ProjectFile.open(file));
+            return;
+        }
+        // These decode about as fast as the file can be read, so there's nothing to gain from a preview
+        Raster direct = readDirect(file);
+        if(direct != null) {
+            target.started(direct);
+            return;
+        }
+        try(ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if(input == null)
+                throw new IOException("Could not open " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if(!readers.hasNext())
+                throw new IOException("No reader for " + file);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                Raster raster = Raster.create(width, height);
+                try {
+                    // A thumbnail stored in the file is quickest. Otherwise only every step-th pixel of every step-th row
+                    // is read, which saves most of the work for formats that can skip rows. Images decoded in one go
+                    // fill in from the top soon enough, and a preview would be one more full decode.
+                    int step = (int)Math.ceil(Math.sqrt((double)width * height / PREVIEW_PIXELS));
+                    if(step > 1 && reader.hasThumbnails(0)) {
+                        drawPreview(reader.readThumbnail(0, 0), raster);
+                    }
+                    else if(step > 1 && !isReadOnce(reader, width, height)) {
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceSubsampling(step, step, 0, 0);
+                        drawPreview(reader.read(0, param), raster);
+                    }
+                    if(Thread.interrupted())
+                        throw new InterruptedException();
+                } catch (IOException | InterruptedException | RuntimeException e) {
+                    raster.dispose();
+                    throw e;
+                }
+                target.started(raster);
+                readBands(reader, width, height, target);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Read the full resolution rows of an image and hand them over in bands, from the top.
+     * Formats that can jump to a row, like BMP, are read a band at a time, so only one band is held in memory.
+     * Formats that can't, like PNG, would be decoded again from the start for every band, so they are decoded once
+     * and each band is handed over as its rows come in, unless the decoded image wouldn't fit in memory.
+     * Reading stops between bands if the thread is interrupted.
+     * @param reader the reader, with the file as its input
+     * @param width the width of the image
+     * @param height the height of the image
+     * @param target what receives the bands
+     * @throws IOException if the file can't be read
+     * @throws InterruptedException if the reading thread was interrupted
+     */
+    private static void readBands(ImageReader reader, int width, int height, ProgressiveRead target)
+            throws IOException, InterruptedException {
+        if(isReadOnce(reader, width, height)) {
+            BandListener listener = new BandListener(target, height, Math.max(1, UPDATE_PIXELS / width));
+            reader.addIIOReadUpdateListener(listener);
+            BufferedImage image;
+            try {
+                image = reader.read(0);
+            } finally {
+                reader.removeIIOReadUpdateListener(listener);
+            }
+            listener.finish(image);
+            return;
+        }
+        int bandRows = Math.max(1, BAND_PIXELS / width);
+        ImageReadParam param = reader.getDefaultReadParam();
+        for(int y = 0; y < height; y += bandRows) {
+            int rows = Math.min(bandRows, height - y);
+            if(rows < height)
+                param.setSourceRegion(new Rectangle(0, y, width, rows));
+            BufferedImage band = reader.read(0, param);
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            target.band(band, y, (double)(y + rows) / height);
+        }
+    }
+
+    /**
+     * Check if an image is decoded in one go instead of a band at a time
+     * @param reader the reader, with the file as its input
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return true if the format can't jump to a row and the decoded image fits comfortably in memory
+     * @throws IOException if the file can't be read
+     */
+    private static boolean isReadOnce(ImageReader reader, int width, int height) throws IOException {
+        return !reader.isRandomAccessEasy(0) && 4L * width * height <= Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Hands the rows of an image over in bands while a single read decodes them. Rows are only handed over as they
+     * come in during a first pass that decodes whole rows from the top. Images decoded in several passes, like
+     * interlaced or progressive ones, are handed over again once the read is done, so the last pass is what's kept.
+     * Called on the reading thread.
+     */
+    private static class BandListener implements IIOReadUpdateListener {
+        /**
+         * What receives the bands
+         */
+        private final ProgressiveRead target;
+        /**
+         * The height of the image
+         */
+        private final int height;
+        /**
+         * The number of rows handed over at a time
+         */
+        private final int bandRows;
+        /**
+         * The number of rows from the top that have been handed over
+         */
+        private int rowsSent;
+        /**
+         * Whether or not the pass being decoded fills in whole rows from the top
+         */
+        private boolean streaming;
+        /**
+         * Whether or not a pass after the first has been decoded, changing rows already handed over
+         */
+        private boolean refined;
+        /**
+         * Set if the read was cancelled while handing over a band
+         */
+        private InterruptedException cancelled;
+
+        /**
+         * Construct a listener
+         * @param target what receives the bands
+         * @param height the height of the image
+         * @param bandRows the number of rows to hand over at a time
+         */
+        BandListener(ProgressiveRead target, int height, int bandRows) {
+            this.target = target;
+            this.height = height;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage image, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+            streaming = pass == 0 && periodX == 1 && periodY == 1;
+            if(pass > 0)
+                refined = true;
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY, int w, int h,
+                                int periodX, int periodY, int[] bands) {
+            if(!streaming || cancelled != null || minY + h - rowsSent < bandRows)
+                return;
+            try {
+                send(image, minY + h);
+            } catch (InterruptedException e) {
+                cancelled = e;
+                source.abort();
+            }
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage image) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail, int pass, int minPass,
+                                         int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail, int minX, int minY, int w, int h,
+                                    int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail) {
+        }
+
+        /**
+         * Hand over the rest of the image once the read is done
+         * @param image the decoded image
+         * @throws InterruptedException if the read was cancelled
+         */
+        void finish(BufferedImage image) throws InterruptedException {
+            if(cancelled != null)
+                throw cancelled;
+            if(refined)
+                rowsSent = 0;
+            while(rowsSent < height)
+                send(image, Math.min(height, rowsSent + bandRows));
+        }
+
+        /**
+         * Hand over the rows decoded since the last band
+         * @param image the image being decoded
+         * @param rows the number of rows from the top that are decoded
+         * @throws InterruptedException if the read was cancelled
+         */
+        private void send(BufferedImage image, int rows) throws InterruptedException {
+            if(Thread.interrupted())
+                throw new InterruptedException();
+            target.band(image.getSubimage(0, rowsSent, image.getWidth(), rows - rowsSent), rowsSent, (double)rows / height);
+            rowsSent = rows;
+        }
+    }
+
+    /**
+     * Copy a band of rows read from a file into a raster, one row at a time
+     * @param band the rows read
+     * @param raster the raster to copy them to, which is as wide as the band
+     * @param y the row of the raster the band starts at
+     */
+    public static void copyBand(BufferedImage band, Raster raster, int y) {
+        int width = band.getWidth();
+        int[] row = new int[width];
+        for(int i = 0; i < band.getHeight(); i++) {
+            band.getRGB(0, i, width, 1, row, 0, width);
+            raster.setPixels(0, y + i, width, 1, row, 0, width);
+        }
+    }
+
+    /**
+     * Blow up a small preview to fill a raster, using the nearest preview pixel for each pixel. For internal use.
+     * @param preview the preview
+     * @param raster the full size raster
+     */
+    private static void drawPreview(BufferedImage preview, Raster raster) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int[] small = new int[preview.getWidth()];
+        int[] row = new int[width];
+        int lastY = -1;
+        for(int y = 0; y < height; y++) {
+            int py = (int)((long)y * preview.getHeight() / height);
+            // Rows that come from the same preview row are the same, so each is only worked out once
+            if(py != lastY) {
+                preview.getRGB(0, py, small.length, 1, small, 0, small.length);
+                for(int x = 0; x < width; x++)
+                    row[x] = small[(int)((long)x * small.length / width)];
+                lastY = py;
+            }
+            raster.setPixels(0, y, width, 1, row, 0, width);
+        }
+    }
+
+    /**
+     * Write a raster to an image file. Alpha is left out, so the file is always opaque,
+     * except in QOI, PAM and project files.
+     * @param raster the raster to write
+     * @param format the name of the format to write, like "png"
+     * @param file the file to write to
+     * @return true if there was a writer for the format
+     * @throws IOException if the file can't be written
+     */
+    public static boolean write(PixelSource raster, String format, File file) throws IOException {
+        return write(raster, format, file, null);
+    }
+
+    /**
+     * Write a raster to an image file and report how far along it is. Alpha is left out, so the file is always opaque,
+     * except in QOI, PAM and project files.
+     * @param raster the raster to write
+     * @param format the name of the format to write, like "png"
+     * @param file the file to write to
+     * @param progress given the fraction of the image written so far, from 0 to 1. May be null.
+     * @return true if there was a writer for the format
+     * @throws IOException if the file can't be written
+     */
+    public static boolean write(PixelSource raster, String format, File file, DoubleConsumer progress) throws IOException {
+        if(format.equalsIgnoreCase("png")) {
+            new PngWriter(pngLevel).write(raster, file, progress);
+            return true;
+        }
+        if(format.equalsIgnoreCase(ProjectFile.EXTENSION)) {
+            ProjectFile.write(raster, file, progress);
+            return true;
+        }
+        if(format.equalsIgnoreCase(QoiCodec.EXTENSION)) {
+            QoiCodec.write(raster, file, progress);
+            return true;
+        }
+        if(format.equalsIgnoreCase(BmpCodec.EXTENSION)) {
+            BmpCodec.write(raster, file, progress);
+            return true;
+        }
+        if(NetpbmCodec.canWrite(format)) {
+            NetpbmCodec.write(raster, format, file, progress);
+            return true;
+        }
+        return ImageIO.write(new RasterImage(raster, progress), format, file);
+    }
+
+    /**
+     * Set the compression level PNG files are written with
+     * @param level the level, from 0 (none, fastest) to 9 (smallest, slowest)
+     */
+    public static void setPngLevel(int level) {
+        pngLevel = Math.max(0, Math.min(9, level));
+    }
+
+    /**
+     * Get the compression level PNG files are written with
+     * @return the level, from 0 (none, fastest) to 9 (smallest, slowest)
+     */
+    public static int getPngLevel() {
+        return pngLevel;
+    }
+}
@@ -0,0 +1,138 @@
+package paint.util;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import paint.raster.BufferRaster;
+import paint.raster.MappedRaster;
+import paint.raster.Raster;
+
+/**
+ * Moves pixels between {@link Raster}s and JavaFX images and canvases.
+ * The buffers of a {@link BufferRaster} and {@link MappedRaster} are handed to JavaFX directly, so their pixels are
+ * not copied into an array first.
+ * @author Colin Braun
+ */
+public class RasterConverter {
+    /**
+     * The number of rows copied at a time for rasters whose pixels can't be handed to JavaFX directly
+     */
+    private static final int BAND_ROWS = 64;
+
+    /**
+     * Write part of a raster to a canvas or image, at the same position
+     * @param raster the raster to write from
+     * @param writer the writer of the canvas or image
+     * @param x the left-most x value of the area
+     * @param y the top-most y value of the area
+     * @param w the width of the area
+     * @param h the height of the area
+     */
+    public static void write(Raster raster, PixelWriter writer, int x, int y, int w, int h) {
+        write(raster, writer, x, y, w, h, x, y);
+    }
+
+    /**
+     * Write part of a raster to a canvas or image
+     * @param raster the raster to write from
+     * @param writer the writer of the canvas or image
+     * @param x the left-most x value of the area in the raster
+     * @param y the top-most y value of the area in the raster
+     * @param w the width of the area
+     * @param h the height of the area
+     * @param toX the x value in the canvas or image to write the area to
+     * @param toY the y value in the canvas or image to write the area to
+     */
+    public static void write(Raster raster, PixelWriter writer, int x, int y, int w, int h, int toX, int toY) {
+        if(w <= 0 || h <= 0)
+            return;
+        if(raster instanceof BufferRaster) {
+            writer.setPixels(toX, toY, w, h, PixelFormat.getIntArgbInstance(), ((BufferRaster)raster).getBuffer(x, y), raster.getWidth());
+            return;
+        }
+        if(raster instanceof MappedRaster) {
+            // Each segment's buffer only reaches to its last row, so the area is written one segment at a time
+            MappedRaster mapped = (MappedRaster)raster;
+            int segmentRows = mapped.getSegmentRows();
+            for(int row = 0; row < h; ) {
+                int rows = Math.min(h - row, segmentRows - (y + row) % segmentRows);
+                writer.setPixels(toX, toY + row, w, rows, PixelFormat.getIntArgbInstance(), mapped.getBuffer(x, y + row), raster.getWidth());
+                row += rows;
+            }
+            return;
+        }
+        int[] band = new int[w * Math.min(h, BAND_ROWS)];
+        for(int row = 0; row < h; row += BAND_ROWS) {
+            int rows = Math.min(BAND_ROWS, h - row);
+            raster.getPixels(x, y + row, w, rows, band, 0, w);
+            writer.setPixels(toX, toY + row, w, rows, PixelFormat.getIntArgbInstance(), band, 0, w);
+        }
+    }
+
+    /**
+     * Read part of a canvas or image into a raster, at the same position
+     * @param reader the reader of the canvas or image
+     * @param raster the raster to read into
+     * @param x the left-most x value of the area
+     * @param y the top-most y value of the area
+     * @param w the width of the area
+     * @param h the height of the area
+     */
+    public static void read(PixelReader reader, Raster raster, int x, int y, int w, int h) {
+        read(reader, x, y, raster, x, y, w, h);
+    }
+
+    /**
+     * Read part of a canvas or image into a raster
+     * @param reader the reader of the canvas or image
+     * @param fromX the left-most x value of the area in the canvas or image
+     * @param fromY the top-most y value of the area in the canvas or image
+     * @param raster the raster to read into
+     * @param x the x value in the raster to read the area to
+     * @param y the y value in the raster to read the area to
+     * @param w the width of the area
+     * @param h the height of the area
+     */
+    public static void read(PixelReader reader, int fromX, int fromY, Raster raster, int x, int y, int w, int h) {
+        if(w <= 0 || h <= 0)
+            return;
+        if(raster instanceof BufferRaster) {
+            reader.getPixels(fromX, fromY, w, h, PixelFormat.getIntArgbInstance(), ((BufferRaster)raster).getBuffer(x, y), raster.getWidth());
+            return;
+        }
+        int[] band = new int[w * Math.min(h, BAND_ROWS)];
+        for(int row = 0; row < h; row += BAND_ROWS) {
+            int rows = Math.min(BAND_ROWS, h - row);
+            reader.getPixels(fromX, fromY + row, w, rows, PixelFormat.getIntArgbInstance(), band, 0, w);
+            raster.setPixels(x, y + row, w, rows, band, 0, w);
+        }
+    }
+
+    /**
+     * Copy an image into a new raster
+     * @param image the image to copy
+     * @return the raster holding the image's pixels
+     */
+    public static Raster fromImage(Image image) {
+        Raster raster = new BufferRaster((int)image.getWidth(), (int)image.getHeight());
+        read(image.getPixelReader(), raster, 0, 0, raster.getWidth(), raster.getHeight());
+        return raster;
+    }
+
+    /**
+     * Copy part of a raster into a new image
+     * @param raster the raster to copy from
+     * @param x the left-most x value of the area
+     * @param y the top-most y value of the area
+     * @param w the width of the area
+     * @param h the height of the area
+     * @return the image holding the area's pixels
+     */
+    public static WritableImage toImage(Raster raster, int x, int y, int w, int h) {
+        WritableImage image = new WritableImage(w, h);
+        write(raster, image.getPixelWriter(), x, y, w, h, 0, 0);
+        return image;
+    }
+}
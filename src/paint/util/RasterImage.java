@@ -0,0 +1,188 @@
+package paint.util;
+
+import paint.raster.PixelSource;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.Vector;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Shows a {@link PixelSource}, like a raster, to ImageIO as an opaque RGB image, without copying it into a BufferedImage first.
+ * Image writers ask for the image a piece at a time, and only that piece is read out of the raster,
+ * so images too large to fit in one array can still be saved.
+ * @author Colin Braun
+ */
+public class RasterImage implements RenderedImage {
+    /**
+     * The width and height of the tiles the image says it is made of
+     */
+    private static final int TILE_SIZE = 256;
+    /**
+     * The raster holding the pixels
+     */
+    private final PixelSource raster;
+    /**
+     * How pixels are turned into colors. Alpha is left out, the same as saving from a TYPE_INT_RGB image.
+     */
+    private final ColorModel colorModel;
+    /**
+     * How the pixels of each tile are laid out, one int per pixel
+     */
+    private final SampleModel sampleModel;
+    /**
+     * Given the fraction of the image read so far each time a piece is read, or null
+     */
+    private final DoubleConsumer progress;
+    /**
+     * The number of pixels read so far
+     */
+    private long pixelsRead;
+
+    /**
+     * Default Constructor
+     * @param raster the raster to show as an image
+     */
+    public RasterImage(PixelSource raster) {
+        this(raster, null);
+    }
+
+    /**
+     * Construct an image that reports how much of it has been read, which is how far along a writer saving it is
+     * @param raster the raster to show as an image
+     * @param progress given the fraction of the image read so far each time a piece is read, from 0 to 1. May be null.
+     */
+    public RasterImage(PixelSource raster, DoubleConsumer progress) {
+        this.raster = raster;
+        this.progress = progress;
+        colorModel = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        sampleModel = colorModel.createCompatibleSampleModel(TILE_SIZE, TILE_SIZE);
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return raster.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return raster.getHeight();
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return (raster.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return (raster.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return TILE_SIZE;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return TILE_SIZE;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public java.awt.image.Raster getTile(int tileX, int tileY) {
+        return getData(new Rectangle(tileX * TILE_SIZE, tileY * TILE_SIZE, TILE_SIZE, TILE_SIZE));
+    }
+
+    /**
+     * Get the whole image at once. Only use this for images small enough to fit in one array.
+     * @return the pixels of the whole image
+     */
+    @Override
+    public java.awt.image.Raster getData() {
+        return getData(new Rectangle(0, 0, raster.getWidth(), raster.getHeight()));
+    }
+
+    /**
+     * Get part of the image, read out of the raster
+     * @param rect the part of the image to get, which is cut down to fit inside the image
+     * @return the pixels of that part of the image
+     */
+    @Override
+    public java.awt.image.Raster getData(Rectangle rect) {
+        Rectangle area = rect.intersection(new Rectangle(0, 0, raster.getWidth(), raster.getHeight()));
+        WritableRaster data = java.awt.image.Raster.createWritableRaster(
+                sampleModel.createCompatibleSampleModel(area.width, area.height), new Point(area.x, area.y));
+        int[] pixels = ((DataBufferInt)data.getDataBuffer()).getData();
+        raster.getPixels(area.x, area.y, area.width, area.height, pixels, 0, area.width);
+        if(progress != null) {
+            pixelsRead += (long)area.width * area.height;
+            progress.accept(Math.min(1, pixelsRead / ((double)raster.getWidth() * raster.getHeight())));
+        }
+        return data;
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster target) {
+        if(target == null)
+            target = colorModel.createCompatibleWritableRaster(raster.getWidth(), raster.getHeight());
+        Rectangle area = target.getBounds();
+        target.setRect(getData(area));
+        return target;
+    }
+}
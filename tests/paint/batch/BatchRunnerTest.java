@@ -0,0 +1,102 @@
+package paint.batch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import paint.raster.BufferRaster;
+import paint.raster.Raster;
+import paint.util.ImageFiles;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BatchRunnerTest {
+    /**
+     * Where the input and output files of each test go
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Write a small QOI image, making any missing directories
+     */
+    private static void writeImage(File file, int argb) throws Exception {
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        int[] pixels = new int[6 * 4];
+        Arrays.fill(pixels, argb);
+        assertTrue(ImageFiles.write(new BufferRaster(6, 4, pixels), "qoi", file));
+    }
+
+    /**
+     * Read the color of the top left pixel of an image file
+     */
+    private static int readColor(File file) throws Exception {
+        Raster raster = ImageFiles.read(file);
+        try {
+            return raster.getArgb(0, 0);
+        } finally {
+            raster.dispose();
+        }
+    }
+
+    @Test
+    public void directoriesKeepTheirLayoutInTheOutput() throws Exception {
+        File input = folder.newFolder("in");
+        File output = new File(folder.getRoot(), "out");
+        writeImage(new File(input, "a.qoi"), 0xFF000000);
+        writeImage(new File(input, "nested/deeper/b.qoi"), 0xFFFFFFFF);
+        Files.write(new File(input, "notes.txt").toPath(), new byte[] {1, 2, 3});
+        assertEquals(0, BatchRunner.run(new String[] {"--op", "invert", "--threads", "2", input.getPath(), output.getPath()}));
+        assertEquals(0xFFFFFFFF, readColor(new File(output, "a.qoi")));
+        assertEquals(0xFF000000, readColor(new File(output, "nested/deeper/b.qoi")));
+        assertFalse(new File(output, "notes.txt").exists());
+    }
+
+    @Test
+    public void formatChangesTheOutputExtension() throws Exception {
+        File image = new File(folder.getRoot(), "photo.qoi");
+        writeImage(image, 0xFF336699);
+        File output = new File(folder.getRoot(), "out");
+        assertEquals(0, BatchRunner.run(new String[] {"--format", "PNG", "--op", "resize=3x2:nearest", image.getPath(), output.getPath()}));
+        File written = new File(output, "photo.png");
+        assertTrue(written.isFile());
+        assertFalse(new File(output, "photo.qoi").exists());
+        Raster raster = ImageFiles.read(written);
+        assertEquals(3, raster.getWidth());
+        assertEquals(2, raster.getHeight());
+        assertEquals(0xFF336699, raster.getArgb(2, 1));
+        raster.dispose();
+    }
+
+    @Test
+    public void unreadableImagesFailTheRun() throws Exception {
+        File input = folder.newFolder("in");
+        writeImage(new File(input, "good.qoi"), 0xFF000000);
+        Files.write(new File(input, "broken.qoi").toPath(), new byte[] {1, 2, 3});
+        File output = new File(folder.getRoot(), "out");
+        assertEquals(1, BatchRunner.run(new String[] {input.getPath(), output.getPath()}));
+        assertTrue(new File(output, "good.qoi").isFile());
+        assertFalse(new File(output, "broken.qoi").exists());
+    }
+
+    @Test
+    public void nothingToDoIsNotAnError() throws Exception {
+        File input = folder.newFolder("empty");
+        assertEquals(0, BatchRunner.run(new String[] {input.getPath(), new File(folder.getRoot(), "out").getPath()}));
+    }
+
+    @Test
+    public void badArgumentsAreRejected() throws Exception {
+        String input = folder.newFolder("in").getPath();
+        String output = new File(folder.getRoot(), "out").getPath();
+        assertEquals(2, BatchRunner.run(new String[] {}));
+        assertEquals(2, BatchRunner.run(new String[] {input}));
+        assertEquals(2, BatchRunner.run(new String[] {"--op", "swirl", input, output}));
+        assertEquals(2, BatchRunner.run(new String[] {"--colour", "red", input, output}));
+        assertEquals(2, BatchRunner.run(new String[] {"--threads", "many", input, output}));
+        assertEquals(2, BatchRunner.run(new String[] {input, output, "--op"}));
+    }
+}
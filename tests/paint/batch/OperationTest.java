@@ -0,0 +1,100 @@
+package paint.batch;
+
+import org.junit.Test;
+import paint.constant.ResampleMode;
+import paint.filter.GaussianBlur;
+import paint.filter.Resampler;
+import paint.raster.BufferRaster;
+import paint.raster.Raster;
+import paint.raster.TiledRaster;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OperationTest {
+
+    /**
+     * Make the pixels of an image of random colors
+     */
+    private static int[] randomPixels(int width, int height) {
+        Random random = new Random(width * 31 + height);
+        int[] pixels = new int[width * height];
+        for(int i = 0; i < pixels.length; i++)
+            pixels[i] = random.nextInt();
+        return pixels;
+    }
+
+    /**
+     * Check an operation throws IllegalArgumentException when parsed
+     */
+    private static void assertRejected(String text) {
+        try {
+            Operation.parse(text);
+            fail("Parsed " + text);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void invertFlipsEveryColorChannel() {
+        Raster raster = new BufferRaster(3, 1, new int[] {0xFF000000, 0x80FFFFFF, 0xFF123456});
+        Raster result = Operation.parse("INVERT").apply(raster);
+        assertSame(raster, result);
+        assertArrayEquals(new int[] {0xFFFFFFFF, 0x80000000, 0xFFEDCBA9}, result.readAll());
+    }
+
+    @Test
+    public void resizeDefaultsToBicubic() {
+        int[] pixels = randomPixels(40, 30);
+        Raster result = Operation.parse("resize=25x60").apply(new BufferRaster(40, 30, pixels));
+        assertEquals(25, result.getWidth());
+        assertEquals(60, result.getHeight());
+        assertArrayEquals(Resampler.resample(pixels, 40, 30, 25, 60, ResampleMode.BICUBIC), result.readAll());
+    }
+
+    @Test
+    public void resizeModesAreParsed() {
+        int[] pixels = randomPixels(40, 30);
+        String[] names = {"nearest", "BILINEAR", "bicubic", "lanczos", "lanczos3"};
+        ResampleMode[] modes = {ResampleMode.NEAREST, ResampleMode.BILINEAR, ResampleMode.BICUBIC, ResampleMode.LANCZOS3, ResampleMode.LANCZOS3};
+        for(int i = 0; i < names.length; i++) {
+            Raster result = Operation.parseResize("17X19:" + names[i]).apply(new BufferRaster(40, 30, pixels));
+            assertArrayEquals(names[i], Resampler.resample(pixels, 40, 30, 17, 19, modes[i]), result.readAll());
+        }
+    }
+
+    @Test
+    public void blurRunsTheFilterOverTheWholeImage() {
+        int[] pixels = randomPixels(50, 20);
+        Raster result = Operation.parse("blur=2.5").apply(new BufferRaster(50, 20, pixels));
+        int[] expected = pixels.clone();
+        new GaussianBlur(2.5).apply(expected, 50, 20);
+        assertArrayEquals(expected, result.readAll());
+    }
+
+    @Test
+    public void everyListedOperationParses() {
+        for(String text : new String[] {"invert", "resize=10x10", "blur=3", "sharpen=1.5", "edges", "emboss"})
+            assertNotNull(text, Operation.parse(text));
+    }
+
+    @Test
+    public void badOperationsAreRejected() {
+        assertRejected("posterize");
+        assertRejected("blur=");
+        assertRejected("sharpen=lots");
+        assertRejected("resize=100");
+        assertRejected("resize=0x10");
+        assertRejected("resize=10x-1");
+        assertRejected("resize=axb");
+        assertRejected("resize=10x10:cubic");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void filtersRefuseImagesTooLargeForOneArray() {
+        // Blank tiled rasters take no memory, so this never allocates the image
+        Operation.parse("edges").apply(new TiledRaster(1 << 14, 1 << 13));
+    }
+}
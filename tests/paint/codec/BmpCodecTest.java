@@ -0,0 +1,103 @@
+package paint.codec;
+
+import org.junit.Test;
+import paint.raster.Raster;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class BmpCodecTest {
+    /**
+     * Make a temp file for a BMP image
+     */
+    private static File tempFile() throws Exception {
+        return CodecTests.tempFile("bmp-codec-test", BmpCodec.EXTENSION);
+    }
+
+    /**
+     * Write a hand made 32 bit file with a BITMAPINFOHEADER and no bit masks
+     */
+    private static void write32BitFile(File file, int width, int storedHeight, int[] rows) throws Exception {
+        ByteBuffer bytes = ByteBuffer.allocate(54 + 4 * rows.length).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put((byte)'B').put((byte)'M').putInt(bytes.capacity()).putInt(0).putInt(54);
+        bytes.putInt(40).putInt(width).putInt(storedHeight).putShort((short)1).putShort((short)32)
+                .putInt(0).putInt(4 * rows.length).putInt(2835).putInt(2835).putInt(0).putInt(0);
+        for(int pixel : rows)
+            bytes.putInt(pixel);
+        try(FileOutputStream output = new FileOutputStream(file)) {
+            output.write(bytes.array());
+        }
+    }
+
+    /**
+     * Check a written image reads back with the same colors. BMP files are written without alpha.
+     */
+    private static void assertRoundTrip(int width, int height) throws Exception {
+        Raster image = CodecTests.randomImage(width, height);
+        File file = tempFile();
+        BmpCodec.write(image, file, null);
+        Raster read = BmpCodec.read(file);
+        assertEquals(width, read.getWidth());
+        assertEquals(height, read.getHeight());
+        assertArrayEquals(CodecTests.opaque(image), read.readAll());
+        file.delete();
+    }
+
+    @Test
+    public void writtenImagesReadBackOpaqueWithTheSameColors() throws Exception {
+        assertRoundTrip(64, 40);
+    }
+
+    @Test
+    public void rowsThatNeedPaddingReadBack() throws Exception {
+        // 24 bit rows of these widths are 3, 6 and 9 bytes before padding
+        assertRoundTrip(1, 3);
+        assertRoundTrip(2, 5);
+        assertRoundTrip(3, 7);
+        assertRoundTrip(101, 9);
+    }
+
+    @Test
+    public void rowsAreStoredBottomUpAndPadded() throws Exception {
+        Raster image = Raster.create(1, 2);
+        image.fill(0, 0, 1, 1, 0xFF112233);
+        image.fill(0, 1, 1, 1, 0xFF445566);
+        File file = tempFile();
+        BmpCodec.write(image, file, null);
+        // 54 header bytes, then two 3 byte rows padded to 4
+        assertEquals(54 + 8, file.length());
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertEquals(0x66, bytes[54] & 0xFF);
+        assertEquals(0x33, bytes[58] & 0xFF);
+        file.delete();
+    }
+
+    @Test
+    public void topDown32BitFilesAreRead() throws Exception {
+        File file = tempFile();
+        // A negative height puts the top row first. Without bit masks the fourth byte isn't alpha.
+        write32BitFile(file, 2, -2, new int[] {0x00112233, 0x00445566, 0x7F778899, 0x00AABBCC});
+        int[] expected = {0xFF112233, 0xFF445566, 0xFF778899, 0xFFAABBCC};
+        assertArrayEquals(expected, BmpCodec.read(file).readAll());
+        file.delete();
+    }
+
+    @Test
+    public void palettedFilesAreLeftToImageIO() throws Exception {
+        File file = tempFile();
+        ByteBuffer bytes = ByteBuffer.allocate(54 + 8 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put((byte)'B').put((byte)'M').putInt(bytes.capacity()).putInt(0).putInt(62);
+        bytes.putInt(40).putInt(1).putInt(1).putShort((short)1).putShort((short)1)
+                .putInt(0).putInt(4).putInt(2835).putInt(2835).putInt(2).putInt(0);
+        try(FileOutputStream output = new FileOutputStream(file)) {
+            output.write(bytes.array());
+        }
+        assertNull(BmpCodec.read(file));
+        file.delete();
+    }
+}
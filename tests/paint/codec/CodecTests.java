@@ -0,0 +1,72 @@
+package paint.codec;
+
+import paint.raster.Raster;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Images and files shared by the codec tests
+ */
+final class CodecTests {
+
+    private CodecTests() {
+    }
+
+    /**
+     * Get the random numbers an image of a size is made from, so each size always gets the same image
+     */
+    static Random random(int width, int height) {
+        return new Random(width * 31 + height);
+    }
+
+    /**
+     * Make an image of random pixels, including see-through ones
+     */
+    static Raster randomImage(int width, int height) {
+        Random random = random(width, height);
+        int[] pixels = new int[width * height];
+        for(int i = 0; i < pixels.length; i++)
+            pixels[i] = random.nextInt();
+        return image(width, height, pixels);
+    }
+
+    /**
+     * Make an image holding some pixels
+     */
+    static Raster image(int width, int height, int[] pixels) {
+        Raster raster = Raster.create(width, height);
+        raster.writeAll(pixels);
+        return raster;
+    }
+
+    /**
+     * Get the pixels of an image as a format without alpha reads them back
+     */
+    static int[] opaque(Raster raster) {
+        int[] pixels = raster.readAll();
+        for(int i = 0; i < pixels.length; i++)
+            pixels[i] |= 0xFF000000;
+        return pixels;
+    }
+
+    /**
+     * Check two images have the same size and pixels, including alpha
+     */
+    static void assertSamePixels(Raster expected, Raster actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertArrayEquals(expected.readAll(), actual.readAll());
+    }
+
+    /**
+     * Make a temp file that is deleted when the tests end
+     */
+    static File tempFile(String prefix, String extension) throws Exception {
+        File file = File.createTempFile(prefix, "." + extension);
+        file.deleteOnExit();
+        return file;
+    }
+}
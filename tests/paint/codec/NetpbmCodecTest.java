@@ -0,0 +1,83 @@
+package paint.codec;
+
+import org.junit.Test;
+import paint.raster.Raster;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class NetpbmCodecTest {
+    /**
+     * Make a temp file for a Netpbm image
+     */
+    private static File tempFile(String extension) throws Exception {
+        return CodecTests.tempFile("netpbm-codec-test", extension);
+    }
+
+    /**
+     * Write a hand made file, a text header followed by samples
+     */
+    private static void writeFile(File file, String header, int... samples) throws Exception {
+        try(FileOutputStream output = new FileOutputStream(file)) {
+            output.write(header.getBytes(StandardCharsets.US_ASCII));
+            for(int sample : samples)
+                output.write(sample);
+        }
+    }
+
+    @Test
+    public void pamFilesKeepEveryPixelIncludingAlpha() throws Exception {
+        Raster image = CodecTests.randomImage(123, 45);
+        File file = tempFile(NetpbmCodec.PAM_EXTENSION);
+        NetpbmCodec.write(image, NetpbmCodec.PAM_EXTENSION, file, null);
+        CodecTests.assertSamePixels(image, NetpbmCodec.read(file));
+        file.delete();
+    }
+
+    @Test
+    public void ppmFilesKeepTheColorsAndReadBackOpaque() throws Exception {
+        Raster image = CodecTests.randomImage(77, 31);
+        File file = tempFile(NetpbmCodec.PPM_EXTENSION);
+        NetpbmCodec.write(image, NetpbmCodec.PPM_EXTENSION, file, null);
+        assertArrayEquals(CodecTests.opaque(image), NetpbmCodec.read(file).readAll());
+        file.delete();
+    }
+
+    @Test
+    public void onlyPamAndPpmCanBeWritten() {
+        assertTrue(NetpbmCodec.canWrite("pam"));
+        assertTrue(NetpbmCodec.canWrite("PPM"));
+        assertFalse(NetpbmCodec.canWrite("pgm"));
+        assertFalse(NetpbmCodec.canWrite("pnm"));
+    }
+
+    @Test
+    public void pgmFilesReadAsGray() throws Exception {
+        File file = tempFile("pgm");
+        writeFile(file, "P5\n# a comment\n3 1\n255\n", 0, 0x80, 0xFF);
+        int[] expected = {0xFF000000, 0xFF808080, 0xFFFFFFFF};
+        assertArrayEquals(expected, NetpbmCodec.read(file).readAll());
+        file.delete();
+    }
+
+    @Test
+    public void sixteenBitSamplesAreScaledDown() throws Exception {
+        File file = tempFile("pgm");
+        writeFile(file, "P5 3 1 65535\n", 0, 0, 0x80, 0x00, 0xFF, 0xFF);
+        int[] expected = {0xFF000000, 0xFF808080, 0xFFFFFFFF};
+        assertArrayEquals(expected, NetpbmCodec.read(file).readAll());
+        file.delete();
+    }
+
+    @Test
+    public void grayAlphaPamFilesAreRead() throws Exception {
+        File file = tempFile(NetpbmCodec.PAM_EXTENSION);
+        writeFile(file, "P7\nWIDTH 2\nHEIGHT 1\nDEPTH 2\nMAXVAL 255\nTUPLTYPE GRAYSCALE_ALPHA\nENDHDR\n", 0x40, 0x80, 0xFF, 0);
+        int[] expected = {0x80404040, 0x00FFFFFF};
+        assertArrayEquals(expected, NetpbmCodec.read(file).readAll());
+        file.delete();
+    }
+}
@@ -0,0 +1,53 @@
+package paint.codec;
+
+import org.junit.Test;
+import paint.raster.Raster;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PngWriterTest {
+
+    /**
+     * Write an image with the PNG writer and check ImageIO reads back the same pixels, without alpha
+     */
+    private static void assertRoundTrip(int width, int height, int level, long seed) throws Exception {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for(int i = 0; i < pixels.length; i++)
+            pixels[i] = random.nextInt(3) == 0 ? random.nextInt() : (i > 0 ? pixels[i - 1] : 0);
+        Raster raster = CodecTests.image(width, height, pixels);
+        File file = CodecTests.tempFile("png-writer-test", "png");
+        double[] progress = {0};
+        new PngWriter(level).write(raster, file, fraction -> {
+            assertTrue(fraction >= progress[0]);
+            progress[0] = fraction;
+        });
+        assertEquals(1.0, progress[0], 0);
+        BufferedImage image = ImageIO.read(file);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        int[] read = image.getRGB(0, 0, width, height, null, 0, width);
+        for(int i = 0; i < pixels.length; i++)
+            assertEquals(pixels[i] | 0xFF000000, read[i]);
+        file.delete();
+    }
+
+    @Test
+    public void smallImagesRoundTrip() throws Exception {
+        assertRoundTrip(1, 1, 6, 1);
+        assertRoundTrip(3, 5, 0, 2);
+        assertRoundTrip(17, 2, 9, 3);
+    }
+
+    @Test
+    public void imagesSplitIntoManyChunksRoundTrip() throws Exception {
+        // Tall enough to be compressed in several pieces in parallel
+        assertRoundTrip(1200, 1000, 6, 4);
+        assertRoundTrip(2000, 301, 1, 5);
+    }
+}
@@ -0,0 +1,126 @@
+package paint.codec;
+
+import org.junit.Test;
+import paint.raster.Raster;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ProjectFileTest {
+    /**
+     * The size of the tiles in a project file
+     */
+    private static final int TILE = ProjectFile.TILE_SIZE;
+    /**
+     * The size of the test images, 3 tiles across and 2 down with partial tiles on the right and bottom
+     */
+    private static final int WIDTH = 2 * TILE + 44, HEIGHT = TILE + 72;
+
+    /**
+     * Make an image with noisy tiles and tiles that are a single color, so both kinds of index entry are used
+     */
+    private static Raster makeImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                boolean plain = (x / TILE + y / TILE) % 2 == 0;
+                pixels[y * width + x] = plain ? (int)seed : random.nextInt();
+            }
+        }
+        return CodecTests.image(width, height, pixels);
+    }
+
+    /**
+     * Make a temp file for a project
+     */
+    private static File tempFile() throws Exception {
+        return CodecTests.tempFile("project-file-test", ProjectFile.EXTENSION);
+    }
+
+    @Test
+    public void writtenProjectsOpenWithTheSamePixels() throws Exception {
+        Raster image = makeImage(WIDTH, HEIGHT, 1);
+        File file = tempFile();
+        ProjectFile.write(image, file, null);
+        ProjectRaster opened = ProjectFile.open(file);
+        assertEquals(0, opened.getLoadedTileCount());
+        CodecTests.assertSamePixels(image, opened);
+        opened.dispose();
+        file.delete();
+    }
+
+    @Test
+    public void updatesOnlyAddToTheFileSoOpenRastersKeepTheirImage() throws Exception {
+        Raster before = makeImage(WIDTH, HEIGHT, 2);
+        File file = tempFile();
+        ProjectFile.write(before, file, null);
+        ProjectRaster opened = ProjectFile.open(file);
+        assertTrue(ProjectFile.isOpen(file));
+
+        Raster after = makeImage(WIDTH, HEIGHT, 2);
+        after.fill(0, 0, 10, 10, 0xFF00FF00);
+        after.fill(2 * TILE + 4, TILE + 22, 40, 50, 0x80123456);
+        BitSet changed = new BitSet();
+        changed.set(0);
+        changed.set(5);
+        long length = file.length();
+        assertTrue(ProjectFile.update(after, file, changed, null));
+        assertTrue(file.length() > length);
+
+        // Nothing was read before the update, so every tile comes from the file as it is now
+        CodecTests.assertSamePixels(before, opened);
+        ProjectRaster reopened = ProjectFile.open(file);
+        CodecTests.assertSamePixels(after, reopened);
+        reopened.dispose();
+        opened.dispose();
+        assertFalse(ProjectFile.isOpen(file));
+        file.delete();
+    }
+
+    @Test
+    public void updatesOfAnotherSizeWriteEveryTile() throws Exception {
+        File file = tempFile();
+        ProjectFile.write(makeImage(WIDTH, HEIGHT, 3), file, null);
+        Raster smaller = makeImage(TILE + 2, TILE + 1, 4);
+        assertTrue(ProjectFile.update(smaller, file, new BitSet(), null));
+        ProjectRaster reopened = ProjectFile.open(file);
+        CodecTests.assertSamePixels(smaller, reopened);
+        reopened.dispose();
+        file.delete();
+    }
+
+    @Test
+    public void updatesOfOtherFilesAreRefused() throws Exception {
+        File file = tempFile();
+        try(FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[200]);
+        }
+        assertFalse(ProjectFile.update(makeImage(10, 10, 5), file, null, null));
+        assertEquals(200, file.length());
+        file.delete();
+    }
+
+    @Test
+    public void compactingDropsGarbageAndKeepsTheImage() throws Exception {
+        File file = tempFile();
+        ProjectFile.write(makeImage(WIDTH, HEIGHT, 6), file, null);
+        long written = file.length();
+        Raster latest = null;
+        for(int seed = 7; seed < 10; seed++) {
+            latest = makeImage(WIDTH, HEIGHT, seed);
+            assertTrue(ProjectFile.update(latest, file, null, null));
+        }
+        assertTrue(file.length() > 3 * written);
+        ProjectFile.compact(file);
+        assertTrue(file.length() <= written);
+        ProjectRaster reopened = ProjectFile.open(file);
+        CodecTests.assertSamePixels(latest, reopened);
+        reopened.dispose();
+        file.delete();
+    }
+}
@@ -0,0 +1,96 @@
+package paint.codec;
+
+import org.junit.Test;
+import paint.raster.Raster;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QoiCodecTest {
+    /**
+     * Make an image with noise, small color steps, see-through pixels and runs longer than one run op can hold
+     */
+    private static Raster makeImage(int width, int height) {
+        Random random = CodecTests.random(width, height);
+        int[] pixels = new int[width * height];
+        int color = 0xFF808080;
+        for(int i = 0; i < pixels.length; i++) {
+            switch(i / 97 % 4) {
+                case 0:
+                    pixels[i] = random.nextInt();
+                    break;
+                case 1:
+                    // Steps small enough for the diff and luma ops
+                    color = (color & 0xFF000000) | ((color + 0x010203 * (i % 3)) & 0x00FFFFFF);
+                    pixels[i] = color;
+                    break;
+                case 2:
+                    pixels[i] = 0x40123456;
+                    break;
+                default:
+                    pixels[i] = i % 2 == 0 ? 0xFF000000 : 0;
+                    break;
+            }
+        }
+        return CodecTests.image(width, height, pixels);
+    }
+
+    /**
+     * Make a temp file for a QOI image
+     */
+    private static File tempFile() throws Exception {
+        return CodecTests.tempFile("qoi-codec-test", QoiCodec.EXTENSION);
+    }
+
+    @Test
+    public void writtenImagesReadBackWithTheSamePixelsAndAlpha() throws Exception {
+        Raster image = makeImage(301, 67);
+        File file = tempFile();
+        QoiCodec.write(image, file, null);
+        CodecTests.assertSamePixels(image, QoiCodec.read(file));
+        file.delete();
+    }
+
+    @Test
+    public void runsLongerThanOneOpAndAcrossRowsReadBack() throws Exception {
+        Raster image = Raster.create(150, 3);
+        image.fill(0, 0, 150, 3, 0x7F00FF00);
+        image.fill(149, 2, 1, 1, 0xFFFFFFFF);
+        File file = tempFile();
+        QoiCodec.write(image, file, null);
+        // 450 pixels are 1 rgba op, 8 run ops and 1 rgb op, so the file stays tiny
+        assertTrue(file.length() < 14 + 20 + 8);
+        assertArrayEquals(image.readAll(), QoiCodec.read(file).readAll());
+        file.delete();
+    }
+
+    @Test
+    public void filesFromOtherEncodersAreRead() throws Exception {
+        File file = tempFile();
+        try(FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[] {'q', 'o', 'i', 'f', 0, 0, 0, 5, 0, 0, 0, 1, 4, 0});
+            // rgba(10, 20, 30, 40), a run of 2, a diff of +1 on each channel, then the first color from the index
+            output.write(new byte[] {(byte)0xFF, 10, 20, 30, 40, (byte)0xC1, (byte)0x7F, 12});
+            output.write(new byte[] {0, 0, 0, 0, 0, 0, 0, 1});
+        }
+        int[] expected = {0x280A141E, 0x280A141E, 0x280A141E, 0x280B151F, 0x280A141E};
+        assertArrayEquals(expected, QoiCodec.read(file).readAll());
+        file.delete();
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void otherFilesAreRefused() throws Exception {
+        File file = tempFile();
+        try(FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[20]);
+        }
+        try {
+            QoiCodec.read(file);
+        } finally {
+            file.delete();
+        }
+    }
+}
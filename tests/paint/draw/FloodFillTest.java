@@ -0,0 +1,106 @@
+package paint.draw;
+
+import org.junit.Test;
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+import paint.raster.SelectionMask;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FloodFillTest {
+
+    /**
+     * Fill the same region as a flood fill one pixel at a time, to check the scanline fill against
+     */
+    private static boolean[] referenceFill(int[] pixels, int width, int height, int x, int y, int tolerance) {
+        boolean[] filled = new boolean[pixels.length];
+        int target = pixels[y * width + x];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(y * width + x);
+        filled[y * width + x] = true;
+        while(!queue.isEmpty()) {
+            int i = queue.poll();
+            int px = i % width, py = i / width;
+            int[][] neighbors = {{px - 1, py}, {px + 1, py}, {px, py - 1}, {px, py + 1}};
+            for(int[] n : neighbors) {
+                if(n[0] < 0 || n[1] < 0 || n[0] >= width || n[1] >= height)
+                    continue;
+                int j = n[1] * width + n[0];
+                if(!filled[j] && FloodFill.matches(pixels[j], target, tolerance)) {
+                    filled[j] = true;
+                    queue.add(j);
+                }
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * Make an image of a few colors in blobs, so regions have holes and winding edges
+     */
+    private static int[] blobs(int width, int height, Random random) {
+        int[] pixels = new int[width * height];
+        int[] colors = {0xFFFFFFFF, 0xFF000000, 0xFF808080, 0xFF828282};
+        for(int i = 0; i < pixels.length; i++) {
+            int x = i % width, y = i / width;
+            pixels[i] = random.nextInt(4) == 0 ? colors[random.nextInt(colors.length)]
+                    : (x > 0 ? pixels[i - 1] : y > 0 ? pixels[i - width] : colors[0]);
+        }
+        return pixels;
+    }
+
+    @Test
+    public void fillsTheSameRegionAsAPixelByPixelFill() {
+        Random random = new Random(1);
+        for(int test = 0; test < 50; test++) {
+            int width = 1 + random.nextInt(150), height = 1 + random.nextInt(80);
+            int[] pixels = blobs(width, height, random);
+            Raster raster = Raster.create(width, height);
+            raster.writeAll(pixels);
+            int x = random.nextInt(width), y = random.nextInt(height);
+            int tolerance = random.nextBoolean() ? 0 : 4;
+            boolean[] expected = referenceFill(pixels, width, height, x, y, tolerance);
+
+            FloodFill fill = new FloodFill(raster, tolerance);
+            DirtyRect bounds = fill.find(x, y);
+            SelectionMask mask = fill.getMask();
+            fill.paint(0xFFFF0000);
+            int[] result = raster.readAll();
+            for(int i = 0; i < pixels.length; i++) {
+                int px = i % width, py = i / width;
+                assertEquals(expected[i], mask.contains(px, py));
+                assertEquals(expected[i] ? 0xFFFF0000 : pixels[i], result[i]);
+                if(expected[i])
+                    assertTrue(bounds.contains(new DirtyRect(px, py, 1, 1)));
+            }
+            DirtyRect maskBounds = mask.getBounds();
+            assertEquals(bounds.getX(), maskBounds.getX());
+            assertEquals(bounds.getY(), maskBounds.getY());
+            assertEquals(bounds.getWidth(), maskBounds.getWidth());
+            assertEquals(bounds.getHeight(), maskBounds.getHeight());
+        }
+    }
+
+    @Test
+    public void toleranceIncludesSimilarColors() {
+        Raster raster = Raster.create(3, 1);
+        raster.writeAll(new int[] {0xFF808080, 0xFF828282, 0xFF909090});
+        FloodFill exact = new FloodFill(raster, 0);
+        assertEquals(1, exact.find(0, 0).getWidth());
+        FloodFill close = new FloodFill(raster, 2);
+        assertEquals(2, close.find(0, 0).getWidth());
+        FloodFill loose = new FloodFill(raster, 16);
+        assertEquals(3, loose.find(0, 0).getWidth());
+    }
+
+    @Test
+    public void outsideTheImageFillsNothing() {
+        Raster raster = Raster.create(4, 4);
+        FloodFill fill = new FloodFill(raster, 0);
+        assertTrue(fill.find(-1, 2).isEmpty());
+        assertTrue(fill.getMask().isEmpty());
+    }
+}
@@ -0,0 +1,123 @@
+package paint.draw;
+
+import javafx.scene.canvas.GraphicsContext;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FreeDrawTest {
+
+    /**
+     * A free drawing that keeps the points it would stroke instead of drawing them, so no window is needed
+     */
+    private static class RecordedDraw extends FreeDraw {
+        /**
+         * The points of the last path stroked
+         */
+        private double[] strokedX = new double[0], strokedY = new double[0];
+
+        /**
+         * Make a drawing through some points, as if the mouse was dragged through them
+         */
+        private RecordedDraw(double[] xs, double[] ys) {
+            super(xs[0], ys[0]);
+            for(int i = 1; i < xs.length; i++)
+                setEnd(xs[i], ys[i]);
+        }
+
+        @Override
+        protected void strokePath(GraphicsContext context, double[] xPoints, double[] yPoints, int count) {
+            strokedX = Arrays.copyOf(xPoints, count);
+            strokedY = Arrays.copyOf(yPoints, count);
+        }
+
+        /**
+         * Get the points drawFinal would stroke, as x then y arrays
+         */
+        private double[][] getPath() {
+            drawFinal(null);
+            return new double[][] {strokedX, strokedY};
+        }
+    }
+
+    /**
+     * Find the distance from a point to the nearest segment of a path
+     */
+    private static double distanceToPath(double x, double y, double[][] path) {
+        double nearest = Double.MAX_VALUE;
+        for(int i = 0; i + 1 < path[0].length; i++) {
+            double dx = path[0][i + 1] - path[0][i], dy = path[1][i + 1] - path[1][i];
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((x - path[0][i]) * dx + (y - path[1][i]) * dy) / lengthSquared));
+            nearest = Math.min(nearest, Math.hypot(x - path[0][i] - t * dx, y - path[1][i] - t * dy));
+        }
+        return nearest;
+    }
+
+    @Test
+    public void straightLinesKeepOnlyTheirEnds() {
+        double[] xs = new double[100], ys = new double[100];
+        for(int i = 0; i < xs.length; i++) {
+            xs[i] = 3 + 2 * i;
+            ys[i] = 7 + i;
+        }
+        RecordedDraw draw = new RecordedDraw(xs, ys);
+        draw.simplify(0.5);
+        assertEquals(2, draw.getPointCount());
+        double[][] path = draw.getPath();
+        assertArrayEquals(new double[] {3, 201}, path[0], 0);
+        assertArrayEquals(new double[] {7, 106}, path[1], 0);
+    }
+
+    @Test
+    public void simplifiedPathsStayWithinTheToleranceOfEveryPoint() {
+        Random random = new Random(1);
+        double[] xs = new double[500], ys = new double[500];
+        for(int i = 0; i < xs.length; i++) {
+            // A wobbly circle, so plenty of points can go but not all of them
+            double angle = i * 2 * Math.PI / xs.length;
+            xs[i] = 200 + 150 * Math.cos(angle) + random.nextDouble();
+            ys[i] = 200 + 150 * Math.sin(angle) + random.nextDouble();
+        }
+        double tolerance = 1.5;
+        RecordedDraw draw = new RecordedDraw(xs, ys);
+        draw.simplify(tolerance);
+        assertTrue(draw.getPointCount() < xs.length / 4);
+        assertTrue(draw.getPointCount() > 4);
+        double[][] path = draw.getPath();
+        assertEquals(xs[0], path[0][0], 0);
+        assertEquals(ys[ys.length - 1], path[1][path[1].length - 1], 0);
+        for(int i = 0; i < xs.length; i++)
+            assertTrue("Point " + i + " is too far from the path", distanceToPath(xs[i], ys[i], path) <= tolerance + 1e-9);
+    }
+
+    @Test
+    public void cornersFartherThanTheToleranceAreKept() {
+        double[] xs = {0, 10, 20, 30, 40}, ys = {0, 5, 0, 5, 0};
+        RecordedDraw draw = new RecordedDraw(xs, ys);
+        draw.simplify(2);
+        double[][] path = draw.getPath();
+        assertArrayEquals(xs, path[0], 0);
+        assertArrayEquals(ys, path[1], 0);
+    }
+
+    @Test
+    public void shortPathsAreLeftAlone() {
+        RecordedDraw draw = new RecordedDraw(new double[] {1, 5}, new double[] {2, 9});
+        draw.simplify(100);
+        assertEquals(2, draw.getPointCount());
+    }
+
+    @Test
+    public void simplifiedPathsAreAlreadyDrawnSoNoIncrementIsLeft() {
+        RecordedDraw draw = new RecordedDraw(new double[] {0, 1, 2, 3, 4}, new double[] {0, 0, 0, 0, 0});
+        draw.simplify(0.1);
+        draw.getPath();
+        double[][] before = {draw.strokedX, draw.strokedY};
+        draw.drawIncrement(null);
+        assertSame(before[0], draw.strokedX);
+    }
+}
@@ -0,0 +1,55 @@
+package paint.filter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static paint.filter.FilterTests.*;
+
+public class ConvolutionTest {
+
+    /**
+     * Convolve an image one pixel at a time, with the weights rounded to 1/256 like the filter does
+     */
+    private static int[] referenceConvolve(int[] pixels, int width, int height, double[] kernel, int bias) {
+        int[] result = new int[pixels.length];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x] & 0xFF000000;
+                for(int c = 0; c < 3; c++) {
+                    double sum = 0;
+                    for(int k = 0; k < 9; k++)
+                        sum += Math.round(kernel[k] * 256) / 256.0 * channel(clamped(pixels, width, height, x + k % 3 - 1, y + k / 3 - 1), c);
+                    int value = (int)Math.floor(sum) + bias;
+                    pixel |= Math.max(0, Math.min(255, value)) << (8 * c);
+                }
+                result[y * width + x] = pixel;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void embossMatchesAPixelByPixelConvolution() {
+        int width = 67, height = 45;
+        int[] pixels = randomPixels(width, height, 1);
+        double[] kernel = {-2, -1, 0, -1, 1, 1, 0, 1, 2};
+        int[] expected = referenceConvolve(pixels, width, height, kernel, 0);
+        Convolution.emboss().apply(pixels, width, height);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void fractionalKernelsMatchAPixelByPixelConvolution() {
+        int width = 50, height = 70;
+        int[] pixels = randomPixels(width, height, 2);
+        double[] kernel = {0.1, 0.15, 0.1, 0.15, 0.0, 0.15, 0.1, 0.15, 0.1};
+        int[] expected = referenceConvolve(pixels, width, height, kernel, 12);
+        new Convolution(kernel, 12).apply(pixels, width, height);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void kernelsMustBeThreeByThree() {
+        new Convolution(new double[4], 0);
+    }
+}
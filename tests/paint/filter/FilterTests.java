@@ -0,0 +1,55 @@
+package paint.filter;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Images and checks shared by the filter tests
+ */
+final class FilterTests {
+
+    private FilterTests() {
+    }
+
+    /**
+     * Make the pixels of an image of random colors and alpha
+     */
+    static int[] randomPixels(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for(int i = 0; i < pixels.length; i++)
+            pixels[i] = random.nextInt();
+        return pixels;
+    }
+
+    /**
+     * Get one channel of a pixel, where 0 is blue, 1 green, 2 red and 3 alpha
+     */
+    static int channel(int pixel, int channel) {
+        return (pixel >>> (8 * channel)) & 0xFF;
+    }
+
+    /**
+     * Read a pixel of an image, repeating the edge pixels past the edge like the filters do
+     */
+    static int clamped(int[] pixels, int width, int height, int x, int y) {
+        x = Math.max(0, Math.min(width - 1, x));
+        y = Math.max(0, Math.min(height - 1, y));
+        return pixels[y * width + x];
+    }
+
+    /**
+     * Check every channel of every pixel is within a tolerance of the expected value
+     */
+    static void assertClose(int[] expected, int[] actual, int tolerance) {
+        assertEquals(expected.length, actual.length);
+        for(int i = 0; i < expected.length; i++) {
+            for(int c = 0; c < 4; c++) {
+                int difference = Math.abs(channel(expected[i], c) - channel(actual[i], c));
+                if(difference > tolerance)
+                    fail("Channel " + c + " of pixel " + i + " is off by " + difference);
+            }
+        }
+    }
+}
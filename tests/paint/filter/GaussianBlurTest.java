@@ -0,0 +1,120 @@
+package paint.filter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static paint.filter.FilterTests.*;
+
+public class GaussianBlurTest {
+
+    /**
+     * Blur an image with a true Gaussian kernel one pixel at a time, to check the box blur approximation against
+     */
+    private static int[] referenceBlur(int[] pixels, int width, int height, double sigma) {
+        int reach = (int)Math.ceil(3 * sigma);
+        double[] weights = new double[2 * reach + 1];
+        double total = 0;
+        for(int i = -reach; i <= reach; i++)
+            total += weights[i + reach] = Math.exp(-i * i / (2 * sigma * sigma));
+        for(int i = 0; i < weights.length; i++)
+            weights[i] /= total;
+        int[] result = new int[pixels.length];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int pixel = 0;
+                for(int c = 0; c < 4; c++) {
+                    double sum = 0;
+                    for(int j = -reach; j <= reach; j++) {
+                        for(int i = -reach; i <= reach; i++)
+                            sum += weights[i + reach] * weights[j + reach] * channel(clamped(pixels, width, height, x + i, y + j), c);
+                    }
+                    pixel |= (int)Math.round(sum) << (8 * c);
+                }
+                result[y * width + x] = pixel;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Average a box of pixels in each row one pixel at a time, to check the running sum against
+     */
+    private static int[] referenceBoxRows(int[] pixels, int width, int height, int boxRadius) {
+        int[] result = new int[pixels.length];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int pixel = 0;
+                for(int c = 0; c < 4; c++) {
+                    int sum = 0;
+                    for(int i = -boxRadius; i <= boxRadius; i++)
+                        sum += channel(clamped(pixels, width, height, x + i, y), c);
+                    pixel |= Math.round((float)sum / (2 * boxRadius + 1)) << (8 * c);
+                }
+                result[y * width + x] = pixel;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Swap the rows and columns of an image
+     */
+    private static int[] transpose(int[] pixels, int width, int height) {
+        int[] result = new int[pixels.length];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++)
+                result[x * height + y] = pixels[y * width + x];
+        }
+        return result;
+    }
+
+    @Test
+    public void boxPassesMatchAPixelByPixelAverage() {
+        int width = 53, height = 31;
+        int[] pixels = randomPixels(width, height, 4);
+        for(int boxRadius = 1; boxRadius <= 6; boxRadius++) {
+            int[] rows = new int[pixels.length];
+            GaussianBlur.blurRows(pixels, rows, width, 0, height, boxRadius);
+            assertClose(referenceBoxRows(pixels, width, height, boxRadius), rows, 1);
+            int[] columns = new int[pixels.length];
+            GaussianBlur.blurColumns(pixels, columns, width, height, 0, width, boxRadius);
+            int[] expected = transpose(referenceBoxRows(transpose(pixels, width, height), height, width, boxRadius), height, width);
+            assertClose(expected, columns, 1);
+        }
+    }
+
+    @Test
+    public void blurIsCloseToATrueGaussian() {
+        int width = 60, height = 48;
+        // Smooth enough that the difference between a Gaussian and three box blurs stays small
+        int[] pixels = new int[width * height];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++)
+                pixels[y * width + x] = 0xFF000000 | ((x * 4) & 0xFF) << 16 | ((y * 5) & 0xFF) << 8 | ((x + y) * 2);
+        }
+        for(double sigma : new double[] {1, 2.5, 4}) {
+            int[] blurred = pixels.clone();
+            new GaussianBlur(sigma).apply(blurred, width, height);
+            assertClose(referenceBlur(pixels, width, height, sigma), blurred, 6);
+        }
+    }
+
+    @Test
+    public void flatImagesStayFlat() {
+        int[] pixels = new int[30 * 20];
+        Arrays.fill(pixels, 0x80FF4020);
+        new GaussianBlur(3).apply(pixels, 30, 20);
+        for(int pixel : pixels)
+            assertEquals(0x80FF4020, pixel);
+    }
+
+    @Test
+    public void zeroRadiusChangesNothing() {
+        int[] pixels = randomPixels(20, 10, 5);
+        int[] original = pixels.clone();
+        new GaussianBlur(0).apply(pixels, 20, 10);
+        assertArrayEquals(original, pixels);
+    }
+}
@@ -0,0 +1,84 @@
+package paint.filter;
+
+import org.junit.Test;
+import paint.constant.ResampleMode;
+import paint.raster.BufferRaster;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static paint.filter.FilterTests.*;
+
+public class ResamplerTest {
+
+    /**
+     * Pairs of source and output sizes covering shrinking, growing and keeping the size
+     */
+    private static final int[][] SIZES = {{100, 37}, {37, 100}, {64, 64}, {1, 9}, {9, 1}, {301, 3}};
+
+    @Test
+    public void weightsAddUpToOneForEveryOutputPixel() {
+        for(ResampleMode mode : ResampleMode.values()) {
+            for(int[] size : SIZES) {
+                Resampler.WeightTable table = Resampler.weights(size[0], size[1], mode);
+                for(int i = 0; i < size[1]; i++) {
+                    int total = 0;
+                    for(int k = i * table.window; k < (i + 1) * table.window; k++) {
+                        assertTrue(table.indexes[k] >= 0 && table.indexes[k] < size[0]);
+                        total += table.weights[k];
+                    }
+                    assertEquals(mode + " " + size[0] + " to " + size[1], 1 << 14, total);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void flatImagesStayFlat() {
+        int[] pixels = new int[45 * 30];
+        Arrays.fill(pixels, 0x7F20C0FF);
+        for(ResampleMode mode : ResampleMode.values()) {
+            for(int[] size : new int[][] {{13, 90}, {100, 7}, {45, 30}}) {
+                int[] resized = Resampler.resample(pixels, 45, 30, size[0], size[1], mode);
+                assertEquals(size[0] * size[1], resized.length);
+                for(int pixel : resized)
+                    assertEquals(mode.toString(), 0x7F20C0FF, pixel);
+            }
+        }
+    }
+
+    @Test
+    public void nearestPicksTheClosestSourcePixel() {
+        int[] pixels = {1, 2, 3, 4};
+        assertArrayEquals(new int[] {1, 1, 2, 2, 3, 3, 4, 4}, Resampler.resample(pixels, 4, 1, 8, 1, ResampleMode.NEAREST));
+        assertArrayEquals(new int[] {2, 4}, Resampler.resample(pixels, 4, 1, 2, 1, ResampleMode.NEAREST));
+    }
+
+    @Test
+    public void rasterAndArrayResizesAgree() {
+        int[] pixels = randomPixels(83, 61, 7);
+        for(ResampleMode mode : ResampleMode.values()) {
+            for(int[] size : new int[][] {{40, 150}, {120, 20}}) {
+                BufferRaster target = new BufferRaster(size[0], size[1]);
+                Resampler.resample(new BufferRaster(83, 61, pixels.clone()), target, mode);
+                int[] expected = Resampler.resample(pixels, 83, 61, size[0], size[1], mode);
+                int[] actual = new int[expected.length];
+                target.getPixels(0, 0, size[0], size[1], actual, 0, size[0]);
+                assertArrayEquals(mode.toString(), expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void rasterResizesSplitIntoBandsAgreeWithArrayResizes() {
+        // More source pixels than fit in one band, so the raster is resized in several bands
+        int width = 1024, height = 4500;
+        int[] pixels = randomPixels(width, height, 8);
+        BufferRaster target = new BufferRaster(300, 1700);
+        Resampler.resample(new BufferRaster(width, height, pixels.clone()), target, ResampleMode.BICUBIC);
+        int[] expected = Resampler.resample(pixels, width, height, 300, 1700, ResampleMode.BICUBIC);
+        int[] actual = new int[expected.length];
+        target.getPixels(0, 0, 300, 1700, actual, 0, 300);
+        assertArrayEquals(expected, actual);
+    }
+}
@@ -0,0 +1,54 @@
+package paint.filter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static paint.filter.FilterTests.*;
+
+public class SobelEdgeDetectTest {
+
+    /**
+     * Run both 3x3 Sobel kernels on the brightness of each pixel directly, to check the separable filter against
+     */
+    private static int[] referenceSobel(int[] pixels, int width, int height) {
+        int[] luma = new int[pixels.length];
+        for(int i = 0; i < pixels.length; i++)
+            luma[i] = (77 * channel(pixels[i], 2) + 150 * channel(pixels[i], 1) + 29 * channel(pixels[i], 0)) >> 8;
+        int[] kernelX = {-1, 0, 1, -2, 0, 2, -1, 0, 1};
+        int[] kernelY = {-1, -2, -1, 0, 0, 0, 1, 2, 1};
+        int[] result = new int[pixels.length];
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int gx = 0, gy = 0;
+                for(int k = 0; k < 9; k++) {
+                    int value = clamped(luma, width, height, x + k % 3 - 1, y + k / 3 - 1);
+                    gx += kernelX[k] * value;
+                    gy += kernelY[k] * value;
+                }
+                int magnitude = Math.min(255, (int)Math.sqrt(gx * gx + gy * gy));
+                result[y * width + x] = (pixels[y * width + x] & 0xFF000000) | magnitude * 0x010101;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void matchesThePixelByPixelSobelOperator() {
+        int width = 81, height = 39;
+        int[] pixels = randomPixels(width, height, 3);
+        int[] expected = referenceSobel(pixels, width, height);
+        new SobelEdgeDetect().apply(pixels, width, height);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void flatImagesHaveNoEdges() {
+        int[] pixels = new int[40 * 40];
+        Arrays.fill(pixels, 0xFF336699);
+        new SobelEdgeDetect().apply(pixels, 40, 40);
+        for(int pixel : pixels)
+            assertEquals(0xFF000000, pixel);
+    }
+}
@@ -0,0 +1,40 @@
+package paint.filter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static paint.filter.FilterTests.*;
+
+public class UnsharpMaskTest {
+
+    @Test
+    public void addsBackTheDifferenceFromTheBlurredImage() {
+        int width = 44, height = 37;
+        double amount = 0.7;
+        int[] pixels = randomPixels(width, height, 6);
+        int[] blurred = pixels.clone();
+        new GaussianBlur(2).apply(blurred, width, height);
+        int[] expected = new int[pixels.length];
+        for(int i = 0; i < pixels.length; i++) {
+            expected[i] = pixels[i] & 0xFF000000;
+            for(int c = 0; c < 3; c++) {
+                int original = channel(pixels[i], c);
+                long value = Math.round(original + amount * (original - channel(blurred[i], c)));
+                expected[i] |= Math.max(0, Math.min(255, (int)value)) << (8 * c);
+            }
+        }
+        new UnsharpMask(2, amount).apply(pixels, width, height);
+        assertArrayEquals(expected, pixels);
+    }
+
+    @Test
+    public void flatImagesStayFlat() {
+        int[] pixels = new int[25 * 25];
+        Arrays.fill(pixels, 0xFF7F3F1F);
+        new UnsharpMask(3, 2).apply(pixels, 25, 25);
+        for(int pixel : pixels)
+            assertEquals(0xFF7F3F1F, pixel);
+    }
+}
@@ -0,0 +1,128 @@
+package paint.history;
+
+import org.junit.Test;
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+import paint.raster.RasterSnapshot;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AutoSaveJournalTest {
+    /**
+     * Make an image of random pixels, over several journal tiles with partial ones on the right and bottom
+     */
+    private static Raster makeImage(Random random) {
+        Raster raster = Raster.create(600, 300);
+        int[] pixels = new int[600 * 300];
+        for(int i = 0; i < pixels.length; i++)
+            pixels[i] = random.nextInt();
+        raster.writeAll(pixels);
+        return raster;
+    }
+
+    /**
+     * Change an area of the image, tell the journal, and write a checkpoint
+     */
+    private static void editAndCheckpoint(AutoSaveJournal journal, Raster raster, DirtyRect area, int color, File openedFile) {
+        raster.fill(area.getX(), area.getY(), area.getWidth(), area.getHeight(), color);
+        journal.markChanged(area);
+        journal.checkpoint(new RasterSnapshot(raster), openedFile, () -> {});
+        journal.flush();
+    }
+
+    /**
+     * Add bytes to the end of a file
+     */
+    private static void append(File file, byte... bytes) throws Exception {
+        try(FileOutputStream output = new FileOutputStream(file, true)) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Make a journal file name that doesn't exist yet and is deleted when the tests end
+     */
+    private static File journalFile() throws Exception {
+        File file = File.createTempFile("auto-save-journal-test", ".journal");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void recoversTheLastCommittedCheckpointAndPath() throws Exception {
+        File file = journalFile();
+        Random random = new Random(1);
+        Raster raster = makeImage(random);
+        AutoSaveJournal journal = new AutoSaveJournal(file);
+        journal.reset(raster);
+        journal.checkpoint(new RasterSnapshot(raster), null, () -> {});
+        journal.flush();
+        editAndCheckpoint(journal, raster, new DirtyRect(10, 10, 40, 40), 0xFF112233, null);
+        File saved = new File("saved-image.png");
+        editAndCheckpoint(journal, raster, new DirtyRect(500, 200, 100, 100), 0x80FF0000, saved);
+        int[] committed = raster.readAll();
+        // A tile record cut off by a crash, which must not change anything
+        append(file, new byte[] {2, 0, 0, 0, 0, 0, 0});
+
+        AutoSaveJournal.Recovered recovered = AutoSaveJournal.recover(file);
+        assertNotNull(recovered);
+        assertArrayEquals(committed, recovered.getRaster().readAll());
+        assertEquals(saved.getAbsoluteFile(), recovered.getOpenedFile());
+        assertFalse(recovered.isDamaged());
+        journal.delete();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void tilesAfterTheLastCommitAreIgnored() throws Exception {
+        File file = journalFile();
+        Raster raster = makeImage(new Random(2));
+        AutoSaveJournal journal = new AutoSaveJournal(file);
+        journal.reset(raster);
+        journal.checkpoint(new RasterSnapshot(raster), null, () -> {});
+        journal.flush();
+        int[] committed = raster.readAll();
+        editAndCheckpoint(journal, raster, new DirtyRect(0, 0, 600, 300), 0xFF00FF00, null);
+        // Cut the last checkpoint's commit marker off, as if it never finished
+        try(RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+            access.setLength(access.length() - 1);
+        }
+        AutoSaveJournal.Recovered recovered = AutoSaveJournal.recover(file);
+        assertArrayEquals(committed, recovered.getRaster().readAll());
+        assertNull(recovered.getOpenedFile());
+        journal.delete();
+    }
+
+    @Test
+    public void damagedJournalsAreReportedAndRecoveredUpToTheDamage() throws Exception {
+        File file = journalFile();
+        Raster raster = makeImage(new Random(3));
+        AutoSaveJournal journal = new AutoSaveJournal(file);
+        journal.reset(raster);
+        journal.checkpoint(new RasterSnapshot(raster), null, () -> {});
+        journal.flush();
+        int[] committed = raster.readAll();
+        append(file, (byte)99);
+        AutoSaveJournal.Recovered recovered = AutoSaveJournal.recover(file);
+        assertArrayEquals(committed, recovered.getRaster().readAll());
+        assertTrue(recovered.isDamaged());
+        journal.delete();
+    }
+
+    @Test
+    public void journalsWithoutACommitRecoverNothing() throws Exception {
+        File file = journalFile();
+        assertNull(AutoSaveJournal.recover(file));
+        try(FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[] {0x50, 0x4A, 0x4E, 0x4C, 0, 0, 0, 1, 1, 0, 0, 0, 8, 0, 0, 0, 8, 0, 0});
+        }
+        assertNull(AutoSaveJournal.recover(file));
+        file.delete();
+    }
+}
@@ -0,0 +1,44 @@
+package paint.history;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpillStoreTest {
+
+    @Test
+    public void readsBackWhatWasWritten() throws Exception {
+        SpillStore store = new SpillStore();
+        byte[] first = {1, 2, 3};
+        byte[] second = {4, 5, 6, 7};
+        long firstOffset = store.write(first);
+        long secondOffset = store.write(second);
+        assertArrayEquals(first, store.read(firstOffset, first.length));
+        assertArrayEquals(second, store.read(secondOffset, second.length));
+    }
+
+    @Test
+    public void reusesFreedSpace() throws Exception {
+        SpillStore store = new SpillStore();
+        long first = store.write(new byte[100]);
+        long second = store.write(new byte[50]);
+        store.write(new byte[30]);
+        store.free(second, 50);
+        assertEquals(second, store.write(new byte[40]));
+        assertEquals(180, store.getLength());
+        assertEquals(0, first);
+    }
+
+    @Test
+    public void shrinksWhenTheEndIsFreed() throws Exception {
+        SpillStore store = new SpillStore();
+        long first = store.write(new byte[100]);
+        long second = store.write(new byte[50]);
+        long third = store.write(new byte[30]);
+        store.free(second, 50);
+        store.free(third, 30);
+        assertEquals(100, store.getLength());
+        store.free(first, 100);
+        assertEquals(0, store.getLength());
+    }
+}
@@ -0,0 +1,159 @@
+package paint.history;
+
+import org.junit.Test;
+import paint.raster.DirtyRect;
+import paint.raster.Raster;
+
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class UndoHistoryTest {
+
+    /**
+     * Make an edit that changes every pixel of an image and record it
+     */
+    private static void randomEdit(UndoHistory history, Raster raster, Random random) {
+        int[] before = raster.readAll();
+        int[] after = before.clone();
+        for(int i = 0; i < after.length; i++)
+            after[i] = random.nextInt();
+        raster.writeAll(after);
+        history.record(before, after, raster.getWidth(), raster.getHeight());
+    }
+
+    /**
+     * Wait for the background thread to finish spilling and get the store it spilled to
+     */
+    private static SpillStore getStore(UndoHistory history) throws Exception {
+        Thread.sleep(500);
+        Field field = UndoHistory.class.getDeclaredField("store");
+        field.setAccessible(true);
+        return (SpillStore)field.get(history);
+    }
+
+    @Test
+    public void undoesSpilledEdits() throws Exception {
+        Raster raster = Raster.create(300, 200);
+        UndoHistory history = new UndoHistory(0, 0);
+        history.reset(raster);
+        Random random = new Random(1);
+        int[] original = raster.readAll();
+        randomEdit(history, raster, random);
+        int[] edited = raster.readAll();
+        randomEdit(history, raster, random);
+        assertTrue(getStore(history).getLength() > 0);
+        assertNotNull(history.undo(raster, null));
+        assertArrayEquals(edited, raster.readAll());
+        assertNotNull(history.undo(raster, null));
+        assertArrayEquals(original, raster.readAll());
+    }
+
+    @Test
+    public void dropsEditsThatCantBeReadBack() throws Exception {
+        Raster raster = Raster.create(300, 200);
+        UndoHistory history = new UndoHistory(0, 0);
+        history.reset(raster);
+        Random random = new Random(2);
+        for(int i = 0; i < 3; i++)
+            randomEdit(history, raster, random);
+        SpillStore store = getStore(history);
+        Field field = SpillStore.class.getDeclaredField("access");
+        field.setAccessible(true);
+        RandomAccessFile access = (RandomAccessFile)field.get(store);
+        byte[] junk = new byte[(int)access.length()];
+        random.nextBytes(junk);
+        access.seek(0);
+        access.write(junk);
+
+        int[] current = raster.readAll();
+        assertNull(history.undo(raster, null));
+        assertArrayEquals(current, raster.readAll());
+        assertTrue(history.getAppliedEntries().isEmpty());
+        assertEquals(0, store.getLength());
+    }
+
+    @Test
+    public void newEditsFreeTheEditsTheyReplace() throws Exception {
+        Raster raster = Raster.create(300, 200);
+        UndoHistory history = new UndoHistory(0, 0);
+        history.reset(raster);
+        Random random = new Random(3);
+        for(int i = 0; i < 3; i++)
+            randomEdit(history, raster, random);
+        SpillStore store = getStore(history);
+        long spilled = store.getLength();
+        history.undo(raster, null);
+        history.undo(raster, null);
+        int[] before = raster.readAll();
+        int[] after = before.clone();
+        after[0] ^= 1;
+        raster.writeAll(after);
+        history.record(before, after, raster.getWidth(), raster.getHeight());
+        getStore(history);
+        assertTrue(store.getLength() < spilled);
+    }
+
+    @Test
+    public void undoingAResizeSwapsTheOldImageBackWithItsEdits() throws Exception {
+        Raster raster = Raster.create(300, 200);
+        UndoHistory history = new UndoHistory();
+        history.reset(raster);
+        Raster[] shown = {raster};
+        List<Raster> disposed = new ArrayList<>();
+        history.addReplaceListener(replacement -> shown[0] = replacement);
+        history.setDisposer(disposed::add);
+        Random random = new Random(4);
+        int[] original = raster.readAll();
+        randomEdit(history, raster, random);
+        int[] edited = raster.readAll();
+
+        Raster resized = Raster.create(150, 100);
+        history.replace(raster, resized);
+        assertSame(resized, shown[0]);
+        randomEdit(history, resized, random);
+        int[] resizedEdited = resized.readAll();
+
+        history.undo(resized, null);
+        DirtyRect area = history.undo(resized, null);
+        assertEquals(300, area.getWidth());
+        assertEquals(200, area.getHeight());
+        assertSame(raster, shown[0]);
+        assertArrayEquals(edited, raster.readAll());
+        history.undo(raster, null);
+        assertArrayEquals(original, raster.readAll());
+
+        history.redo(raster, null);
+        history.redo(raster, null);
+        assertSame(resized, shown[0]);
+        history.redo(resized, null);
+        assertArrayEquals(resizedEdited, resized.readAll());
+        assertTrue(disposed.isEmpty());
+    }
+
+    @Test
+    public void droppedResizesGiveUpTheImageThatIsntShown() throws Exception {
+        Raster raster = Raster.create(30, 20);
+        UndoHistory history = new UndoHistory();
+        history.reset(raster);
+        List<Raster> disposed = new ArrayList<>();
+        history.setDisposer(disposed::add);
+        Raster resized = Raster.create(15, 10);
+        history.replace(raster, resized);
+        history.undo(resized, null);
+        // A new edit on the old image means the resize can't be redone
+        randomEdit(history, raster, new Random(5));
+        assertEquals(Collections.singletonList(resized), disposed);
+
+        Raster again = Raster.create(60, 40);
+        history.replace(raster, again);
+        history.reset(again);
+        assertEquals(Arrays.asList(resized, raster), disposed);
+    }
+}
@@ -0,0 +1,116 @@
+package paint.raster;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RasterSnapshotTest {
+
+    /**
+     * Fill a raster with random pixels
+     */
+    private static void randomize(Raster raster, Random random) {
+        int[] pixels = new int[raster.getWidth() * raster.getHeight()];
+        for(int i = 0; i < pixels.length; i++)
+            pixels[i] = random.nextInt();
+        raster.writeAll(pixels);
+    }
+
+    /**
+     * Read every pixel of a snapshot
+     */
+    private static int[] read(RasterSnapshot snapshot) {
+        int[] pixels = new int[snapshot.getWidth() * snapshot.getHeight()];
+        snapshot.getPixels(0, 0, snapshot.getWidth(), snapshot.getHeight(), pixels, 0, snapshot.getWidth());
+        return pixels;
+    }
+
+    /**
+     * Make random edits to a raster, capturing each area in the snapshot first
+     */
+    private static void editRandomly(Raster raster, RasterSnapshot snapshot, Random random) {
+        for(int edit = 0; edit < 30; edit++) {
+            int x = random.nextInt(raster.getWidth());
+            int y = random.nextInt(raster.getHeight());
+            DirtyRect area = new DirtyRect(x, y, 1 + random.nextInt(raster.getWidth() - x), 1 + random.nextInt(raster.getHeight() - y));
+            snapshot.capture(area);
+            if(random.nextBoolean())
+                raster.fill(area.getX(), area.getY(), area.getWidth(), area.getHeight(), random.nextInt());
+            else
+                raster.map(area.getX(), area.getY(), area.getWidth(), area.getHeight(), argb -> ~argb);
+        }
+    }
+
+    @Test
+    public void snapshotsKeepThePixelsFromBeforeEdits() {
+        Random random = new Random(10);
+        for(Raster raster : new Raster[] {new BufferRaster(301, 190), new TiledRaster(301, 190)}) {
+            randomize(raster, random);
+            int[] before = raster.readAll();
+            RasterSnapshot snapshot = new RasterSnapshot(raster);
+            editRandomly(raster, snapshot, random);
+            assertArrayEquals(before, read(snapshot));
+            for(int i = 0; i < 200; i++) {
+                int x = random.nextInt(301), y = random.nextInt(190);
+                assertEquals(before[y * 301 + x], snapshot.getArgb(x, y));
+            }
+            snapshot.release();
+        }
+    }
+
+    @Test
+    public void singleColorAreasSurviveEdits() {
+        Random random = new Random(11);
+        TiledRaster raster = new TiledRaster(700, 400);
+        raster.fill(0, 0, 700, 400, 0xFF808080);
+        raster.fill(130, 140, 20, 30, 0xFF0000FF);
+        int[] before = raster.readAll();
+        RasterSnapshot snapshot = new RasterSnapshot(raster);
+        editRandomly(raster, snapshot, random);
+        assertArrayEquals(before, read(snapshot));
+        snapshot.release();
+    }
+
+    @Test
+    public void unchangedAreasAreReadFromTheOriginal() {
+        BufferRaster raster = new BufferRaster(200, 200);
+        RasterSnapshot snapshot = new RasterSnapshot(raster);
+        assertSame(raster, snapshot.getSource());
+        // Changes made without capturing show through, since nothing was copied for them
+        raster.setArgb(150, 150, 0xFF123456);
+        assertEquals(0xFF123456, snapshot.getArgb(150, 150));
+        snapshot.capture(new DirtyRect(0, 0, 10, 10));
+        raster.setArgb(5, 5, 0xFF654321);
+        assertEquals(0, snapshot.getArgb(5, 5));
+        snapshot.release();
+    }
+
+    @Test
+    public void capturingTwiceKeepsTheFirstCopy() {
+        BufferRaster raster = new BufferRaster(64, 64);
+        RasterSnapshot snapshot = new RasterSnapshot(raster);
+        snapshot.capture(new DirtyRect(10, 10, 1, 1));
+        raster.setArgb(10, 10, 0xFFFFFFFF);
+        snapshot.capture(new DirtyRect(0, 0, 64, 64));
+        assertEquals(0, snapshot.getArgb(10, 10));
+        snapshot.release();
+    }
+
+    @Test(timeout = 60000)
+    public void editsOverTheBudgetWaitForTheSnapshotToBeReleased() throws InterruptedException {
+        int size = 4200;
+        TiledRaster raster = new TiledRaster(size, size);
+        randomize(raster, new Random(12));
+        RasterSnapshot snapshot = new RasterSnapshot(raster);
+        Thread editor = new Thread(() -> snapshot.capture(new DirtyRect(0, 0, size, size)));
+        editor.start();
+        editor.join(2000);
+        assertTrue("capture should wait once it has copied more than the budget", editor.isAlive());
+        snapshot.release();
+        editor.join();
+        // Released snapshots copy nothing more
+        snapshot.capture(new DirtyRect(0, 0, size, size));
+    }
+}
@@ -0,0 +1,136 @@
+package paint.raster;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SelectionMaskTest {
+    /**
+     * The area the random masks are made in, which starts left of x = 0 and off a word boundary
+     */
+    private static final DirtyRect AREA = new DirtyRect(-70, -5, 230, 40);
+
+    /**
+     * Make a mask of random runs, along with which pixels of the area it selects
+     */
+    private static SelectionMask randomMask(Random random, boolean[] selected) {
+        int left = AREA.getX() + random.nextInt(100);
+        int top = AREA.getY() + random.nextInt(20);
+        DirtyRect area = new DirtyRect(left, top, 1 + random.nextInt(AREA.getMaxX() - left), 1 + random.nextInt(AREA.getMaxY() - top));
+        SelectionMask mask = new SelectionMask(area);
+        for(int runs = random.nextInt(40); runs > 0; runs--) {
+            int y = area.getY() + random.nextInt(area.getHeight());
+            int start = area.getX() + random.nextInt(area.getWidth());
+            int end = start + random.nextInt(area.getMaxX() - start + 1);
+            mask.add(y, start, end);
+            for(int x = start; x < end; x++)
+                selected[index(x, y)] = true;
+        }
+        return mask;
+    }
+
+    /**
+     * Get where a pixel is in an array covering the area
+     */
+    private static int index(int x, int y) {
+        return (y - AREA.getY()) * AREA.getWidth() + x - AREA.getX();
+    }
+
+    /**
+     * Check a mask selects exactly the pixels of the area that are expected, and nothing outside it
+     */
+    private static void assertSelects(boolean[] expected, SelectionMask mask) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for(int y = AREA.getY() - 2; y < AREA.getMaxY() + 2; y++) {
+            for(int x = AREA.getX() - 70; x < AREA.getMaxX() + 70; x++) {
+                boolean inside = x >= AREA.getX() && x < AREA.getMaxX() && y >= AREA.getY() && y < AREA.getMaxY();
+                boolean want = inside && expected[index(x, y)];
+                assertEquals("pixel " + x + ", " + y, want, mask.contains(x, y));
+                if(want) {
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+        }
+        DirtyRect bounds = mask.getBounds();
+        if(minX == Integer.MAX_VALUE) {
+            assertTrue(mask.isEmpty());
+            assertTrue(bounds.isEmpty());
+            return;
+        }
+        assertEquals(minX, bounds.getX());
+        assertEquals(minY, bounds.getY());
+        assertEquals(maxX + 1, bounds.getMaxX());
+        assertEquals(maxY + 1, bounds.getMaxY());
+    }
+
+    @Test
+    public void setOperationsMatchPixelByPixel() {
+        Random random = new Random(1);
+        int size = AREA.getWidth() * AREA.getHeight();
+        for(int test = 0; test < 200; test++) {
+            boolean[] a = new boolean[size], b = new boolean[size];
+            SelectionMask maskA = randomMask(random, a);
+            SelectionMask maskB = randomMask(random, b);
+            boolean[] union = new boolean[size], intersection = new boolean[size], difference = new boolean[size];
+            for(int i = 0; i < size; i++) {
+                union[i] = a[i] || b[i];
+                intersection[i] = a[i] && b[i];
+                difference[i] = a[i] && !b[i];
+            }
+            assertSelects(a, maskA);
+            assertSelects(union, maskA.union(maskB));
+            assertSelects(intersection, maskA.intersect(maskB));
+            assertSelects(difference, maskA.subtract(maskB));
+            assertSelects(a, maskA.trim());
+        }
+    }
+
+    @Test
+    public void runsCoverExactlyTheSelectedPixels() {
+        Random random = new Random(2);
+        int size = AREA.getWidth() * AREA.getHeight();
+        for(int test = 0; test < 100; test++) {
+            boolean[] a = new boolean[size];
+            SelectionMask mask = randomMask(random, a);
+            boolean[] seen = new boolean[size];
+            int[] lastEnd = {Integer.MIN_VALUE, Integer.MIN_VALUE};
+            mask.forEachRun((y, startX, endX) -> {
+                assertTrue(startX < endX);
+                // Runs are as long as they can be, so two never touch
+                if(lastEnd[0] == y)
+                    assertTrue(startX > lastEnd[1]);
+                lastEnd[0] = y;
+                lastEnd[1] = endX;
+                for(int x = startX; x < endX; x++)
+                    seen[index(x, y)] = true;
+            });
+            assertArrayEquals(a, seen);
+        }
+    }
+
+    @Test
+    public void translateMovesEveryPixel() {
+        SelectionMask mask = new SelectionMask(new DirtyRect(0, 0, 100, 10));
+        mask.add(2, 10, 70);
+        mask.add(5, 0, 1);
+        SelectionMask moved = mask.translate(-37, 3);
+        for(int y = -5; y < 20; y++) {
+            for(int x = -100; x < 150; x++)
+                assertEquals(mask.contains(x + 37, y - 3), moved.contains(x, y));
+        }
+    }
+
+    @Test
+    public void rectangleIsRectangle() {
+        SelectionMask mask = SelectionMask.rectangle(new DirtyRect(-3, 4, 130, 7));
+        assertTrue(mask.isRectangle());
+        assertEquals(-3, mask.getBounds().getX());
+        assertEquals(127, mask.getBounds().getMaxX());
+        assertFalse(mask.subtract(SelectionMask.rectangle(new DirtyRect(10, 5, 1, 1))).isRectangle());
+    }
+}
@@ -0,0 +1,109 @@
+package paint.raster;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TiledRasterTest {
+
+    /**
+     * A size that leaves partial tiles on the right and bottom edges
+     */
+    private static final int WIDTH = 2 * TiledRaster.TILE_SIZE + 37, HEIGHT = TiledRaster.TILE_SIZE + 100;
+
+    /**
+     * Check two rasters hold the same pixels
+     */
+    private static void assertSamePixels(Raster expected, Raster actual) {
+        assertArrayEquals(expected.readAll(), actual.readAll());
+    }
+
+    @Test
+    public void newRastersAreTransparentAndUseNoTileMemory() {
+        TiledRaster raster = new TiledRaster(WIDTH, HEIGHT);
+        assertEquals(0, raster.getAllocatedTileCount());
+        assertEquals(0, raster.getArgb(WIDTH - 1, HEIGHT - 1));
+        assertSamePixels(new BufferRaster(WIDTH, HEIGHT), raster);
+        assertEquals(0, raster.getAllocatedTileCount());
+    }
+
+    @Test
+    public void writingATilesOwnColorKeepsItUniform() {
+        TiledRaster raster = new TiledRaster(WIDTH, HEIGHT);
+        raster.setArgb(10, 10, 0);
+        raster.setPixels(0, 0, WIDTH, 20, new int[WIDTH * 20], 0, WIDTH);
+        assertEquals(0, raster.getAllocatedTileCount());
+        raster.setArgb(300, 10, 0xFF00FF00);
+        assertEquals(1, raster.getAllocatedTileCount());
+        assertEquals(0xFF00FF00, raster.getArgb(300, 10));
+        assertEquals(0, raster.getArgb(301, 10));
+    }
+
+    @Test
+    public void fillingWholeTilesFreesThem() {
+        TiledRaster raster = new TiledRaster(WIDTH, HEIGHT);
+        BufferRaster expected = new BufferRaster(WIDTH, HEIGHT);
+        for(Raster r : new Raster[] {raster, expected}) {
+            r.fill(5, 5, 40, 40, 0xFF112233);
+            r.fill(0, 0, WIDTH, HEIGHT, 0xFFFFFFFF);
+            r.fill(300, 200, WIDTH - 300, HEIGHT - 200, 0x80FF0000);
+        }
+        assertSamePixels(expected, raster);
+        // Only the tiles the last rectangle partly covers need memory, the bottom right edge tile is covered entirely
+        assertEquals(3, raster.getAllocatedTileCount());
+    }
+
+    @Test
+    public void mappingUniformTilesOnlyChangesTheirColor() {
+        TiledRaster raster = new TiledRaster(WIDTH, HEIGHT);
+        raster.fill(0, 0, WIDTH, HEIGHT, 0xFF102030);
+        raster.map(0, 0, WIDTH, HEIGHT, argb -> argb ^ 0x00FFFFFF);
+        assertEquals(0, raster.getAllocatedTileCount());
+        assertEquals(0xFFEFDFCF, raster.getArgb(WIDTH - 1, HEIGHT - 1));
+    }
+
+    @Test
+    public void mapMatchesADenseRaster() {
+        TiledRaster raster = new TiledRaster(WIDTH, HEIGHT);
+        BufferRaster expected = new BufferRaster(WIDTH, HEIGHT);
+        Random random = new Random(9);
+        int[] pixels = new int[200 * 150];
+        for(int i = 0; i < pixels.length; i++)
+            pixels[i] = random.nextInt();
+        for(Raster r : new Raster[] {raster, expected}) {
+            r.setPixels(230, 40, 200, 150, pixels, 0, 200);
+            r.map(100, 20, 440, 300, argb -> argb + 0x01020304);
+        }
+        assertSamePixels(expected, raster);
+    }
+
+    @Test
+    public void compactFreesTilesThatBecameOneColor() {
+        TiledRaster raster = new TiledRaster(WIDTH, HEIGHT);
+        raster.setArgb(3, 3, 0xFFABCDEF);
+        raster.setArgb(WIDTH - 1, HEIGHT - 1, 0xFFABCDEF);
+        raster.setArgb(300, 300, 0xFFABCDEF);
+        assertEquals(3, raster.getAllocatedTileCount());
+        raster.setArgb(3, 3, 0);
+        raster.setArgb(WIDTH - 1, HEIGHT - 1, 0);
+        raster.compact();
+        assertEquals(1, raster.getAllocatedTileCount());
+        assertEquals(0xFFABCDEF, raster.getArgb(300, 300));
+        assertEquals(0, raster.getArgb(3, 3));
+        assertEquals(0, raster.getArgb(WIDTH - 1, HEIGHT - 1));
+    }
+
+    @Test
+    public void compactOnlyLooksAtPixelsInsideTheRaster() {
+        TiledRaster raster = new TiledRaster(WIDTH, HEIGHT);
+        // The bottom right tile is only partly inside the raster, so the rest of its memory must be ignored
+        raster.setArgb(WIDTH - 1, HEIGHT - 1, 0xFF000000);
+        raster.fill(2 * TiledRaster.TILE_SIZE, TiledRaster.TILE_SIZE, 37, 100, 0xFF0000FF);
+        raster.setArgb(WIDTH - 2, HEIGHT - 2, 0xFF0000FF);
+        raster.compact();
+        assertEquals(0, raster.getAllocatedTileCount());
+        assertEquals(0xFF0000FF, raster.getArgb(WIDTH - 1, HEIGHT - 1));
+    }
+}